@@ -23,4 +23,12 @@ import java.util.List;
 public interface DataSeries<E> {
 
   List<SeriesData<E>> getDataForXRange(Range xRange);
+
+  /**
+   * Same as {@link #getDataForXRange(Range)}, for data that is going to be shown in {@code resolution} buckets (e.g. pixels) along x.
+   * Implementations that keep a level of detail index may only return the first, minimum, maximum and last points of each bucket.
+   */
+  default List<SeriesData<E>> getDataForXRange(Range xRange, int resolution) {
+    return getDataForXRange(xRange);
+  }
 }
@@ -30,9 +30,21 @@ public class LineChartModel extends AspectModel<LineChartModel.Aspect> implement
     LINE_CHART
   }
 
+  /**
+   * Resolution used to look for the series' max y values. Series with a level of detail index keep the extremes of every bucket, so a
+   * coarse resolution still finds the exact max.
+   */
+  private static final int Y_MAX_RESOLUTION = 256;
+
   @NotNull
   private final List<RangedContinuousSeries> mySeries = new ArrayList<>();
 
+  /**
+   * Reused on every update to read the series.
+   */
+  @NotNull
+  private final LongSeriesBuffer myBuffer = new LongSeriesBuffer();
+
   /**
    * During the first update, skip the y range interpolation and snap to the initial max value.
    */
@@ -46,9 +58,9 @@ public class LineChartModel extends AspectModel<LineChartModel.Aspect> implement
       Range range = ranged.getYRange();
       double yMax = Double.MIN_VALUE;
 
-      List<SeriesData<Long>> seriesList = ranged.getSeries();
-      for (int i = 0; i < seriesList.size(); i++) {
-        double value = seriesList.get(i).value;
+      ranged.getSeries(Y_MAX_RESOLUTION, myBuffer);
+      for (int i = 0; i < myBuffer.size(); i++) {
+        double value = myBuffer.getY(i);
         if (yMax < value) {
           yMax = value;
         }
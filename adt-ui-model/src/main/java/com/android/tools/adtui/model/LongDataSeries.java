@@ -18,15 +18,41 @@ package com.android.tools.adtui.model;
 import gnu.trove.TLongArrayList;
 import org.jetbrains.annotations.NotNull;
 
-public class LongDataSeries extends BaseDataSeries<Long> {
+import java.util.ArrayList;
+import java.util.List;
+
+public class LongDataSeries extends BaseDataSeries<Long> implements LongSeriesSource {
 
   @NotNull
   private final TLongArrayList mY = new TLongArrayList();
 
+  @NotNull
+  private final SeriesDataPyramid myPyramid = new SeriesDataPyramid(mX, mY);
+
   @Override
   public void add(long x, Long y) {
     mX.add(x);
     mY.add(y);
+    myPyramid.pointAdded();
+  }
+
+  @Override
+  public List<SeriesData<Long>> getDataForXRange(Range xRange, int resolution) {
+    LongSeriesBuffer buffer = new LongSeriesBuffer();
+    fillDataForXRange(xRange, resolution, buffer);
+    List<SeriesData<Long>> data = new ArrayList<>(buffer.size());
+    for (int i = 0; i < buffer.size(); i++) {
+      data.add(new SeriesData<>(buffer.getX(i), buffer.getY(i)));
+    }
+    return data;
+  }
+
+  @Override
+  public void fillDataForXRange(@NotNull Range xRange, int resolution, @NotNull LongSeriesBuffer buffer) {
+    if (size() == 0 || xRange.isEmpty()) {
+      return;
+    }
+    myPyramid.getData(getNearestXIndex((long)xRange.getMin()), getNearestXIndex((long)xRange.getMax()), resolution, buffer);
   }
 
   @Override
@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.adtui.model;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Arrays;
+
+/**
+ * Reusable buffer of (x, y) long points, the primitive counterpart of a {@code List<SeriesData<Long>>}.
+ *
+ * Components that redraw on every frame keep one and refill it with {@link RangedContinuousSeries#getSeries(int, LongSeriesBuffer)}:
+ * once the buffer has grown to the size of the data, reading the series no longer allocates.
+ */
+public final class LongSeriesBuffer {
+  private static final int INITIAL_CAPACITY = 64;
+
+  @NotNull private long[] myX = new long[INITIAL_CAPACITY];
+  @NotNull private long[] myY = new long[INITIAL_CAPACITY];
+  private int mySize;
+
+  public int size() {
+    return mySize;
+  }
+
+  public boolean isEmpty() {
+    return mySize == 0;
+  }
+
+  public long getX(int index) {
+    checkIndex(index);
+    return myX[index];
+  }
+
+  public long getY(int index) {
+    checkIndex(index);
+    return myY[index];
+  }
+
+  public void add(long x, long y) {
+    if (mySize == myX.length) {
+      myX = Arrays.copyOf(myX, mySize * 2);
+      myY = Arrays.copyOf(myY, mySize * 2);
+    }
+    myX[mySize] = x;
+    myY[mySize] = y;
+    mySize++;
+  }
+
+  public void set(int index, long x, long y) {
+    checkIndex(index);
+    myX[index] = x;
+    myY[index] = y;
+  }
+
+  public void setY(int index, long y) {
+    checkIndex(index);
+    myY[index] = y;
+  }
+
+  /**
+   * Drops the points from {@code size} on.
+   */
+  public void truncate(int size) {
+    if (size < 0 || size > mySize) {
+      throw new IndexOutOfBoundsException("Size: " + size + ", current size: " + mySize);
+    }
+    mySize = size;
+  }
+
+  public void clear() {
+    mySize = 0;
+  }
+
+  public void copyFrom(@NotNull LongSeriesBuffer other) {
+    clear();
+    for (int i = 0; i < other.mySize; i++) {
+      add(other.myX[i], other.myY[i]);
+    }
+  }
+
+  private void checkIndex(int index) {
+    if (index < 0 || index >= mySize) {
+      throw new IndexOutOfBoundsException("Index: " + index + ", size: " + mySize);
+    }
+  }
+}
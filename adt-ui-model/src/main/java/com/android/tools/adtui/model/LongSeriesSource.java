@@ -0,0 +1,29 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.adtui.model;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * A {@link DataSeries} of longs that can write its data straight into a {@link LongSeriesBuffer}, without boxing the values or creating
+ * {@link SeriesData} objects.
+ */
+public interface LongSeriesSource extends DataSeries<Long> {
+  /**
+   * Appends to {@code buffer} the same points {@link #getDataForXRange(Range, int)} would return.
+   */
+  void fillDataForXRange(@NotNull Range xRange, int resolution, @NotNull LongSeriesBuffer buffer);
+}
@@ -18,6 +18,8 @@ package com.android.tools.adtui.model;
 
 import org.jetbrains.annotations.NotNull;
 
+import java.util.List;
+
 /**
  * Represents a view into a continuous series, where the data in view is only
  * within given x and y ranged.
@@ -36,6 +38,23 @@ public class RangedContinuousSeries extends RangedSeries<Long> {
     myName = name;
   }
 
+  /**
+   * Replaces the content of {@code buffer} with the data of {@link #getSeries(int)}. Series that are {@link LongSeriesSource}s fill the
+   * buffer directly, the others go through their {@link SeriesData} list.
+   */
+  public void getSeries(int resolution, @NotNull LongSeriesBuffer buffer) {
+    buffer.clear();
+    if (mSeries instanceof LongSeriesSource) {
+      ((LongSeriesSource)mSeries).fillDataForXRange(mXRange, resolution, buffer);
+      return;
+    }
+    List<SeriesData<Long>> data = mSeries.getDataForXRange(mXRange, resolution);
+    for (int i = 0; i < data.size(); i++) {
+      SeriesData<Long> point = data.get(i);
+      buffer.add(point.x, point.value);
+    }
+  }
+
   @NotNull
   public Range getYRange() {
     return mYRange;
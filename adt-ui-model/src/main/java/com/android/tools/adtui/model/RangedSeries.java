@@ -50,6 +50,15 @@ public class RangedSeries<E> {
     return mSeries.getDataForXRange(mXRange);
   }
 
+  /**
+   * Same as {@link #getSeries()}, but the data may be reduced to what is visible once drawn in {@code resolution} buckets along x,
+   * see {@link DataSeries#getDataForXRange(Range, int)}.
+   */
+  @NotNull
+  public List<SeriesData<E>> getSeries(int resolution) {
+    return mSeries.getDataForXRange(mXRange, resolution);
+  }
+
   /**
    * @return The {@link Range} object that represents the xRange of this series.
    */
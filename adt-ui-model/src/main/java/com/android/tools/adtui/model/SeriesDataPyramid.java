@@ -0,0 +1,152 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.adtui.model;
+
+import gnu.trove.TIntArrayList;
+import gnu.trove.TLongArrayList;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Level of detail index of a series of (x, y) longs, sorted by x.
+ *
+ * Level L splits the series in buckets of 2^L consecutive points and keeps, for each bucket, the indices of its points with the minimum
+ * and maximum y. A bucket's first and last points are implied by its position. Buckets are added as soon as they are complete, so the
+ * index is maintained in amortized constant time per point, and takes as much memory as the series' own y values in total.
+ *
+ * {@link #getData} uses the level whose buckets are closest to the requested resolution and returns the first, minimum, maximum and
+ * last points of each bucket. A line drawn through them looks the same as the full series would at that resolution.
+ */
+final class SeriesDataPyramid {
+  @NotNull private final TLongArrayList myX;
+  @NotNull private final TLongArrayList myY;
+
+  /**
+   * Indices of the points with the minimum and maximum y of each complete bucket, for levels 1, 2, ...
+   */
+  private final List<TIntArrayList> myMinIndices = new ArrayList<>();
+  private final List<TIntArrayList> myMaxIndices = new ArrayList<>();
+
+  SeriesDataPyramid(@NotNull TLongArrayList x, @NotNull TLongArrayList y) {
+    myX = x;
+    myY = y;
+  }
+
+  /**
+   * Updates the index after a point was appended to the series.
+   */
+  void pointAdded() {
+    int index = myX.size() - 1;
+    // A bucket of level L is complete when the last point of the series ends it, i.e. once every 2^L points.
+    for (int level = 1; ((index + 1) & ((1 << level) - 1)) == 0; level++) {
+      if (myMinIndices.size() < level) {
+        myMinIndices.add(new TIntArrayList());
+        myMaxIndices.add(new TIntArrayList());
+      }
+      int bucket = index >> level;
+      int min, max;
+      if (level == 1) {
+        min = pickMin(index - 1, index);
+        max = pickMax(index - 1, index);
+      }
+      else {
+        // Merge the two halves of the bucket, which are the last two complete buckets of the previous level.
+        TIntArrayList halfMins = myMinIndices.get(level - 2);
+        TIntArrayList halfMaxs = myMaxIndices.get(level - 2);
+        min = pickMin(halfMins.get(bucket * 2), halfMins.get(bucket * 2 + 1));
+        max = pickMax(halfMaxs.get(bucket * 2), halfMaxs.get(bucket * 2 + 1));
+      }
+      myMinIndices.get(level - 1).add(min);
+      myMaxIndices.get(level - 1).add(max);
+    }
+  }
+
+  /**
+   * Appends to {@code data} the points between the indices {@code fromIndex} and {@code toIndex} (both inclusive), reduced to about
+   * {@code resolution} buckets if there are more than 4 points per bucket.
+   */
+  void getData(int fromIndex, int toIndex, int resolution, @NotNull LongSeriesBuffer data) {
+    int count = toIndex - fromIndex + 1;
+    if (resolution <= 0 || count <= resolution * 4L || myMinIndices.isEmpty()) {
+      for (int i = fromIndex; i <= toIndex; i++) {
+        addPoint(data, i);
+      }
+      return;
+    }
+
+    int level = Math.min(31 - Integer.numberOfLeadingZeros(count / resolution), myMinIndices.size());
+    int bucketSize = 1 << level;
+    TIntArrayList mins = myMinIndices.get(level - 1);
+    TIntArrayList maxs = myMaxIndices.get(level - 1);
+
+    int index = fromIndex;
+    // The first points may be in the middle of a bucket, and the last ones in a bucket that isn't indexed (or complete) yet. Both are
+    // shorter than a bucket, they are scanned.
+    int firstBucketStart = Math.min((fromIndex + bucketSize - 1) & -bucketSize, toIndex + 1);
+    if (index < firstBucketStart) {
+      addScannedBucket(data, index, firstBucketStart - 1);
+      index = firstBucketStart;
+    }
+    while (index + bucketSize - 1 <= toIndex && (index >> level) < mins.size()) {
+      int bucket = index >> level;
+      addBucket(data, index, mins.get(bucket), maxs.get(bucket), index + bucketSize - 1);
+      index += bucketSize;
+    }
+    if (index <= toIndex) {
+      addScannedBucket(data, index, toIndex);
+    }
+  }
+
+  private void addScannedBucket(@NotNull LongSeriesBuffer data, int first, int last) {
+    int min = first;
+    int max = first;
+    for (int i = first + 1; i <= last; i++) {
+      min = pickMin(min, i);
+      max = pickMax(max, i);
+    }
+    addBucket(data, first, min, max, last);
+  }
+
+  private void addBucket(@NotNull LongSeriesBuffer data, int first, int min, int max, int last) {
+    // first <= min, max <= last, add each distinct point once in x order.
+    int low = Math.min(min, max);
+    int high = Math.max(min, max);
+    addPoint(data, first);
+    if (low != first) {
+      addPoint(data, low);
+    }
+    if (high != low) {
+      addPoint(data, high);
+    }
+    if (last != high) {
+      addPoint(data, last);
+    }
+  }
+
+  private void addPoint(@NotNull LongSeriesBuffer data, int index) {
+    data.add(myX.get(index), myY.get(index));
+  }
+
+  private int pickMin(int index1, int index2) {
+    return myY.get(index2) < myY.get(index1) ? index2 : index1;
+  }
+
+  private int pickMax(int index1, int index2) {
+    return myY.get(index2) > myY.get(index1) ? index2 : index1;
+  }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.adtui.model;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class LongDataSeriesTest {
+  @Test
+  public void testFewPointsAreNotReduced() {
+    LongDataSeries series = createSeries(100);
+    List<SeriesData<Long>> data = series.getDataForXRange(new Range(10, 49), 10);
+    assertEquals(40, data.size());
+    for (int i = 0; i < data.size(); i++) {
+      assertEquals(10 + i, data.get(i).x);
+    }
+  }
+
+  @Test
+  public void testReducedDataKeepsExtremesOfEachBucket() {
+    LongDataSeries series = createSeries(100_000);
+    int resolution = 100;
+    List<SeriesData<Long>> data = series.getDataForXRange(new Range(123, 98_765), resolution);
+
+    // At most the first, min, max and last points of each bucket, buckets being at least half the requested size.
+    assertTrue(data.size() <= resolution * 2 * 4 + 8);
+    assertEquals(123, data.get(0).x);
+    assertEquals(98_765, data.get(data.size() - 1).x);
+
+    long min = Long.MAX_VALUE;
+    long max = Long.MIN_VALUE;
+    for (int i = 0; i < data.size(); i++) {
+      if (i > 0) {
+        assertTrue(data.get(i).x > data.get(i - 1).x);
+      }
+      assertEquals(valueAt(data.get(i).x), (long)data.get(i).value);
+      min = Math.min(min, data.get(i).value);
+      max = Math.max(max, data.get(i).value);
+    }
+    // The spike and the dip are single points, they survive the reduction.
+    assertEquals(-1000, min);
+    assertEquals(1000, max);
+  }
+
+  @Test
+  public void testPointsAddedAfterTheLastCompleteBucketAreIncluded() {
+    LongDataSeries series = createSeries(1001);
+    List<SeriesData<Long>> data = series.getDataForXRange(new Range(0, 1000), 10);
+    assertEquals(1000, data.get(data.size() - 1).x);
+    assertTrue(data.size() < 1001);
+  }
+
+  @Test
+  public void testBufferHasTheSameDataAsTheList() {
+    LongDataSeries series = createSeries(10_000);
+    Range range = new Range(500, 9_000);
+    RangedContinuousSeries ranged = new RangedContinuousSeries("test", range, new Range(0, 100), series);
+    LongSeriesBuffer buffer = new LongSeriesBuffer();
+    buffer.add(-1, -1);
+    ranged.getSeries(50, buffer);
+
+    List<SeriesData<Long>> data = series.getDataForXRange(range, 50);
+    assertEquals(data.size(), buffer.size());
+    for (int i = 0; i < data.size(); i++) {
+      assertEquals(data.get(i).x, buffer.getX(i));
+      assertEquals((long)data.get(i).value, buffer.getY(i));
+    }
+  }
+
+  private static LongDataSeries createSeries(int size) {
+    LongDataSeries series = new LongDataSeries();
+    for (int i = 0; i < size; i++) {
+      series.add(i, valueAt(i));
+    }
+    return series;
+  }
+
+  private static long valueAt(long x) {
+    if (x == 50_001) {
+      return 1000;
+    }
+    if (x == 77_777) {
+      return -1000;
+    }
+    return x % 13;
+  }
+}
@@ -23,6 +23,7 @@ import com.android.tools.adtui.model.HNode;
 import com.android.tools.adtui.model.Range;
 import com.intellij.util.ui.ImageUtil;
 import com.intellij.util.ui.UIUtil;
+import gnu.trove.TIntArrayList;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
@@ -31,8 +32,8 @@ import java.awt.*;
 import java.awt.event.*;
 import java.awt.geom.Rectangle2D;
 import java.awt.image.BufferedImage;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Queue;
 
@@ -40,6 +41,12 @@ import java.util.Queue;
  * A chart which renders nodes using a horizontal flow. That is, while normal trees are vertical,
  * rendering nested rows top-to-bottom, this chart renders nested columns left-to-right.
  *
+ * The visible nodes are rendered on the EDT into a single cached canvas, which is only rebuilt when the tree, the ranges or the size
+ * change. Hovering re-renders the nodes whose focus changed in place, and hit testing goes through a row index of the drawn nodes.
+ * The chart does not cache pre-rasterized tiles: {@link HRenderer}s fit each node's label into its rectangle clipped to the view, so a
+ * node cut by tile boundaries would get its label repeated or scrolled away, and rendering depends on the component's font, so it
+ * can't move to a background thread. Panning and zooming therefore still render every node in view once per change of range.
+ *
  * @param <N> The type of the node used by this tree chart
  */
 public class HTreeChart<N extends HNode<N>> extends AnimatedComponent {
@@ -92,6 +99,25 @@ public class HTreeChart<N extends HNode<N>> extends AnimatedComponent {
   @NotNull
   private final List<N> myDrawnNodes;
 
+  /**
+   * Index of the first drawn node of each row, plus the number of drawn nodes at the end. Nodes are drawn in breadth-first order, so
+   * the nodes of a row are contiguous and, as siblings don't overlap, sorted by x. This lets {@link #getNodeAt} binary search the row
+   * and then the node instead of testing every drawn rectangle on each mouse move.
+   */
+  @NotNull
+  private final TIntArrayList myDrawnRowStarts = new TIntArrayList();
+
+  /**
+   * False if the rows, or the nodes of a row, aren't sorted as expected, e.g. if a tree doesn't keep its children in order, in which
+   * case {@link #getNodeAt} falls back to testing every drawn rectangle.
+   */
+  private boolean myDrawnRowsSorted;
+
+  /**
+   * Index of {@link #myFocusedNode} in {@link #myDrawnNodes}, or -1 if it isn't drawn.
+   */
+  private int myFocusedDrawnIndex = -1;
+
   @NotNull
   private final HTreeChartReducer<N> myReducer;
 
@@ -153,11 +179,12 @@ public class HTreeChart<N extends HNode<N>> extends AnimatedComponent {
   @VisibleForTesting
   public void setFocusedNode(@Nullable N node) {
     myFocusedNode = node;
+    // The index of the focused node is only known after drawing the nodes again.
+    myCanvas = null;
   }
 
   private void changed() {
     myDataUpdated = true;
-    myCachedMaxHeight = calculateMaximumHeight();
     opaqueRepaint();
   }
 
@@ -224,17 +251,64 @@ public class HTreeChart<N extends HNode<N>> extends AnimatedComponent {
     }
 
     myReducer.reduce(myDrawnRectangles, myDrawnNodes);
+    indexDrawnRows();
 
     assert myDrawnRectangles.size() == myDrawnNodes.size();
     assert myRenderer != null;
+    myFocusedDrawnIndex = -1;
     for (int i = 0; i < myDrawnNodes.size(); ++i) {
       N node = myDrawnNodes.get(i);
+      if (node == myFocusedNode) {
+        myFocusedDrawnIndex = i;
+      }
       myRenderer.render(g, node, myDrawnRectangles.get(i), node == myFocusedNode);
     }
 
     g.dispose();
   }
 
+  private void indexDrawnRows() {
+    myDrawnRowStarts.clear();
+    myDrawnRowsSorted = true;
+    for (int i = 0; i < myDrawnRectangles.size(); ++i) {
+      Rectangle2D.Float rect = myDrawnRectangles.get(i);
+      Rectangle2D.Float previous = i == 0 ? null : myDrawnRectangles.get(i - 1);
+      if (previous == null || rect.y != previous.y) {
+        myDrawnRowStarts.add(i);
+        if (previous != null && (rect.y > previous.y) != (myOrientation == Orientation.TOP_DOWN)) {
+          myDrawnRowsSorted = false;
+        }
+      }
+      else if (rect.getMinX() < previous.getMinX() || rect.getMaxX() < previous.getMaxX()) {
+        myDrawnRowsSorted = false;
+      }
+    }
+    myDrawnRowStarts.add(myDrawnRectangles.size());
+  }
+
+  /**
+   * Renders the nodes whose focus changed directly on the canvas, which is much cheaper than rebuilding the whole chart on each hover.
+   */
+  private void setFocusedDrawnIndex(int index) {
+    N node = index < 0 ? null : myDrawnNodes.get(index);
+    int previousIndex = myFocusedDrawnIndex;
+    myFocusedNode = node;
+    myFocusedDrawnIndex = index;
+    if (myCanvas == null || myRenderer == null) {
+      // The next draw renders the focused node.
+      return;
+    }
+    Graphics2D g = (Graphics2D)myCanvas.getGraphics();
+    g.setFont(getFont());
+    if (previousIndex >= 0) {
+      myRenderer.render(g, myDrawnNodes.get(previousIndex), myDrawnRectangles.get(previousIndex), false);
+    }
+    if (index >= 0) {
+      myRenderer.render(g, node, myDrawnRectangles.get(index), true);
+    }
+    g.dispose();
+  }
+
   private void updateNodesAndClearCanvas() {
     myNodes.clear();
     myRectangles.clear();
@@ -293,19 +367,75 @@ public class HTreeChart<N extends HNode<N>> extends AnimatedComponent {
 
   public void setHTree(@Nullable N root) {
     this.myRoot = root;
+    // The height only depends on the tree, not on the ranges, so it isn't recomputed on each change of them.
+    myCachedMaxHeight = calculateMaximumHeight();
     changed();
   }
 
   @Nullable
   public N getNodeAt(Point point) {
-    if (point != null) {
-      for (int i = 0; i < myDrawnNodes.size(); ++i) {
+    int index = point != null ? getDrawnIndexAt(point) : -1;
+    return index < 0 ? null : myDrawnNodes.get(index);
+  }
+
+  private int getDrawnIndexAt(@NotNull Point point) {
+    if (!myDrawnRowsSorted) {
+      for (int i = 0; i < myDrawnRectangles.size(); ++i) {
         if (contains(myDrawnRectangles.get(i), point)) {
-          return myDrawnNodes.get(i);
+          return i;
+        }
+      }
+      return -1;
+    }
+
+    int rows = myDrawnRowStarts.size() - 1;
+    // Rows go down the chart when it's top down, up when it's bottom up.
+    boolean rowsGoDown = myOrientation == Orientation.TOP_DOWN;
+    int low = 0;
+    int high = rows - 1;
+    while (low <= high) {
+      int row = (low + high) >>> 1;
+      Rectangle2D.Float rect = myDrawnRectangles.get(myDrawnRowStarts.get(row));
+      if (point.getY() < rect.getMinY()) {
+        if (rowsGoDown) {
+          high = row - 1;
         }
+        else {
+          low = row + 1;
+        }
+      }
+      else if (point.getY() > rect.getMaxY()) {
+        if (rowsGoDown) {
+          low = row + 1;
+        }
+        else {
+          high = row - 1;
+        }
+      }
+      else {
+        return getDrawnIndexAt(point, myDrawnRowStarts.get(row), myDrawnRowStarts.get(row + 1));
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Returns the index of the first rectangle in [start, end), a row, which contains the given point, or -1.
+   */
+  private int getDrawnIndexAt(@NotNull Point point, int start, int end) {
+    // Find the first rectangle which ends at or after the point.
+    int low = start;
+    int high = end;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (myDrawnRectangles.get(mid).getMaxX() < point.getX()) {
+        low = mid + 1;
+      }
+      else {
+        high = mid;
       }
     }
-    return null;
+    return low < end && contains(myDrawnRectangles.get(low), point) ? low : -1;
   }
 
   private static boolean contains(@NotNull Rectangle2D rectangle, @NotNull Point p) {
@@ -365,10 +495,10 @@ public class HTreeChart<N extends HNode<N>> extends AnimatedComponent {
 
       @Override
       public void mouseMoved(MouseEvent e) {
-        N node = getNodeAt(e.getPoint());
+        int index = getDrawnIndexAt(e.getPoint());
+        N node = index < 0 ? null : myDrawnNodes.get(index);
         if (node != myFocusedNode) {
-          myDataUpdated = true;
-          myFocusedNode = node;
+          setFocusedDrawnIndex(index);
           opaqueRepaint();
         }
       }
@@ -449,7 +579,7 @@ public class HTreeChart<N extends HNode<N>> extends AnimatedComponent {
     }
 
     int maxDepth = -1;
-    Queue<N> queue = new LinkedList<>();
+    Queue<N> queue = new ArrayDeque<>();
     queue.add(myRoot);
 
     while (!queue.isEmpty()) {
@@ -15,6 +15,7 @@
  */
 package com.android.tools.adtui.chart.linechart;
 
+import com.android.tools.adtui.model.LongSeriesBuffer;
 import com.android.tools.adtui.model.SeriesData;
 import org.jetbrains.annotations.NotNull;
 
@@ -59,6 +60,31 @@ class DefaultLineChartReducer implements LineChartReducer {
     return reduced;
   }
 
+  /**
+   * Same as {@link #reduceData(List, LineConfig)}, compacting the buffer in place.
+   */
+  @Override
+  public void reduceData(@NotNull LongSeriesBuffer data, @NotNull LineConfig config) {
+    // The points kept are moved to the front of the buffer, they never overtake the point being read.
+    int reducedSize = 0;
+    for (int i = 0; i < data.size(); i++) {
+      long x = data.getX(i);
+      long y = data.getY(i);
+      while (reducedSize >= 2) {
+        long preLast = data.getY(reducedSize - 2);
+        long last = data.getY(reducedSize - 1);
+        if (preLast == last && (config.isStepped() || last == y)) {
+          reducedSize--;
+        }
+        else {
+          break;
+        }
+      }
+      data.set(reducedSize++, x, y);
+    }
+    data.truncate(reducedSize);
+  }
+
   /**
   * The basic idea behind this algorithm is to reduce number of points to available pixels.
   * For every pixel it draws 4 points: the first point, the last point,
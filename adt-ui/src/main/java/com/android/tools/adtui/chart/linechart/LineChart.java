@@ -19,8 +19,8 @@ package com.android.tools.adtui.chart.linechart;
 import com.android.annotations.VisibleForTesting;
 import com.android.tools.adtui.AnimatedComponent;
 import com.android.tools.adtui.model.LineChartModel;
+import com.android.tools.adtui.model.LongSeriesBuffer;
 import com.android.tools.adtui.model.RangedContinuousSeries;
-import com.android.tools.adtui.model.SeriesData;
 import org.jetbrains.annotations.NotNull;
 
 import java.awt.*;
@@ -109,6 +109,12 @@ public class LineChart extends AnimatedComponent {
 
   private Map<LineConfig, DashInfo> myDashInfoCache = new HashMap<>();
 
+  /**
+   * Buffers reused on every redraw: the data of the series being drawn, and the running sum of the stacked series.
+   */
+  @NotNull private final LongSeriesBuffer mySeriesData = new LongSeriesBuffer();
+  @NotNull private final LongSeriesBuffer myStackedData = new LongSeriesBuffer();
+
   @VisibleForTesting
   public LineChart(@NotNull LineChartModel model, @NotNull LineChartReducer reducer) {
     myLinePaths = new ArrayList<>();
@@ -164,9 +170,8 @@ public class LineChart extends AnimatedComponent {
   private void redraw(@NotNull Dimension dim) {
     long duration = System.nanoTime();
 
-    // Store the last stacked series to use them to increment the Y values
-    // of the current stacked series.
-    List<SeriesData<Long>> lastStackedSeries = null;
+    // Whether myStackedData holds the sum of the stacked series drawn so far, to increment the Y values of the current stacked series.
+    boolean hasStackedSeries = false;
 
     Deque<Path2D> orderedPaths = new ArrayDeque<>(myLinesConfig.size());
     Deque<RangedContinuousSeries> orderedSeries = new ArrayDeque<>(myLinesConfig.size());
@@ -178,10 +183,12 @@ public class LineChart extends AnimatedComponent {
       }
       final LineConfig config = getLineConfig(ranged);
 
-      List<SeriesData<Long>> seriesList = ranged.getSeries();
+      // Stacked series add up point by point, so they need all their points. The others only need what is visible at one per pixel.
+      ranged.getSeries(config.isStacked() ? 0 : dim.width, mySeriesData);
       if (config.isStacked()) {
-        if (lastStackedSeries == null) {
-          lastStackedSeries = new ArrayList<>(seriesList);
+        if (!hasStackedSeries) {
+          myStackedData.copyFrom(mySeriesData);
+          hasStackedSeries = true;
         }
         else {
           // If the current series is stacked, increment its value by the value of the last stacked
@@ -189,11 +196,11 @@ public class LineChart extends AnimatedComponent {
           // points than the last stacked series (meaning that the last one was populated in a
           // prior iteration). In this case, ignore the new points (i.e. we take only the intersection
           // across all series).
-          for (int i = 0; i < seriesList.size() && i < lastStackedSeries.size(); ++i) {
+          for (int i = 0; i < mySeriesData.size() && i < myStackedData.size(); ++i) {
             // An assumption is made here that the x values across series are aligned.
-            lastStackedSeries.get(i).value += seriesList.get(i).value;
+            myStackedData.setY(i, myStackedData.getY(i) + mySeriesData.getY(i));
           }
-          seriesList = lastStackedSeries;
+          mySeriesData.copyFrom(myStackedData);
         }
       }
 
@@ -207,17 +214,17 @@ public class LineChart extends AnimatedComponent {
       double firstXd = 0f;
       // Actual value of first point
       double firstX = 0;
-      seriesList = myReducer.reduceData(seriesList, config);
-      for (SeriesData<Long> data : seriesList) {
+      myReducer.reduceData(mySeriesData, config);
+      for (int i = 0; i < mySeriesData.size(); i++) {
         // TODO: refactor to allow different types (e.g. double)
-        double xd = (data.x - xMin) / xLength;
+        double xd = (mySeriesData.getX(i) - xMin) / xLength;
         // Swing's (0, 0) coordinate is in top-left. As we use bottom-left (0, 0), we need to adjust the y coordinate.
-        double yd = 1 - (data.value - yMin) / yLength;
+        double yd = 1 - (mySeriesData.getY(i) - yMin) / yLength;
 
-        if (path.getCurrentPoint() == null) {
+        if (i == 0) {
           path.moveTo(xd, yd);
           firstXd = xd;
-          firstX = data.x;
+          firstX = mySeriesData.getX(i);
         }
         else {
           // If the chart is stepped, a horizontal line should be drawn from the current
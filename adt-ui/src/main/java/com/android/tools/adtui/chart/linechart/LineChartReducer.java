@@ -15,9 +15,11 @@
  */
 package com.android.tools.adtui.chart.linechart;
 
+import com.android.tools.adtui.model.LongSeriesBuffer;
 import com.android.tools.adtui.model.SeriesData;
 
 import java.awt.geom.Path2D;
+import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -31,6 +33,22 @@ public interface LineChartReducer {
    */
   List<SeriesData<Long>> reduceData(List<SeriesData<Long>> data, LineConfig config);
 
+  /**
+   * Same as {@link #reduceData(List, LineConfig)}, in place. Implementations should override it to avoid going through a
+   * {@link SeriesData} list, as {@link LineChart} reduces its data this way on every redraw.
+   */
+  default void reduceData(LongSeriesBuffer data, LineConfig config) {
+    List<SeriesData<Long>> list = new ArrayList<>(data.size());
+    for (int i = 0; i < data.size(); i++) {
+      list.add(new SeriesData<>(data.getX(i), data.getY(i)));
+    }
+    List<SeriesData<Long>> reduced = reduceData(list, config);
+    data.clear();
+    for (SeriesData<Long> point : reduced) {
+      data.add(point.x, point.value);
+    }
+  }
+
   /**
    * Reduces the given path in a pixel level, i.e when dimensions are available.
    * The result shouldn't affect the looking of the line when it's drawn.
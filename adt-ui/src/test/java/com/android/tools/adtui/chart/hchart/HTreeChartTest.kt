@@ -22,6 +22,10 @@ import com.google.common.truth.Truth.assertThat
 import org.junit.Before
 import org.junit.Test
 import java.awt.Dimension
+import java.awt.Graphics2D
+import java.awt.Point
+import java.awt.geom.Rectangle2D
+import java.awt.image.BufferedImage
 
 class HTreeChartTest {
   private lateinit var myUi: FakeUi
@@ -300,6 +304,82 @@ class HTreeChartTest {
     assertThat(myRange.max).isWithin(EPSILON).of(100.0)
   }
 
+  @Test
+  fun testNodeAtFindsEveryDrawnNode() {
+    for (orientation in HTreeChart.Orientation.values()) {
+      setUp(orientation)
+      val renderer = RecordingRenderer()
+      myChart.setHRenderer(renderer)
+      myChart.yRange.set(0.0, 0.0)
+      myChart.setHTree(splitTree(0, 0, 100, 3))
+      paint()
+
+      assertThat(renderer.rendered).isNotEmpty()
+      for ((node, rect) in renderer.rendered) {
+        assertThat(myChart.getNodeAt(Point(rect.centerX.toInt(), rect.centerY.toInt()))).isSameAs(node)
+      }
+      // Between two rows.
+      val (_, rect) = renderer.rendered[0]
+      val betweenRows = if (orientation == HTreeChart.Orientation.TOP_DOWN) rect.maxY + 1 else rect.minY - 1
+      assertThat(myChart.getNodeAt(Point(rect.centerX.toInt(), betweenRows.toInt()))).isNull()
+    }
+  }
+
+  @Test
+  fun testHoverOnlyRendersNodesWhoseFocusChanged() {
+    val renderer = RecordingRenderer()
+    myChart.setHRenderer(renderer)
+    myChart.yRange.set(0.0, 0.0)
+    myChart.setHTree(splitTree(0, 0, 100, 3))
+    paint()
+
+    val (first, firstRect) = renderer.rendered[1]
+    val (second, secondRect) = renderer.rendered[2]
+    renderer.rendered.clear()
+    myUi.mouse.moveTo(firstRect.centerX.toInt(), firstRect.centerY.toInt())
+    paint()
+    assertThat(renderer.rendered.map { it.first }).containsExactly(first)
+    assertThat(renderer.focused).containsExactly(first)
+
+    renderer.rendered.clear()
+    renderer.focused.clear()
+    myUi.mouse.moveTo(secondRect.centerX.toInt(), secondRect.centerY.toInt())
+    paint()
+    assertThat(renderer.rendered.map { it.first }).containsExactly(first, second).inOrder()
+    assertThat(renderer.focused).containsExactly(second)
+  }
+
+  private fun paint() {
+    val image = BufferedImage(myChart.width, myChart.height, BufferedImage.TYPE_INT_ARGB)
+    myChart.paint(image.graphics)
+  }
+
+  /**
+   * Returns a tree whose nodes split their range evenly between two children, down to the given height.
+   */
+  private fun splitTree(depth: Int, start: Long, end: Long, height: Int): DefaultHNode<String> {
+    val node = DefaultHNode("", start, end)
+    node.depth = depth
+    if (height > 1) {
+      val middle = (start + end) / 2
+      node.addChild(splitTree(depth + 1, start, middle, height - 1))
+      node.addChild(splitTree(depth + 1, middle, end, height - 1))
+    }
+    return node
+  }
+
+  private class RecordingRenderer : HRenderer<DefaultHNode<String>> {
+    val rendered = mutableListOf<Pair<DefaultHNode<String>, Rectangle2D>>()
+    val focused = mutableListOf<DefaultHNode<String>>()
+
+    override fun render(g: Graphics2D, node: DefaultHNode<String>, drawingArea: Rectangle2D, isFocused: Boolean) {
+      rendered.add(Pair(node, drawingArea.clone() as Rectangle2D))
+      if (isFocused) {
+        focused.add(node)
+      }
+    }
+  }
+
   companion object {
     private const val EPSILON = 1e-3
   }
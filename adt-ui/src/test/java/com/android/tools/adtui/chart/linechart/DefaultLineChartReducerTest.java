@@ -15,6 +15,7 @@
  */
 package com.android.tools.adtui.chart.linechart;
 
+import com.android.tools.adtui.model.LongSeriesBuffer;
 import com.android.tools.adtui.model.SeriesData;
 import com.google.common.collect.ImmutableList;
 import org.junit.Before;
@@ -89,6 +90,28 @@ public class DefaultLineChartReducerTest {
     assertSeriesEquals(expected, result);
   }
 
+  @Test
+  public void reduceBufferMatchesReduceData() {
+    long[] values = {10, 10, 13, 13, 13, 13, 5, 5, 5, 7, 7, 13};
+    for (boolean stepped : new boolean[]{false, true}) {
+      myConfig.setStepped(stepped);
+      List<SeriesData<Long>> data = new ArrayList<>();
+      LongSeriesBuffer buffer = new LongSeriesBuffer();
+      for (int i = 0; i < values.length; i++) {
+        data.add(new SeriesData<>(i, values[i]));
+        buffer.add(i, values[i]);
+      }
+
+      List<SeriesData<Long>> expected = myReducer.reduceData(data, myConfig);
+      myReducer.reduceData(buffer, myConfig);
+      assertThat(buffer.size()).isEqualTo(expected.size());
+      for (int i = 0; i < expected.size(); ++i) {
+        assertThat(buffer.getX(i)).isEqualTo(expected.get(i).x);
+        assertThat(buffer.getY(i)).isEqualTo(expected.get(i).value);
+      }
+    }
+  }
+
   @Test
   public void simpleReducePath() {
     float[][] given = {{0, 0}, {0.1f, 1}, {0.2f, 6}, {0.3f, 4}, {1, 2}, {1.1f, 5}};
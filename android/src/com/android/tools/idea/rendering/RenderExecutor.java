@@ -0,0 +1,341 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.rendering;
+
+import com.google.common.util.concurrent.ExecutionList;
+import com.google.common.util.concurrent.ListenableFuture;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import javax.annotation.concurrent.GuardedBy;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAccumulator;
+
+/**
+ * The executor running the actions which use layoutlib, see {@link RenderService#runRenderAction(Callable)}.
+ * <p>
+ * Pending actions run by {@link Priority}, and in submission order within a priority, so the renders of the visible editors go ahead of
+ * background renders such as thumbnails. Pending actions age so that a steady stream of urgent actions doesn't starve the others: an
+ * action only goes ahead of the ones of the next lower priority submitted up to the aging time before it.
+ * <p>
+ * An action submitted with the same supersede key as an action which hasn't started yet is dropped in favor of the pending one, and gets
+ * its result: the superseded renders read the state of their {@link RenderTask} when they run, so the pending render already renders the
+ * latest state.
+ * <p>
+ * The actions run on a single thread: layoutlib keeps its state in static fields, and the {@link RenderTask}s don't synchronize the
+ * access to their render sessions, so they rely on their actions never running concurrently.
+ */
+public final class RenderExecutor {
+  public enum Priority {
+    /** For the renders the user is waiting for, such as the ones of the visible editors. */
+    HIGH,
+    NORMAL,
+    /** For background renders, such as thumbnails and previews. */
+    LOW
+  }
+
+  private final ThreadPoolExecutor myExecutor;
+  private final long myPriorityAgingNanos;
+  private final AtomicLong mySequence = new AtomicLong();
+
+  @GuardedBy("myPendingByKey")
+  private final Map<Object, RenderFuture<?>> myPendingByKey = new HashMap<>();
+
+  private final Set<RenderFuture<?>> myRunning = ConcurrentHashMap.newKeySet();
+
+  private final AtomicLong myCompletedCount = new AtomicLong();
+  private final AtomicLong myTotalWaitNanos = new AtomicLong();
+  private final AtomicLong myTotalRunNanos = new AtomicLong();
+  private final LongAccumulator myMaxWaitNanos = new LongAccumulator(Math::max, 0);
+
+  /**
+   * @param priorityAgingMs the time after which a pending action goes ahead of the actions of the next higher priority submitted after it
+   */
+  RenderExecutor(long idleTimeoutMs, long priorityAgingMs, @NotNull ThreadFactory threadFactory) {
+    myPriorityAgingNanos = TimeUnit.MILLISECONDS.toNanos(priorityAgingMs);
+    // The queue is unbounded, so the pool never grows past its core thread, which times out when idle.
+    myExecutor = new ThreadPoolExecutor(1, 1, idleTimeoutMs, TimeUnit.MILLISECONDS, new PriorityBlockingQueue<>(), threadFactory);
+    myExecutor.allowCoreThreadTimeOut(true);
+  }
+
+  /**
+   * Schedules the given action.
+   *
+   * @param supersedeKey if not null, a pending action submitted with the same key is run instead of the given one. All the actions
+   *                     submitted with the same key have to return the same type.
+   */
+  @NotNull
+  public <T> ListenableFuture<T> submit(@NotNull Callable<T> callable, @NotNull Priority priority, @Nullable Object supersedeKey) {
+    if (supersedeKey == null) {
+      RenderFuture<T> future = new RenderFuture<>(callable, priority, null);
+      myExecutor.execute(future);
+      return future;
+    }
+
+    synchronized (myPendingByKey) {
+      @SuppressWarnings("unchecked")
+      RenderFuture<T> pending = (RenderFuture<T>)myPendingByKey.get(supersedeKey);
+      if (pending != null) {
+        // Move the pending action to the lane of the new one if that one is more urgent.
+        if (priority.compareTo(pending.myPriority) < 0 && myExecutor.remove(pending)) {
+          pending.myPriority = priority;
+          myExecutor.execute(pending);
+        }
+        return pending;
+      }
+      RenderFuture<T> future = new RenderFuture<>(callable, priority, supersedeKey);
+      myPendingByKey.put(supersedeKey, future);
+      myExecutor.execute(future);
+      return future;
+    }
+  }
+
+  @NotNull
+  public <T> ListenableFuture<T> submit(@NotNull Callable<T> callable) {
+    return submit(callable, Priority.NORMAL, null);
+  }
+
+  /**
+   * Waits for the result of the given action, for at most {@code timeoutMs} once it started running. The time the action waits in the
+   * queue doesn't count, so an action doesn't time out behind more urgent ones, unless the queue is stuck: an action has been running for
+   * longer than {@code timeoutMs} meanwhile, or the executor has been shut down. In any case, the caller doesn't wait for longer than
+   * {@code deadlineMs} in total.
+   */
+  <T> T get(@NotNull Future<T> future, long timeoutMs, long deadlineMs) throws InterruptedException, ExecutionException, TimeoutException {
+    if (!(future instanceof RenderFuture)) {
+      return future.get(Math.min(timeoutMs, deadlineMs), TimeUnit.MILLISECONDS);
+    }
+
+    RenderFuture<T> renderFuture = (RenderFuture<T>)future;
+    long deadlineNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(deadlineMs);
+    long timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+    while (!renderFuture.myStarted.await(Math.min(timeoutNanos, deadlineNanos - System.nanoTime()), TimeUnit.NANOSECONDS)) {
+      if (deadlineNanos - System.nanoTime() <= 0 || isStuck(timeoutMs)) {
+        throw new TimeoutException();
+      }
+    }
+    long remainingNanos = Math.min(timeoutNanos - (System.nanoTime() - renderFuture.myStartNanos), deadlineNanos - System.nanoTime());
+    return future.get(Math.max(0, remainingNanos), TimeUnit.NANOSECONDS);
+  }
+
+  private boolean isStuck(long timeoutMs) {
+    if (myExecutor.isShutdown()) {
+      return true;
+    }
+    long now = System.nanoTime();
+    for (RenderFuture<?> running : myRunning) {
+      if (now - running.myStartNanos > TimeUnit.MILLISECONDS.toNanos(timeoutMs)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Returns the stack of the thread running the given action or, if it hasn't started yet, of a thread running one of the actions it is
+   * waiting for. Returns null if no action is running.
+   */
+  @Nullable
+  StackTraceElement[] getStackTrace(@Nullable Future<?> future) {
+    Thread runner = future instanceof RenderFuture ? ((RenderFuture<?>)future).myRunner : null;
+    if (runner == null) {
+      for (RenderFuture<?> running : myRunning) {
+        runner = running.myRunner;
+        if (runner != null) {
+          break;
+        }
+      }
+    }
+    return runner != null ? runner.getStackTrace() : null;
+  }
+
+  void shutdownNow() {
+    // Interrupts the threads running actions.
+    myExecutor.shutdownNow();
+  }
+
+  void awaitTermination(long timeout, @NotNull TimeUnit unit) throws InterruptedException {
+    myExecutor.awaitTermination(timeout, unit);
+  }
+
+  @NotNull
+  public Stats getStats() {
+    long completedCount = myCompletedCount.get();
+    return new Stats(myExecutor.getQueue().size(),
+                     myRunning.size(),
+                     completedCount,
+                     completedCount > 0 ? TimeUnit.NANOSECONDS.toMillis(myTotalWaitNanos.get() / completedCount) : 0,
+                     TimeUnit.NANOSECONDS.toMillis(myMaxWaitNanos.get()),
+                     completedCount > 0 ? TimeUnit.NANOSECONDS.toMillis(myTotalRunNanos.get() / completedCount) : 0);
+  }
+
+  /**
+   * Queue depth and latencies of the render actions. The latencies are computed over all the actions completed so far.
+   */
+  public static final class Stats {
+    private final int myQueueSize;
+    private final int myRunningCount;
+    private final long myCompletedCount;
+    private final long myAverageWaitMs;
+    private final long myMaxWaitMs;
+    private final long myAverageRunMs;
+
+    private Stats(int queueSize, int runningCount, long completedCount, long averageWaitMs, long maxWaitMs, long averageRunMs) {
+      myQueueSize = queueSize;
+      myRunningCount = runningCount;
+      myCompletedCount = completedCount;
+      myAverageWaitMs = averageWaitMs;
+      myMaxWaitMs = maxWaitMs;
+      myAverageRunMs = averageRunMs;
+    }
+
+    /** Number of actions waiting for a thread. */
+    public int getQueueSize() {
+      return myQueueSize;
+    }
+
+    public int getRunningCount() {
+      return myRunningCount;
+    }
+
+    public long getCompletedCount() {
+      return myCompletedCount;
+    }
+
+    /** Average time the actions waited in the queue before running. */
+    public long getAverageWaitMs() {
+      return myAverageWaitMs;
+    }
+
+    public long getMaxWaitMs() {
+      return myMaxWaitMs;
+    }
+
+    public long getAverageRunMs() {
+      return myAverageRunMs;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("queued=%1$d, running=%2$d, completed=%3$d, wait avg=%4$dms max=%5$dms, run avg=%6$dms",
+                           myQueueSize, myRunningCount, myCompletedCount, myAverageWaitMs, myMaxWaitMs, myAverageRunMs);
+    }
+  }
+
+  private final class RenderFuture<T> extends FutureTask<T> implements ListenableFuture<T>, Comparable<RenderFuture<?>> {
+    private final ExecutionList myExecutionList = new ExecutionList();
+    /** Released once the action starts running, or is done without running. */
+    private final CountDownLatch myStarted = new CountDownLatch(1);
+    private final long mySequence = RenderExecutor.this.mySequence.incrementAndGet();
+    private final long mySubmitNanos = System.nanoTime();
+    @Nullable private final Object mySupersedeKey;
+    private volatile Priority myPriority;
+    private volatile Thread myRunner;
+    private volatile long myStartNanos;
+
+    private RenderFuture(@NotNull Callable<T> callable, @NotNull Priority priority, @Nullable Object supersedeKey) {
+      super(callable);
+      myPriority = priority;
+      mySupersedeKey = supersedeKey;
+    }
+
+    @Override
+    public void run() {
+      if (mySupersedeKey != null) {
+        // Once started, this action may have read the state of its task already, so the next ones with the same key have to run.
+        synchronized (myPendingByKey) {
+          myPendingByKey.remove(mySupersedeKey, this);
+        }
+      }
+      if (isDone()) {
+        return;
+      }
+
+      Thread thread = Thread.currentThread();
+      // Custom views may change the context class loader of the thread, don't let that leak into the next actions.
+      ClassLoader contextClassLoader = thread.getContextClassLoader();
+      myStartNanos = System.nanoTime();
+      myRunner = thread;
+      myRunning.add(this);
+      myStarted.countDown();
+      try {
+        super.run();
+      }
+      finally {
+        myRunning.remove(this);
+        myRunner = null;
+        thread.setContextClassLoader(contextClassLoader);
+      }
+    }
+
+    @Override
+    protected void set(T value) {
+      recordCompletion();
+      super.set(value);
+    }
+
+    @Override
+    protected void setException(Throwable t) {
+      recordCompletion();
+      super.setException(t);
+    }
+
+    /** Updates the metrics before the result is published, so that they already account for this action once it is done. */
+    private void recordCompletion() {
+      myRunning.remove(this);
+      long waitNanos = myStartNanos - mySubmitNanos;
+      myCompletedCount.incrementAndGet();
+      myTotalWaitNanos.addAndGet(waitNanos);
+      myTotalRunNanos.addAndGet(System.nanoTime() - myStartNanos);
+      myMaxWaitNanos.accumulate(waitNanos);
+    }
+
+    @Override
+    public void addListener(@NotNull Runnable listener, @NotNull Executor executor) {
+      myExecutionList.add(listener, executor);
+    }
+
+    @Override
+    protected void done() {
+      if (isCancelled()) {
+        // Don't count cancelled actions in the queue depth.
+        myExecutor.remove(this);
+        if (mySupersedeKey != null) {
+          synchronized (myPendingByKey) {
+            myPendingByKey.remove(mySupersedeKey, this);
+          }
+        }
+      }
+      myStarted.countDown();
+      myExecutionList.execute();
+    }
+
+    /**
+     * Orders the actions as if each priority level delayed their submission by the aging time. The order doesn't depend on the current
+     * time, which the queue requires, and an old action still goes ahead of the more urgent ones submitted long enough after it.
+     */
+    @Override
+    public int compareTo(@NotNull RenderFuture<?> other) {
+      long result = (mySubmitNanos - other.mySubmitNanos) +
+                    (myPriority.ordinal() - other.myPriority.ordinal()) * myPriorityAgingNanos;
+      return result != 0 ? Long.signum(result) : Long.compare(mySequence, other.mySequence);
+    }
+  }
+}
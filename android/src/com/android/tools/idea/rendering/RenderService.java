@@ -32,7 +32,6 @@ import com.android.tools.idea.project.AndroidProjectInfo;
 import com.android.tools.idea.ui.designer.EditorDesignSurface;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.util.concurrent.ListenableFuture;
-import com.google.common.util.concurrent.ListenableFutureTask;
 import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.module.Module;
 import com.intellij.openapi.project.Project;
@@ -56,7 +55,6 @@ import org.jetbrains.annotations.TestOnly;
 import java.io.IOException;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.atomic.AtomicReference;
 
 import static com.android.SdkConstants.TAG_PREFERENCE_SCREEN;
 import static com.intellij.lang.annotation.HighlightSeverity.ERROR;
@@ -73,11 +71,14 @@ public class RenderService extends AndroidFacetScopedService {
                                                                               : 6));
   /** Number of ms that we will keep the render thread alive when idle */
   private static final long RENDER_THREAD_IDLE_TIMEOUT_MS = TimeUnit.SECONDS.toMillis(10);
+  /** Number of timeouts a synchronous render action is waited for at most, including the time it waits in the queue */
+  private static final int RENDER_ACTION_DEADLINE_TIMEOUTS = 3;
+  /** Number of ms after which a pending render action goes ahead of the more urgent ones submitted after it, see {@link RenderExecutor} */
+  private static final long RENDER_PRIORITY_AGING_MS = TimeUnit.SECONDS.toMillis(2);
 
   @VisibleForTesting
   public static long ourRenderThreadTimeoutMs = DEFAULT_RENDER_THREAD_TIMEOUT_MS;
-  private static final AtomicReference<Thread> ourRenderingThread = new AtomicReference<>();
-  private static ExecutorService ourRenderingExecutor;
+  private static RenderExecutor ourRenderingExecutor;
   private static final AtomicInteger ourTimeoutExceptionCounter = new AtomicInteger(0);
 
   private static final Key<RenderService> KEY = Key.create(RenderService.class.getName());
@@ -89,17 +90,14 @@ public class RenderService extends AndroidFacetScopedService {
   }
 
   private static void innerInitializeRenderExecutor() {
-    ourRenderingExecutor = new ThreadPoolExecutor(0, 1,
-                             RENDER_THREAD_IDLE_TIMEOUT_MS, TimeUnit.MILLISECONDS,
-                             new LinkedBlockingQueue<>(),
-                             (Runnable r) -> {
-                               Thread renderingThread =
-                                 new Thread(null, r, "Layoutlib Render Thread");
-                               renderingThread.setDaemon(true);
-                               ourRenderingThread.set(renderingThread);
-
-                               return renderingThread;
-                             });
+    ourRenderingExecutor = new RenderExecutor(RENDER_THREAD_IDLE_TIMEOUT_MS,
+                                              RENDER_PRIORITY_AGING_MS,
+                                              (Runnable r) -> {
+                                                Thread renderingThread = new Thread(null, r, "Layoutlib Render Thread");
+                                                renderingThread.setDaemon(true);
+
+                                                return renderingThread;
+                                              });
   }
 
   @TestOnly
@@ -111,10 +109,6 @@ public class RenderService extends AndroidFacetScopedService {
 
   private static void shutdownRenderExecutor() {
     ourRenderingExecutor.shutdownNow();
-    Thread currentThread = ourRenderingThread.getAndSet(null);
-    if (currentThread != null) {
-      currentThread.interrupt();
-    }
   }
 
   /**
@@ -366,15 +360,33 @@ public class RenderService extends AndroidFacetScopedService {
   /**
    * Runs a action that requires the rendering lock. Layoutlib is not thread safe so any rendering actions should be called using this
    * method.
+   * <p/>
+   * The caller blocks until the action is done, so the action goes ahead of the pending background renders.
    */
   public static <T> T runRenderAction(@NotNull Callable<T> callable) throws Exception {
+    return runRenderAction(callable, RenderExecutor.Priority.HIGH);
+  }
+
+  /**
+   * Runs a action that requires the rendering lock, ahead of the pending actions with a lower priority. Layoutlib is not thread safe so
+   * any rendering actions should be called using this method.
+   * <p/>
+   * The action times out if it runs for longer than {@link #ourRenderThreadTimeoutMs}. The time it waits for the actions ahead of it
+   * doesn't count, unless one of them is stuck, but the caller never blocks for longer than {@link #RENDER_ACTION_DEADLINE_TIMEOUTS}
+   * times the timeout in total.
+   */
+  public static <T> T runRenderAction(@NotNull Callable<T> callable, @NotNull RenderExecutor.Priority priority) throws Exception {
+    Future<T> future = null;
     try {
       // If the number of timeouts exceeds a certain threshold, stop waiting so the caller doesn't block. We try to submit a task that
-      // clean-up the timeout counter instead. If it goes through, it means the queue is free.
+      // clean-up the timeout counter instead. If it goes through, it means the queue is free. The task goes ahead of the pending actions,
+      // it checks whether the render thread is stuck, not how busy the queue is.
       if (ourTimeoutExceptionCounter.get() > 3) {
-        ourRenderingExecutor.submit(() -> ourTimeoutExceptionCounter.set(0)).get(50, TimeUnit.MILLISECONDS);
+        ourRenderingExecutor.submit(Executors.callable(() -> ourTimeoutExceptionCounter.set(0)), RenderExecutor.Priority.HIGH, null)
+          .get(50, TimeUnit.MILLISECONDS);
       }
-      T result = ourRenderingExecutor.submit(callable).get(ourRenderThreadTimeoutMs, TimeUnit.MILLISECONDS);
+      future = ourRenderingExecutor.submit(callable, priority, null);
+      T result = ourRenderingExecutor.get(future, ourRenderThreadTimeoutMs, RENDER_ACTION_DEADLINE_TIMEOUTS * ourRenderThreadTimeoutMs);
       // The executor seems to be taking tasks so reset the counter
       ourTimeoutExceptionCounter.set(0);
 
@@ -383,11 +395,11 @@ public class RenderService extends AndroidFacetScopedService {
     catch (TimeoutException e) {
       ourTimeoutExceptionCounter.incrementAndGet();
 
-      Thread renderingThread = ourRenderingThread.get();
       TimeoutException timeoutException = new TimeoutException("Preview timed out while rendering the layout.\n" +
                                                                "This typically happens when there is an infinite loop or unbounded recursion in one of the custom views.");
-      if (renderingThread != null) {
-        timeoutException.setStackTrace(renderingThread.getStackTrace());
+      StackTraceElement[] stackTrace = ourRenderingExecutor.getStackTrace(future);
+      if (stackTrace != null) {
+        timeoutException.setStackTrace(stackTrace);
       }
 
       throw timeoutException;
@@ -402,10 +414,29 @@ public class RenderService extends AndroidFacetScopedService {
    */
   @NotNull
   public static <T> ListenableFuture<T> runAsyncRenderAction(@NotNull Callable<T> callable) {
-    ListenableFutureTask<T> future = ListenableFutureTask.create(callable);
-    ourRenderingExecutor.submit(future);
+    return runAsyncRenderAction(callable, RenderExecutor.Priority.NORMAL, null);
+  }
 
-    return future;
+  /**
+   * Runs an action that requires the rendering lock asynchronously, ahead of the pending actions with a lower priority.
+   * <p/>
+   * If {@code supersedeKey} is not null and an action submitted with the same key hasn't started yet, the passed action is dropped and
+   * the returned future is the one of the pending action. This is meant for actions that read the state to render when they run, so
+   * that a burst of render requests only renders once. See {@link RenderExecutor#submit(Callable, RenderExecutor.Priority, Object)}.
+   */
+  @NotNull
+  public static <T> ListenableFuture<T> runAsyncRenderAction(@NotNull Callable<T> callable,
+                                                             @NotNull RenderExecutor.Priority priority,
+                                                             @Nullable Object supersedeKey) {
+    return ourRenderingExecutor.submit(callable, priority, supersedeKey);
+  }
+
+  /**
+   * Returns the queue depth and the latencies of the render actions.
+   */
+  @NotNull
+  public static RenderExecutor.Stats getRenderExecutorStats() {
+    return ourRenderingExecutor.getStats();
   }
 
   /**
@@ -415,7 +446,7 @@ public class RenderService extends AndroidFacetScopedService {
    * This method will run the passed action asynchronously
    */
   public static void runAsyncRenderAction(@NotNull Runnable runnable) {
-    ourRenderingExecutor.submit(runnable);
+    ourRenderingExecutor.submit(Executors.callable(runnable));
   }
 
 
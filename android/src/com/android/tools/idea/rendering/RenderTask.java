@@ -148,6 +148,9 @@ public class RenderTask implements IImageFactory {
   private CrashReporter myCrashReporter;
 
   private final List<ListenableFuture<?>> myRunningFutures = new LinkedList<>();
+  /** Supersede key of the renders of this task, see {@link #renderInner()}. */
+  private final Object myRenderKey = new Object();
+  @NotNull private RenderExecutor.Priority myPriority = RenderExecutor.Priority.NORMAL;
   private AtomicBoolean isDisposed = new AtomicBoolean(false);
 
   /**
@@ -231,6 +234,14 @@ public class RenderTask implements IImageFactory {
     myFolderType = folderType;
   }
 
+  /**
+   * Sets the priority of the render actions of this task over the pending actions of the other tasks. The renders the user is waiting
+   * for should use {@link RenderExecutor.Priority#HIGH}, and the background ones {@link RenderExecutor.Priority#LOW}.
+   */
+  public void setPriority(@NotNull RenderExecutor.Priority priority) {
+    myPriority = priority;
+  }
+
   @NotNull
   public Module getModule() {
     return myRenderService.getFacet().getModule();
@@ -635,12 +646,21 @@ public class RenderTask implements IImageFactory {
   @VisibleForTesting
   @NotNull
   <V> ListenableFuture<V> runAsyncRenderAction(@NotNull Callable<V> callable) {
+    return runAsyncRenderAction(callable, null);
+  }
+
+  /**
+   * Like {@link #runAsyncRenderAction(Callable)}, but if an action submitted with the same {@code supersedeKey} hasn't started yet, that
+   * action is run instead of the passed one. See {@link RenderService#runAsyncRenderAction(Callable, RenderExecutor.Priority, Object)}.
+   */
+  @NotNull
+  private <V> ListenableFuture<V> runAsyncRenderAction(@NotNull Callable<V> callable, @Nullable Object supersedeKey) {
     if (isDisposed.get()) {
       return Futures.immediateFailedFuture(new IllegalStateException("RenderTask was already disposed"));
     }
 
     synchronized (myRunningFutures) {
-      ListenableFuture<V> newFuture = RenderService.runAsyncRenderAction(callable);
+      ListenableFuture<V> newFuture = RenderService.runAsyncRenderAction(callable, myPriority, supersedeKey);
       Futures.addCallback(newFuture, new FutureCallback<V>() {
         @Override
         public void onSuccess(@Nullable V result) {
@@ -683,7 +703,7 @@ public class RenderTask implements IImageFactory {
 
         //noinspection UndesirableClassUsage
         return new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
-      }));
+      }), myPriority);
     }
     catch (final Exception e) {
       String message = e.getMessage();
@@ -754,6 +774,8 @@ public class RenderTask implements IImageFactory {
     assert myPsiFile != null;
 
     try {
+      // The render reads the session and the image factory when it runs, so a render still waiting in the queue already renders the
+      // latest state and supersedes this one.
       return runAsyncRenderAction(() -> {
         myRenderSession.render();
         RenderResult result =
@@ -764,7 +786,7 @@ public class RenderTask implements IImageFactory {
           myLogger.error(null, renderResult.getErrorMessage(), renderResult.getException(), null, null);
         }
         return result;
-      });
+      }, myRenderKey);
     }
     catch (final Exception e) {
       reportException(e);
@@ -894,7 +916,7 @@ public class RenderTask implements IImageFactory {
     }
 
     try {
-      Result result = RenderService.runRenderAction(() -> myLayoutLib.renderDrawable(params));
+      Result result = RenderService.runRenderAction(() -> myLayoutLib.renderDrawable(params), myPriority);
 
       if (result != null && result.isSuccess()) {
         Object data = result.getData();
@@ -975,7 +997,7 @@ public class RenderTask implements IImageFactory {
     Map<XmlTag, ViewInfo> map = Maps.newHashMap();
     RenderSession session = null;
     try {
-      session = RenderService.runRenderAction(() -> measure(modelParser));
+      session = RenderService.runRenderAction(() -> measure(modelParser), myPriority);
     }
     catch (Exception ignored) {
     }
@@ -33,10 +33,12 @@ import com.google.common.collect.HashMultimap;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Multimap;
 import com.google.common.collect.Sets;
+import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.module.Module;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.util.Key;
+import com.intellij.openapi.util.io.FileUtil;
 import com.intellij.openapi.vfs.VirtualFile;
 import gnu.trove.TIntObjectHashMap;
 import gnu.trove.TObjectIntHashMap;
@@ -47,7 +49,9 @@ import org.jetbrains.annotations.Contract;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
-import java.io.File;
+import javax.annotation.concurrent.GuardedBy;
+import java.io.*;
+import java.nio.file.Path;
 import java.util.*;
 
 import static com.android.SdkConstants.FD_RES;
@@ -120,7 +124,10 @@ public class AppResourceRepository extends MultiResourceRepository {
   @NotNull
   static AppResourceRepository create(@NotNull AndroidFacet facet) {
     List<FileResourceRepository> libraries = computeLibraries(facet);
-    AppResourceRepository repository = new AppResourceRepository(facet, computeRepositories(facet, libraries), libraries);
+    // Tests which save the dynamic ids pass their own file, so the ids of a test don't leak into the next ones through the shared cache.
+    File dynamicIdsFile = ApplicationManager.getApplication().isUnitTestMode() ? null : getDynamicIdsFile(facet);
+    AppResourceRepository repository =
+      new AppResourceRepository(facet, computeRepositories(facet, libraries), libraries, dynamicIdsFile);
     ProjectResourceRepositoryRootListener.ensureSubscribed(facet.getModule().getProject());
 
     return repository;
@@ -306,9 +313,22 @@ public class AppResourceRepository extends MultiResourceRepository {
   protected AppResourceRepository(@NotNull AndroidFacet facet,
                                   @NotNull List<? extends LocalResourceRepository> delegates,
                                   @NotNull List<FileResourceRepository> libraries) {
+    this(facet, delegates, libraries, null);
+  }
+
+  /**
+   * @param dynamicIdsFile the file the dynamic ids are loaded from and saved to when the repository is disposed, or null to not keep
+   *                       them across sessions
+   */
+  @VisibleForTesting
+  AppResourceRepository(@NotNull AndroidFacet facet,
+                        @NotNull List<? extends LocalResourceRepository> delegates,
+                        @NotNull List<FileResourceRepository> libraries,
+                        @Nullable File dynamicIdsFile) {
     super(facet.getModule().getName() + " with modules and libraries", delegates);
     myFacet = facet;
     myLibraries = libraries;
+    myDynamicIdsFile = dynamicIdsFile;
     for (FileResourceRepository library : libraries) {
       if (library.getResourceTextFile() != null) {
         myAarLibraries.add(library);
@@ -318,6 +338,7 @@ public class AppResourceRepository extends MultiResourceRepository {
 
   @Override
   public void dispose() {
+    saveDynamicIdsIfChanged();
     super.dispose();
   }
 
@@ -395,8 +416,8 @@ public class AppResourceRepository extends MultiResourceRepository {
     }
     setChildren(resources);
 
-    // Clear the fake R class cache and the ModuleClassLoader cache.
-    resetDynamicIds(true);
+    // The dynamic ids stay assigned to the same resources, and setChildren made the fake R classes generated so far stale. Clear the
+    // ModuleClassLoader cache, since the classes of the libraries have changed.
     ModuleClassLoader.clearCache(myFacet.getModule());
   }
 
@@ -514,6 +535,18 @@ public class AppResourceRepository extends MultiResourceRepository {
   // etc...). Using FF as the type allows for 255 resource types before we get a collision
   // which should be fine.
   private static final int DYNAMIC_ID_SEED_START = 0x7fff0000;
+  /**
+   * The saved ids are given the lowest ids again when they are loaded with a seed past this many ids, since the ids of dropped resources
+   * are never reused and the seed would otherwise run out of the range, which ends at {@link Integer#MAX_VALUE}, over the sessions.
+   */
+  private static final int DYNAMIC_ID_COMPACTION_THRESHOLD = 0x8000;
+
+  /**
+   * Suffix of the file in the resource cache directory of the project that the dynamic ids of a module are saved to, so that the
+   * resources keep the same ids across sessions.
+   */
+  private static final String DYNAMIC_IDS_FILE_SUFFIX = "_dynamic_ids";
+  private static final int DYNAMIC_IDS_FILE_VERSION = 1;
 
   /**
    * Map of (name, id) for resources of type {@link ResourceType#ID} coming from R.java
@@ -532,6 +565,11 @@ public class AppResourceRepository extends MultiResourceRepository {
   private final TObjectIntHashMap<TypedResourceName> myName2DynamicIdMap = new TObjectIntHashMap<>();
   private final TIntObjectHashMap<TypedResourceName> myDynamicId2ResourceMap = new TIntObjectHashMap<>();
   private int myDynamicSeed = DYNAMIC_ID_SEED_START;
+  @Nullable private final File myDynamicIdsFile;
+  @GuardedBy("myName2DynamicIdMap")
+  private boolean myDynamicIdsLoaded;
+  @GuardedBy("myName2DynamicIdMap")
+  private boolean myDynamicIdsChanged;
   private final IntArrayWrapper myWrapper = new IntArrayWrapper(null);
 
 
@@ -607,16 +645,176 @@ public class AppResourceRepository extends MultiResourceRepository {
   private int getDynamicId(ResourceType type, String name) {
     TypedResourceName key = new TypedResourceName(type, name);
     synchronized (myName2DynamicIdMap) {
+      if (!myDynamicIdsLoaded) {
+        myDynamicIdsLoaded = true;
+        loadDynamicIdsIfSaved();
+      }
       if (myName2DynamicIdMap.containsKey(key)) {
         return myName2DynamicIdMap.get(key);
       }
-      final int value = ++myDynamicSeed;
-      myName2DynamicIdMap.put(key, value);
-      myDynamicId2ResourceMap.put(value, key);
-      return value;
+      if (myDynamicSeed < Integer.MAX_VALUE) {
+        final int value = ++myDynamicSeed;
+        myName2DynamicIdMap.put(key, value);
+        myDynamicId2ResourceMap.put(value, key);
+        myDynamicIdsChanged = true;
+        return value;
+      }
+    }
+    // Only a session asking for the ids of tens of thousands of resources gets here. The R classes are cleared along with the ids, so
+    // none of them is left with an id given to another resource.
+    LOG.warn("Ran out of dynamic resource ids, resetting them");
+    resetDynamicIds(true);
+    return getDynamicId(type, name);
+  }
+
+  @Nullable
+  private static File getDynamicIdsFile(@NotNull AndroidFacet facet) {
+    ResourceFolderRepositoryFileCache cache = ResourceFolderRepositoryFileCacheService.get();
+    Module module = facet.getModule();
+    Path projectDir = cache.isValid() ? cache.getProjectDir(module.getProject()) : null;
+    return projectDir != null ? projectDir.resolve(FileUtil.sanitizeFileName(module.getName()) + DYNAMIC_IDS_FILE_SUFFIX).toFile() : null;
+  }
+
+  @GuardedBy("myName2DynamicIdMap")
+  private void loadDynamicIdsIfSaved() {
+    File file = myDynamicIdsFile;
+    if (file != null && file.exists()) {
+      try {
+        loadDynamicIds(file);
+      }
+      catch (IOException e) {
+        LOG.warn("Failed to load the dynamic ids from " + file, e);
+      }
+    }
+  }
+
+  private void saveDynamicIdsIfChanged() {
+    File file = myDynamicIdsFile;
+    if (file == null) {
+      return;
+    }
+    synchronized (myName2DynamicIdMap) {
+      if (!myDynamicIdsChanged) {
+        return;
+      }
+      // Cleared before saveDynamicIds copies the ids, so the ids given out meanwhile are saved the next time.
+      myDynamicIdsChanged = false;
+    }
+    // Saving looks up the resources, which takes the lock of the repository, and writes the file, so it doesn't hold the lock of the ids.
+    try {
+      saveDynamicIds(file);
+    }
+    catch (IOException e) {
+      synchronized (myName2DynamicIdMap) {
+        myDynamicIdsChanged = true;
+      }
+      LOG.warn("Failed to save the dynamic ids to " + file, e);
     }
   }
 
+  /**
+   * Replaces the dynamic ids with the ones saved by {@link #saveDynamicIds(File)}. Leaves the ids as they are if the file can't be read.
+   * If the saved seed is past {@link #DYNAMIC_ID_COMPACTION_THRESHOLD}, the saved ids are renumbered from the start of the range, which
+   * is only safe while no id of the session was given out yet.
+   */
+  @VisibleForTesting
+  void loadDynamicIds(@NotNull File file) throws IOException {
+    TObjectIntHashMap<TypedResourceName> name2Id = new TObjectIntHashMap<>();
+    int seed;
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+      int version = in.readInt();
+      if (version != DYNAMIC_IDS_FILE_VERSION) {
+        throw new IOException("Unsupported dynamic ids file version " + version);
+      }
+      seed = in.readInt();
+      for (int i = in.readInt(); i > 0; i--) {
+        ResourceType type = ResourceType.getEnum(in.readUTF());
+        String name = in.readUTF();
+        name2Id.put(new TypedResourceName(type, name), in.readInt());
+      }
+    }
+    boolean compact = seed - DYNAMIC_ID_SEED_START > DYNAMIC_ID_COMPACTION_THRESHOLD;
+    if (compact) {
+      seed = compactDynamicIds(name2Id);
+    }
+
+    synchronized (myName2DynamicIdMap) {
+      myDynamicIdsLoaded = true;
+      myDynamicIdsChanged |= compact;
+      myName2DynamicIdMap.clear();
+      myDynamicId2ResourceMap.clear();
+      myDynamicSeed = Math.max(seed, DYNAMIC_ID_SEED_START);
+      name2Id.forEachEntry((key, id) -> {
+        myName2DynamicIdMap.put(key, id);
+        myDynamicId2ResourceMap.put(id, key);
+        myDynamicSeed = Math.max(myDynamicSeed, id);
+        return true;
+      });
+    }
+  }
+
+  /**
+   * Gives the ids of {@code name2Id} the lowest dynamic ids, in the same order.
+   *
+   * @return the seed after the ids.
+   */
+  private static int compactDynamicIds(@NotNull TObjectIntHashMap<TypedResourceName> name2Id) {
+    TIntObjectHashMap<TypedResourceName> id2Name = new TIntObjectHashMap<>();
+    name2Id.forEachEntry((name, id) -> {
+      id2Name.put(id, name);
+      return true;
+    });
+    int[] ids = id2Name.keys();
+    Arrays.sort(ids);
+    name2Id.clear();
+    int seed = DYNAMIC_ID_SEED_START;
+    for (int id : ids) {
+      name2Id.put(id2Name.get(id), ++seed);
+    }
+    return seed;
+  }
+
+  /**
+   * Saves the dynamic ids of the resources which still exist. The seed is saved as it is, so the ids of the dropped resources aren't
+   * given to other resources in the next sessions.
+   */
+  @VisibleForTesting
+  void saveDynamicIds(@NotNull File file) throws IOException {
+    TObjectIntHashMap<TypedResourceName> name2Id = new TObjectIntHashMap<>();
+    int seed;
+    synchronized (myName2DynamicIdMap) {
+      myName2DynamicIdMap.forEachEntry((name, id) -> {
+        name2Id.put(name, id);
+        return true;
+      });
+      seed = myDynamicSeed;
+    }
+    // Looking up the resources takes the lock of the repository, don't hold the one of the ids meanwhile.
+    name2Id.retainEntries((name, id) -> name.myType != null && hasResourceItem(getRepositoryType(name.myType), name.myName));
+
+    FileUtil.createParentDirs(file);
+    try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+      out.writeInt(DYNAMIC_IDS_FILE_VERSION);
+      out.writeInt(seed);
+      out.writeInt(name2Id.size());
+      for (Object key : name2Id.keys()) {
+        TypedResourceName name = (TypedResourceName)key;
+        out.writeUTF(name.myType.getName());
+        out.writeUTF(name.myName);
+        out.writeInt(name2Id.get(name));
+      }
+    }
+  }
+
+  /**
+   * Returns the type the repository keeps the resources asked for ids of the given type under. The styleable ids are asked for by the
+   * fake R classes, for the declare-styleable resources.
+   */
+  @NotNull
+  private static ResourceType getRepositoryType(@NotNull ResourceType type) {
+    return type == ResourceType.STYLEABLE ? ResourceType.DECLARE_STYLEABLE : type;
+  }
+
   public void setCompiledResources(@SuppressWarnings("deprecation") TIntObjectHashMap<Pair<ResourceType, String>> id2res,
                                    Map<IntArrayWrapper, String> styleableId2name,
                                    Map<ResourceType, TObjectIntHashMap<String>> res2id) {
@@ -632,6 +830,9 @@ public class AppResourceRepository extends MultiResourceRepository {
       ResourceClassRegistry.get(myFacet.getModule().getProject()).clearCache(this);
     }
     synchronized (myName2DynamicIdMap) {
+      // Don't bring back the saved ids, which may be referenced by the R classes being cleared.
+      myDynamicIdsLoaded = true;
+      myDynamicIdsChanged = true;
       myDynamicSeed = DYNAMIC_ID_SEED_START;
       myName2DynamicIdMap.clear();
       myDynamicId2ResourceMap.clear();
@@ -24,6 +24,7 @@ import com.android.resources.ResourceType;
 import com.google.common.collect.*;
 import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.util.Disposer;
+import com.intellij.openapi.util.Pair;
 import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.psi.PsiFile;
 import com.intellij.util.containers.SmartHashSet;
@@ -31,10 +32,8 @@ import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import javax.annotation.concurrent.GuardedBy;
-import java.util.Collections;
-import java.util.List;
-import java.util.Map;
-import java.util.Set;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * The  is a super class for several of the other repositories; it’s not really used on its own. Its only purpose is to be able to combine
@@ -42,26 +41,31 @@ import java.util.Set;
  * same resource type+name combination will replace/hide any previous definitions of the same resource.
  *
  * <p>In the resource repository hierarchy, the MultiResourceRepository is an internal node, never a leaf.
+ *
+ * <p>The merged items are published as immutable snapshots, see {@link MergedMap}, so lookups only take {@code ITEM_MAP_LOCK} when the
+ * items they ask for have to be merged again.
  */
 @SuppressWarnings("InstanceGuardedByStatic") // TODO: The whole locking scheme for resource repositories needs to be reworked.
 public abstract class MultiResourceRepository extends LocalResourceRepository {
-  @GuardedBy("ITEM_MAP_LOCK")
-  private List<? extends LocalResourceRepository> myChildren;
+  // The fields below are written while holding ITEM_MAP_LOCK, and are either volatile or concurrent so they can be read without it.
+  private volatile ImmutableList<LocalResourceRepository> myChildren;
 
   @GuardedBy("ITEM_MAP_LOCK")
   private long[] myModificationCounts;
 
-  @GuardedBy("ITEM_MAP_LOCK")
-  private ResourceTable myFullTable;
+  private volatile ResourceTable myFullTable;
 
-  @GuardedBy("ITEM_MAP_LOCK")
-  private Set<String> myCachedNamespaces;
+  private volatile Set<String> myCachedNamespaces;
 
-  @GuardedBy("ITEM_MAP_LOCK")
-  private final ResourceTable myCachedMaps = new ResourceTable();
+  private final Map<Pair<String, ResourceType>, MergedMap> myCachedMaps = new ConcurrentHashMap<>();
 
-  @GuardedBy("ITEM_MAP_LOCK")
-  private final Map<ResourceType, Boolean> myCachedHasResourcesOfType = Maps.newEnumMap(ResourceType.class);
+  private final Map<ResourceType, Boolean> myCachedHasResourcesOfType = new ConcurrentHashMap<>();
+
+  /** Modification counts of the last changes limited to some resource types, see {@link #getModificationCount(ResourceType)}. */
+  private final Map<ResourceType, Long> myTypeModificationCounts = new ConcurrentHashMap<>();
+
+  /** Modification count of the last change that could have affected the resources of any type. */
+  private volatile long myAllTypesModificationCount;
 
   @GuardedBy("ITEM_MAP_LOCK")
   private Map<String, DataBindingInfo> myDataBindingResourceFiles = Maps.newHashMap();
@@ -82,8 +86,10 @@ public abstract class MultiResourceRepository extends LocalResourceRepository {
           resources.removeParent(this);
         }
       }
-      setModificationCount(ourModificationCounter.incrementAndGet());
-      myChildren = children;
+      long modificationCount = ourModificationCounter.incrementAndGet();
+      setModificationCount(modificationCount);
+      myAllTypesModificationCount = modificationCount;
+      myChildren = ImmutableList.copyOf(children);
       myModificationCounts = new long[children.size()];
       if (children.size() == 1) {
         // Make sure that the modification count of the child and the parent are same. This is
@@ -105,9 +111,7 @@ public abstract class MultiResourceRepository extends LocalResourceRepository {
   }
 
   public List<? extends LocalResourceRepository> getChildren() {
-    synchronized (ITEM_MAP_LOCK) {
-      return ImmutableList.copyOf(myChildren);
-    }
+    return myChildren;
   }
 
   @Override
@@ -136,6 +140,17 @@ public abstract class MultiResourceRepository extends LocalResourceRepository {
     }
   }
 
+  /**
+   * Returns a modification count which only changes when resources of the given type may have been added, removed or renamed. Unlike
+   * {@link #getModificationCount()} it is not affected by edits of the values of existing resources, or by changes limited to other
+   * resource types.
+   */
+  public long getModificationCount(@NotNull ResourceType type) {
+    Long typeModificationCount = myTypeModificationCounts.get(type);
+    long allTypesModificationCount = myAllTypesModificationCount;
+    return typeModificationCount == null ? allTypesModificationCount : Math.max(typeModificationCount, allTypesModificationCount);
+  }
+
   @Nullable
   @Override
   public DataBindingInfo getDataBindingInfoForLayout(String layoutName) {
@@ -173,18 +188,24 @@ public abstract class MultiResourceRepository extends LocalResourceRepository {
 
   @NotNull
   @Override
-  public synchronized Set<String> getNamespaces() {
+  public Set<String> getNamespaces() {
+    Set<String> namespaces = myCachedNamespaces;
+    if (namespaces != null) {
+      return namespaces;
+    }
+
     synchronized (ITEM_MAP_LOCK) {
       if (myCachedNamespaces == null) {
         if (myChildren.size() == 1) {
           myCachedNamespaces = myChildren.get(0).getNamespaces();
         } else {
-          myCachedNamespaces = new SmartHashSet<>();
+          namespaces = new SmartHashSet<>();
           for (LocalResourceRepository child : myChildren) {
             for (String namespace : child.getNamespaces()) {
-              myCachedNamespaces.add(ResourceNamespaces.normalizeNamespace(namespace));
+              namespaces.add(ResourceNamespaces.normalizeNamespace(namespace));
             }
           }
+          myCachedNamespaces = namespaces;
         }
       }
 
@@ -195,21 +216,29 @@ public abstract class MultiResourceRepository extends LocalResourceRepository {
   @NonNull
   @Override
   protected ResourceTable getFullTable() {
+    ResourceTable fullTable = myFullTable;
+    if (fullTable != null) {
+      return fullTable;
+    }
+
     synchronized (ITEM_MAP_LOCK) {
       if (myFullTable == null) {
         if (myChildren.size() == 1) {
           myFullTable = myChildren.get(0).getItems();
         }
         else {
-          myFullTable = new ResourceTable();
+          // Only the maps which were invalidated since the last table are merged again, the others are taken from the cache as they are.
+          // The table is filled before it is published, and never changed afterwards.
+          fullTable = new ResourceTable();
           for (String namespace : getNamespaces()) {
             for (ResourceType type : ResourceType.values()) {
               ListMultimap<String, ResourceItem> map = getMap(namespace, type, false);
               if (map != null) {
-                myFullTable.put(namespace, type, map);
+                fullTable.put(namespace, type, map);
               }
             }
           }
+          myFullTable = fullTable;
         }
       }
 
@@ -222,13 +251,19 @@ public abstract class MultiResourceRepository extends LocalResourceRepository {
   protected ListMultimap<String, ResourceItem> getMap(@Nullable String namespace,
                                                       @NonNull ResourceType type,
                                                       boolean create) {
-    synchronized (ITEM_MAP_LOCK) {
-      // Should I assert !create here? If we try to manipulate the cache it won't work right...
-      ListMultimap<String, ResourceItem> map = myCachedMaps.get(namespace, type);
-      if (map != null) {
-        return map;
-      }
+    // Should I assert !create here? If we try to manipulate the cache it won't work right...
+    Pair<String, ResourceType> key = Pair.create(namespace, type);
+    MergedMap merged = myCachedMaps.get(key);
+    if (merged != null && merged.isUpToDate()) {
+      return merged.myItems;
+    }
+
+    List<LocalResourceRepository> children = myChildren;
+    if (children.size() == 1 && children.get(0) instanceof MultiResourceRepository) {
+      return ((MultiResourceRepository)children.get(0)).getMap(namespace, type);
+    }
 
+    synchronized (ITEM_MAP_LOCK) {
       if (myChildren.size() == 1) {
         LocalResourceRepository child = myChildren.get(0);
         if (child instanceof MultiResourceRepository) {
@@ -237,16 +272,57 @@ public abstract class MultiResourceRepository extends LocalResourceRepository {
         return child.getItems().get(namespace, type);
       }
 
-      map = ArrayListMultimap.create();
-      Set<LocalResourceRepository> visited = Sets.newHashSet();
-      SetMultimap<String, String> seenQualifiers = HashMultimap.create();
-      // Merge all items of the given type
-      merge(visited, namespace, type, seenQualifiers, map);
+      merged = myCachedMaps.get(key);
+      if (merged == null || !merged.isUpToDate()) {
+        merged = mergeChildren(namespace, type, merged);
+        myCachedMaps.put(key, merged);
+      }
+      return merged.myItems;
+    }
+  }
 
-      myCachedMaps.put(namespace, type, map);
+  /**
+   * Merges the items of the given type of the children, from the last child to the first one, the same way {@link #merge} does. The
+   * contributions of the children which did not change since {@code previous} was merged are reused instead of being merged again.
+   */
+  @GuardedBy("ITEM_MAP_LOCK")
+  @NotNull
+  private MergedMap mergeChildren(@Nullable String namespace, @NotNull ResourceType type, @Nullable MergedMap previous) {
+    int childCount = myChildren.size();
+    if (previous != null && previous.myContributions.size() != childCount) {
+      previous = null;
+    }
 
-      return map;
+    ListMultimap<String, ResourceItem> items = ArrayListMultimap.create();
+    List<ListMultimap<String, ResourceItem>> contributions = new ArrayList<>(Collections.nCopies(childCount, null));
+    List<Set<LocalResourceRepository>> visitedByChild = new ArrayList<>(Collections.nCopies(childCount, null));
+    Set<LocalResourceRepository> visited = Sets.newHashSet();
+    visited.add(this);
+    SetMultimap<String, String> seenQualifiers = HashMultimap.create();
+    for (int i = childCount - 1; i >= 0; i--) {
+      ListMultimap<String, ResourceItem> contribution;
+      Set<LocalResourceRepository> childVisited;
+      if (previous != null && i > previous.myStaleChild) {
+        // Children merged before the stale ones only depend on the children merged before them, so their contributions are still valid.
+        contribution = previous.myContributions.get(i);
+        childVisited = previous.myVisitedByChild.get(i);
+        visited.addAll(childVisited);
+        for (Map.Entry<String, ResourceItem> entry : contribution.entries()) {
+          seenQualifiers.put(entry.getKey(), entry.getValue().getQualifiers());
+        }
+      }
+      else {
+        // Whether an item is added only depends on seenQualifiers, so merging into an empty map yields exactly what the child adds.
+        Set<LocalResourceRepository> visitedBefore = ImmutableSet.copyOf(visited);
+        contribution = ArrayListMultimap.create();
+        myChildren.get(i).merge(visited, namespace, type, seenQualifiers, contribution);
+        childVisited = Sets.difference(visited, visitedBefore).immutableCopy();
+      }
+      items.putAll(contribution);
+      contributions.set(i, contribution);
+      visitedByChild.set(i, childVisited);
     }
+    return new MergedMap(items, contributions, visitedByChild, -1);
   }
 
   @Override
@@ -264,16 +340,16 @@ public abstract class MultiResourceRepository extends LocalResourceRepository {
 
   @Override
   public boolean hasResourcesOfType(@NotNull ResourceType type) {
+    Boolean cachedResult = myCachedHasResourcesOfType.get(type);
+    if (cachedResult != null) {
+      return cachedResult;
+    }
+
     synchronized (ITEM_MAP_LOCK) {
       if (myChildren.size() == 1) {
         return myChildren.get(0).hasResourcesOfType(type);
       }
 
-      Boolean cachedResult = myCachedHasResourcesOfType.get(type);
-      if (cachedResult != null) {
-        return cachedResult;
-      }
-
       Set<LocalResourceRepository> visited = Sets.newHashSet();
       boolean result = computeHasResourcesOfType(type, visited);
       myCachedHasResourcesOfType.put(type, result);
@@ -312,13 +388,16 @@ public abstract class MultiResourceRepository extends LocalResourceRepository {
    */
   public void invalidateCache(@NotNull LocalResourceRepository repository) {
     synchronized (ITEM_MAP_LOCK) {
-      assert myChildren.contains(repository) : repository;
+      int index = myChildren.indexOf(repository);
+      assert index >= 0 : repository;
 
       myCachedNamespaces = null;
-      myCachedMaps.clear();
+      myCachedMaps.replaceAll((key, merged) -> merged.withStaleChild(index));
       myCachedHasResourcesOfType.clear();
       myFullTable = null;
-      setModificationCount(ourModificationCounter.incrementAndGet());
+      long modificationCount = ourModificationCounter.incrementAndGet();
+      setModificationCount(modificationCount);
+      myAllTypesModificationCount = modificationCount;
 
       invalidateParentCaches();
     }
@@ -330,11 +409,12 @@ public abstract class MultiResourceRepository extends LocalResourceRepository {
    */
   public void invalidateCache(@NotNull LocalResourceRepository repository, @Nullable String namespace, @NotNull ResourceType... types) {
     synchronized (ITEM_MAP_LOCK) {
-      assert myChildren.contains(repository) : repository;
+      int index = myChildren.indexOf(repository);
+      assert index >= 0 : repository;
 
       for (ResourceType type : types) {
         myCachedNamespaces = null;
-        myCachedMaps.remove(namespace, type);
+        myCachedMaps.computeIfPresent(Pair.create(namespace, type), (key, merged) -> merged.withStaleChild(index));
 
         if (ResourceNamespaces.isDefaultNamespace(namespace)) {
           myCachedHasResourcesOfType.remove(type);
@@ -342,7 +422,11 @@ public abstract class MultiResourceRepository extends LocalResourceRepository {
       }
 
       myFullTable = null;
-      setModificationCount(ourModificationCounter.incrementAndGet());
+      long modificationCount = ourModificationCounter.incrementAndGet();
+      setModificationCount(modificationCount);
+      for (ResourceType type : types) {
+        myTypeModificationCounts.put(type, modificationCount);
+      }
 
       invalidateParentCaches(namespace, types);
     }
@@ -384,4 +468,37 @@ public abstract class MultiResourceRepository extends LocalResourceRepository {
       return result;
     }
   }
+
+  /**
+   * The merged items of a type in a namespace, along with what each child contributed to them. Merged maps are never changed once they
+   * are published, so they are read without holding {@code ITEM_MAP_LOCK}: a change in a child publishes a copy which is marked as stale
+   * from that child on, and which is merged again by the next lookup, reusing the contributions of the children merged before it.
+   */
+  private static final class MergedMap {
+    @NotNull final ListMultimap<String, ResourceItem> myItems;
+    // Indexed like the children: the items each child added to myItems, and the repositories it was the first to visit.
+    @NotNull final List<ListMultimap<String, ResourceItem>> myContributions;
+    @NotNull final List<Set<LocalResourceRepository>> myVisitedByChild;
+    // Index of the last child whose contribution is stale, or -1 if the map is up to date.
+    final int myStaleChild;
+
+    MergedMap(@NotNull ListMultimap<String, ResourceItem> items,
+              @NotNull List<ListMultimap<String, ResourceItem>> contributions,
+              @NotNull List<Set<LocalResourceRepository>> visitedByChild,
+              int staleChild) {
+      myItems = items;
+      myContributions = contributions;
+      myVisitedByChild = visitedByChild;
+      myStaleChild = staleChild;
+    }
+
+    boolean isUpToDate() {
+      return myStaleChild < 0;
+    }
+
+    @NotNull
+    MergedMap withStaleChild(int child) {
+      return new MergedMap(myItems, myContributions, myVisitedByChild, Math.max(myStaleChild, child));
+    }
+  }
 }
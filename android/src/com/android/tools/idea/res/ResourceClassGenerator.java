@@ -20,7 +20,6 @@ import com.android.ide.common.rendering.api.DeclareStyleableResourceValue;
 import com.android.ide.common.rendering.api.ResourceValue;
 import com.android.ide.common.res2.ResourceItem;
 import com.android.resources.ResourceType;
-import com.google.common.collect.Maps;
 import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.util.Computable;
@@ -34,6 +33,7 @@ import org.jetbrains.org.objectweb.asm.MethodVisitor;
 import org.jetbrains.org.objectweb.asm.Type;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 import static com.android.tools.idea.LogAnonymizerUtil.anonymizeClassName;
 import static com.android.tools.idea.LogAnonymizerUtil.isPublicClass;
@@ -62,13 +62,17 @@ import static org.jetbrains.org.objectweb.asm.Opcodes.*;
  * dependencies. It is not straight-forward to get the list of dependencies after the creation of the resource
  * repositories for each aar. So, we use the app's resource repository and generate the R file from it. This
  * will break custom libraries that use reflection on the R class, but meh.
+ * <p>
+ * The fields of each inner class are cached together with the {@link #getModificationCount(String) modification count} they were
+ * computed at, so after an edit only the inner classes of the resource types that actually changed are computed again.
  */
 public class ResourceClassGenerator {
   private static final Logger LOG = Logger.getInstance(ResourceClassGenerator.class);
 
-  private Map<ResourceType, TObjectIntHashMap<String>> myCache;
-  /** For int[] in styleables. The ints in styleables are stored in {@link #myCache}. */
-  private Map<String, List<Integer>> myStyleableCache;
+  /** Modification count returned for the classes which don't depend on the resources. */
+  private static final long NO_RESOURCES_MODIFICATION_COUNT = 0;
+
+  private final Map<ResourceType, TypeCache> myCache = new ConcurrentHashMap<>();
   @NotNull private final AppResourceRepository myAppResources;
 
   private ResourceClassGenerator(@NotNull AppResourceRepository appResources) {
@@ -86,6 +90,55 @@ public class ResourceClassGenerator {
     return new ResourceClassGenerator(appResources);
   }
 
+  /**
+   * Returns the modification count of the resources the given class is generated from. A class generated while the count had one value
+   * is stale once the count changes, see {@link #getGeneratedModificationCount(String)} for the count a generated class was computed at.
+   *
+   * @param fqcn Fully qualified class name (as accepted by ClassLoader, or as returned by Class.getName())
+   */
+  public long getModificationCount(@NotNull String fqcn) {
+    int index = fqcn.lastIndexOf('$');
+    ResourceType type = index == -1 ? null : ResourceType.getEnum(fqcn.substring(index + 1));
+    if (type == null) {
+      return NO_RESOURCES_MODIFICATION_COUNT;
+    }
+    if (type == ResourceType.STYLEABLE) {
+      // The fields of R$styleable follow the attributes of each declare-styleable, and their arrays hold the ids of the attributes. Edits of
+      // the attributes of a declare-styleable count as changes of the declare-styleable resources, but edits of other values don't.
+      return Math.max(myAppResources.getModificationCount(ResourceType.DECLARE_STYLEABLE),
+                      myAppResources.getModificationCount(ResourceType.ATTR));
+    }
+    return myAppResources.getModificationCount(type);
+  }
+
+  /**
+   * Returns the {@link #getModificationCount(String) modification count} the fields of the given class were computed at by the last call
+   * to {@link #generate(String)}, or -1 if it was never generated.
+   *
+   * @param fqcn Fully qualified class name (as accepted by ClassLoader, or as returned by Class.getName())
+   */
+  public long getGeneratedModificationCount(@NotNull String fqcn) {
+    int index = fqcn.lastIndexOf('$');
+    ResourceType type = index == -1 ? null : ResourceType.getEnum(fqcn.substring(index + 1));
+    if (type == null) {
+      return NO_RESOURCES_MODIFICATION_COUNT;
+    }
+    TypeCache typeCache = myCache.get(type);
+    return typeCache != null ? typeCache.myModificationCount : -1;
+  }
+
+  /**
+   * Returns whether a class generated after reading the given {@link #getModificationCount(String) modification count} can still be used.
+   * The dynamic ids are stable, so the existing fields of the int-only classes keep their values when resources are added or removed,
+   * and the classes only lack the fields of new resources, which the code of the libraries doesn't reference. The arrays and indices of
+   * R$styleable, on the other hand, follow the attributes of the declare-styleables, so it is stale once they change.
+   *
+   * @param fqcn Fully qualified class name (as accepted by ClassLoader, or as returned by Class.getName())
+   */
+  public boolean isUpToDate(@NotNull String fqcn, long modificationCount) {
+    return !fqcn.endsWith("$" + ResourceType.STYLEABLE.getName()) || getModificationCount(fqcn) == modificationCount;
+  }
+
   /**
    * @param fqcn Fully qualified class name (as accepted by ClassLoader, or as returned by Class.getName())
    */
@@ -111,31 +164,26 @@ public class ResourceClassGenerator {
       }
 
       cw.visitInnerClass(className, className.substring(0, index), typeName, ACC_PUBLIC + ACC_FINAL + ACC_STATIC);
-      if (myCache == null) {
-        myCache = Maps.newHashMap();
-      }
-      if (type == ResourceType.STYLEABLE) {
-        if (myStyleableCache == null) {
-          TObjectIntHashMap<String> styleableIntCache = new TObjectIntHashMap<String>();
-          myCache.put(type, styleableIntCache);
-          myStyleableCache = Maps.newHashMap();
-          generateStyleable(cw, styleableIntCache, className);
-        }
-        else {
-          TObjectIntHashMap<String> styleableIntCache = myCache.get(type);
-          assert styleableIntCache != null;
-          generateFields(cw, styleableIntCache);
-          generateIntArrayFromCache(cw, className, myStyleableCache);
+      // Read the modification count first, so that a change made while the fields are computed makes them stale.
+      long modificationCount = getModificationCount(fqcn);
+      TypeCache typeCache = myCache.get(type);
+      if (typeCache == null || typeCache.myModificationCount != modificationCount) {
+        if (LOG.isDebugEnabled()) {
+          LOG.debug(String.format("  %s the fields of %s", typeCache == null ? "Computing" : "Recomputing", typeName));
         }
-      } else {
-        TObjectIntHashMap<String> typeCache = myCache.get(type);
-        if (typeCache == null) {
-          typeCache = new TObjectIntHashMap<String>();
-          myCache.put(type, typeCache);
-          generateValuesForType(cw, type, typeCache);
+        typeCache = new TypeCache(modificationCount);
+        if (type == ResourceType.STYLEABLE) {
+          generateStyleable(cw, typeCache.myFields, typeCache.myArrays, className);
         }
         else {
-          generateFields(cw, typeCache);
+          generateValuesForType(cw, type, typeCache.myFields);
+        }
+        myCache.put(type, typeCache);
+      }
+      else {
+        generateFields(cw, typeCache.myFields);
+        if (type == ResourceType.STYLEABLE) {
+          generateIntArrayFromCache(cw, className, typeCache.myArrays);
         }
       }
     } else {
@@ -184,7 +232,10 @@ public class ResourceClassGenerator {
     return dv.getAllAttributes();
   }
 
-  private void generateStyleable(@NotNull ClassWriter cw, @NotNull TObjectIntHashMap<String> styleableIntCache, String className) {
+  private void generateStyleable(@NotNull ClassWriter cw,
+                                 @NotNull TObjectIntHashMap<String> styleableIntCache,
+                                 @NotNull Map<String, List<Integer>> styleableCache,
+                                 String className) {
     if (LOG.isDebugEnabled()) {
       LOG.debug(String.format("generateStyleable(%s)", anonymizeClassName(className)));
     }
@@ -242,7 +293,7 @@ public class ResourceClassGenerator {
       List<Integer> values = new ArrayList<>();
       List<AttrResourceValue> mergedAttributes = new ArrayList<>();
       String fieldName = AndroidResourceUtil.getFieldNameByResourceName(styleableName);
-      myStyleableCache.put(fieldName, values);
+      styleableCache.put(fieldName, values);
       for (ResourceItem item : items) {
         List<AttrResourceValue> attributes = getStyleableAttributes(item);
         if (attributes.isEmpty()) {
@@ -361,6 +412,18 @@ public class ResourceClassGenerator {
     mv.visitEnd();
   }
 
+  /** The fields generated for an inner R class, and the modification count of the resources they were computed from. */
+  private static final class TypeCache {
+    private final long myModificationCount;
+    private final TObjectIntHashMap<String> myFields = new TObjectIntHashMap<>();
+    /** For int[] in styleables. The ints in styleables are stored in {@link #myFields}. */
+    private final Map<String, List<Integer>> myArrays = new HashMap<>();
+
+    private TypeCache(long modificationCount) {
+      myModificationCount = modificationCount;
+    }
+  }
+
   public static String getResourceName(String styleableName, @NotNull AttrResourceValue value) {
     StringBuilder sb = new StringBuilder(30);
     sb.append(styleableName);
@@ -105,6 +105,25 @@ public class ResourceClassRegistry implements ProjectComponent {
     return null;
   }
 
+  /**
+   * Returns whether the given R class, generated by {@link #findClassDefinition(String, AppResourceRepository)} at the given
+   * {@link #getGeneratedModificationCount(String, AppResourceRepository) modification count}, is still valid for the given resources.
+   */
+  public boolean isUpToDate(@NotNull String name, @NotNull AppResourceRepository appRepo, long modificationCount) {
+    ResourceClassGenerator generator = myGeneratorMap.get(appRepo);
+    // Without a generator, the dynamic ids the class was generated with have been reset.
+    return generator != null && generator.isUpToDate(name, modificationCount);
+  }
+
+  /**
+   * Returns the modification count of the resources the given R class was last generated from by
+   * {@link #findClassDefinition(String, AppResourceRepository)}, or -1 if it isn't generated here.
+   */
+  public long getGeneratedModificationCount(@NotNull String name, @NotNull AppResourceRepository appRepo) {
+    ResourceClassGenerator generator = myGeneratorMap.get(appRepo);
+    return generator != null ? generator.getGeneratedModificationCount(name) : -1;
+  }
+
   /**
    * Ideally, this method will not exist. But there are potential bugs in the caching mechanism.
    * So, the method should be called when rendering fails due to hard to explain causes: like
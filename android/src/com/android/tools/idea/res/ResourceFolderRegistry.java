@@ -20,6 +20,8 @@ import com.google.common.collect.Maps;
 import com.intellij.facet.ProjectFacetManager;
 import com.intellij.openapi.application.Application;
 import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.module.Module;
 import com.intellij.openapi.progress.ProgressIndicator;
 import com.intellij.openapi.project.DumbModeTask;
 import com.intellij.openapi.project.Project;
@@ -36,11 +38,15 @@ import java.io.IOException;
 import java.nio.file.Path;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class ResourceFolderRegistry {
+  private static final Logger LOG = Logger.getInstance(ResourceFolderRegistry.class);
+
   private final static Object DIR_MAP_LOCK = new Object();
 
   @GuardedBy("DIR_MAP_LOCK")
@@ -181,21 +187,29 @@ public class ResourceFolderRegistry {
                                                                   @NotNull Map<VirtualFile, AndroidFacet> resDirectories) {
       int numDone = 0;
       List<ResourceFolderRepository> repositories = Lists.newArrayList();
-      // Cap the threads to 4 for now. Scaling is okay from 1 to 2, but not necessarily much better as we go higher.
+      // The files of each directory are scanned in parallel by the repositories themselves, so only a few directories need to be in
+      // flight at once to keep all the cores busy.
       int maxThreads = Math.min(4, Runtime.getRuntime().availableProcessors());
       ExecutorService
         parallelExecutor = AppExecutorUtil.createBoundedApplicationPoolExecutor("ResourceFolderRegistry", maxThreads);
       List<Future<ResourceFolderRepository>> repositoryJobs = Lists.newArrayList();
+      List<Module> jobModules = Lists.newArrayList();
+      // Time spent scanning the resource directories of each module, in milliseconds.
+      Map<Module, AtomicLong> moduleScanTimes = new ConcurrentHashMap<>();
       for (Map.Entry<VirtualFile, AndroidFacet> entry : resDirectories.entrySet()) {
-        repositoryJobs.add(queueRepositoryFuture(parallelExecutor, entry.getValue(), entry.getKey()));
+        Module module = entry.getValue().getModule();
+        repositoryJobs.add(queueRepositoryFuture(parallelExecutor, entry.getValue(), entry.getKey(),
+                                                 moduleScanTimes.computeIfAbsent(module, key -> new AtomicLong())));
+        jobModules.add(module);
       }
-      for (Future<ResourceFolderRepository> job : repositoryJobs) {
+      for (int i = 0; i < repositoryJobs.size(); i++) {
         if (indicator.isCanceled()) {
           break;
         }
         indicator.setFraction((double)numDone / resDirectories.size());
+        indicator.setText2(jobModules.get(i).getName());
         try {
-          repositories.add(job.get());
+          repositories.add(repositoryJobs.get(i).get());
         }
         catch (ExecutionException e) {
           // If we get an exception, that's okay -- we stop pre-populating the cache, which is just for performance.
@@ -205,14 +219,25 @@ public class ResourceFolderRegistry {
         }
         ++numDone;
       }
+      indicator.setText2("");
+      if (LOG.isDebugEnabled()) {
+        moduleScanTimes.forEach(
+          (module, scanTimeMs) -> LOG.debug(String.format("Scanned the resources of %1$s in %2$d ms", module.getName(), scanTimeMs.get())));
+      }
       return repositories;
     }
 
     private static Future<ResourceFolderRepository> queueRepositoryFuture(
       @NotNull final ExecutorService myParallelBuildExecutor,
       @NotNull final AndroidFacet facet,
-      @NotNull final VirtualFile dir) {
-      return myParallelBuildExecutor.submit(() -> ResourceFolderRepository.create(facet, dir, null));
+      @NotNull final VirtualFile dir,
+      @NotNull final AtomicLong moduleScanTimeMs) {
+      return myParallelBuildExecutor.submit(() -> {
+        long startTimeMs = System.currentTimeMillis();
+        ResourceFolderRepository repository = ResourceFolderRepository.create(facet, dir, null);
+        moduleScanTimeMs.addAndGet(System.currentTimeMillis() - startTimeMs);
+        return repository;
+      });
     }
   }
 
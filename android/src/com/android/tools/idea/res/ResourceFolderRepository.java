@@ -31,6 +31,7 @@ import com.android.tools.idea.log.LogWrapper;
 import com.android.tools.lint.detector.api.LintUtils;
 import com.android.utils.ILogger;
 import com.google.common.collect.*;
+import com.google.common.util.concurrent.Futures;
 import com.intellij.openapi.application.Application;
 import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.diagnostic.Logger;
@@ -49,6 +50,7 @@ import com.intellij.psi.impl.PsiTreeChangeEventImpl;
 import com.intellij.psi.util.PsiTreeUtil;
 import com.intellij.psi.xml.*;
 import com.intellij.util.ArrayUtil;
+import com.intellij.util.concurrency.AppExecutorUtil;
 import com.intellij.util.containers.ContainerUtil;
 import org.jetbrains.android.facet.AndroidFacet;
 import org.jetbrains.android.resourceManagers.ModuleResourceManagers;
@@ -60,7 +62,10 @@ import org.jetbrains.annotations.Nullable;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.BufferUnderflowException;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.stream.Collectors;
 
 import static com.android.SdkConstants.*;
@@ -93,6 +98,13 @@ public final class ResourceFolderRepository extends LocalResourceRepository {
 
   private static final ImmutableSet<ResourceFolderType> XML_RESOURCE_FOLDERS = ImmutableSet.copyOf(XML_FILE_RESOURCE_TYPES.values());
 
+  // Scans the files of the initial scans of all the repositories, see scanResFolder. The scans never wait on each other, so the pool can
+  // be shared by the repositories which are created concurrently by ResourceFolderRegistry.
+  private static final ExecutorService ourScanExecutor = AppExecutorUtil.createBoundedApplicationPoolExecutor(
+    "ResourceFolderRepository", Runtime.getRuntime().availableProcessors());
+  @VisibleForTesting
+  static final String SNAPSHOT_FILE_NAME = "resources.snapshot";
+
   private final Module myModule;
   private final AndroidFacet myFacet;
   private final PsiListener myListener;
@@ -118,15 +130,15 @@ public final class ResourceFolderRepository extends LocalResourceRepository {
     myResourceDir = resourceDir;
     myNamespace = namespace;
 
-    ResourceMerger merger = loadPreviousStateIfExists();
-    myInitialScanState = new InitialScanState(merger, VfsUtilCore.virtualToIoFile(myResourceDir));
+    loadPreviousStateIfExists();
+    myInitialScanState = new InitialScanState(namespace, getLibraryName(), VfsUtilCore.virtualToIoFile(myResourceDir));
     scanRemainingFiles();
     Application app = ApplicationManager.getApplication();
     // For now, automatically save the state. We may want to move this out to a separate task.
     if (!hasFreshFileCache() && !app.isUnitTestMode()) {
       saveStateToFile();
     }
-    // Clear some unneeded state (myInitialScanState's resource merger holds a second map of items).
+    // Clear some unneeded state (myInitialScanState's Psi queues).
     // Skip for unit tests, which may need to test saving separately (saving is normally skipped for unit tests).
     if (!app.isUnitTestMode()) {
       myInitialScanState = null;
@@ -157,7 +169,7 @@ public final class ResourceFolderRepository extends LocalResourceRepository {
   }
 
   /**
-   * Saves the non-Psi XML state as a single blob for faster loading the second time
+   * Saves the non-Psi XML state as a {@link ResourceSnapshot} for faster loading the second time
    * by {@link #loadPreviousStateIfExists}.
    */
   void saveStateToFile() {
@@ -167,18 +179,20 @@ public final class ResourceFolderRepository extends LocalResourceRepository {
       return;
     }
 
-    try {
-      ResourcePreprocessor preprocessor = NoOpResourcePreprocessor.INSTANCE;
-      File tempDirectory = FileUtil.createTempDirectory("resource", "tmp", false);
-      try {
-        MergeConsumer<ResourceItem> consumer = MergedResourceWriter.createWriterWithoutPngCruncher(
-          blobRoot, null, null, preprocessor, tempDirectory);
-        myInitialScanState.myResourceMerger.writeBlobToWithTimestamps(blobRoot, consumer);
-      } finally {
-        FileUtil.delete(tempDirectory);
+    List<ResourceFile> resourceFiles = new ArrayList<>();
+    synchronized (ITEM_MAP_LOCK) {
+      for (ResourceFile resourceFile : myResourceFiles.values()) {
+        // Psi files are always rescanned, and the items of non-XML files are easily reconstructed from the file name.
+        if (!(resourceFile instanceof PsiResourceFile) &&
+            resourceFile.getItems().stream().anyMatch(item -> !item.isIgnoredFromDiskMerge())) {
+          resourceFiles.add(resourceFile);
+        }
       }
     }
-    catch (MergingException|IOException e) {
+    try {
+      ResourceSnapshot.write(new File(blobRoot, SNAPSHOT_FILE_NAME), VfsUtilCore.virtualToIoFile(myResourceDir), resourceFiles);
+    }
+    catch (IOException e) {
       LOG.error("Failed to saveStateToFile", e);
       // Delete the blob root just in case it's in an inconsistent state.
       FileUtil.delete(blobRoot);
@@ -189,82 +203,78 @@ public final class ResourceFolderRepository extends LocalResourceRepository {
    * Reloads ResourceFile and ResourceItems which have not changed since the last {@link #saveStateToFile}.
    * Some Resource file and items may not be covered, so {@link #scanRemainingFiles} should be run
    * to load the rest of the items.
-   *
-   * @return the loaded ResourceMerger -- this can be used to save state again, if the cache isn't fresh
    */
-  private ResourceMerger loadPreviousStateIfExists() {
+  private void loadPreviousStateIfExists() {
     File blobRoot = ResourceFolderRepositoryFileCacheService.get().getResourceDir(
       myModule.getProject(), myResourceDir);
-    if (blobRoot == null || !blobRoot.exists()) {
-      return createFreshResourceMerger();
-    }
-    ResourceMerger merger = new ResourceMerger(0 /* minSdk */);
-    // This load may fail if the data is in an inconsistent state or the xml contains illegal
-    // resource names, which the Psi parser would otherwise allow, so load failures are not
-    // strictly an error.
-    // loadFromBlob will check timestamps for stale data and skip.
-    try {
-      if (!merger.loadFromBlob(blobRoot, false)) {
-        LOG.warn("failed to loadPreviousStateIfExists " + blobRoot);
-        return createFreshResourceMerger();
+    if (blobRoot != null) {
+      File snapshotFile = new File(blobRoot, SNAPSHOT_FILE_NAME);
+      // This load may fail if the snapshot is in an inconsistent state, so load failures are not strictly an error.
+      try {
+        ResourceSnapshot snapshot = ResourceSnapshot.load(snapshotFile);
+        if (snapshot != null) {
+          loadSnapshot(snapshot);
+        }
+      }
+      catch (IOException | IndexOutOfBoundsException | BufferUnderflowException e) {
+        LOG.warn("failed to loadPreviousStateIfExists " + snapshotFile, e);
       }
     }
-    catch (MergingException e) {
-      LOG.warn("failed to loadPreviousStateIfExists " + blobRoot, e);
-      return createFreshResourceMerger();
-    }
-    // This temp resourceFiles set is just to avoid calling VfsUtil#findFileByIoFile a ton.
-    Set<ResourceFile> resourceFiles = Sets.newHashSet();
-    List<ResourceSet> resourceSets = merger.getDataSets();
-    if (resourceSets.size() != 1) {
-      LOG.error("Expecting exactly one resource set, but found " + resourceSets.size());
-      return createFreshResourceMerger();
+  }
+
+  /**
+   * Adds the files of {@code snapshot} which did not change since it was taken to the repository. The items are only added once the
+   * whole snapshot was read, so a snapshot which turns out to be inconsistent leaves the repository untouched.
+   */
+  private void loadSnapshot(@NotNull ResourceSnapshot snapshot) {
+    File resourceDir = VfsUtilCore.virtualToIoFile(myResourceDir);
+    // Check that the snapshot we're loading actually corresponds to this resource directory.
+    // This could happen if there's a hash collision in naming the cache directory.
+    if (!snapshot.isSnapshotOf(resourceDir)) {
+      LOG.warn(String.format("snapshot does not match resource dir %1$s", resourceDir));
+      return;
     }
-    ResourceSet dataSet = resourceSets.get(0);
-    List<File> sourceFiles = dataSet.getSourceFiles();
-    if (sourceFiles.size() != 1) {
-      LOG.error("Expecting exactly source files (res/ directories), but found " + sourceFiles.size());
-      return createFreshResourceMerger();
+
+    int fileCount = snapshot.getFileCount();
+    File[] files = new File[fileCount];
+    VirtualFile[] virtualFiles = new VirtualFile[fileCount];
+    List<List<ResourceItem>> fileItems = new ArrayList<>(fileCount);
+    for (int i = 0; i < fileCount; i++) {
+      files[i] = snapshot.getFile(i, resourceDir);
+      if (snapshot.isUpToDate(i, files[i])) {
+        // Files which are not found are left out, and parsed again by the scan if they are found by then.
+        virtualFiles[i] = VfsUtil.findFileByIoFile(files[i], false);
+      }
+      fileItems.add(new ArrayList<>());
     }
-    File myResourceDirFile = VfsUtilCore.virtualToIoFile(myResourceDir);
-    // Check that the dataSet we're loading actually corresponds to this resource directory.
-    // This could happen if there's a hash collision in naming the cache directory.
-    if (!FileUtil.filesEqual(sourceFiles.get(0), myResourceDirFile)) {
-      LOG.warn(String.format("source file %1$s, does not match resource dir %2$s",
-                             sourceFiles.get(0), myResourceDirFile));
-      return createFreshResourceMerger();
-    }
-    for (Map.Entry<String, ResourceItem> entry : dataSet.getDataMap().entries()) {
-      ResourceItem item = entry.getValue();
-      ResourceFile file = item.getSource();
-      if (file != null) {
-        if (!resourceFiles.contains(file)) {
-          VirtualFile vFile = VfsUtil.findFileByIoFile(file.getFile(), false);
-          if (vFile == null) {
-            // Cannot handle this item, mark it ignored to that it doesn't persist.
-            item.setIgnoredFromDiskMerge(true);
-            continue;
-          }
-          resourceFiles.add(file);
-          myResourceFiles.put(vFile, file);
+    for (int typeIndex = 0; typeIndex < snapshot.getTypeCount(); typeIndex++) {
+      ResourceType type = snapshot.getType(typeIndex);
+      if (type == null) {
+        continue;
+      }
+      for (int itemIndex = 0; itemIndex < snapshot.getItemCount(typeIndex); itemIndex++) {
+        int fileIndex = snapshot.getItemFileIndex(typeIndex, itemIndex);
+        if (virtualFiles[fileIndex] != null) {
+          fileItems.get(fileIndex).add(snapshot.createItem(typeIndex, itemIndex, type, myNamespace, getLibraryName()));
         }
-        ListMultimap<String, ResourceItem> map = getMap(myNamespace, item.getType(), true);
-        map.put(item.getName(), item);
-      } else {
-        // Cannot handle this item, mark it ignored to that it doesn't persist.
-        item.setIgnoredFromDiskMerge(true);
       }
     }
-    return merger;
-  }
 
-  private ResourceMerger createFreshResourceMerger() {
-    ResourceMerger merger = new ResourceMerger(0 /* minSdk */);
-    ResourceSet myData = new ResourceSet(myResourceDir.getName(), myNamespace, getLibraryName(), false /* validateEnabled */);
-    File resourceDir = VfsUtilCore.virtualToIoFile(myResourceDir);
-    myData.addSource(resourceDir);
-    merger.addDataSet(myData);
-    return merger;
+    for (int i = 0; i < fileCount; i++) {
+      List<ResourceItem> items = fileItems.get(i);
+      if (virtualFiles[i] == null || items.isEmpty()) {
+        continue;
+      }
+      String dirName = files[i].getParentFile().getName();
+      FolderConfiguration folderConfiguration = FolderConfiguration.getConfigForFolder(dirName);
+      if (folderConfiguration == null) {
+        continue;
+      }
+      myResourceFiles.put(virtualFiles[i], new ResourceFile(files[i], items, getQualifiers(dirName), folderConfiguration));
+      for (ResourceItem item : items) {
+        getMap(myNamespace, item.getType(), true).put(item.getName(), item);
+      }
+    }
   }
 
   /**
@@ -290,20 +300,16 @@ public final class ResourceFolderRepository extends LocalResourceRepository {
     int numXml; // Doesn't count files that are explicitly skipped
     int numXmlReparsed;
 
-    final ResourceMerger myResourceMerger;
-    final ResourceSet myResourceSet;
+    @Nullable final String myNamespace;
+    @Nullable final String myLibraryName;
     final ILogger myILogger;
     final File myResourceDir;
     final Collection<PsiFileResourceQueueEntry> myPsiFileResourceQueue = new ArrayList<>();
     final Collection<PsiValueResourceQueueEntry> myPsiValueResourceQueue = new ArrayList<>();
 
-    InitialScanState(ResourceMerger merger, File resourceDir) {
-      myResourceMerger = merger;
-      assert myResourceMerger.getDataSets().size() == 1;
-      myResourceSet = myResourceMerger.getDataSets().get(0);
-      myResourceSet.setShouldParseResourceIds(true);
-      myResourceSet.setDontNormalizeQualifiers(true);
-      myResourceSet.setTrackSourcePositions(false);
+    InitialScanState(@Nullable String namespace, @Nullable String libraryName, File resourceDir) {
+      myNamespace = namespace;
+      myLibraryName = libraryName;
       myILogger = new LogWrapper(LOG).alwaysLogAsDebug(true).allowVerbose(false);
       myResourceDir = resourceDir;
     }
@@ -318,7 +324,9 @@ public final class ResourceFolderRepository extends LocalResourceRepository {
     }
 
     /**
-     * Load a ResourceFile into the resource merger's resource set and return it.
+     * Load a ResourceFile and return it. Files are scanned in parallel and a resource set is not thread safe, so each file is parsed by a
+     * resource set of its own rather than by one shared behind a lock. Resource sets are cheap to create, and the items a set keeps track
+     * of are not needed once its file is parsed.
      *
      * @param file a resource XML file to load and parse
      * @return the resulting ResourceFile, if there is no parse error.
@@ -326,7 +334,12 @@ public final class ResourceFolderRepository extends LocalResourceRepository {
      */
     @Nullable
     ResourceFile loadFile(File file) throws MergingException {
-      return myResourceSet.loadFile(myResourceDir, file, myILogger);
+      ResourceSet resourceSet = new ResourceSet(myResourceDir.getName(), myNamespace, myLibraryName, false /* validateEnabled */);
+      resourceSet.addSource(myResourceDir);
+      resourceSet.setShouldParseResourceIds(true);
+      resourceSet.setDontNormalizeQualifiers(true);
+      resourceSet.setTrackSourcePositions(false);
+      return resourceSet.loadFile(myResourceDir, file, myILogger);
     }
 
     public void queuePsiFileResourceScan(PsiFileResourceQueueEntry data) {
@@ -371,6 +384,56 @@ public final class ResourceFolderRepository extends LocalResourceRepository {
     }
   }
 
+  private enum CacheStatus {
+    HIT,
+    MISS,
+    // Files which are never cached, see hasFreshFileCache
+    NOT_COUNTED
+  }
+
+  /**
+   * The result of the initial scan of a single file: the file and its items, or where it was queued if it needs to be scanned as Psi.
+   * Scanned files are immutable, so they can be computed in parallel and merged into the repository afterwards.
+   */
+  private static final class ScannedFile {
+    static final ScannedFile CACHE_HIT = new ScannedFile(null, null, CacheStatus.HIT);
+    static final ScannedFile SKIPPED = new ScannedFile(null, null, CacheStatus.NOT_COUNTED);
+
+    @Nullable final VirtualFile myFile;
+    @Nullable final ResourceFile myResourceFile;
+    @NotNull final ImmutableList<ResourceItem> myItems;
+    @NotNull final CacheStatus myCacheStatus;
+    @Nullable final PsiFileResourceQueueEntry myPsiFileEntry;
+    @Nullable final PsiValueResourceQueueEntry myPsiValueEntry;
+
+    ScannedFile(@Nullable VirtualFile file, @Nullable ResourceFile resourceFile, @NotNull CacheStatus cacheStatus) {
+      this(file, resourceFile, cacheStatus, null, null);
+    }
+
+    private ScannedFile(@Nullable VirtualFile file,
+                        @Nullable ResourceFile resourceFile,
+                        @NotNull CacheStatus cacheStatus,
+                        @Nullable PsiFileResourceQueueEntry psiFileEntry,
+                        @Nullable PsiValueResourceQueueEntry psiValueEntry) {
+      myFile = file;
+      myResourceFile = resourceFile;
+      myItems = resourceFile == null ? ImmutableList.of() : ImmutableList.copyOf(resourceFile.getItems());
+      myCacheStatus = cacheStatus;
+      myPsiFileEntry = psiFileEntry;
+      myPsiValueEntry = psiValueEntry;
+    }
+
+    @NotNull
+    static ScannedFile queued(@NotNull PsiFileResourceQueueEntry entry) {
+      return new ScannedFile(entry.file, null, CacheStatus.NOT_COUNTED, entry, null);
+    }
+
+    @NotNull
+    static ScannedFile queued(@NotNull PsiValueResourceQueueEntry entry) {
+      return new ScannedFile(entry.file, null, CacheStatus.NOT_COUNTED, null, entry);
+    }
+  }
+
   private void scanRemainingFiles() {
     if (!myResourceDir.isValid()) {
       return;
@@ -435,7 +498,13 @@ public final class ResourceFolderRepository extends LocalResourceRepository {
     return null;
   }
 
+  /**
+   * Scans the files of the resource folders of {@code resDir} in parallel, then merges the results into the repository in a single step.
+   * The scans do not touch the repository, and the results are merged in the order the files are listed so the content of the repository
+   * does not depend on the scheduling of the scans.
+   */
   private void scanResFolder(@NotNull VirtualFile resDir) {
+    List<Future<ScannedFile>> scans = new ArrayList<>();
     for (VirtualFile subDir : resDir.getChildren()) {
       if (subDir.isValid() && subDir.isDirectory()) {
         String name = subDir.getName();
@@ -447,14 +516,49 @@ public final class ResourceFolderRepository extends LocalResourceRepository {
           }
           String qualifiers = getQualifiers(name);
           if (folderType == VALUES) {
-            scanValueResFolder(subDir, qualifiers, folderConfiguration);
+            scanValueResFolder(subDir, qualifiers, folderConfiguration, scans);
           }
           else {
-            scanFileResourceFolder(subDir, folderType, qualifiers, folderConfiguration);
+            scanFileResourceFolder(subDir, folderType, qualifiers, folderConfiguration, scans);
           }
         }
       }
     }
+
+    List<ScannedFile> scannedFiles = new ArrayList<>(scans.size());
+    for (Future<ScannedFile> scan : scans) {
+      scannedFiles.add(Futures.getUnchecked(scan));
+    }
+    synchronized (ITEM_MAP_LOCK) {
+      for (ScannedFile scannedFile : scannedFiles) {
+        mergeScannedFile(scannedFile);
+      }
+    }
+  }
+
+  private void mergeScannedFile(@NotNull ScannedFile scannedFile) {
+    switch (scannedFile.myCacheStatus) {
+      case HIT:
+        myInitialScanState.countCacheHit();
+        return;
+      case MISS:
+        myInitialScanState.countCacheMiss();
+        break;
+      case NOT_COUNTED:
+        break;
+    }
+    if (scannedFile.myPsiFileEntry != null) {
+      myInitialScanState.queuePsiFileResourceScan(scannedFile.myPsiFileEntry);
+    }
+    if (scannedFile.myPsiValueEntry != null) {
+      myInitialScanState.queuePsiValueResourceScan(scannedFile.myPsiValueEntry);
+    }
+    if (scannedFile.myResourceFile != null) {
+      for (ResourceItem item : scannedFile.myItems) {
+        getMap(myNamespace, item.getType(), true).put(item.getName(), item);
+      }
+      myResourceFiles.put(scannedFile.myFile, scannedFile.myResourceFile);
+    }
   }
 
   private static String getQualifiers(String dirName) {
@@ -464,22 +568,27 @@ public final class ResourceFolderRepository extends LocalResourceRepository {
 
   private void scanFileResourceFolder(@NotNull VirtualFile directory,
                                       ResourceFolderType folderType, String qualifiers,
-                                      FolderConfiguration folderConfiguration) {
+                                      FolderConfiguration folderConfiguration,
+                                      @NotNull List<Future<ScannedFile>> scans) {
     List<ResourceType> resourceTypes = FolderTypeRelationship.getRelatedResourceTypes(folderType);
     assert resourceTypes.size() >= 1 : folderType;
     ResourceType type = resourceTypes.get(0);
 
     boolean idGeneratingFolder = FolderTypeRelationship.isIdGeneratingFolderType(folderType);
 
-    ListMultimap<String, ResourceItem> map = getMap(myNamespace, type, true);
+    // Make sure the map of the type exists even if no file of the folder ends up in it.
+    getMap(myNamespace, type, true);
 
     for (VirtualFile file : directory.getChildren()) {
       if (file.isValid() && !file.isDirectory()) {
-        FileType fileType = file.getFileType();
-        boolean idGeneratingFile = idGeneratingFolder && fileType == StdFileTypes.XML;
-        if (PsiProjectListener.isRelevantFileType(fileType) || folderType == RAW) {
-          scanFileResourceFile(qualifiers, folderType, folderConfiguration, type, idGeneratingFile, map, file);
-        } // TODO: Else warn about files that aren't expected to be found here?
+        scans.add(ourScanExecutor.submit(() -> {
+          FileType fileType = file.getFileType();
+          boolean idGeneratingFile = idGeneratingFolder && fileType == StdFileTypes.XML;
+          if (PsiProjectListener.isRelevantFileType(fileType) || folderType == RAW) {
+            return scanFileResourceFile(qualifiers, folderType, folderConfiguration, type, idGeneratingFile, file);
+          } // TODO: Else warn about files that aren't expected to be found here?
+          return ScannedFile.SKIPPED;
+        }));
       }
     }
   }
@@ -511,56 +620,37 @@ public final class ResourceFolderRepository extends LocalResourceRepository {
     }
   }
 
-  private void scanFileResourceFile(String qualifiers,
-                                    ResourceFolderType folderType,
-                                    FolderConfiguration folderConfiguration,
-                                    ResourceType type,
-                                    boolean idGenerating,
-                                    ListMultimap<String, ResourceItem> map,
-                                    VirtualFile file) {
-    ResourceFile resourceFile;
+  /**
+   * Scans a file of a file resource folder. Runs on {@link #ourScanExecutor}, so it only reads the state of the repository, see
+   * {@link #scanResFolder}.
+   */
+  @NotNull
+  private ScannedFile scanFileResourceFile(String qualifiers,
+                                           ResourceFolderType folderType,
+                                           FolderConfiguration folderConfiguration,
+                                           ResourceType type,
+                                           boolean idGenerating,
+                                           VirtualFile file) {
     if (idGenerating) {
       if (myResourceFiles.containsKey(file)) {
-        myInitialScanState.countCacheHit();
-        return;
+        return ScannedFile.CACHE_HIT;
       }
       try {
-        resourceFile = myInitialScanState.loadFile(VfsUtilCore.virtualToIoFile(file));
+        ResourceFile resourceFile = myInitialScanState.loadFile(VfsUtilCore.virtualToIoFile(file));
         if (resourceFile == null) {
           // The file-based parser failed for some reason. Fall back to Psi in case it is more lax.
           // Don't count Psi items in myInitialScanState.numXml, because they are never cached.
-          myInitialScanState.queuePsiFileResourceScan(
-            new PsiFileResourceQueueEntry(file, qualifiers, folderType, folderConfiguration));
-          return;
-        }
-        ListMultimap<String, ResourceItem> idMap = getMap(myNamespace, ResourceType.ID, true);
-        boolean isDensityBasedResource = folderType == DRAWABLE || folderType == MIPMAP;
-        // We skip caching density-based resources, so don't count those against cache statistics.
-        if (!isDensityBasedResource) {
-          myInitialScanState.countCacheMiss();
+          return ScannedFile.queued(new PsiFileResourceQueueEntry(file, qualifiers, folderType, folderConfiguration));
         }
         for (ResourceItem item : resourceFile.getItems()) {
-          ListMultimap<String, ResourceItem> itemMap;
-          if (item.getType() == ResourceType.ID) {
-            itemMap = idMap;
-          } else {
-            assert item.getType() == type;
-            itemMap = map;
-          }
-          itemMap.put(item.getName(), item);
-          // It's not yet safe to serialize density-based resources items to blob files.
-          // The ResourceValue should be an instance of DensityBasedResourceValue, but no flags are
-          // serialized to the blob to indicate that.
-          if (isDensityBasedResource) {
-            item.setIgnoredFromDiskMerge(true);
-          }
+          assert item.getType() == ResourceType.ID || item.getType() == type;
         }
+        // Density-based resources are cached as well: the snapshot derives their density from the folder, see ResourceSnapshot.
+        return new ScannedFile(file, resourceFile, CacheStatus.MISS);
       }
       catch (MergingException e) {
         // The file-based parser may not be able handle the file if it is a data-binding file.
-        myInitialScanState.queuePsiFileResourceScan(
-          new PsiFileResourceQueueEntry(file, qualifiers, folderType, folderConfiguration));
-        return;
+        return ScannedFile.queued(new PsiFileResourceQueueEntry(file, qualifiers, folderType, folderConfiguration));
       }
     }
     else {
@@ -568,11 +658,10 @@ public final class ResourceFolderRepository extends LocalResourceRepository {
       // No need to write these out to blob files, as the item is easily reconstructed from the filename.
       String name = ResourceHelper.getResourceName(file);
       ResourceItem item = new ResourceItem(name, myNamespace, type, null, getLibraryName());
-      map.put(name, item);
-      resourceFile = new ResourceFile(VfsUtilCore.virtualToIoFile(file), item, qualifiers, folderConfiguration);
+      ResourceFile resourceFile = new ResourceFile(VfsUtilCore.virtualToIoFile(file), item, qualifiers, folderConfiguration);
       item.setIgnoredFromDiskMerge(true);
+      return new ScannedFile(file, resourceFile, CacheStatus.NOT_COUNTED);
     }
-    myResourceFiles.put(file, resourceFile);
   }
 
   @Nullable
@@ -842,13 +931,16 @@ public final class ResourceFolderRepository extends LocalResourceRepository {
     }
   }
 
-  private void scanValueResFolder(@NotNull VirtualFile directory, String qualifiers, FolderConfiguration folderConfiguration) {
+  private void scanValueResFolder(@NotNull VirtualFile directory,
+                                  String qualifiers,
+                                  FolderConfiguration folderConfiguration,
+                                  @NotNull List<Future<ScannedFile>> scans) {
     //noinspection ConstantConditions
     assert directory.getName().startsWith(FD_RES_VALUES);
 
     for (VirtualFile file : directory.getChildren()) {
       if (file.isValid() && !file.isDirectory()) {
-        scanValueFile(qualifiers, file, folderConfiguration);
+        scans.add(ourScanExecutor.submit(() -> scanValueFile(qualifiers, file, folderConfiguration)));
       }
     }
   }
@@ -912,33 +1004,32 @@ public final class ResourceFolderRepository extends LocalResourceRepository {
     return added;
   }
 
-  private void scanValueFile(String qualifiers, VirtualFile virtualFile, FolderConfiguration folderConfiguration) {
+  /**
+   * Scans a file of a values folder. Runs on {@link #ourScanExecutor}, so it only reads the state of the repository, see
+   * {@link #scanResFolder}.
+   */
+  @NotNull
+  private ScannedFile scanValueFile(String qualifiers, VirtualFile virtualFile, FolderConfiguration folderConfiguration) {
     FileType fileType = virtualFile.getFileType();
     if (fileType == StdFileTypes.XML) {
       if (myResourceFiles.containsKey(virtualFile)) {
-        myInitialScanState.countCacheHit();
-        return;
+        return ScannedFile.CACHE_HIT;
       }
       File file = VfsUtilCore.virtualToIoFile(virtualFile);
       try {
         ResourceFile resourceFile = myInitialScanState.loadFile(file);
         if (resourceFile == null) {
           // The file-based parser failed for some reason. Fall back to Psi in case it is more lax.
-          myInitialScanState.queuePsiValueResourceScan(new PsiValueResourceQueueEntry(virtualFile, qualifiers, folderConfiguration));
-          return;
+          return ScannedFile.queued(new PsiValueResourceQueueEntry(virtualFile, qualifiers, folderConfiguration));
         }
-        for (ResourceItem item : resourceFile.getItems()) {
-          ListMultimap<String, ResourceItem> map = getMap(myNamespace, item.getType(), true);
-          map.put(item.getName(), item);
-        }
-        myInitialScanState.countCacheMiss();
-        myResourceFiles.put(virtualFile, resourceFile);
+        return new ScannedFile(virtualFile, resourceFile, CacheStatus.MISS);
       }
       catch (MergingException e) {
         // The file-based parser failed for some reason. Fall back to Psi in case it is more lax.
-        myInitialScanState.queuePsiValueResourceScan(new PsiValueResourceQueueEntry(virtualFile, qualifiers, folderConfiguration));
+        return ScannedFile.queued(new PsiValueResourceQueueEntry(virtualFile, qualifiers, folderConfiguration));
       }
     }
+    return ScannedFile.SKIPPED;
   }
 
   // Schedule a rescan to convert any map ResourceItems to Psi if needed, and return true if conversion
@@ -1322,7 +1413,7 @@ public final class ResourceFolderRepository extends LocalResourceRepository {
                 ResourceItem parentItem = findValueResourceItem(parentTag, psiFile);
                 if (parentItem instanceof PsiResourceItem) {
                   if (((PsiResourceItem)parentItem).recomputeValue()) {
-                    setModificationCount(ourModificationCounter.incrementAndGet());
+                    valueChanged(parentItem);
                   }
                   return;
                 }
@@ -1468,7 +1559,7 @@ public final class ResourceFolderRepository extends LocalResourceRepository {
                   ResourceItem resourceItem = findValueResourceItem(parentTag, psiFile);
                   if (resourceItem instanceof PsiResourceItem) {
                     if (((PsiResourceItem)resourceItem).recomputeValue()) {
-                      setModificationCount(ourModificationCounter.incrementAndGet());
+                      valueChanged(resourceItem);
                     }
 
                     if (resourceItem.getType() == ResourceType.ATTR) {
@@ -1477,7 +1568,7 @@ public final class ResourceFolderRepository extends LocalResourceRepository {
                         ResourceItem declareStyleable = findValueResourceItem(parentTag, psiFile);
                         if (declareStyleable instanceof PsiResourceItem) {
                           if (((PsiResourceItem)declareStyleable).recomputeValue()) {
-                            setModificationCount(ourModificationCounter.incrementAndGet());
+                            valueChanged(declareStyleable);
                           }
                         }
                       }
@@ -1809,7 +1900,7 @@ public final class ResourceFolderRepository extends LocalResourceRepository {
                   ResourceItem resourceItem = findValueResourceItem(parentTag, psiFile);
                   if (resourceItem instanceof PsiResourceItem) {
                     if (((PsiResourceItem)resourceItem).recomputeValue()) {
-                      setModificationCount(ourModificationCounter.incrementAndGet());
+                      valueChanged(resourceItem);
                     }
                     return;
                   }
@@ -1904,7 +1995,7 @@ public final class ResourceFolderRepository extends LocalResourceRepository {
                       ResourceItem resourceItem = findValueResourceItem(parentTag, psiFile);
                       if (resourceItem instanceof PsiResourceItem) {
                         if (((PsiResourceItem)resourceItem).recomputeValue()) {
-                          setModificationCount(ourModificationCounter.incrementAndGet());
+                          valueChanged(resourceItem);
                         }
                         return;
                       }
@@ -2001,7 +2092,7 @@ public final class ResourceFolderRepository extends LocalResourceRepository {
           if (item instanceof PsiResourceItem) {
             boolean cleared = ((PsiResourceItem)item).recomputeValue();
             if (cleared) { // Only bump revision if this is a value which has already been observed!
-              setModificationCount(ourModificationCounter.incrementAndGet());
+              valueChanged(item);
             }
           }
           return;
@@ -2020,7 +2111,7 @@ public final class ResourceFolderRepository extends LocalResourceRepository {
             // Edited XML value
             boolean cleared = ((PsiResourceItem)item).recomputeValue();
             if (cleared) { // Only bump revision if this is a value which has already been observed!
-              setModificationCount(ourModificationCounter.incrementAndGet());
+              valueChanged(item);
             }
           }
           break;
@@ -2273,6 +2364,18 @@ public final class ResourceFolderRepository extends LocalResourceRepository {
     }
   }
 
+  /**
+   * Bumps the modification count after the value of an existing item changed. The attributes of a declare-styleable are part of its value
+   * but also determine the fields of R$styleable, so a change of the value of a declare-styleable is reported to the parents like a change
+   * of the declare-styleable resources.
+   */
+  private void valueChanged(@NotNull ResourceItem item) {
+    setModificationCount(ourModificationCounter.incrementAndGet());
+    if (item.getType() == ResourceType.DECLARE_STYLEABLE) {
+      invalidateParentCaches(myNamespace, ResourceType.DECLARE_STYLEABLE);
+    }
+  }
+
   private static boolean isItemElement(XmlTag xmlTag) {
     String tag = xmlTag.getName();
     if (tag.equals(TAG_RESOURCES)) {
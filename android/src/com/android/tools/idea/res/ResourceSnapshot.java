@@ -0,0 +1,538 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.res;
+
+import com.android.ide.common.rendering.api.*;
+import com.android.ide.common.res2.ResourceFile;
+import com.android.ide.common.res2.ResourceItem;
+import com.android.ide.common.resources.configuration.DensityQualifier;
+import com.android.ide.common.resources.configuration.FolderConfiguration;
+import com.android.resources.Density;
+import com.android.resources.ResourceType;
+import com.android.resources.ResourceUrl;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
+import com.intellij.openapi.util.SystemInfo;
+import com.intellij.openapi.util.io.FileUtil;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.zip.CRC32;
+
+/**
+ * Compact binary snapshot of the XML resource files of a {@link ResourceFolderRepository}, used as its file cache so a warm open does not
+ * parse the XML files which did not change, see {@link ResourceFolderRepository#saveStateToFile}.
+ *
+ * <p>All strings are stored once in a string pool and referred to by index. Every file records its timestamp, length and content hash,
+ * and every item is a fixed size record (name, file, offset of its value) in the section of its resource type. The values are typed
+ * records, see {@link ValueKind}. Sections are addressed by absolute offsets, so the snapshot is read straight from a memory mapped file:
+ * only the item records are read when the repository is loaded, while strings and values are decoded when they are first asked for.
+ * Since decoding happens long after loading, the content is checked against a checksum when the snapshot is loaded instead.
+ */
+final class ResourceSnapshot {
+  private static final int MAGIC = 0x52534E50; // "RSNP"
+  private static final int VERSION = 2;
+
+  private static final int HEADER_SIZE = 13 * 4;
+  private static final int CHECKSUM_OFFSET = HEADER_SIZE - 4;
+  private static final int FILE_RECORD_SIZE = 4 + 8 + 8 + 8;
+  private static final int TYPE_RECORD_SIZE = 3 * 4;
+  private static final int ITEM_RECORD_SIZE = 3 * 4;
+  private static final int NO_STRING = -1;
+
+  private enum ValueKind {
+    NONE,
+    PLAIN,
+    // The value is the path of the file the item is defined by, which is not stored.
+    FILE,
+    TEXT,
+    STYLE,
+    ATTR,
+    DECLARE_STYLEABLE,
+    ARRAY,
+    PLURALS
+  }
+
+  private static final ValueKind[] VALUE_KINDS = ValueKind.values();
+
+  @NotNull private final ByteBuffer myBuffer;
+  @NotNull private final String[] myStrings;
+  private final int myResourceDirIndex;
+  private final int myStringIndexOffset;
+  private final int myStringDataOffset;
+  private final int myFileCount;
+  private final int myFileTableOffset;
+  private final int myTypeCount;
+  private final int myTypeTableOffset;
+  private final int myItemsOffset;
+  private final int myValuesOffset;
+
+  private ResourceSnapshot(@NotNull ByteBuffer buffer) {
+    myBuffer = buffer;
+    myResourceDirIndex = buffer.getInt(8);
+    myStrings = new String[buffer.getInt(12)];
+    myStringIndexOffset = buffer.getInt(16);
+    myStringDataOffset = buffer.getInt(20);
+    myFileCount = buffer.getInt(24);
+    myFileTableOffset = buffer.getInt(28);
+    myTypeCount = buffer.getInt(32);
+    myTypeTableOffset = buffer.getInt(36);
+    myItemsOffset = buffer.getInt(40);
+    myValuesOffset = buffer.getInt(44);
+  }
+
+  /**
+   * Maps the snapshot stored in {@code snapshotFile}.
+   *
+   * @return the snapshot, or null if there is no snapshot, it was written by another version of the format or its content is corrupt.
+   */
+  @Nullable
+  static ResourceSnapshot load(@NotNull File snapshotFile) throws IOException {
+    if (!snapshotFile.isFile()) {
+      return null;
+    }
+    ByteBuffer buffer;
+    if (SystemInfo.isWindows) {
+      // A mapped file can't be replaced until the mapping is garbage collected on Windows, which would make the next save fail.
+      buffer = ByteBuffer.wrap(Files.toByteArray(snapshotFile));
+    }
+    else {
+      try (FileChannel channel = FileChannel.open(snapshotFile.toPath(), StandardOpenOption.READ)) {
+        buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      }
+    }
+    if (buffer.limit() < HEADER_SIZE || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+      return null;
+    }
+    if (buffer.getInt(CHECKSUM_OFFSET) != computeChecksum(buffer)) {
+      return null;
+    }
+    ResourceSnapshot snapshot = new ResourceSnapshot(buffer);
+    return snapshot.myValuesOffset <= buffer.limit() ? snapshot : null;
+  }
+
+  /**
+   * Returns the checksum of everything after the header of the snapshot in {@code buffer}.
+   */
+  private static int computeChecksum(@NotNull ByteBuffer buffer) {
+    ByteBuffer content = buffer.duplicate();
+    content.position(HEADER_SIZE);
+    CRC32 checksum = new CRC32();
+    checksum.update(content);
+    return (int)checksum.getValue();
+  }
+
+  /**
+   * Returns true if the snapshot was taken from the resource directory {@code resourceDir}. Snapshots are stored in directories named
+   * after a hash of the path of their resource directory, so a snapshot may belong to another directory in case of a collision.
+   */
+  boolean isSnapshotOf(@NotNull File resourceDir) {
+    return FileUtil.filesEqual(new File(getString(myResourceDirIndex)), resourceDir);
+  }
+
+  int getFileCount() {
+    return myFileCount;
+  }
+
+  @NotNull
+  File getFile(int fileIndex, @NotNull File resourceDir) {
+    String path = getString(myBuffer.getInt(myFileTableOffset + fileIndex * FILE_RECORD_SIZE));
+    return new File(resourceDir, FileUtil.toSystemDependentName(path));
+  }
+
+  /**
+   * Returns true if {@code file}, which is the file of the snapshot at {@code fileIndex}, did not change since the snapshot was taken.
+   * The content of the file is only hashed if its length is the same but its timestamp is not, e.g. after a checkout which rewrote it.
+   */
+  boolean isUpToDate(int fileIndex, @NotNull File file) {
+    if (!file.isFile()) {
+      return false;
+    }
+    int record = myFileTableOffset + fileIndex * FILE_RECORD_SIZE;
+    if (file.length() != myBuffer.getLong(record + 12)) {
+      return false;
+    }
+    if (file.lastModified() == myBuffer.getLong(record + 4)) {
+      return true;
+    }
+    try {
+      return hashContent(file) == myBuffer.getLong(record + 20);
+    }
+    catch (IOException e) {
+      return false;
+    }
+  }
+
+  int getTypeCount() {
+    return myTypeCount;
+  }
+
+  /**
+   * Returns the resource type of the section at {@code typeIndex}, or null if this version of the IDE does not know about it.
+   */
+  @Nullable
+  ResourceType getType(int typeIndex) {
+    return ResourceType.getEnum(getString(myBuffer.getInt(myTypeTableOffset + typeIndex * TYPE_RECORD_SIZE)));
+  }
+
+  int getItemCount(int typeIndex) {
+    return myBuffer.getInt(myTypeTableOffset + typeIndex * TYPE_RECORD_SIZE + 4);
+  }
+
+  int getItemFileIndex(int typeIndex, int itemIndex) {
+    return myBuffer.getInt(getItemRecord(typeIndex, itemIndex) + 4);
+  }
+
+  /**
+   * Creates the item at {@code itemIndex} of the section of {@code type}. Its value is only decoded when it is asked for.
+   */
+  @NotNull
+  SnapshotResourceItem createItem(int typeIndex,
+                                  int itemIndex,
+                                  @NotNull ResourceType type,
+                                  @Nullable String namespace,
+                                  @Nullable String libraryName) {
+    int record = getItemRecord(typeIndex, itemIndex);
+    return new SnapshotResourceItem(getString(myBuffer.getInt(record)), namespace, type, libraryName, this, myBuffer.getInt(record + 8));
+  }
+
+  private int getItemRecord(int typeIndex, int itemIndex) {
+    return myItemsOffset + myBuffer.getInt(myTypeTableOffset + typeIndex * TYPE_RECORD_SIZE + 8) + itemIndex * ITEM_RECORD_SIZE;
+  }
+
+  @Nullable
+  ResourceValue decodeValue(int valueOffset, @NotNull ResourceUrl url, @NotNull ResourceFile source, @Nullable String libraryName) {
+    int position = myValuesOffset + valueOffset;
+    switch (VALUE_KINDS[myBuffer.get(position++)]) {
+      case NONE:
+        return null;
+      case PLAIN:
+        return new ResourceValue(url, getString(myBuffer.getInt(position)), libraryName);
+      case FILE: {
+        String path = source.getFile().getAbsolutePath();
+        Density density = url.type == ResourceType.DRAWABLE || url.type == ResourceType.MIPMAP ? getDensity(source) : null;
+        return density != null
+               ? new DensityBasedResourceValue(url, path, density, libraryName)
+               : new ResourceValue(url, path, libraryName);
+      }
+      case TEXT:
+        return new TextResourceValue(url, getString(myBuffer.getInt(position)), getString(myBuffer.getInt(position + 4)), libraryName);
+      case STYLE: {
+        StyleResourceValue style = new StyleResourceValue(url, getString(myBuffer.getInt(position)), libraryName);
+        int count = myBuffer.getInt(position + 4);
+        position += 8;
+        for (int i = 0; i < count; i++, position += 9) {
+          style.addItem(new ItemResourceValue(getString(myBuffer.getInt(position)), myBuffer.get(position + 4) != 0,
+                                              getString(myBuffer.getInt(position + 5)), style.isFramework(), style.getLibraryName()));
+        }
+        return style;
+      }
+      case ATTR: {
+        AttrResourceValue attr = new AttrResourceValue(url, libraryName);
+        decodeAttrValues(attr, position);
+        return attr;
+      }
+      case DECLARE_STYLEABLE: {
+        DeclareStyleableResourceValue declareStyleable = new DeclareStyleableResourceValue(url, null, libraryName);
+        int count = myBuffer.getInt(position);
+        position += 4;
+        for (int i = 0; i < count; i++) {
+          String name = getString(myBuffer.getInt(position));
+          boolean isFramework = myBuffer.get(position + 4) != 0;
+          AttrResourceValue attr = new AttrResourceValue(ResourceUrl.create(ResourceType.ATTR, name, isFramework), libraryName);
+          position = decodeAttrValues(attr, position + 5);
+          declareStyleable.addValue(attr);
+        }
+        return declareStyleable;
+      }
+      case ARRAY: {
+        // The value may depend on tools:index, which is not stored, so it is stored as computed when the snapshot was taken.
+        String value = getString(myBuffer.getInt(position));
+        ArrayResourceValue array = new ArrayResourceValue(url, libraryName) {
+          @Override
+          public String getValue() {
+            return value;
+          }
+        };
+        int count = myBuffer.getInt(position + 4);
+        position += 8;
+        for (int i = 0; i < count; i++, position += 4) {
+          array.addElement(getString(myBuffer.getInt(position)));
+        }
+        return array;
+      }
+      case PLURALS: {
+        // Same as for arrays, with tools:quantity.
+        String value = getString(myBuffer.getInt(position));
+        PluralsResourceValue plurals = new PluralsResourceValue(url, null, libraryName) {
+          @Override
+          public String getValue() {
+            return value;
+          }
+        };
+        int count = myBuffer.getInt(position + 4);
+        position += 8;
+        for (int i = 0; i < count; i++, position += 8) {
+          plurals.addPlural(getString(myBuffer.getInt(position)), getString(myBuffer.getInt(position + 4)));
+        }
+        return plurals;
+      }
+    }
+    throw new IllegalStateException();
+  }
+
+  /**
+   * Adds the values of the attr record at {@code position} to {@code attr}.
+   *
+   * @return the position right after the record.
+   */
+  private int decodeAttrValues(@NotNull AttrResourceValue attr, int position) {
+    int count = myBuffer.getInt(position);
+    position += 4;
+    for (int i = 0; i < count; i++, position += 8) {
+      attr.addValue(getString(myBuffer.getInt(position)), myBuffer.getInt(position + 4));
+    }
+    return position;
+  }
+
+  @Nullable
+  private static Density getDensity(@NotNull ResourceFile source) {
+    FolderConfiguration configuration = source.getFolderConfiguration();
+    DensityQualifier densityQualifier = configuration != null ? configuration.getDensityQualifier() : null;
+    return densityQualifier != null ? densityQualifier.getValue() : null;
+  }
+
+  @Nullable
+  private String getString(int index) {
+    if (index == NO_STRING) {
+      return null;
+    }
+    // Racing threads decode the same string, so there is no need to synchronize.
+    String string = myStrings[index];
+    if (string == null) {
+      int position = myStringDataOffset + myBuffer.getInt(myStringIndexOffset + index * 4);
+      byte[] bytes = new byte[myBuffer.getInt(position)];
+      ByteBuffer data = myBuffer.duplicate();
+      data.position(position + 4);
+      data.get(bytes);
+      string = new String(bytes, StandardCharsets.UTF_8);
+      myStrings[index] = string;
+    }
+    return string;
+  }
+
+  private static long hashContent(@NotNull File file) throws IOException {
+    return Files.asByteSource(file).hash(Hashing.murmur3_128()).asLong();
+  }
+
+  /**
+   * Writes the snapshot of {@code resourceFiles}, the XML files of the resource directory {@code resourceDir}, to {@code snapshotFile}.
+   * Items which are {@link ResourceItem#isIgnoredFromDiskMerge() ignored} are left out. The snapshot is written next to
+   * {@code snapshotFile} and moved over it, so a repository being loaded at the same time never sees a partial snapshot.
+   */
+  static void write(@NotNull File snapshotFile, @NotNull File resourceDir, @NotNull Collection<ResourceFile> resourceFiles)
+    throws IOException {
+    Writer writer = new Writer();
+    int resourceDirIndex = writer.string(resourceDir.getPath());
+
+    ByteArrayOutputStream fileTableBytes = new ByteArrayOutputStream();
+    DataOutputStream fileTable = new DataOutputStream(fileTableBytes);
+    Map<ResourceType, List<int[]>> itemsByType = new EnumMap<>(ResourceType.class);
+    int fileCount = 0;
+    for (ResourceFile resourceFile : resourceFiles) {
+      File file = resourceFile.getFile();
+      String path = FileUtil.getRelativePath(resourceDir, file);
+      if (path == null) {
+        continue;
+      }
+      fileTable.writeInt(writer.string(FileUtil.toSystemIndependentName(path)));
+      fileTable.writeLong(file.lastModified());
+      fileTable.writeLong(file.length());
+      fileTable.writeLong(hashContent(file));
+      for (ResourceItem item : resourceFile.getItems()) {
+        if (!item.isIgnoredFromDiskMerge()) {
+          int[] record = {writer.string(item.getName()), fileCount, writer.value(item.getResourceValue(false), file)};
+          itemsByType.computeIfAbsent(item.getType(), type -> new ArrayList<>()).add(record);
+        }
+      }
+      fileCount++;
+    }
+    int[] typeNameIndices = itemsByType.keySet().stream().mapToInt(type -> writer.string(type.getName())).toArray();
+
+    List<byte[]> strings = new ArrayList<>(writer.myStrings.size());
+    int stringDataSize = 0;
+    for (String string : writer.myStrings) {
+      byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+      strings.add(bytes);
+      stringDataSize += 4 + bytes.length;
+    }
+    int itemCount = itemsByType.values().stream().mapToInt(List::size).sum();
+
+    int stringIndexOffset = HEADER_SIZE;
+    int stringDataOffset = stringIndexOffset + strings.size() * 4;
+    int fileTableOffset = stringDataOffset + stringDataSize;
+    int typeTableOffset = fileTableOffset + fileTableBytes.size();
+    int itemsOffset = typeTableOffset + itemsByType.size() * TYPE_RECORD_SIZE;
+    int valuesOffset = itemsOffset + itemCount * ITEM_RECORD_SIZE;
+    ByteBuffer buffer = ByteBuffer.allocate(valuesOffset + writer.myValues.size());
+
+    // The checksum is left at 0 and filled in once the content is written.
+    buffer.putInt(MAGIC).putInt(VERSION).putInt(resourceDirIndex)
+      .putInt(strings.size()).putInt(stringIndexOffset).putInt(stringDataOffset)
+      .putInt(fileCount).putInt(fileTableOffset)
+      .putInt(itemsByType.size()).putInt(typeTableOffset).putInt(itemsOffset).putInt(valuesOffset).putInt(0);
+    int stringOffset = 0;
+    for (byte[] bytes : strings) {
+      buffer.putInt(stringOffset);
+      stringOffset += 4 + bytes.length;
+    }
+    for (byte[] bytes : strings) {
+      buffer.putInt(bytes.length).put(bytes);
+    }
+    buffer.put(fileTableBytes.toByteArray());
+    int itemOffset = 0;
+    int typeIndex = 0;
+    for (List<int[]> records : itemsByType.values()) {
+      buffer.putInt(typeNameIndices[typeIndex++]).putInt(records.size()).putInt(itemOffset);
+      itemOffset += records.size() * ITEM_RECORD_SIZE;
+    }
+    for (List<int[]> records : itemsByType.values()) {
+      for (int[] record : records) {
+        buffer.putInt(record[0]).putInt(record[1]).putInt(record[2]);
+      }
+    }
+    buffer.put(writer.myValueBytes.toByteArray());
+    buffer.putInt(CHECKSUM_OFFSET, computeChecksum(buffer));
+
+    File tempFile = new File(snapshotFile.getPath() + ".tmp");
+    Files.write(buffer.array(), tempFile);
+    java.nio.file.Files.move(tempFile.toPath(), snapshotFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  /**
+   * Pools the strings and encodes the values of a snapshot being written.
+   */
+  private static final class Writer {
+    private final Map<String, Integer> myStringIndices = new HashMap<>();
+    private final List<String> myStrings = new ArrayList<>();
+    private final ByteArrayOutputStream myValueBytes = new ByteArrayOutputStream();
+    private final DataOutputStream myValues = new DataOutputStream(myValueBytes);
+
+    int string(@Nullable String string) {
+      if (string == null) {
+        return NO_STRING;
+      }
+      return myStringIndices.computeIfAbsent(string, key -> {
+        myStrings.add(key);
+        return myStrings.size() - 1;
+      });
+    }
+
+    /**
+     * Encodes {@code value}, defined by {@code file}, and returns the offset of its record.
+     */
+    int value(@Nullable ResourceValue value, @NotNull File file) throws IOException {
+      int offset = myValues.size();
+      if (value == null) {
+        myValues.writeByte(ValueKind.NONE.ordinal());
+      }
+      else if (value instanceof DensityBasedResourceValue || file.getAbsolutePath().equals(value.getValue())) {
+        myValues.writeByte(ValueKind.FILE.ordinal());
+      }
+      else if (value instanceof TextResourceValue) {
+        myValues.writeByte(ValueKind.TEXT.ordinal());
+        myValues.writeInt(string(value.getValue()));
+        myValues.writeInt(string(value.getRawXmlValue()));
+      }
+      else if (value instanceof StyleResourceValue) {
+        StyleResourceValue style = (StyleResourceValue)value;
+        Collection<ItemResourceValue> items = style.getValues();
+        myValues.writeByte(ValueKind.STYLE.ordinal());
+        myValues.writeInt(string(style.getParentStyle()));
+        myValues.writeInt(items.size());
+        for (ItemResourceValue item : items) {
+          myValues.writeInt(string(item.getName()));
+          myValues.writeBoolean(item.isFrameworkAttr());
+          myValues.writeInt(string(item.getValue()));
+        }
+      }
+      else if (value instanceof AttrResourceValue) {
+        myValues.writeByte(ValueKind.ATTR.ordinal());
+        attrValues((AttrResourceValue)value);
+      }
+      else if (value instanceof DeclareStyleableResourceValue) {
+        List<AttrResourceValue> attrs = ((DeclareStyleableResourceValue)value).getAllAttributes();
+        myValues.writeByte(ValueKind.DECLARE_STYLEABLE.ordinal());
+        myValues.writeInt(attrs.size());
+        for (AttrResourceValue attr : attrs) {
+          myValues.writeInt(string(attr.getName()));
+          myValues.writeBoolean(attr.isFramework());
+          attrValues(attr);
+        }
+      }
+      else if (value instanceof ArrayResourceValue) {
+        List<String> elements = new ArrayList<>();
+        for (String element : (ArrayResourceValue)value) {
+          elements.add(element);
+        }
+        myValues.writeByte(ValueKind.ARRAY.ordinal());
+        myValues.writeInt(string(value.getValue()));
+        myValues.writeInt(elements.size());
+        for (String element : elements) {
+          myValues.writeInt(string(element));
+        }
+      }
+      else if (value instanceof PluralsResourceValue) {
+        PluralsResourceValue plurals = (PluralsResourceValue)value;
+        myValues.writeByte(ValueKind.PLURALS.ordinal());
+        myValues.writeInt(string(plurals.getValue()));
+        myValues.writeInt(plurals.getPluralsCount());
+        for (int i = 0; i < plurals.getPluralsCount(); i++) {
+          myValues.writeInt(string(plurals.getQuantity(i)));
+          myValues.writeInt(string(plurals.getValue(i)));
+        }
+      }
+      else {
+        myValues.writeByte(ValueKind.PLAIN.ordinal());
+        myValues.writeInt(string(value.getValue()));
+      }
+      return offset;
+    }
+
+    private void attrValues(@NotNull AttrResourceValue attr) throws IOException {
+      Map<String, Integer> values = attr.getAttributeValues();
+      if (values == null) {
+        myValues.writeInt(0);
+        return;
+      }
+      myValues.writeInt(values.size());
+      for (Map.Entry<String, Integer> entry : values.entrySet()) {
+        myValues.writeInt(string(entry.getKey()));
+        myValues.writeInt(entry.getValue());
+      }
+    }
+  }
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.res;
+
+import com.android.ide.common.rendering.api.ResourceValue;
+import com.android.ide.common.res2.ResourceFile;
+import com.android.ide.common.res2.ResourceItem;
+import com.android.resources.ResourceType;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * A resource item loaded from a {@link ResourceSnapshot}, which decodes its value from the snapshot the first time it is asked for.
+ */
+class SnapshotResourceItem extends ResourceItem {
+  @NotNull private final ResourceSnapshot mySnapshot;
+  @Nullable private final String myLibraryName;
+  private final int myValueOffset;
+
+  SnapshotResourceItem(@NotNull String name,
+                       @Nullable String namespace,
+                       @NotNull ResourceType type,
+                       @Nullable String libraryName,
+                       @NotNull ResourceSnapshot snapshot,
+                       int valueOffset) {
+    super(name, namespace, type, null, libraryName);
+    mySnapshot = snapshot;
+    myLibraryName = libraryName;
+    myValueOffset = valueOffset;
+  }
+
+  @Nullable
+  @Override
+  public ResourceValue getResourceValue(boolean isFrameworks) {
+    if (mResourceValue == null) {
+      ResourceFile source = getSource();
+      if (source == null) {
+        return null;
+      }
+      mResourceValue = mySnapshot.decodeValue(myValueOffset, getResourceUrl(isFrameworks), source, myLibraryName);
+    }
+    return mResourceValue;
+  }
+}
@@ -62,6 +62,8 @@ public final class ModuleClassLoader extends RenderClassLoader {
   private Map<String, VirtualFile> myClassFiles;
   /** Map from fully qualified class name to the corresponding last modified info for each class loaded by this class loader */
   private Map<String, ClassModificationTimestamp> myClassFilesLastModified;
+  /** Map from fully qualified class name to the resource modification count for each R class generated for this class loader */
+  private Map<String, Long> myResourceClassModificationCounts;
 
   private static class ClassModificationTimestamp {
     public final long timestamp;
@@ -96,8 +98,14 @@ public final class ModuleClassLoader extends RenderClassLoader {
           if (isResourceClassName(name)) {
             AppResourceRepository appResources = AppResourceRepository.findExistingInstance(module);
             if (appResources != null) {
-              byte[] data = ResourceClassRegistry.get(module.getProject()).findClassDefinition(name, appResources);
+              ResourceClassRegistry registry = ResourceClassRegistry.get(module.getProject());
+              byte[] data = registry.findClassDefinition(name, appResources);
               if (data != null) {
+                if (myResourceClassModificationCounts == null) {
+                  myResourceClassModificationCounts = Maps.newHashMap();
+                }
+                // Read once the class is generated, so that it is the count the fields of the class were computed at.
+                myResourceClassModificationCounts.put(name, registry.getGeneratedModificationCount(name, appResources));
                 data = convertClass(data);
                 if (LOG.isDebugEnabled()) {
                   LOG.debug("  Defining class from AAR registry");
@@ -480,6 +488,20 @@ public final class ModuleClassLoader extends RenderClassLoader {
       }
     }
 
+    if (myResourceClassModificationCounts != null) {
+      Module module = myModuleReference.get();
+      AppResourceRepository appResources = module != null ? AppResourceRepository.findExistingInstance(module) : null;
+      if (appResources != null) {
+        // The R classes which haven't been loaded yet will be generated from the current resources, only the loaded ones can be stale.
+        ResourceClassRegistry registry = ResourceClassRegistry.get(module.getProject());
+        for (Map.Entry<String, Long> entry : myResourceClassModificationCounts.entrySet()) {
+          if (!registry.isUpToDate(entry.getKey(), appResources, entry.getValue())) {
+            return false;
+          }
+        }
+      }
+    }
+
     return true;
   }
 
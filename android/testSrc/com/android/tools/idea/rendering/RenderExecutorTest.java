@@ -0,0 +1,167 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.rendering;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class RenderExecutorTest extends TestCase {
+  private RenderExecutor myExecutor;
+  private CountDownLatch myBlockerLatch;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    // The actions of the tests don't wait long enough to age, except where a test wants them to.
+    startBlockedExecutor(TimeUnit.MINUTES.toMillis(10));
+  }
+
+  private void startBlockedExecutor(long priorityAgingMs) throws InterruptedException {
+    myExecutor = new RenderExecutor(TimeUnit.SECONDS.toMillis(10), priorityAgingMs, Thread::new);
+    // Keep the thread busy, so the next actions are queued.
+    myBlockerLatch = new CountDownLatch(1);
+    CountDownLatch started = new CountDownLatch(1);
+    myExecutor.submit(() -> {
+      started.countDown();
+      myBlockerLatch.await();
+      return null;
+    });
+    started.await();
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    try {
+      myExecutor.shutdownNow();
+    }
+    finally {
+      super.tearDown();
+    }
+  }
+
+  public void testPriorities() throws Exception {
+    List<String> order = Collections.synchronizedList(new ArrayList<>());
+    ListenableFuture<Boolean> low = myExecutor.submit(() -> order.add("low"), RenderExecutor.Priority.LOW, null);
+    myExecutor.submit(() -> order.add("normal1"));
+    myExecutor.submit(() -> order.add("high"), RenderExecutor.Priority.HIGH, null);
+    myExecutor.submit(() -> order.add("normal2"));
+    assertEquals(4, myExecutor.getStats().getQueueSize());
+
+    myBlockerLatch.countDown();
+    low.get(5, TimeUnit.SECONDS);
+    assertEquals(Arrays.asList("high", "normal1", "normal2", "low"), order);
+  }
+
+  public void testAging() throws Exception {
+    myExecutor.shutdownNow();
+    startBlockedExecutor(50);
+    List<String> order = Collections.synchronizedList(new ArrayList<>());
+    myExecutor.submit(() -> order.add("low"), RenderExecutor.Priority.LOW, null);
+    // Long enough for the low priority action to age past the high priority lane.
+    Thread.sleep(200);
+    ListenableFuture<Boolean> high = myExecutor.submit(() -> order.add("high"), RenderExecutor.Priority.HIGH, null);
+
+    myBlockerLatch.countDown();
+    high.get(5, TimeUnit.SECONDS);
+    assertEquals(Arrays.asList("low", "high"), order);
+  }
+
+  public void testTimeoutExcludesQueueWait() throws Exception {
+    for (int i = 0; i < 8; i++) {
+      myExecutor.submit(() -> {
+        Thread.sleep(200);
+        return null;
+      }, RenderExecutor.Priority.HIGH, null);
+    }
+    ListenableFuture<String> low = myExecutor.submit(() -> "low", RenderExecutor.Priority.LOW, null);
+
+    myBlockerLatch.countDown();
+    // The action waits for longer than the timeout behind the others, none of which runs for anywhere near that long.
+    assertEquals("low", myExecutor.get(low, 1000, TimeUnit.MINUTES.toMillis(1)));
+  }
+
+  public void testTimeoutWhenQueueIsStuck() throws Exception {
+    ListenableFuture<Object> next = myExecutor.submit(() -> null);
+    try {
+      // The blocking action runs for longer than the timeout.
+      myExecutor.get(next, 100, TimeUnit.MINUTES.toMillis(1));
+      fail("Expected a TimeoutException");
+    }
+    catch (TimeoutException ignored) {
+    }
+    assertFalse(next.isDone());
+  }
+
+  public void testTimeoutAtDeadline() throws Exception {
+    ListenableFuture<Object> next = myExecutor.submit(() -> null);
+    try {
+      // The blocking action doesn't run for longer than the timeout, but the caller doesn't wait past the deadline.
+      myExecutor.get(next, TimeUnit.MINUTES.toMillis(1), 100);
+      fail("Expected a TimeoutException");
+    }
+    catch (TimeoutException ignored) {
+    }
+    assertFalse(next.isDone());
+  }
+
+  public void testSupersede() throws Exception {
+    AtomicInteger runCount = new AtomicInteger();
+    Object key = new Object();
+    ListenableFuture<String> first = myExecutor.submit(() -> "first" + runCount.incrementAndGet(), RenderExecutor.Priority.LOW, key);
+    ListenableFuture<String> second = myExecutor.submit(() -> "second" + runCount.incrementAndGet(), RenderExecutor.Priority.HIGH, key);
+    ListenableFuture<String> other = myExecutor.submit(() -> "other", RenderExecutor.Priority.NORMAL, null);
+    // The superseded render shares the pending one, which moves to the lane of the new one.
+    assertSame(first, second);
+    assertEquals(2, myExecutor.getStats().getQueueSize());
+
+    myBlockerLatch.countDown();
+    assertEquals("first1", second.get(5, TimeUnit.SECONDS));
+    other.get(5, TimeUnit.SECONDS);
+    assertEquals(1, runCount.get());
+
+    // Once the pending render has run, the next one runs again.
+    ListenableFuture<String> third = myExecutor.submit(() -> "third" + runCount.incrementAndGet(), RenderExecutor.Priority.LOW, key);
+    assertNotSame(first, third);
+    assertEquals("third2", third.get(5, TimeUnit.SECONDS));
+  }
+
+  public void testCancelAndStats() throws Exception {
+    ListenableFuture<Object> cancelled = myExecutor.submit(() -> {
+      fail("Cancelled actions shouldn't run");
+      return null;
+    });
+    ListenableFuture<Object> next = myExecutor.submit(() -> null);
+    assertEquals(2, myExecutor.getStats().getQueueSize());
+    assertTrue(cancelled.cancel(false));
+    assertEquals(1, myExecutor.getStats().getQueueSize());
+    assertEquals(1, myExecutor.getStats().getRunningCount());
+
+    myBlockerLatch.countDown();
+    next.get(5, TimeUnit.SECONDS);
+    RenderExecutor.Stats stats = myExecutor.getStats();
+    assertEquals(0, stats.getQueueSize());
+    assertEquals(2, stats.getCompletedCount());
+  }
+}
@@ -35,15 +35,19 @@ import com.intellij.openapi.vfs.VfsUtilCore;
 import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.psi.PsiDocumentManager;
 import com.intellij.psi.PsiFile;
+import com.intellij.openapi.util.Disposer;
 import com.intellij.psi.PsiManager;
 import com.intellij.util.ui.UIUtil;
 import gnu.trove.TIntObjectHashMap;
 import gnu.trove.TObjectIntHashMap;
 import org.jetbrains.android.AndroidTestCase;
 import org.jetbrains.android.facet.AndroidFacet;
+import org.jetbrains.annotations.NotNull;
 import org.junit.Assert;
 
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.util.*;
 import java.util.function.BiFunction;
@@ -270,6 +274,97 @@ public class AppResourceRepositoryTest extends AndroidTestCase {
     assertNotEquals(styleId, repository.getResourceId(ResourceType.STYLE, "style"));
   }
 
+  @SuppressWarnings("deprecation")  // For Pair
+  public void testSaveAndLoadDynamicIds() throws IOException {
+    myFixture.addFileToProject("res/values/values.xml",
+                               "<resources>\n" +
+                               "  <string name=\"string\">String</string>\n" +
+                               "  <declare-styleable name=\"styleable\"/>\n" +
+                               "</resources>");
+    myFixture.addFileToProject("res/layout/layout.xml", "<LinearLayout/>");
+    PsiFile removedFile = myFixture.addFileToProject("res/layout/removed.xml", "<LinearLayout/>");
+    AppResourceRepository repository = AppResourceRepository.getOrCreateInstance(myFacet);
+    Integer stringId = repository.getResourceId(ResourceType.STRING, "string");
+    Integer styleableId = repository.getResourceId(ResourceType.STYLEABLE, "styleable");
+    Integer layoutId = repository.getResourceId(ResourceType.LAYOUT, "layout");
+    Integer removedId = repository.getResourceId(ResourceType.LAYOUT, "removed");
+    WriteCommandAction.runWriteCommandAction(getProject(), removedFile::delete);
+    UIUtil.dispatchAllInvocationEvents();
+    assertFalse(repository.hasResourceItem(ResourceType.LAYOUT, "removed"));
+    File file = new File(myFixture.getTempDirPath(), "dynamic_ids");
+    repository.saveDynamicIds(file);
+
+    repository.resetDynamicIds(false);
+    assertNull(repository.resolveResourceId(stringId));
+    repository.loadDynamicIds(file);
+    // The resources get their previous ids back, whatever the order they are asked for in.
+    assertEquals(Pair.of(ResourceType.LAYOUT, "layout"), repository.resolveResourceId(layoutId));
+    assertEquals(layoutId, repository.getResourceId(ResourceType.LAYOUT, "layout"));
+    assertEquals(stringId, repository.getResourceId(ResourceType.STRING, "string"));
+    assertEquals(styleableId, repository.getResourceId(ResourceType.STYLEABLE, "styleable"));
+    // The ids of the removed resources aren't saved.
+    assertNull(repository.resolveResourceId(removedId));
+    // New resources don't reuse the loaded ids, nor the dropped ones.
+    Integer styleId = repository.getResourceId(ResourceType.STYLE, "style");
+    assertNotEquals(stringId, styleId);
+    assertNotEquals(styleableId, styleId);
+    assertNotEquals(layoutId, styleId);
+    assertNotEquals(removedId, styleId);
+  }
+
+  public void testDynamicIdsAreSavedWhenDisposed() {
+    File file = new File(myFixture.getTempDirPath(), "dynamic_ids");
+    TestLocalResourceRepository resources = new TestLocalResourceRepository();
+    addItem(resources, ResourceType.STRING, "string");
+    AppResourceRepository repository =
+      new AppResourceRepository(myFacet, Collections.singletonList(resources), Collections.emptyList(), file);
+    Integer stringId = repository.getResourceId(ResourceType.STRING, "string");
+    Disposer.dispose(repository);
+    assertTrue(file.exists());
+
+    resources = new TestLocalResourceRepository();
+    addItem(resources, ResourceType.STRING, "string");
+    repository = new AppResourceRepository(myFacet, Collections.singletonList(resources), Collections.emptyList(), file);
+    // A resource asked for first doesn't take the saved id of another one.
+    assertNotEquals(stringId, repository.getResourceId(ResourceType.LAYOUT, "layout"));
+    assertEquals(stringId, repository.getResourceId(ResourceType.STRING, "string"));
+    Disposer.dispose(repository);
+  }
+
+  public void testSavedDynamicIdsAreCompacted() throws IOException {
+    File file = new File(myFixture.getTempDirPath(), "dynamic_ids");
+    try (DataOutputStream out = new DataOutputStream(new FileOutputStream(file))) {
+      out.writeInt(1);
+      out.writeInt(Integer.MAX_VALUE - 1);
+      out.writeInt(2);
+      out.writeUTF(ResourceType.STRING.getName());
+      out.writeUTF("b");
+      out.writeInt(Integer.MAX_VALUE - 1);
+      out.writeUTF(ResourceType.STRING.getName());
+      out.writeUTF("a");
+      out.writeInt(Integer.MAX_VALUE - 10);
+    }
+    AppResourceRepository repository = AppResourceRepository.getOrCreateInstance(myFacet);
+    repository.loadDynamicIds(file);
+    // The seed is close to the end of the range, so the saved ids are renumbered from its start, in the same order.
+    assertEquals(Integer.valueOf(0x7fff0001), repository.getResourceId(ResourceType.STRING, "a"));
+    assertEquals(Integer.valueOf(0x7fff0002), repository.getResourceId(ResourceType.STRING, "b"));
+    assertEquals(Integer.valueOf(0x7fff0003), repository.getResourceId(ResourceType.STRING, "c"));
+  }
+
+  public void testDynamicIdsDontOverflow() {
+    AppResourceRepository repository = AppResourceRepository.getOrCreateInstance(myFacet);
+    for (int i = 0; i <= 0xffff; i++) {
+      assertTrue(repository.getResourceId(ResourceType.ID, "id" + i) > 0);
+    }
+  }
+
+  private static void addItem(@NotNull TestLocalResourceRepository repository, @NotNull ResourceType type, @NotNull String name) {
+    ListMultimap<String, ResourceItem> map = repository.getMap(null, type, true);
+    assertNotNull(map);
+    map.put(name, new ResourceItem(name, null, type, null, null));
+  }
+
   @SuppressWarnings("deprecation")  // For Pair
   public void testSetCompiledResources() {
     AppResourceRepository repository = AppResourceRepository.getOrCreateInstance(myFacet);
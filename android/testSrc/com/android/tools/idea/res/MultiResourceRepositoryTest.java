@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.res;
+
+import com.android.ide.common.res2.ResourceFile;
+import com.android.ide.common.res2.ResourceItem;
+import com.android.ide.common.resources.configuration.FolderConfiguration;
+import com.android.resources.ResourceType;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ListMultimap;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+public class MultiResourceRepositoryTest {
+  @Test
+  public void testIncrementalMergeMatchesFullMerge() {
+    TestLocalResourceRepository first = new TestLocalResourceRepository();
+    TestLocalResourceRepository second = new TestLocalResourceRepository();
+    TestLocalResourceRepository third = new TestLocalResourceRepository();
+    ResourceItem firstAppName = addString(first, "app_name", "values");
+    ResourceItem firstFrench = addString(first, "app_name", "values-fr");
+    ResourceItem secondAppName = addString(second, "app_name", "values");
+    ResourceItem thirdAppName = addString(third, "app_name", "values");
+    MultiResourceRepository repository = new MultiResourceRepository("test", ImmutableList.of(first, second, third)) {};
+
+    // Later children hide the items of earlier ones with the same qualifiers.
+    ListMultimap<String, ResourceItem> strings = repository.getMap(null, ResourceType.STRING, false);
+    assertNotNull(strings);
+    assertEquals(Arrays.asList(thirdAppName, firstFrench), strings.get("app_name"));
+    assertSame(strings, repository.getMap(null, ResourceType.STRING, false));
+
+    // A change in the second child only merges the first two again.
+    ResourceItem secondTitle = addString(second, "title", "values");
+    second.invalidateParentCaches(null, ResourceType.STRING);
+    strings = repository.getMap(null, ResourceType.STRING, false);
+    assertNotNull(strings);
+    assertEquals(Arrays.asList(thirdAppName, firstFrench), strings.get("app_name"));
+    assertEquals(Collections.singletonList(secondTitle), strings.get("title"));
+
+    // Removing the item of the last child uncovers the one of the second child.
+    third.getMap(null, ResourceType.STRING, false).removeAll("app_name");
+    third.invalidateParentCaches(null, ResourceType.STRING);
+    strings = repository.getMap(null, ResourceType.STRING, false);
+    assertNotNull(strings);
+    assertEquals(Arrays.asList(secondAppName, firstFrench), strings.get("app_name"));
+
+    // Changes to other types leave the merged strings as they are.
+    third.invalidateParentCaches(null, ResourceType.LAYOUT);
+    assertSame(strings, repository.getMap(null, ResourceType.STRING, false));
+
+    second.getMap(null, ResourceType.STRING, false).removeAll("app_name");
+    second.invalidateParentCaches();
+    strings = repository.getMap(null, ResourceType.STRING, false);
+    assertNotNull(strings);
+    assertEquals(Arrays.asList(firstAppName, firstFrench), strings.get("app_name"));
+  }
+
+  private static ResourceItem addString(TestLocalResourceRepository repository, String name, String folderName) {
+    ResourceItem item = new ResourceItem(name, null, ResourceType.STRING, null, null);
+    int qualifiersStart = folderName.indexOf('-');
+    String qualifiers = qualifiersStart == -1 ? "" : folderName.substring(qualifiersStart + 1);
+    new ResourceFile(new File(folderName, "strings.xml"), item, qualifiers, FolderConfiguration.getConfigForFolder(folderName));
+    ListMultimap<String, ResourceItem> map = repository.getMap(null, ResourceType.STRING, true);
+    assertNotNull(map);
+    map.put(name, item);
+    return item;
+  }
+}
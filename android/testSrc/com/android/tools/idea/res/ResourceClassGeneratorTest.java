@@ -40,6 +40,7 @@ import java.util.Collections;
 import java.util.Set;
 
 import static java.io.File.separatorChar;
+import static org.junit.Assert.assertNotEquals;
 
 public class ResourceClassGeneratorTest extends AndroidTestCase {
   private static final String LIBRARY_NAME = "com.test:test-library:1.0.0";
@@ -256,6 +257,65 @@ public class ResourceClassGeneratorTest extends AndroidTestCase {
     assertNotNull(clz.newInstance());
   }
 
+  public void testRegeneratesChangedTypesOnly() throws Exception {
+    TestLocalResourceRepository resources = new TestLocalResourceRepository();
+    addItem(resources, ResourceType.STRING, "app_name");
+    addItem(resources, ResourceType.ID, "button");
+    AppResourceRepository appResources = new AppResourceRepository(myFacet, Collections.singletonList(resources),
+                                                                   Collections.emptyList());
+    ResourceClassGenerator generator = ResourceClassGenerator.create(appResources);
+
+    long idModificationCount = generator.getModificationCount("my.test.pkg.R$id");
+    assertEquals(-1, generator.getGeneratedModificationCount("my.test.pkg.R$string"));
+    Class<?> clz = generateClass(generator, "my.test.pkg.R$string");
+    assertNotNull(clz);
+    long stringModificationCount = generator.getGeneratedModificationCount("my.test.pkg.R$string");
+    assertEquals(generator.getModificationCount("my.test.pkg.R$string"), stringModificationCount);
+    Object appNameId = clz.getField("app_name").get(null);
+    assertEquals(1, clz.getFields().length);
+
+    addItem(resources, ResourceType.STRING, "title");
+    resources.invalidateParentCaches(null, ResourceType.STRING);
+    assertEquals(idModificationCount, generator.getModificationCount("my.test.pkg.R$id"));
+    assertNotEquals(stringModificationCount, generator.getModificationCount("my.test.pkg.R$string"));
+    // The ids are stable, so the class generated before the change can still be used.
+    assertTrue(generator.isUpToDate("my.test.pkg.R$string", stringModificationCount));
+
+    clz = generateClass(generator, "my.test.pkg.R$string");
+    assertNotNull(clz);
+    assertEquals(2, clz.getFields().length);
+    assertEquals(appNameId, clz.getField("app_name").get(null));
+    assertEquals(appResources.getResourceId(ResourceType.STRING, "title"), clz.getField("title").get(null));
+  }
+
+  public void testStyleableIgnoresValueEdits() {
+    TestLocalResourceRepository resources = new TestLocalResourceRepository();
+    addItem(resources, ResourceType.STRING, "app_name");
+    AppResourceRepository appResources = new AppResourceRepository(myFacet, Collections.singletonList(resources),
+                                                                   Collections.emptyList());
+    ResourceClassGenerator generator = ResourceClassGenerator.create(appResources);
+    long styleableModificationCount = generator.getModificationCount("my.test.pkg.R$styleable");
+
+    // Editing the value of a resource only moves the modification count of the repository.
+    long modificationCount = appResources.getModificationCount();
+    resources.setModificationCount(LocalResourceRepository.ourModificationCounter.incrementAndGet());
+    assertNotEquals(modificationCount, appResources.getModificationCount());
+    assertTrue(generator.isUpToDate("my.test.pkg.R$styleable", styleableModificationCount));
+
+    // Editing the attributes of a declare-styleable, or adding attributes, changes the fields of R$styleable.
+    resources.invalidateParentCaches(null, ResourceType.DECLARE_STYLEABLE);
+    assertFalse(generator.isUpToDate("my.test.pkg.R$styleable", styleableModificationCount));
+    styleableModificationCount = generator.getModificationCount("my.test.pkg.R$styleable");
+    resources.invalidateParentCaches(null, ResourceType.ATTR);
+    assertFalse(generator.isUpToDate("my.test.pkg.R$styleable", styleableModificationCount));
+  }
+
+  private static void addItem(@NotNull TestLocalResourceRepository repository, @NotNull ResourceType type, @NotNull String name) {
+    ListMultimap<String, ResourceItem> map = repository.getMap(null, type, true);
+    assertNotNull(map);
+    map.put(name, new ResourceItem(name, null, type, null, null));
+  }
+
   public void testIndexOverflow() throws Exception {
     StringBuilder attributes = new StringBuilder();
     for (int i = 0; i < 1000; i++) {
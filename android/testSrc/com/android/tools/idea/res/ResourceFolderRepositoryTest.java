@@ -55,6 +55,7 @@ import java.util.*;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import static com.android.SdkConstants.*;
 import static com.android.tools.idea.res.ResourceFolderRepository.ourFullRescans;
@@ -3929,6 +3930,27 @@ public class ResourceFolderRepositoryTest extends AndroidTestCase {
     assertEquals(0, resourcesReloaded.getInitialScanState().numXmlReparsed);
   }
 
+  public void testInitialScanParsesFilesOutsideOfLocks() throws Exception {
+    VirtualFile layout = myFixture.copyFileToProject(LAYOUT1, "res/layout/layout.xml");
+    VirtualFile values = myFixture.copyFileToProject(VALUES1, "res/values/myvalues.xml");
+    ResourceFolderRepository resources = createRepository();
+    ResourceFolderRepository.InitialScanState scanState = resources.getInitialScanState();
+
+    // The scans of the files of a repository run in parallel. They used to parse behind the monitor of the scan state, so a parse holding
+    // it kept all the other scans of the repository waiting, and parked them on the shared scan pool.
+    synchronized (scanState) {
+      Future<ResourceFile> layoutParse =
+        PooledThreadExecutor.INSTANCE.submit(() -> scanState.loadFile(VfsUtilCore.virtualToIoFile(layout)));
+      Future<ResourceFile> valuesParse =
+        PooledThreadExecutor.INSTANCE.submit(() -> scanState.loadFile(VfsUtilCore.virtualToIoFile(values)));
+      ResourceFile layoutFile = layoutParse.get(10, TimeUnit.SECONDS);
+      ResourceFile valuesFile = valuesParse.get(10, TimeUnit.SECONDS);
+      assertNotNull(layoutFile);
+      assertNotNull(valuesFile);
+      assertFalse(valuesFile.getItems().isEmpty());
+    }
+  }
+
   public void testSerialization() throws Exception {
     myFixture.copyFileToProject(LAYOUT1, "res/layout/layout.xml");
     myFixture.copyFileToProject(LAYOUT1, "res/layout-xlarge-land/layout.xml");
@@ -3977,6 +3999,30 @@ public class ResourceFolderRepositoryTest extends AndroidTestCase {
     assertEquals(resourcesReloaded.getInitialScanState().numXml, resourcesReloaded.getInitialScanState().numXmlReparsed);
   }
 
+  public void testCorruptSnapshotIsRescanned() throws Exception {
+    myFixture.copyFileToProject(LAYOUT1, "res/layout/layout.xml");
+    myFixture.copyFileToProject(VALUES1, "res/values/myvalues.xml");
+    myFixture.copyFileToProject(STRINGS, "res/values/strings.xml");
+    final ResourceFolderRepository resources = createRepository();
+    assertNotNull(resources);
+    resources.saveStateToFile();
+
+    // Values are decoded lazily, so a corrupt value must be caught when the snapshot is loaded, not when the value is looked up.
+    File blobRoot = ResourceFolderRepositoryFileCacheService.get().getResourceDir(getProject(), getResourceDirectory());
+    assertNotNull(blobRoot);
+    File snapshotFile = new File(blobRoot, ResourceFolderRepository.SNAPSHOT_FILE_NAME);
+    byte[] bytes = FileUtil.loadFileBytes(snapshotFile);
+    bytes[bytes.length - 1] ^= 0x7f;
+    FileUtil.writeToFile(snapshotFile, bytes);
+
+    ResourceFolderRegistry.reset();
+    final ResourceFolderRepository fromBlob = createRepository();
+    assertNotNull(fromBlob);
+    assertEquals(3, fromBlob.getInitialScanState().numXml);
+    assertEquals(3, fromBlob.getInitialScanState().numXmlReparsed);
+    assertTrue(fromBlob.equalFilesItems(resources));
+  }
+
   public void testSerializationRemoveXmlFileAndLoad() throws Exception {
     VirtualFile file1 = myFixture.copyFileToProject(LAYOUT1, "res/layout/layout.xml");
     final PsiFile psiFile1 = PsiManager.getInstance(getProject()).findFile(file1);
@@ -4100,6 +4146,27 @@ public class ResourceFolderRepositoryTest extends AndroidTestCase {
     assertTrue(fromBlob.hasResourceItem(ResourceType.STRING, "hello_there"));
   }
 
+  public void testSerializationTouchXmlFileAndLoad() throws Exception {
+    VirtualFile file1 = myFixture.copyFileToProject(STRINGS, "res/values/strings.xml");
+    File file1AsFile = VfsUtilCore.virtualToIoFile(file1);
+    final ResourceFolderRepository resources = createRepository();
+    assertNotNull(resources);
+    resources.saveStateToFile();
+    ResourceFolderRegistry.reset();
+
+    // A file which is rewritten with the same content, e.g. by a checkout, is matched by its content hash.
+    if (!file1AsFile.setLastModified(file1AsFile.lastModified() + 2000)) {
+      // Not supported on this platform?
+      return;
+    }
+
+    final ResourceFolderRepository fromBlob = createRepository();
+    assertNotNull(fromBlob);
+    assertTrue(fromBlob.hasFreshFileCache());
+    assertEquals(0, fromBlob.getInitialScanState().numXmlReparsed);
+    assertTrue(fromBlob.equalFilesItems(resources));
+  }
+
   public void testSerializationAddXmlFileAndLoad() throws Exception {
     myFixture.copyFileToProject(STRINGS, "res/values/strings.xml");
     final ResourceFolderRepository resources = createRepository();
@@ -4199,8 +4266,9 @@ public class ResourceFolderRepositoryTest extends AndroidTestCase {
     ResourceFolderRegistry.reset();
     final ResourceFolderRepository fromBlob = createRepository();
     assertNotNull(fromBlob);
-    // We don't count files that we explicitly skip against freshness.
+    // Density-based XML files are cached too, with the density derived from their folder.
     assertTrue(fromBlob.hasFreshFileCache());
+    assertEquals(0, fromBlob.getInitialScanState().numXmlReparsed);
 
     assertNotSame(resources, fromBlob);
     assertTrue(fromBlob.equalFilesItems(resources));
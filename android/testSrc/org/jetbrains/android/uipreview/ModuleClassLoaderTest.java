@@ -16,6 +16,7 @@
 package org.jetbrains.android.uipreview;
 
 import com.android.ide.common.gradle.model.level2.IdeDependenciesFactory;
+import com.android.resources.ResourceType;
 import com.android.tools.idea.Projects;
 import com.android.tools.idea.gradle.TestProjects;
 import com.android.tools.idea.gradle.project.build.PostProjectBuildTasksExecutor;
@@ -27,7 +28,9 @@ import com.android.tools.idea.res.ResourceClassRegistry;
 import com.google.common.collect.ImmutableList;
 import com.google.common.io.Files;
 import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.command.WriteCommandAction;
 import com.intellij.openapi.compiler.DummyCompileContext;
+import com.intellij.openapi.editor.Document;
 import com.intellij.openapi.module.Module;
 import com.intellij.openapi.roots.CompilerModuleExtension;
 import com.intellij.openapi.roots.CompilerProjectExtension;
@@ -37,8 +40,11 @@ import com.intellij.openapi.util.io.FileUtil;
 import com.intellij.openapi.vfs.LocalFileSystem;
 import com.intellij.openapi.vfs.VfsUtil;
 import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.psi.PsiDocumentManager;
+import com.intellij.psi.PsiFile;
 import com.intellij.testFramework.PsiTestUtil;
 import com.intellij.util.TimeoutUtil;
+import com.intellij.util.ui.UIUtil;
 import org.jetbrains.android.AndroidTestCase;
 import org.jetbrains.annotations.NotNull;
 
@@ -138,6 +144,52 @@ public class ModuleClassLoaderTest extends AndroidTestCase {
     assertTrue(noSuchField.get());
   }
 
+  public void testResourceValueEditKeepsLoader() throws ClassNotFoundException {
+    LayoutLibrary layoutLibrary = mock(LayoutLibrary.class);
+    Module module = myFixture.getModule();
+    PsiFile psiFile = myFixture.addFileToProject(
+      "res/values/values.xml",
+      "<resources>\n" +
+      "  <string name=\"app_name\">Name</string>\n" +
+      "  <declare-styleable name=\"MyView\">\n" +
+      "    <attr name=\"myColor\" format=\"color\"/>\n" +
+      "  </declare-styleable>\n" +
+      "</resources>\n");
+    AppResourceRepository appResources = AppResourceRepository.getOrCreateInstance(module);
+    ResourceClassRegistry.get(module.getProject()).addLibrary(appResources, "test");
+    PsiDocumentManager documentManager = PsiDocumentManager.getInstance(getProject());
+    Document document = documentManager.getDocument(psiFile);
+    assertNotNull(document);
+
+    // The first edit of the file isn't incremental (file -> Psi) and invalidates all the resources.
+    insertBefore(document, "Name", "The ");
+    UIUtil.dispatchAllInvocationEvents();
+
+    ModuleClassLoader loader = ModuleClassLoader.get(layoutLibrary, module);
+    loader.loadClass("test.R$string");
+    loader.loadClass("test.R$styleable");
+    // Only the edits of values which have been read move the modification count.
+    assertNotNull(appResources.getResourceItem(ResourceType.STRING, "app_name").get(0).getResourceValue(false));
+    long modificationCount = appResources.getModificationCount();
+
+    insertBefore(document, "The Name", "Short ");
+    assertThat(appResources.getModificationCount()).isGreaterThan(modificationCount);
+    assertSame(loader, ModuleClassLoader.get(layoutLibrary, module));
+
+    // A new attribute of the declare-styleable changes the fields of R$styleable.
+    insertBefore(document, "</declare-styleable>", "<attr name=\"mySize\" format=\"dimension\"/>\n");
+    UIUtil.dispatchAllInvocationEvents();
+    assertNotSame(loader, ModuleClassLoader.get(layoutLibrary, module));
+  }
+
+  private void insertBefore(@NotNull Document document, @NotNull String text, @NotNull String insertedText) {
+    PsiDocumentManager documentManager = PsiDocumentManager.getInstance(getProject());
+    WriteCommandAction.runWriteCommandAction(getProject(), () -> {
+      document.insertString(document.getText().indexOf(text), insertedText);
+      documentManager.commitDocument(document);
+    });
+  }
+
   public void testIsSourceModified() throws IOException {
     File rootDirPath = Projects.getBaseDirPath(getProject());
     AndroidProjectStub androidProject = TestProjects.createBasicProject();
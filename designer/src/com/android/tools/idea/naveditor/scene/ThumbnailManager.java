@@ -110,6 +110,7 @@ public class ThumbnailManager extends AndroidFacetScopedService {
     RenderTask task = renderService.createTask(file, configuration, logger, surface);
     if (task != null) {
       task.setDecorations(false);
+      task.setPriority(RenderExecutor.Priority.LOW);
     }
     return task;
   }
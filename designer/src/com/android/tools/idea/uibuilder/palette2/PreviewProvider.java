@@ -209,6 +209,7 @@ public class PreviewProvider implements Disposable {
     renderTask.setDecorations(false);
     renderTask.setRenderingMode(SessionParams.RenderingMode.V_SCROLL);
     renderTask.setFolderType(ResourceFolderType.LAYOUT);
+    renderTask.setPriority(RenderExecutor.Priority.LOW);
 
     renderTask.inflate();
     try {
@@ -714,6 +714,10 @@ public class LayoutlibSceneManager extends SceneManager {
         myRenderTask.dispose();
       }
       myRenderTask = renderService.createTask(getModel().getFile(), configuration, logger, getDesignSurface());
+      if (myRenderTask != null) {
+        // This is the layout of an editor, render it ahead of the thumbnails and previews.
+        myRenderTask.setPriority(RenderExecutor.Priority.HIGH);
+      }
       setupRenderTask(myRenderTask);
       if (myRenderTask != null) {
         myRenderTask.getLayoutlibCallback()
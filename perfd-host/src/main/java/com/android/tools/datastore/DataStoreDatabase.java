@@ -15,13 +15,25 @@
  */
 package com.android.tools.datastore;
 
+import com.android.tools.datastore.database.DataStoreTable;
+import com.android.tools.datastore.database.TableRetention;
+import com.google.common.annotations.VisibleForTesting;
 import com.intellij.openapi.diagnostic.Logger;
 import org.jetbrains.annotations.NotNull;
 
 import java.io.File;
 import java.sql.Connection;
 import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
 
 public class DataStoreDatabase {
@@ -35,7 +47,40 @@ public class DataStoreDatabase {
     return Logger.getInstance(DataStoreDatabase.class);
   }
 
+  /**
+   * How often the retention policies of every registered table are enforced, and their pending writes are flushed and the open
+   * transaction is committed.
+   */
+  private static final long COMMIT_PERIOD_MS = TimeUnit.SECONDS.toMillis(1);
+
+  /**
+   * Number of rows flushed since the last commit after which we commit right away instead of waiting for the timer.
+   */
+  private static final int COMMIT_ROW_THRESHOLD = 20000;
+
+  /**
+   * Version of the layout of {@link Characteristic#DURABLE} database files, stored as their user_version. Files of any other version,
+   * e.g. the ones written by Studio versions that did not reopen their databases, are discarded when opened. Changes to the schema of
+   * individual tables do not need to bump it, they are versioned by {@link DataStoreTable#getSchemaVersion()}.
+   */
+  private static final int DURABLE_FORMAT_VERSION = 1;
+
+  /**
+   * Size a {@link Characteristic#DURABLE} database may keep across runs. When a file over it is opened, the sessions of the earliest
+   * sessions recorded least recently are deleted until it fits, so CPU traces and heap dumps don't pile up forever.
+   */
+  public static final long MAX_DURABLE_BYTES = 1024L * 1024 * 1024;
+
+  /**
+   * The session catalog of {@link com.android.tools.datastore.database.ProfilerTable}, which the eviction of old sessions goes by.
+   */
+  private static final String SESSIONS_TABLE = "Profiler_Sessions";
+
   private final Connection myConnection;
+  private final List<DataStoreTable<?>> myTables = new CopyOnWriteArrayList<>();
+  private final Object myWriteLock = new Object();
+  private int myRowsSinceCommit;
+  private Timer myCommitTimer;
 
   /**
    * @param dbPath the path to the backing DB file, if {@link Characteristic#DURABLE}.
@@ -48,6 +93,14 @@ public class DataStoreDatabase {
   public DataStoreDatabase(@NotNull String dbPath,
                            @NotNull Characteristic characteristic,
                            @NotNull Consumer<Throwable> noPiiExceptionHandler) {
+    this(dbPath, characteristic, MAX_DURABLE_BYTES, noPiiExceptionHandler);
+  }
+
+  @VisibleForTesting
+  public DataStoreDatabase(@NotNull String dbPath,
+                           @NotNull Characteristic characteristic,
+                           long maxDurableBytes,
+                           @NotNull Consumer<Throwable> noPiiExceptionHandler) {
     Connection connection = null;
     try {
       // For older versions of the JDBC we need to force load the sqlite.JDBC driver to trigger static initializer's and register
@@ -59,28 +112,13 @@ public class DataStoreDatabase {
           connection = DriverManager.getConnection("jdbc:sqlite::memory:");
           break;
         case DURABLE:
-          File dbFile = new File(dbPath);
-          // Due to an incompatible update in SQLite we do not support loading SQL files from previous versions of studio.
-          // As a intermediate measure we delete the file until we support loading existing databases.
-          // TODO: Investigate removing this when we add a feature to restore sessions from prior Studio runs.
-          if (dbFile.exists()) {
-            dbFile.delete();
-          }
-
-          File parent = dbFile.getParentFile();
-          if (parent != null) {
-            if (!parent.mkdirs() && !parent.exists()) {
-              getLogger().error("Unable to create parent directory");
-            }
-          }
-          connection = DriverManager.getConnection(String.format("jdbc:sqlite:%s", dbFile.getPath()));
+          connection = openDurableConnection(new File(dbPath), maxDurableBytes);
           break;
         default:
           throw new RuntimeException("Characteristic not handled!");
       }
 
-      // Performance optimization.
-      // TODO: Create a timer and commit the database transaction every X seconds.
+      // Performance optimization. Writes are batched per table and committed periodically, see COMMIT_PERIOD_MS.
       connection.setAutoCommit(false);
     }
     catch (ClassNotFoundException e) {
@@ -93,11 +131,309 @@ public class DataStoreDatabase {
       noPiiExceptionHandler.accept(e);
     }
     myConnection = connection;
+
+    if (myConnection != null) {
+      myCommitTimer = new Timer("DataStoreCommitTimer", true);
+      myCommitTimer.schedule(new TimerTask() {
+        @Override
+        public void run() {
+          try {
+            if (myConnection.isClosed()) {
+              cancel();
+              return;
+            }
+            // Enforced before committing, so the dropped rows are committed along with the new ones.
+            for (DataStoreTable<?> table : myTables) {
+              table.enforceRetention();
+            }
+            flushAndCommit();
+          }
+          catch (SQLException e) {
+            // Not fatal, the data will be committed on the next tick or when disconnecting.
+            getLogger().warn(e);
+          }
+        }
+      }, COMMIT_PERIOD_MS, COMMIT_PERIOD_MS);
+    }
+  }
+
+  /**
+   * Opens the database file, keeping what previous runs of the datastore stored in it if it is of the current format, within
+   * {@code maxBytes}. The file is journaled with a write-ahead log, so readers are not blocked by the periodic commits and a crash only
+   * loses what was not committed.
+   */
+  @NotNull
+  private static Connection openDurableConnection(@NotNull File dbFile, long maxBytes) throws SQLException {
+    String url = String.format("jdbc:sqlite:%s", dbFile.getPath());
+    if (dbFile.exists()) {
+      Connection connection = null;
+      try {
+        connection = DriverManager.getConnection(url);
+        if (isReusable(connection)) {
+          enableWriteAheadLog(connection);
+          evictOldestSessions(connection, maxBytes);
+          return connection;
+        }
+        getLogger().info("Discarding a datastore database of an unsupported format.");
+      }
+      catch (SQLException e) {
+        getLogger().info("Discarding an unreadable datastore database: " + e.getMessage());
+      }
+      if (connection != null) {
+        connection.close();
+      }
+      deleteDatabaseFiles(dbFile);
+    }
+
+    File parent = dbFile.getParentFile();
+    if (parent != null) {
+      if (!parent.mkdirs() && !parent.exists()) {
+        getLogger().error("Unable to create parent directory");
+      }
+    }
+    Connection connection = DriverManager.getConnection(url);
+    try (Statement statement = connection.createStatement()) {
+      statement.execute(String.format("PRAGMA user_version = %d", DURABLE_FORMAT_VERSION));
+    }
+    enableWriteAheadLog(connection);
+    return connection;
+  }
+
+  /**
+   * @return whether the database is of the current format, or is empty.
+   */
+  private static boolean isReusable(@NotNull Connection connection) throws SQLException {
+    try (Statement statement = connection.createStatement()) {
+      ResultSet result = statement.executeQuery("PRAGMA user_version");
+      if (result.next() && result.getInt(1) == DURABLE_FORMAT_VERSION) {
+        return true;
+      }
+      result = statement.executeQuery("SELECT COUNT(*) FROM sqlite_master");
+      if (result.next() && result.getInt(1) == 0) {
+        statement.execute(String.format("PRAGMA user_version = %d", DURABLE_FORMAT_VERSION));
+        return true;
+      }
+      return false;
+    }
+  }
+
+  /**
+   * Deletes the sessions in the order they were last recorded, along with the rows of every table that belong to them, until the data fits
+   * in {@code maxBytes}.
+   */
+  private static void evictOldestSessions(@NotNull Connection connection, long maxBytes) throws SQLException {
+    if (getUsedBytes(connection) <= maxBytes || !hasTable(connection, SESSIONS_TABLE)) {
+      return;
+    }
+
+    List<String> sessionTables = new ArrayList<>();
+    try (Statement statement = connection.createStatement()) {
+      ResultSet tables = statement.executeQuery("SELECT name FROM sqlite_master WHERE type = 'table'");
+      while (tables.next()) {
+        sessionTables.add(tables.getString(1));
+      }
+    }
+    sessionTables.removeIf(table -> !hasSessionColumn(connection, table));
+
+    List<Long> sessionIds = new ArrayList<>();
+    try (Statement statement = connection.createStatement()) {
+      // Sessions are re-inserted whenever they change, so their rowids follow the order they were last recorded in.
+      ResultSet sessions = statement.executeQuery(String.format("SELECT SessionId FROM %s ORDER BY rowid", SESSIONS_TABLE));
+      while (sessions.next()) {
+        sessionIds.add(sessions.getLong(1));
+      }
+    }
+
+    int evicted = 0;
+    connection.setAutoCommit(false);
+    try {
+      for (long sessionId : sessionIds) {
+        if (getUsedBytes(connection) <= maxBytes) {
+          break;
+        }
+        for (String table : sessionTables) {
+          deleteSession(connection, table, "Session", sessionId);
+        }
+        deleteSession(connection, SESSIONS_TABLE, "SessionId", sessionId);
+        evicted++;
+      }
+      connection.commit();
+    }
+    catch (SQLException e) {
+      connection.rollback();
+      throw e;
+    }
+    finally {
+      connection.setAutoCommit(true);
+    }
+
+    getLogger().info(String.format("The datastore database is over %d bytes, deleted its %d oldest sessions.", maxBytes, evicted));
+    try (Statement statement = connection.createStatement()) {
+      // Gives the freed pages back to the file system.
+      statement.execute("VACUUM");
+    }
+  }
+
+  /**
+   * @return the size of the pages of the database that are in use.
+   */
+  private static long getUsedBytes(@NotNull Connection connection) throws SQLException {
+    try (Statement statement = connection.createStatement()) {
+      long pageCount = getPragma(statement, "page_count");
+      long freePageCount = getPragma(statement, "freelist_count");
+      return (pageCount - freePageCount) * getPragma(statement, "page_size");
+    }
+  }
+
+  private static long getPragma(@NotNull Statement statement, @NotNull String pragma) throws SQLException {
+    ResultSet result = statement.executeQuery("PRAGMA " + pragma);
+    return result.next() ? result.getLong(1) : 0;
+  }
+
+  private static boolean hasTable(@NotNull Connection connection, @NotNull String table) throws SQLException {
+    try (PreparedStatement statement = connection.prepareStatement("SELECT 1 FROM sqlite_master WHERE type = 'table' AND name = ?")) {
+      statement.setString(1, table);
+      return statement.executeQuery().next();
+    }
+  }
+
+  private static boolean hasSessionColumn(@NotNull Connection connection, @NotNull String table) {
+    try (Statement statement = connection.createStatement()) {
+      ResultSet columns = statement.executeQuery(String.format("PRAGMA table_info(%s)", table));
+      while (columns.next()) {
+        if ("Session".equals(columns.getString("name"))) {
+          return true;
+        }
+      }
+      return false;
+    }
+    catch (SQLException e) {
+      return false;
+    }
+  }
+
+  private static void deleteSession(@NotNull Connection connection, @NotNull String table, @NotNull String column, long sessionId)
+    throws SQLException {
+    try (PreparedStatement statement = connection.prepareStatement(String.format("DELETE FROM %s WHERE %s = ?", table, column))) {
+      statement.setLong(1, sessionId);
+      statement.executeUpdate();
+    }
+  }
+
+  private static void enableWriteAheadLog(@NotNull Connection connection) throws SQLException {
+    try (Statement statement = connection.createStatement()) {
+      statement.execute("PRAGMA journal_mode = WAL");
+      // With a write-ahead log, NORMAL only risks the last commits on power loss, never the consistency of the file.
+      statement.execute("PRAGMA synchronous = NORMAL");
+    }
+  }
+
+  private static void deleteDatabaseFiles(@NotNull File dbFile) {
+    for (String suffix : new String[]{"", "-wal", "-shm", "-journal"}) {
+      File file = new File(dbFile.getPath() + suffix);
+      if (file.exists() && !file.delete()) {
+        getLogger().warn("Unable to delete " + file.getName());
+      }
+    }
+  }
+
+  /**
+   * Registers a table whose pending writes should be flushed before each periodic commit.
+   */
+  public void registerTable(@NotNull DataStoreTable<?> table) {
+    myTables.add(table);
+  }
+
+  /**
+   * Lock held while the registered tables write to the connection and while it commits, so a table can roll back its own writes
+   * without undoing the ones of the other tables, or having them committed halfway.
+   */
+  @NotNull
+  public Object getWriteLock() {
+    return myWriteLock;
+  }
+
+  /**
+   * Called by the registered tables after a group of rows has been written, so large bursts of data get committed without waiting
+   * for the next timer tick.
+   */
+  public void onRowsWritten(int rowCount) {
+    synchronized (myWriteLock) {
+      myRowsSinceCommit += rowCount;
+      if (myRowsSinceCommit < COMMIT_ROW_THRESHOLD) {
+        return;
+      }
+      try {
+        commit();
+      }
+      catch (SQLException e) {
+        getLogger().warn(e);
+      }
+    }
+  }
+
+  /**
+   * @return the number of writes that are queued in the registered tables but not executed yet.
+   */
+  public int getPendingWriteCount() {
+    int count = 0;
+    for (DataStoreTable<?> table : myTables) {
+      count += table.getPendingWriteCount();
+    }
+    return count;
+  }
+
+  /**
+   * @return the longest time, in nanoseconds, a write has waited in the queue of any registered table before being executed.
+   */
+  public long getMaxWriteLagNs() {
+    long lag = 0;
+    for (DataStoreTable<?> table : myTables) {
+      lag = Math.max(lag, table.getMaxWriteLagNs());
+    }
+    return lag;
+  }
+
+  /**
+   * @return the retention bookkeeping of every registered table.
+   */
+  @NotNull
+  public List<TableRetention> getRetentions() {
+    List<TableRetention> retentions = new ArrayList<>();
+    for (DataStoreTable<?> table : myTables) {
+      retentions.addAll(table.getRetentions());
+    }
+    return retentions;
+  }
+
+  /**
+   * Executes the writes queued in all the registered tables.
+   */
+  public void flush() {
+    for (DataStoreTable<?> table : myTables) {
+      table.flush();
+    }
+  }
+
+  private void flushAndCommit() throws SQLException {
+    flush();
+    synchronized (myWriteLock) {
+      commit();
+    }
+  }
+
+  private void commit() throws SQLException {
+    assert Thread.holdsLock(myWriteLock);
+    myConnection.commit();
+    myRowsSinceCommit = 0;
   }
 
   public void disconnect() {
+    if (myCommitTimer != null) {
+      myCommitTimer.cancel();
+    }
     try {
-      myConnection.commit();
+      flushAndCommit();
     }
     catch (SQLException e) {
       getLogger().error(e);
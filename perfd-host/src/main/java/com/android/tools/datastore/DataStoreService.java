@@ -18,6 +18,8 @@ package com.android.tools.datastore;
 import com.android.annotations.VisibleForTesting;
 import com.android.tools.analytics.UsageTracker;
 import com.android.tools.datastore.database.DataStoreTable;
+import com.android.tools.datastore.database.TableRetention;
+import com.android.tools.datastore.poller.PollScheduler;
 import com.android.tools.datastore.service.*;
 import com.android.tools.profiler.proto.*;
 import com.google.wireless.android.sdk.stats.AndroidProfilerDbStats;
@@ -26,6 +28,7 @@ import com.intellij.openapi.diagnostic.Logger;
 import io.grpc.*;
 import io.grpc.inprocess.InProcessServerBuilder;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import java.io.File;
 import java.io.IOException;
@@ -33,6 +36,9 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.*;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
 
@@ -89,6 +95,16 @@ public class DataStoreService implements DataStoreTable.DataStoreTableErrorCallb
   private final Server myServer;
   private final List<ServicePassThrough> myServices = new ArrayList<>();
   private final Consumer<Runnable> myFetchExecutor;
+  @Nullable private final PollScheduler myPollScheduler;
+  /**
+   * Single thread the pollers hand their samples to, so polling perfd does not wait on inserting into the database. A single thread
+   * keeps the writes of each stream in order and avoids contending on the database connections.
+   */
+  private final ExecutorService mySampleWriter = Executors.newSingleThreadExecutor(runnable -> {
+    Thread thread = new Thread(runnable, "DataStoreSampleWriter");
+    thread.setDaemon(true);
+    return thread;
+  });
   @NotNull
   private Consumer<Throwable> myNoPiiExceptionHanlder;
 
@@ -113,7 +129,20 @@ public class DataStoreService implements DataStoreTable.DataStoreTableErrorCallb
                           @NotNull String datastoreDirectory,
                           @NotNull Consumer<Runnable> fetchExecutor,
                           ServerInterceptor interceptor) {
-    myFetchExecutor = fetchExecutor;
+    this(serviceName, datastoreDirectory, fetchExecutor, interceptor, null);
+  }
+
+  /**
+   * @param pollScheduler if not null, the services' pollers are polled by this scheduler instead of each being handed to
+   *                      {@code fetchExecutor}, which then only runs one-off fetches. The scheduler is shut down with the datastore.
+   */
+  public DataStoreService(@NotNull String serviceName,
+                          @NotNull String datastoreDirectory,
+                          @NotNull Consumer<Runnable> fetchExecutor,
+                          ServerInterceptor interceptor,
+                          @Nullable PollScheduler pollScheduler) {
+    myPollScheduler = pollScheduler;
+    myFetchExecutor = pollScheduler == null ? fetchExecutor : pollScheduler.asFetchExecutor(fetchExecutor);
     myInterceptor = interceptor;
     myDatastoreDirectory = datastoreDirectory;
     myServerBuilder = InProcessServerBuilder.forName(serviceName).directExecutor();
@@ -171,7 +200,7 @@ public class DataStoreService implements DataStoreTable.DataStoreTableErrorCallb
       assert !namespace.myNamespace.isEmpty();
       DataStoreDatabase db = myDatabases.computeIfAbsent(namespace, backingNamespace -> createDatabase(
         myDatastoreDirectory + backingNamespace.myNamespace, backingNamespace.myCharacteristic, myNoPiiExceptionHanlder));
-      service.setBackingStore(namespace, db.getConnection());
+      service.setBackingStore(namespace, db);
     });
 
     // Build server and start listening for RPC calls for the registered service
@@ -205,11 +234,22 @@ public class DataStoreService implements DataStoreTable.DataStoreTableErrorCallb
 
   public void shutdown() {
     myReportTimer.cancel();
+    if (myPollScheduler != null) {
+      myPollScheduler.shutdown();
+    }
     myServer.shutdownNow();
     for (DataStoreClient client : myConnectedClients.values()) {
       client.shutdownNow();
     }
     myConnectedClients.clear();
+    mySampleWriter.shutdown();
+    try {
+      // Let the samples already received make it to the database before disconnecting it.
+      mySampleWriter.awaitTermination(1, TimeUnit.SECONDS);
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
     myDatabases.forEach((name, db) -> db.disconnect());
     DataStoreTable.removeDataStoreErrorCallback(this);
   }
@@ -225,6 +265,14 @@ public class DataStoreService implements DataStoreTable.DataStoreTableErrorCallb
     }
   }
 
+  /**
+   * @return the executor pollers should write their samples to the database on, see {@link com.android.tools.datastore.poller.SampleStream}.
+   */
+  @NotNull
+  public Executor getSampleWriter() {
+    return mySampleWriter;
+  }
+
   public CpuServiceGrpc.CpuServiceBlockingStub getCpuClient(@NotNull DeviceId deviceId) {
     return myConnectedClients.containsKey(deviceId) ? myConnectedClients.get(deviceId).getCpuClient() : null;
   }
@@ -331,6 +379,14 @@ public class DataStoreService implements DataStoreTable.DataStoreTableErrorCallb
         dbStats.setTotalDiskMb((int)(dbFile.length() / 1024 / 1024)); // Bytes -> MB
 
         for (DataStoreDatabase db : myDatabases.values()) {
+          getLogger().info(String.format("Datastore write queue: %d pending writes, max write lag %d ms", db.getPendingWriteCount(),
+                                         TimeUnit.NANOSECONDS.toMillis(db.getMaxWriteLagNs())));
+          for (TableRetention retention : db.getRetentions()) {
+            getLogger().info(String.format("Datastore retention %s: %d rows, %d KB in %d segments, %d rows dropped in %d segments",
+                                           retention.getName(), retention.getRowCount(), retention.getBytes() / 1024,
+                                           retention.getSegmentCount(), retention.getDroppedRowCount(),
+                                           retention.getDroppedSegmentCount()));
+          }
           try (
             Statement tableStatement = db.getConnection().createStatement();
             ResultSet tableResults = tableStatement.executeQuery("SELECT name FROM sqlite_master WHERE type='table'")) {
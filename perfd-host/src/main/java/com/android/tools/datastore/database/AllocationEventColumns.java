@@ -0,0 +1,440 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.datastore.database;
+
+import com.android.tools.datastore.database.OffHeapColumns.IntColumn;
+import com.android.tools.datastore.database.OffHeapColumns.IntIntMap;
+import com.android.tools.datastore.database.OffHeapColumns.LongColumn;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Columnar replacement for the Memory_AllocationEvents rows of a single session. Every allocation is one row spread over primitive,
+ * off-heap columns, so millions of live objects cost no Java heap.
+ *
+ * Rows are stored in arrival order and never move until the rows dropped by {@link #pruneFreedBefore(long)} are compacted away, which
+ * happens once on the next access however many times the cutoff moved in between. Two row-id columns keep the rows
+ * sorted by allocation time and by free time respectively, so range queries are a binary search followed by a walk over the results.
+ * Snapshot queries go through an {@link AllocationLifetimeIndex} over the allocation order, which is kept up to date as objects
+ * are freed, so their cost depends on the number of live objects returned rather than on the number of rows.
+ *
+ * Not thread-safe, {@link MemoryLiveAllocationTable} guards each instance.
+ */
+final class AllocationEventColumns {
+  interface RowVisitor {
+    void visit(int row);
+  }
+
+  private final IntColumn myTags = new IntColumn();
+  private final IntColumn myClassTags = new IntColumn();
+  private final LongColumn myAllocTimes = new LongColumn();
+  private final LongColumn myFreeTimes = new LongColumn();
+  private final LongColumn mySizes = new LongColumn();
+  private final IntColumn myLengths = new IntColumn();
+  private final IntColumn myThreadIds = new IntColumn();
+  private final IntColumn myStackIds = new IntColumn();
+  private final IntColumn myHeapIds = new IntColumn();
+  private IntIntMap myRowsByTag = new IntIntMap();
+
+  /**
+   * Row ids ordered by (AllocTime, row).
+   */
+  private final IntColumn myAllocOrder = new IntColumn();
+  /**
+   * Position of each row within {@link #myAllocOrder}.
+   */
+  private final IntColumn myAllocPositions = new IntColumn();
+  private boolean myAllocOrderSorted = true;
+
+  /**
+   * Ids of the freed rows ordered by (FreeTime, row).
+   */
+  private final IntColumn myFreeOrder = new IntColumn();
+  private boolean myFreeOrderSorted = true;
+
+  /**
+   * Rows freed before this time are dropped but not compacted yet, see {@link #compactPrunedRows()}.
+   */
+  private long myPruneTime = Long.MIN_VALUE;
+
+  /**
+   * Free times of the entries of {@link #myAllocOrder}, only up to date while that order is sorted.
+   */
+  private final AllocationLifetimeIndex myLifetimeIndex =
+    new AllocationLifetimeIndex(position -> myFreeTimes.get(myAllocOrder.get(position)));
+
+  int size() {
+    compactPrunedRows();
+    return myTags.size();
+  }
+
+  /**
+   * @return the number of rows that weren't freed.
+   */
+  int getAliveCount() {
+    compactPrunedRows();
+    return myTags.size() - myFreeOrder.size();
+  }
+
+  /**
+   * Adds an allocation. Like the INSERT OR IGNORE of the SQLite backend, an allocation whose tag is already present is dropped.
+   *
+   * @return true if the allocation was added.
+   */
+  boolean insertAllocation(int tag, int classTag, long allocTime, long size, int length, int threadId, int stackId, int heapId) {
+    compactPrunedRows();
+    if (myRowsByTag.get(tag) >= 0) {
+      return false;
+    }
+
+    int row = myTags.size();
+    myTags.add(tag);
+    myClassTags.add(classTag);
+    myAllocTimes.add(allocTime);
+    myFreeTimes.add(Long.MAX_VALUE);
+    mySizes.add(size);
+    myLengths.add(length);
+    myThreadIds.add(threadId);
+    myStackIds.add(stackId);
+    myHeapIds.add(heapId);
+    myRowsByTag.put(tag, row);
+
+    int position = myAllocOrder.size();
+    if (position > 0 && compareAllocOrder(myAllocOrder.get(position - 1), row) > 0) {
+      myAllocOrderSorted = false;
+    }
+    myAllocOrder.add(row);
+    myAllocPositions.add(position);
+    if (myAllocOrderSorted) {
+      myLifetimeIndex.add();
+    }
+    return true;
+  }
+
+  /**
+   * Sets the free time of the allocation with the given tag, if it is present. Long.MAX_VALUE marks rows that are alive, so it is
+   * not a valid free time.
+   *
+   * @return true if the allocation was found.
+   */
+  boolean freeAllocation(int tag, long freeTime) {
+    compactPrunedRows();
+    int row = myRowsByTag.get(tag);
+    if (row < 0 || freeTime == Long.MAX_VALUE) {
+      return false;
+    }
+
+    long previousFreeTime = myFreeTimes.get(row);
+    myFreeTimes.set(row, freeTime);
+    if (previousFreeTime == Long.MAX_VALUE) {
+      int count = myFreeOrder.size();
+      if (count > 0 && compareFreeOrder(myFreeOrder.get(count - 1), row) > 0) {
+        myFreeOrderSorted = false;
+      }
+      myFreeOrder.add(row);
+    }
+    else {
+      // Freed twice, the row is already in the free order but at the wrong place.
+      myFreeOrderSorted = false;
+    }
+    if (myAllocOrderSorted) {
+      myLifetimeIndex.update(myAllocPositions.get(row));
+    }
+    return true;
+  }
+
+  /**
+   * Visits, in allocation time order, the rows allocated within [startTime, endTime).
+   */
+  void forEachAllocatedIn(long startTime, long endTime, @NotNull RowVisitor visitor) {
+    ensureIndices();
+    int end = lowerBound(myAllocOrder, myAllocTimes, endTime);
+    for (int i = lowerBound(myAllocOrder, myAllocTimes, startTime); i < end; i++) {
+      visitor.visit(myAllocOrder.get(i));
+    }
+  }
+
+  /**
+   * Visits, in free time order, the rows freed within [startTime, endTime).
+   */
+  void forEachFreedIn(long startTime, long endTime, @NotNull RowVisitor visitor) {
+    ensureIndices();
+    int end = lowerBound(myFreeOrder, myFreeTimes, endTime);
+    for (int i = lowerBound(myFreeOrder, myFreeTimes, startTime); i < end; i++) {
+      visitor.visit(myFreeOrder.get(i));
+    }
+  }
+
+  /**
+   * Visits, in allocation time order, the rows that are alive at {@code time}, i.e. AllocTime < time < FreeTime.
+   */
+  void forEachAliveAt(long time, @NotNull RowVisitor visitor) {
+    ensureIndices();
+    int end = lowerBound(myAllocOrder, myAllocTimes, time);
+    myLifetimeIndex.forEachFreedAfter(0, end, time, position -> visitor.visit(myAllocOrder.get(position)));
+  }
+
+  /**
+   * @return the latest allocation or free time, or 0 if there is none.
+   */
+  long getLatestTimestamp() {
+    ensureIndices();
+    long latest = 0;
+    if (myAllocOrder.size() > 0) {
+      latest = Math.max(latest, myAllocTimes.get(myAllocOrder.get(myAllocOrder.size() - 1)));
+    }
+    if (myFreeOrder.size() > 0) {
+      latest = Math.max(latest, myFreeTimes.get(myFreeOrder.get(myFreeOrder.size() - 1)));
+    }
+    return latest;
+  }
+
+  /**
+   * Drops the rows that were freed before {@code time}. Rows that are still alive are never dropped. This is a binary search, the rows
+   * are only compacted on the next access, so a retention pass dropping many segments in a row compacts them once.
+   *
+   * @return the number of rows dropped.
+   */
+  int pruneFreedBefore(long time) {
+    sortIndices();
+    if (time <= myPruneTime) {
+      return 0;
+    }
+    int alreadyPruned = myPruneTime == Long.MIN_VALUE ? 0 : lowerBound(myFreeOrder, myFreeTimes, myPruneTime);
+    myPruneTime = time;
+    return lowerBound(myFreeOrder, myFreeTimes, time) - alreadyPruned;
+  }
+
+  /**
+   * Removes the rows dropped by {@link #pruneFreedBefore(long)}, in place and preserving their relative order.
+   */
+  private void compactPrunedRows() {
+    long time = myPruneTime;
+    if (time == Long.MIN_VALUE) {
+      return;
+    }
+    myPruneTime = Long.MIN_VALUE;
+    sortIndices();
+    if (myFreeOrder.size() == 0 || myFreeTimes.get(myFreeOrder.get(0)) >= time) {
+      return;
+    }
+
+    int oldSize = myTags.size();
+    int newSize = 0;
+    for (int row = 0; row < oldSize; row++) {
+      if (myFreeTimes.get(row) < time) {
+        continue;
+      }
+      if (newSize != row) {
+        myTags.set(newSize, myTags.get(row));
+        myClassTags.set(newSize, myClassTags.get(row));
+        myAllocTimes.set(newSize, myAllocTimes.get(row));
+        myFreeTimes.set(newSize, myFreeTimes.get(row));
+        mySizes.set(newSize, mySizes.get(row));
+        myLengths.set(newSize, myLengths.get(row));
+        myThreadIds.set(newSize, myThreadIds.get(row));
+        myStackIds.set(newSize, myStackIds.get(row));
+        myHeapIds.set(newSize, myHeapIds.get(row));
+      }
+      newSize++;
+    }
+    myTags.setSize(newSize);
+    myClassTags.setSize(newSize);
+    myAllocTimes.setSize(newSize);
+    myFreeTimes.setSize(newSize);
+    mySizes.setSize(newSize);
+    myLengths.setSize(newSize);
+    myThreadIds.setSize(newSize);
+    myStackIds.setSize(newSize);
+    myHeapIds.setSize(newSize);
+
+    myRowsByTag = new IntIntMap();
+    myAllocOrder.setSize(newSize);
+    myFreeOrder.setSize(0);
+    for (int row = 0; row < newSize; row++) {
+      myRowsByTag.put(myTags.get(row), row);
+      myAllocOrder.set(row, row);
+      if (myFreeTimes.get(row) != Long.MAX_VALUE) {
+        myFreeOrder.add(row);
+      }
+    }
+    myAllocOrderSorted = false;
+    myFreeOrderSorted = false;
+    sortIndices();
+  }
+
+  /**
+   * @return the off-heap memory used by this instance, in bytes.
+   */
+  long getMemoryBytes() {
+    return myTags.getMemoryBytes() + myClassTags.getMemoryBytes() + myAllocTimes.getMemoryBytes() + myFreeTimes.getMemoryBytes() +
+           mySizes.getMemoryBytes() + myLengths.getMemoryBytes() + myThreadIds.getMemoryBytes() + myStackIds.getMemoryBytes() +
+           myHeapIds.getMemoryBytes() + myRowsByTag.getMemoryBytes() + myAllocOrder.getMemoryBytes() +
+           myAllocPositions.getMemoryBytes() + myFreeOrder.getMemoryBytes() + myLifetimeIndex.getMemoryBytes();
+  }
+
+  int getTag(int row) {
+    return myTags.get(row);
+  }
+
+  int getClassTag(int row) {
+    return myClassTags.get(row);
+  }
+
+  long getAllocTime(int row) {
+    return myAllocTimes.get(row);
+  }
+
+  long getFreeTime(int row) {
+    return myFreeTimes.get(row);
+  }
+
+  long getSize(int row) {
+    return mySizes.get(row);
+  }
+
+  int getLength(int row) {
+    return myLengths.get(row);
+  }
+
+  int getThreadId(int row) {
+    return myThreadIds.get(row);
+  }
+
+  int getStackId(int row) {
+    return myStackIds.get(row);
+  }
+
+  int getHeapId(int row) {
+    return myHeapIds.get(row);
+  }
+
+  private void ensureIndices() {
+    compactPrunedRows();
+    sortIndices();
+  }
+
+  private void sortIndices() {
+    if (!myAllocOrderSorted) {
+      if (!isSorted(myAllocOrder, myAllocTimes)) {
+        sort(myAllocOrder, myAllocTimes, 0, myAllocOrder.size() - 1);
+      }
+      myAllocPositions.setSize(myAllocOrder.size());
+      for (int i = 0; i < myAllocOrder.size(); i++) {
+        myAllocPositions.set(myAllocOrder.get(i), i);
+      }
+      myLifetimeIndex.reset(myAllocOrder.size());
+      myAllocOrderSorted = true;
+    }
+
+    if (!myFreeOrderSorted) {
+      if (!isSorted(myFreeOrder, myFreeTimes)) {
+        sort(myFreeOrder, myFreeTimes, 0, myFreeOrder.size() - 1);
+      }
+      myFreeOrderSorted = true;
+    }
+  }
+
+  private int compareAllocOrder(int rowA, int rowB) {
+    return compare(myAllocTimes, rowA, rowB);
+  }
+
+  private int compareFreeOrder(int rowA, int rowB) {
+    return compare(myFreeTimes, rowA, rowB);
+  }
+
+  /**
+   * Orders rows by key, breaking ties by row id so rows with the same timestamp keep their arrival order.
+   */
+  private static int compare(@NotNull LongColumn keys, int rowA, int rowB) {
+    int result = Long.compare(keys.get(rowA), keys.get(rowB));
+    return result != 0 ? result : Integer.compare(rowA, rowB);
+  }
+
+  /**
+   * @return the first position in {@code order} whose key is >= {@code key}.
+   */
+  private static int lowerBound(@NotNull IntColumn order, @NotNull LongColumn keys, long key) {
+    int low = 0;
+    int high = order.size();
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (keys.get(order.get(mid)) < key) {
+        low = mid + 1;
+      }
+      else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+
+  private static boolean isSorted(@NotNull IntColumn order, @NotNull LongColumn keys) {
+    for (int i = 1; i < order.size(); i++) {
+      if (compare(keys, order.get(i - 1), order.get(i)) > 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * In-place quicksort of the row ids in order[low..high] by their keys. Recurses on the smaller partition only, so the stack depth
+   * stays logarithmic.
+   */
+  private static void sort(@NotNull IntColumn order, @NotNull LongColumn keys, int low, int high) {
+    while (high - low > 16) {
+      int mid = (low + high) >>> 1;
+      // Median of three as the pivot, moved to order[high].
+      if (compare(keys, order.get(mid), order.get(low)) < 0) {
+        order.swap(mid, low);
+      }
+      if (compare(keys, order.get(high), order.get(low)) < 0) {
+        order.swap(high, low);
+      }
+      if (compare(keys, order.get(mid), order.get(high)) < 0) {
+        order.swap(mid, high);
+      }
+      int pivot = order.get(high);
+      int store = low;
+      for (int i = low; i < high; i++) {
+        if (compare(keys, order.get(i), pivot) < 0) {
+          order.swap(i, store++);
+        }
+      }
+      order.swap(store, high);
+
+      if (store - low < high - store) {
+        sort(order, keys, low, store - 1);
+        low = store + 1;
+      }
+      else {
+        sort(order, keys, store + 1, high);
+        high = store - 1;
+      }
+    }
+
+    // Insertion sort for the small remainder.
+    for (int i = low + 1; i <= high; i++) {
+      int row = order.get(i);
+      int j = i - 1;
+      while (j >= low && compare(keys, order.get(j), row) > 0) {
+        order.set(j + 1, order.get(j));
+        j--;
+      }
+      order.set(j + 1, row);
+    }
+  }
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.datastore.database;
+
+import com.android.tools.datastore.database.OffHeapColumns.LongColumn;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.function.IntConsumer;
+import java.util.function.IntToLongFunction;
+
+/**
+ * Lifetime index over allocations sorted by allocation time: a max segment tree of their free times. Since the allocations alive
+ * at T are a prefix of that order (AllocTime < T) filtered by FreeTime > T, the tree answers such stabbing queries by only descending
+ * into subtrees whose maximum free time is greater than T, i.e. in O((k + 1) * log n) for k results, and a free is an O(log n) update.
+ *
+ * The tree does not copy the free times, it reads them through the accessor it is given. To keep it small each leaf covers
+ * (1 << LEAF_SHIFT) consecutive positions. Not thread-safe.
+ */
+final class AllocationLifetimeIndex {
+  private static final int LEAF_SHIFT = 5;
+  private static final int LEAF_SIZE = 1 << LEAF_SHIFT;
+
+  @NotNull private final IntToLongFunction myFreeTimes;
+  // Implicit binary tree: node i has children 2i and 2i+1, the leaves start at myLeafCapacity.
+  private final LongColumn myTree = new LongColumn();
+  private int myLeafCapacity;
+  private int mySize;
+
+  /**
+   * @param freeTimes returns the free time of the allocation at a given position of the allocation time order.
+   */
+  AllocationLifetimeIndex(@NotNull IntToLongFunction freeTimes) {
+    myFreeTimes = freeTimes;
+    reset(0);
+  }
+
+  int size() {
+    return mySize;
+  }
+
+  /**
+   * Rebuilds the whole index over positions [0, size).
+   */
+  void reset(int size) {
+    mySize = size;
+    int leafCount = getLeafCount(size);
+    myLeafCapacity = 1;
+    while (myLeafCapacity < leafCount) {
+      myLeafCapacity <<= 1;
+    }
+    myTree.setSize(myLeafCapacity * 2);
+    for (int leaf = 0; leaf < myLeafCapacity; leaf++) {
+      myTree.set(myLeafCapacity + leaf, computeLeaf(leaf));
+    }
+    for (int node = myLeafCapacity - 1; node > 0; node--) {
+      myTree.set(node, Math.max(myTree.get(2 * node), myTree.get(2 * node + 1)));
+    }
+  }
+
+  /**
+   * Extends the index by one position at the end.
+   */
+  void add() {
+    if (getLeafCount(mySize + 1) > myLeafCapacity) {
+      reset(mySize + 1);
+    }
+    else {
+      mySize++;
+      update(mySize - 1);
+    }
+  }
+
+  /**
+   * Must be called after the free time at {@code position} changed.
+   */
+  void update(int position) {
+    assert position < mySize;
+    int node = myLeafCapacity + (position >>> LEAF_SHIFT);
+    myTree.set(node, computeLeaf(position >>> LEAF_SHIFT));
+    for (node >>>= 1; node > 0; node >>>= 1) {
+      myTree.set(node, Math.max(myTree.get(2 * node), myTree.get(2 * node + 1)));
+    }
+  }
+
+  /**
+   * Visits, in increasing order, the positions within [from, to) whose free time is greater than {@code time}.
+   */
+  void forEachFreedAfter(int from, int to, long time, @NotNull IntConsumer visitor) {
+    to = Math.min(to, mySize);
+    if (from < to) {
+      visit(1, 0, myLeafCapacity, from, to, time, visitor);
+    }
+  }
+
+  private void visit(int node, int firstLeaf, int endLeaf, int from, int to, long time, @NotNull IntConsumer visitor) {
+    if (myTree.get(node) <= time || endLeaf << LEAF_SHIFT <= from || firstLeaf << LEAF_SHIFT >= to) {
+      return;
+    }
+    if (node >= myLeafCapacity) {
+      int end = Math.min(to, (firstLeaf + 1) << LEAF_SHIFT);
+      for (int position = Math.max(from, firstLeaf << LEAF_SHIFT); position < end; position++) {
+        if (myFreeTimes.applyAsLong(position) > time) {
+          visitor.accept(position);
+        }
+      }
+      return;
+    }
+    int midLeaf = (firstLeaf + endLeaf) >>> 1;
+    visit(2 * node, firstLeaf, midLeaf, from, to, time, visitor);
+    visit(2 * node + 1, midLeaf, endLeaf, from, to, time, visitor);
+  }
+
+  private long computeLeaf(int leaf) {
+    long max = Long.MIN_VALUE;
+    int end = Math.min(mySize, (leaf + 1) << LEAF_SHIFT);
+    for (int position = leaf << LEAF_SHIFT; position < end; position++) {
+      max = Math.max(max, myFreeTimes.applyAsLong(position));
+    }
+    return max;
+  }
+
+  long getMemoryBytes() {
+    return myTree.getMemoryBytes();
+  }
+
+  private static int getLeafCount(int size) {
+    return (size + LEAF_SIZE - 1) >>> LEAF_SHIFT;
+  }
+}
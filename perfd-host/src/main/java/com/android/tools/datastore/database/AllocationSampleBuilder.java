@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.datastore.database;
+
+import com.android.tools.profiler.proto.MemoryProfiler.AllocationEvent;
+import com.android.tools.profiler.proto.MemoryProfiler.BatchAllocationSample;
+import org.jetbrains.annotations.NotNull;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Builds the {@link BatchAllocationSample} of a query row by row, reusing one builder per message type instead of creating new ones for
+ * each event. Every event then only costs the two immutable messages it is made of, which matters for queries returning hundreds of
+ * thousands of allocations. The sample's timestamp is the latest event timestamp added. Not thread-safe.
+ */
+final class AllocationSampleBuilder {
+  private final BatchAllocationSample.Builder mySample = BatchAllocationSample.newBuilder();
+  private final AllocationEvent.Builder myEvent = AllocationEvent.newBuilder();
+  private final AllocationEvent.Allocation.Builder myAllocation = AllocationEvent.Allocation.newBuilder();
+  private final AllocationEvent.Deallocation.Builder myDeallocation = AllocationEvent.Deallocation.newBuilder();
+  private long myTimestamp = Long.MIN_VALUE;
+
+  void addAllocation(long allocTime, int tag, int classTag, long size, int length, int threadId, int stackId, int heapId) {
+    // Every field is set, so nothing from the previous event survives in the reused builders.
+    myAllocation.setTag(tag).setClassTag(classTag).setSize(size).setLength(length).setThreadId(threadId).setStackId(stackId)
+      .setHeapId(heapId);
+    mySample.addEvents(myEvent.setAllocData(myAllocation).setTimestamp(allocTime));
+    myTimestamp = Math.max(myTimestamp, allocTime);
+  }
+
+  void addDeallocation(long freeTime, int tag, int classTag, long size, int length, int threadId, int stackId, int heapId) {
+    myDeallocation.setTag(tag).setClassTag(classTag).setSize(size).setLength(length).setThreadId(threadId).setStackId(stackId)
+      .setHeapId(heapId);
+    mySample.addEvents(myEvent.setFreeData(myDeallocation).setTimestamp(freeTime));
+    myTimestamp = Math.max(myTimestamp, freeTime);
+  }
+
+  void addAllocation(@NotNull AllocationEventColumns columns, int row) {
+    addAllocation(columns.getAllocTime(row), columns.getTag(row), columns.getClassTag(row), columns.getSize(row), columns.getLength(row),
+                  columns.getThreadId(row), columns.getStackId(row), columns.getHeapId(row));
+  }
+
+  void addDeallocation(@NotNull AllocationEventColumns columns, int row) {
+    addDeallocation(columns.getFreeTime(row), columns.getTag(row), columns.getClassTag(row), columns.getSize(row),
+                    columns.getLength(row), columns.getThreadId(row), columns.getStackId(row), columns.getHeapId(row));
+  }
+
+  /**
+   * Adds the current row of a query whose columns are Tag, ClassTag, then at {@code sizeColumn} Size, Length, ThreadId, StackId and
+   * HeapId, as an allocation at {@code allocTime}.
+   */
+  void addAllocation(@NotNull ResultSet result, long allocTime, int sizeColumn) throws SQLException {
+    addAllocation(allocTime, result.getInt(1), result.getInt(2), result.getLong(sizeColumn), result.getInt(sizeColumn + 1),
+                  result.getInt(sizeColumn + 2), result.getInt(sizeColumn + 3), result.getInt(sizeColumn + 4));
+  }
+
+  /**
+   * Same as {@link #addAllocation(ResultSet, long, int)}, as a deallocation at {@code freeTime}.
+   */
+  void addDeallocation(@NotNull ResultSet result, long freeTime, int sizeColumn) throws SQLException {
+    addDeallocation(freeTime, result.getInt(1), result.getInt(2), result.getLong(sizeColumn), result.getInt(sizeColumn + 1),
+                    result.getInt(sizeColumn + 2), result.getInt(sizeColumn + 3), result.getInt(sizeColumn + 4));
+  }
+
+  @NotNull
+  BatchAllocationSample build() {
+    return mySample.setTimestamp(myTimestamp).build();
+  }
+}
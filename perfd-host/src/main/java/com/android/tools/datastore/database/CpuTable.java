@@ -49,6 +49,9 @@ public class CpuTable extends DataStoreTable<CpuTable.CpuStatements> {
     INSERT_TRACE_INFO,
   }
 
+  @NotNull private final TableRetention myCpuDataRetention =
+    createRetention("Cpu_Data", "Timestamp", "LENGTH(Data)", RetentionPolicy.TIME_SERIES);
+
   @Override
   public void initialize(@NotNull Connection connection) {
     super.initialize(connection);
@@ -118,7 +121,9 @@ public class CpuTable extends DataStoreTable<CpuTable.CpuStatements> {
   }
 
   public void insert(Common.Session session, CpuUsageData data) {
-    execute(CpuStatements.INSERT_CPU_DATA, session.getSessionId(), data.getEndTimestamp(), data.toByteArray());
+    byte[] bytes = data.toByteArray();
+    execute(CpuStatements.INSERT_CPU_DATA, session.getSessionId(), data.getEndTimestamp(), bytes);
+    myCpuDataRetention.recordRows(session.getSessionId(), data.getEndTimestamp(), 1, bytes.length);
   }
 
   public List<CpuUsageData> getCpuDataByRequest(CpuDataRequest request) {
@@ -15,18 +15,26 @@
  */
 package com.android.tools.datastore.database;
 
+import com.android.tools.datastore.DataStoreDatabase;
 import com.android.tools.profiler.proto.Common;
 import com.intellij.openapi.diagnostic.Logger;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * Interface a {@link com.android.tools.datastore.ServicePassThrough} object returns to indicate this object is
@@ -36,8 +44,33 @@ public abstract class DataStoreTable<T extends Enum> {
   private static final Logger LOG = Logger.getInstance(DataStoreTable.class.getCanonicalName());
   private static final Set<DataStoreTableErrorCallback> ERROR_CALLBACKS = new HashSet();
 
+  /**
+   * Maximum number of writes queued per table. Once the queue is full the writing thread flushes it synchronously, so a poller
+   * that produces data faster than we can store it gets throttled instead of growing the queue without bound.
+   */
+  private static final int MAX_PENDING_WRITES = 4096;
+
+  /**
+   * Number of queued writes that triggers a flush on the writing thread.
+   */
+  private static final int FLUSH_THRESHOLD = 512;
+
+  /**
+   * Schema version of every table created through {@link #createTable(String, String...)}, so tables persisted by a previous run can
+   * be told apart from outdated ones.
+   */
+  private static final String SCHEMA_VERSIONS_TABLE = "Datastore_SchemaVersions";
+  private static final int NO_SCHEMA_VERSION = -1;
+
   private Connection myConnection;
+  @Nullable private DataStoreDatabase myDatabase;
   private final ThreadLocal<Map<T, PreparedStatement>> myStatementMap = new ThreadLocal<>();
+  private final BlockingQueue<PendingWrite<T>> myPendingWrites = new ArrayBlockingQueue<>(MAX_PENDING_WRITES);
+  private final Object myFlushLock = new Object();
+  private volatile long myLastWriteLagNs;
+  private volatile long myMaxWriteLagNs;
+  private final List<TableRetention> myRetentions = new CopyOnWriteArrayList<>();
+  private final List<SqlRetention> mySqlRetentions = new CopyOnWriteArrayList<>();
 
   public interface DataStoreTableErrorCallback {
     void onDataStoreError(Throwable t);
@@ -52,6 +85,16 @@ public abstract class DataStoreTable<T extends Enum> {
     myConnection = connection;
   }
 
+  /**
+   * Initializes the table against the database's connection, and registers the table so its pending writes get flushed and
+   * committed periodically by the database.
+   */
+  public void initialize(@NotNull DataStoreDatabase database) {
+    myDatabase = database;
+    database.registerTable(this);
+    initialize(database.getConnection());
+  }
+
   /**
    * Helper function called after initialize to create {@link PreparedStatement} the implementor should cache
    * the statements for later use.
@@ -98,11 +141,77 @@ public abstract class DataStoreTable<T extends Enum> {
     return myStatementMap.get();
   }
 
-  protected void createTable(@NotNull String table, String... columns) throws SQLException {
+  /**
+   * Version of the schema of the SQL tables this class creates. Bump it whenever one of them changes, and upgrade the tables of the
+   * previous versions in {@link #migrateTable(String, int)}, otherwise they are dropped and re-created empty.
+   */
+  protected int getSchemaVersion() {
+    return 1;
+  }
+
+  /**
+   * Upgrades {@code table}, kept from an earlier run at {@code fromVersion}, to {@link #getSchemaVersion()}.
+   *
+   * @return false if the table cannot be upgraded and should be re-created instead.
+   */
+  protected boolean migrateTable(@NotNull String table, int fromVersion) throws SQLException {
+    return false;
+  }
+
+  /**
+   * Creates the table, unless a previous run of the datastore left one of the same schema version in the database, in which case it
+   * is kept with its data. Tables of older versions are migrated or re-created.
+   *
+   * @return true if the table existed and was kept.
+   */
+  protected boolean createTable(@NotNull String table, String... columns) throws SQLException {
+    myConnection.createStatement().execute(
+      String.format("CREATE TABLE IF NOT EXISTS %s (TableName TEXT PRIMARY KEY, Version INTEGER NOT NULL)", SCHEMA_VERSIONS_TABLE));
+    int version = getStoredSchemaVersion(table);
+    if (version != NO_SCHEMA_VERSION && tableExists(table)) {
+      if (version == getSchemaVersion()) {
+        restoreRetentions(table);
+        return true;
+      }
+      if (version < getSchemaVersion() && migrateTable(table, version)) {
+        LOG.info(String.format("Migrated %s from schema version %d to %d.", table, version, getSchemaVersion()));
+        setStoredSchemaVersion(table);
+        restoreRetentions(table);
+        return true;
+      }
+    }
+
     myConnection.createStatement().execute(String.format("DROP TABLE IF EXISTS %s ", table));
     StringBuilder statement = new StringBuilder();
     statement.append(String.format("CREATE TABLE %s", table));
     executeUniqueStatement(statement, columns);
+    setStoredSchemaVersion(table);
+    return false;
+  }
+
+  private int getStoredSchemaVersion(@NotNull String table) throws SQLException {
+    try (PreparedStatement statement = myConnection.prepareStatement(
+      String.format("SELECT Version FROM %s WHERE TableName = ?", SCHEMA_VERSIONS_TABLE))) {
+      statement.setString(1, table);
+      ResultSet result = statement.executeQuery();
+      return result.next() ? result.getInt(1) : NO_SCHEMA_VERSION;
+    }
+  }
+
+  private void setStoredSchemaVersion(@NotNull String table) throws SQLException {
+    try (PreparedStatement statement = myConnection.prepareStatement(
+      String.format("INSERT OR REPLACE INTO %s (TableName, Version) VALUES (?, ?)", SCHEMA_VERSIONS_TABLE))) {
+      statement.setString(1, table);
+      statement.setInt(2, getSchemaVersion());
+      statement.execute();
+    }
+  }
+
+  private boolean tableExists(@NotNull String table) throws SQLException {
+    try (PreparedStatement statement = myConnection.prepareStatement("SELECT 1 FROM sqlite_master WHERE type = 'table' AND name = ?")) {
+      statement.setString(1, table);
+      return statement.executeQuery().next();
+    }
   }
 
   protected void createUniqueIndex(@NotNull String table, String... indexList) throws SQLException {
@@ -129,21 +238,238 @@ public abstract class DataStoreTable<T extends Enum> {
     getStatementMap().put(statement, myConnection.prepareStatement(stmt, statementFlags));
   }
 
+  /**
+   * Queues a write statement. Queued writes are executed in order, grouped into batches, when the queue fills up, before any query
+   * on a table of the same {@link DataStoreDatabase} (so queries see every write queued before them), or when the database commits.
+   */
   protected void execute(@NotNull T statement, Object... params) {
-    try {
+    if (isClosed()) {
+      return;
+    }
+    PendingWrite<T> write = new PendingWrite<>(statement, params, System.nanoTime());
+    while (!myPendingWrites.offer(write)) {
+      flush();
+    }
+    if (myPendingWrites.size() >= FLUSH_THRESHOLD) {
+      flush();
+    }
+  }
+
+  /**
+   * Executes all queued writes on the calling thread. Consecutive writes of the same statement are sent as a single JDBC batch. The
+   * writes are applied all together or not at all: if one of them fails, the ones before it are rolled back and the whole flush is
+   * dropped.
+   */
+  public void flush() {
+    synchronized (getWriteLock()) {
+      if (myPendingWrites.isEmpty()) {
+        return;
+      }
+      List<PendingWrite<T>> writes = new ArrayList<>(myPendingWrites.size());
+      myPendingWrites.drainTo(writes);
       if (isClosed()) {
         return;
       }
-      PreparedStatement stmt = getStatementMap().get(statement);
-      applyParams(stmt, params);
+
+      long now = System.nanoTime();
+      // The queue is FIFO, so the first write is the one that waited the longest.
+      myLastWriteLagNs = now - writes.get(0).myQueuedTimeNs;
+      myMaxWriteLagNs = Math.max(myMaxWriteLagNs, myLastWriteLagNs);
+
+      Savepoint savepoint = null;
+      try {
+        savepoint = myConnection.setSavepoint();
+        int start = 0;
+        while (start < writes.size()) {
+          T statement = writes.get(start).myStatement;
+          int end = start + 1;
+          while (end < writes.size() && writes.get(end).myStatement == statement) {
+            end++;
+          }
+          executeBatch(statement, writes.subList(start, end));
+          start = end;
+        }
+        myConnection.releaseSavepoint(savepoint);
+      }
+      catch (SQLException ex) {
+        rollback(savepoint);
+        onError(ex);
+        return;
+      }
+
+      if (myDatabase != null) {
+        myDatabase.onRowsWritten(writes.size());
+      }
+    }
+  }
+
+  /**
+   * The writes of all the tables of a database go through its connection, they hold its lock so a rollback only undoes one flush.
+   */
+  @NotNull
+  private Object getWriteLock() {
+    return myDatabase != null ? myDatabase.getWriteLock() : myFlushLock;
+  }
+
+  private void executeBatch(@NotNull T statement, @NotNull List<PendingWrite<T>> writes) throws SQLException {
+    PreparedStatement stmt = getStatementMap().get(statement);
+    if (stmt == null) {
+      return;
+    }
+    if (writes.size() == 1) {
+      applyParams(stmt, writes.get(0).myParams);
       stmt.execute();
+      return;
+    }
+    try {
+      for (PendingWrite<T> write : writes) {
+        applyParams(stmt, write.myParams);
+        stmt.addBatch();
+      }
+      stmt.executeBatch();
+    }
+    catch (SQLException ex) {
+      try {
+        stmt.clearBatch();
+      }
+      catch (SQLException ignored) {
+      }
+      throw ex;
+    }
+  }
+
+  private void rollback(@Nullable Savepoint savepoint) {
+    if (savepoint == null) {
+      return;
+    }
+    try {
+      myConnection.rollback(savepoint);
+      myConnection.releaseSavepoint(savepoint);
     }
     catch (SQLException ex) {
       onError(ex);
     }
   }
 
+  /**
+   * @return the number of writes currently queued and not yet executed.
+   */
+  public int getPendingWriteCount() {
+    return myPendingWrites.size();
+  }
+
+  /**
+   * @return how long, in nanoseconds, the oldest write of the last flush waited in the queue.
+   */
+  public long getLastWriteLagNs() {
+    return myLastWriteLagNs;
+  }
+
+  /**
+   * @return the longest time, in nanoseconds, any write waited in the queue since this table was created.
+   */
+  public long getMaxWriteLagNs() {
+    return myMaxWriteLagNs;
+  }
+
+  /**
+   * Creates the retention bookkeeping of one of this table's SQL tables. Its rows are dropped with a range delete on
+   * {@code timeColumn}, so the table should have an index on (Session, timeColumn). When the table is kept from a previous run, the
+   * bookkeeping is rebuilt from its rows, which are accounted {@code rowBytes} each: a SQL expression over the row, e.g. the length of
+   * its data column, matching what the table records when inserting.
+   */
+  @NotNull
+  protected TableRetention createRetention(@NotNull String table,
+                                           @NotNull String timeColumn,
+                                           @NotNull String rowBytes,
+                                           @NotNull RetentionPolicy policy) {
+    String deleteStatement = String.format("DELETE FROM %s WHERE Session = ? AND %s < ?", table, timeColumn);
+    TableRetention retention = createRetention(table, policy, (sessionId, endTime) -> {
+      // Queued inserts must not be applied after the delete that should have dropped them.
+      flush();
+      synchronized (getWriteLock()) {
+        if (isClosed()) {
+          return 0;
+        }
+        try (PreparedStatement statement = myConnection.prepareStatement(deleteStatement)) {
+          applyParams(statement, sessionId, endTime);
+          return statement.executeUpdate();
+        }
+        catch (SQLException ex) {
+          onError(ex);
+          return 0;
+        }
+      }
+    });
+    mySqlRetentions.add(new SqlRetention(retention, table, timeColumn, rowBytes));
+    return retention;
+  }
+
+  /**
+   * Accounts the rows a previous run left in {@code table} into its retention bookkeeping, so they count against its policy and get
+   * dropped like new ones. Rows whose timestamp is still {@link Long#MAX_VALUE} are accounted as not droppable.
+   */
+  private void restoreRetentions(@NotNull String table) throws SQLException {
+    for (SqlRetention sqlRetention : mySqlRetentions) {
+      if (!sqlRetention.myTable.equals(table)) {
+        continue;
+      }
+      TableRetention retention = sqlRetention.myRetention;
+      String time = sqlRetention.myTimeColumn;
+      try (PreparedStatement statement = myConnection.prepareStatement(String.format(
+        "SELECT Session, MAX(%s), COUNT(*), SUM(%s) FROM %s WHERE %s < ? GROUP BY Session, %s / ?",
+        time, sqlRetention.myRowBytes, table, time, time))) {
+        applyParams(statement, Long.MAX_VALUE, retention.getSegmentDurationNs());
+        ResultSet result = statement.executeQuery();
+        while (result.next()) {
+          retention.recordRows(result.getLong(1), result.getLong(2), result.getLong(3), result.getLong(4));
+        }
+      }
+      try (PreparedStatement statement = myConnection.prepareStatement(String.format(
+        "SELECT COUNT(*), SUM(%s) FROM %s WHERE %s IS NULL OR %s >= ?", sqlRetention.myRowBytes, table, time, time))) {
+        applyParams(statement, Long.MAX_VALUE);
+        ResultSet result = statement.executeQuery();
+        if (result.next()) {
+          retention.addRows(result.getLong(1), result.getLong(2));
+        }
+      }
+    }
+  }
+
+  /**
+   * Creates the retention bookkeeping of a store of this table that is not a plain SQL table.
+   */
+  @NotNull
+  protected TableRetention createRetention(@NotNull String name,
+                                           @NotNull RetentionPolicy policy,
+                                           @NotNull TableRetention.SegmentDropper dropper) {
+    TableRetention retention = new TableRetention(name, policy, dropper);
+    myRetentions.add(retention);
+    return retention;
+  }
+
+  @NotNull
+  public List<TableRetention> getRetentions() {
+    return myRetentions;
+  }
+
+  /**
+   * Drops the oldest data of every store of this table that exceeds its {@link RetentionPolicy}.
+   */
+  public void enforceRetention() {
+    for (TableRetention retention : myRetentions) {
+      retention.enforce();
+    }
+  }
+
   protected ResultSet executeQuery(@NotNull T statement, Object... params) throws SQLException {
+    // Queries may join or be read along with other tables, so they see what was written to any of them.
+    if (myDatabase != null) {
+      myDatabase.flush();
+    }
+    else {
+      flush();
+    }
     PreparedStatement stmt = getStatementMap().get(statement);
     if (isClosed() || stmt.isClosed()) {
       return new EmptyResultSet();
@@ -180,4 +506,30 @@ public abstract class DataStoreTable<T extends Enum> {
       }
     }
   }
+
+  private static final class SqlRetention {
+    @NotNull private final TableRetention myRetention;
+    @NotNull private final String myTable;
+    @NotNull private final String myTimeColumn;
+    @NotNull private final String myRowBytes;
+
+    private SqlRetention(@NotNull TableRetention retention, @NotNull String table, @NotNull String timeColumn, @NotNull String rowBytes) {
+      myRetention = retention;
+      myTable = table;
+      myTimeColumn = timeColumn;
+      myRowBytes = rowBytes;
+    }
+  }
+
+  private static final class PendingWrite<T> {
+    @NotNull private final T myStatement;
+    private final Object[] myParams;
+    private final long myQueuedTimeNs;
+
+    private PendingWrite(@NotNull T statement, Object[] params, long queuedTimeNs) {
+      myStatement = statement;
+      myParams = params;
+      myQueuedTimeNs = queuedTimeNs;
+    }
+  }
 }
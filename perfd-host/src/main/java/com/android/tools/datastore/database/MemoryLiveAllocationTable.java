@@ -20,14 +20,17 @@ import com.android.tools.profiler.proto.Common;
 import com.android.tools.profiler.proto.MemoryProfiler;
 import com.android.tools.profiler.proto.MemoryProfiler.*;
 import com.android.tools.profiler.protobuf3jarjar.InvalidProtocolBufferException;
-import com.intellij.openapi.diagnostic.Logger;
 import org.jetbrains.annotations.NotNull;
 
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import static com.android.tools.datastore.database.MemoryLiveAllocationTable.MemoryStatements.*;
 
@@ -59,14 +62,6 @@ public class MemoryLiveAllocationTable extends DataStoreTable<MemoryLiveAllocati
     QUERY_THREAD_INFO_BY_TIME(
       "Select ThreadId, ThreadName FROM Memory_ThreadInfos WHERE Session = ? AND AllocTime >= ? AND AllocTime < ?"),
 
-    COUNT_ALLOC("SELECT count(*) FROM Memory_AllocationEvents"),
-    PRUNE_ALLOC("DELETE FROM Memory_AllocationEvents WHERE Session = ? AND FreeTime <= (" +
-                " SELECT MAX(FreeTime)" +
-                " FROM Memory_AllocationEvents" +
-                " WHERE Session = ? AND FreeTime < " + Long.MAX_VALUE +
-                " ORDER BY FreeTime" +
-                " LIMIT ?" +
-                ")"),
     INSERT_JNI_REF(
       "INSERT OR IGNORE INTO Memory_JniGlobalReferences " +
       "(Session, Tag, RefValue, AllocTime, AllocThreadId, AllocStackHash, FreeThreadId, FreeStackHash, FreeTime) " +
@@ -77,15 +72,6 @@ public class MemoryLiveAllocationTable extends DataStoreTable<MemoryLiveAllocati
       "SET FreeTime = ?, FreeStackHash = ?, FreeThreadId = ?" +
       "WHERE Session = ? AND Tag = ? AND RefValue = ?"),
 
-    COUNT_JNI_REF_RECORDS("SELECT COUNT(1) FROM Memory_JniGlobalReferences"),
-    PRUNE_JNI_REF_RECORDS("DELETE FROM Memory_JniGlobalReferences WHERE Session = ? AND FreeTime <= (" +
-                          " SELECT MAX(FreeTime)" +
-                          " FROM Memory_JniGlobalReferences" +
-                          " WHERE Session = ? AND FreeTime < " + Long.MAX_VALUE +
-                          " ORDER BY FreeTime" +
-                          " LIMIT ?" +
-                          ")"),
-
     QUERY_JNI_REF_CREATE_EVENTS(
       "SELECT Refs.Tag, Refs.RefValue, Refs.AllocTime AS Timestamp, Refs.AllocThreadId AS ThreadId, AllockStack.Backtrace AS Backtrace " +
       "FROM Memory_JniGlobalReferences AS Refs " +
@@ -115,12 +101,70 @@ public class MemoryLiveAllocationTable extends DataStoreTable<MemoryLiveAllocati
     }
   }
 
+  /**
+   * Where the allocation and free events are stored. Classes, stacks, threads and JNI references always live in SQLite.
+   */
+  public enum AllocationBackend {
+    /**
+     * One Memory_AllocationEvents row per allocation.
+     */
+    SQLITE,
+    /**
+     * Off-heap primitive columns per session, see {@link AllocationEventColumns}.
+     */
+    COLUMNAR
+  }
+
+  private static final String ALLOCATION_EVENTS_TABLE = "Memory_AllocationEvents";
+
   // 5M ought to be enough for anybody (~300MB of data)
   // Note - Google Search app can easily allocate 100k+ temporary objects in an relatively short amount of time (e.g. one search query)
-  private int myAllocationCountLimit = 5000000;
+  private static final int SQLITE_ALLOCATION_COUNT_LIMIT = 5000000;
+  // The columnar backend uses no Java heap but ~100 bytes of direct memory per allocation: 48 bytes of columns, 12 bytes of orders,
+  // and the tag map and lifetime index. Direct memory is capped by MaxDirectMemorySize, which defaults to the maximum heap size, so
+  // the columns get at most half of it.
+  private static final int COLUMNAR_ALLOCATION_COUNT_LIMIT = 50000000;
+  // Rough sizes of a row, for the retention's byte accounting.
+  private static final long SQLITE_ALLOCATION_ROW_BYTES = 80;
+  private static final long COLUMNAR_ALLOCATION_ROW_BYTES = 100;
+  private static final long JNI_REF_ROW_BYTES = 120;
+
+  @NotNull private final AllocationBackend myBackend;
+  private final long myAllocationRowBytes;
+  // Only used by the COLUMNAR backend. Each instance is guarded by the map's lock.
+  private final Map<Long, AllocationEventColumns> myAllocationColumns = new HashMap<>();
+  // Time the remaining allocations of each ended session were made droppable at, until their columns are dropped. Late events of these
+  // sessions are ignored. Guarded by myAllocationColumns.
+  private final Map<Long, Long> myEndedSessions = new HashMap<>();
+  // Allocations and JNI references become droppable once freed, the oldest freed ones are dropped first.
+  @NotNull private final TableRetention myAllocationRetention;
+  @NotNull private final TableRetention myJniRefRetention;
+
+  public MemoryLiveAllocationTable() {
+    this(AllocationBackend.COLUMNAR);
+  }
+
+  public MemoryLiveAllocationTable(@NotNull AllocationBackend backend) {
+    myBackend = backend;
+    if (backend == AllocationBackend.COLUMNAR) {
+      myAllocationRowBytes = COLUMNAR_ALLOCATION_ROW_BYTES;
+      myAllocationRetention = createRetention(ALLOCATION_EVENTS_TABLE,
+                                              RetentionPolicy.UNLIMITED.withMaxRowCount(getColumnarAllocationCountLimit()),
+                                              this::dropColumnarAllocations);
+    }
+    else {
+      myAllocationRowBytes = SQLITE_ALLOCATION_ROW_BYTES;
+      myAllocationRetention = createRetention(ALLOCATION_EVENTS_TABLE, "FreeTime", String.valueOf(SQLITE_ALLOCATION_ROW_BYTES),
+                                              RetentionPolicy.UNLIMITED.withMaxRowCount(SQLITE_ALLOCATION_COUNT_LIMIT));
+    }
+    // JNI references are always stored in SQLite.
+    myJniRefRetention = createRetention("Memory_JniGlobalReferences", "FreeTime", String.valueOf(JNI_REF_ROW_BYTES),
+                                        RetentionPolicy.UNLIMITED.withMaxRowCount(SQLITE_ALLOCATION_COUNT_LIMIT));
+  }
 
-  private static Logger getLogger() {
-    return Logger.getInstance(MemoryLiveAllocationTable.class);
+  private static int getColumnarAllocationCountLimit() {
+    long directMemoryBudget = OffHeapColumns.getMaxDirectMemoryBytes() / 2;
+    return (int)Math.min(COLUMNAR_ALLOCATION_COUNT_LIMIT, directMemoryBudget / COLUMNAR_ALLOCATION_ROW_BYTES);
   }
 
   @Override
@@ -130,9 +174,13 @@ public class MemoryLiveAllocationTable extends DataStoreTable<MemoryLiveAllocati
       // O+ Allocation Tracking
       createTable("Memory_AllocatedClass", "Session INTEGER NOT NULL", "Tag INTEGER",
                   "AllocTime INTEGER", "Name TEXT", "PRIMARY KEY(Session, Tag)");
-      createTable("Memory_AllocationEvents", "Session INTEGER NOT NULL", "Tag INTEGER",
-                  "ClassTag INTEGER", "AllocTime INTEGER", "FreeTime INTEGER", "Size INTEGER", "Length INTEGER", "ThreadId INTEGER",
-                  "StackId INTEGER", "HeapId INTEGER", "PRIMARY KEY(Session, Tag)");
+      if (myBackend == AllocationBackend.SQLITE) {
+        createTable(ALLOCATION_EVENTS_TABLE, "Session INTEGER NOT NULL", "Tag INTEGER",
+                    "ClassTag INTEGER", "AllocTime INTEGER", "FreeTime INTEGER", "Size INTEGER", "Length INTEGER", "ThreadId INTEGER",
+                    "StackId INTEGER", "HeapId INTEGER", "PRIMARY KEY(Session, Tag)");
+        createIndex(ALLOCATION_EVENTS_TABLE, 0, "Session", "AllocTime");
+        createIndex(ALLOCATION_EVENTS_TABLE, 1, "Session", "FreeTime");
+      }
       createTable("Memory_MethodInfos", "Session INTEGER NOT NULL", "MethodId INTEGER",
                   "MethodName TEXT", "ClassName TEXT", "PRIMARY KEY(Session, MethodId)");
       createTable("Memory_StackInfos", "Session INTEGER NOT NULL", "StackId INTEGER", "AllocTime INTEGER",
@@ -145,8 +193,6 @@ public class MemoryLiveAllocationTable extends DataStoreTable<MemoryLiveAllocati
                   "RefValue INTEGER", "AllocTime INTEGER", "FreeTime INTEGER", "AllocThreadId INTEGER", "FreeThreadId INTEGER",
                   "AllocStackHash INTEGER", "FreeStackHash INTEGER", "PRIMARY KEY(Session, Tag, RefValue)");
 
-      createIndex("Memory_AllocationEvents", 0, "Session", "AllocTime");
-      createIndex("Memory_AllocationEvents", 1, "Session", "FreeTime");
       createIndex("Memory_AllocatedClass", 0, "Session", "AllocTime");
       createIndex("Memory_StackInfos", 0, "Session", "AllocTime");
       createIndex("Memory_ThreadInfos", 0, "Session", "AllocTime");
@@ -161,14 +207,19 @@ public class MemoryLiveAllocationTable extends DataStoreTable<MemoryLiveAllocati
 
   @VisibleForTesting
   void setAllocationCountLimit(int allocationCountLimit) {
-    myAllocationCountLimit = allocationCountLimit;
+    myAllocationRetention.setPolicy(myAllocationRetention.getPolicy().withMaxRowCount(allocationCountLimit));
+    myJniRefRetention.setPolicy(
+      myJniRefRetention.getPolicy().withMaxRowCount(Math.min(allocationCountLimit, SQLITE_ALLOCATION_COUNT_LIMIT)));
   }
 
   @Override
   public void prepareStatements() {
     try {
       for (MemoryStatements statement : values()) {
-        createStatement(statement, statement.getStatement());
+        // The COLUMNAR backend doesn't create the table of the allocation events.
+        if (myBackend == AllocationBackend.SQLITE || !statement.getStatement().contains(ALLOCATION_EVENTS_TABLE)) {
+          createStatement(statement, statement.getStatement());
+        }
       }
     }
     catch (SQLException ex) {
@@ -177,22 +228,16 @@ public class MemoryLiveAllocationTable extends DataStoreTable<MemoryLiveAllocati
   }
 
   public MemoryProfiler.BatchAllocationSample getSnapshot(Common.Session session, long endTime) {
-    MemoryProfiler.BatchAllocationSample.Builder sampleBuilder = MemoryProfiler.BatchAllocationSample.newBuilder();
+    if (myBackend == AllocationBackend.COLUMNAR) {
+      return getColumnarSnapshot(session, endTime);
+    }
+
+    AllocationSampleBuilder sampleBuilder = new AllocationSampleBuilder();
     try {
       ResultSet allocResult = executeQuery(QUERY_SNAPSHOT, session.getSessionId(), endTime, endTime);
-      long timestamp = Long.MIN_VALUE;
       while (allocResult.next()) {
-        long allocTime = allocResult.getLong(3);
-        MemoryProfiler.AllocationEvent event = MemoryProfiler.AllocationEvent.newBuilder()
-          .setAllocData(
-            MemoryProfiler.AllocationEvent.Allocation.newBuilder().setTag(allocResult.getInt(1)).setClassTag(allocResult.getInt(2))
-              .setSize(allocResult.getLong(4)).setLength(allocResult.getInt(5)).setThreadId(allocResult.getInt(6))
-              .setStackId(allocResult.getInt(7)).setHeapId(allocResult.getInt(8)).build())
-          .setTimestamp(allocTime).build();
-        sampleBuilder.addEvents(event);
-        timestamp = Math.max(timestamp, allocTime);
+        sampleBuilder.addAllocation(allocResult, allocResult.getLong(3), 4);
       }
-      sampleBuilder.setTimestamp(timestamp);
     }
     catch (SQLException ex) {
       onError(ex);
@@ -202,38 +247,22 @@ public class MemoryLiveAllocationTable extends DataStoreTable<MemoryLiveAllocati
   }
 
   public MemoryProfiler.BatchAllocationSample getAllocations(Common.Session session, long startTime, long endTime) {
-    MemoryProfiler.BatchAllocationSample.Builder sampleBuilder = MemoryProfiler.BatchAllocationSample.newBuilder();
+    if (myBackend == AllocationBackend.COLUMNAR) {
+      return getColumnarAllocations(session, startTime, endTime);
+    }
+
+    AllocationSampleBuilder sampleBuilder = new AllocationSampleBuilder();
     try {
       // Then get all allocation events that are valid for requestTime.
       ResultSet allocResult = executeQuery(QUERY_ALLOC_BY_ALLOC_TIME, session.getSessionId(), startTime, endTime);
-      long timestamp = Long.MIN_VALUE;
-
       while (allocResult.next()) {
-        long allocTime = allocResult.getLong(3);
-        MemoryProfiler.AllocationEvent event = MemoryProfiler.AllocationEvent.newBuilder()
-          .setAllocData(
-            MemoryProfiler.AllocationEvent.Allocation.newBuilder().setTag(allocResult.getInt(1)).setClassTag(allocResult.getInt(2))
-              .setSize(allocResult.getLong(5)).setLength(allocResult.getInt(6)).setThreadId(allocResult.getInt(7))
-              .setStackId(allocResult.getInt(8)).setHeapId(allocResult.getInt(9)).build())
-          .setTimestamp(allocTime).build();
-        sampleBuilder.addEvents(event);
-        timestamp = Math.max(timestamp, allocTime);
+        sampleBuilder.addAllocation(allocResult, allocResult.getLong(3), 5);
       }
 
       ResultSet freeResult = executeQuery(QUERY_ALLOC_BY_FREE_TIME, session.getSessionId(), startTime, endTime);
       while (freeResult.next()) {
-        long freeTime = freeResult.getLong(4);
-        MemoryProfiler.AllocationEvent event = MemoryProfiler.AllocationEvent.newBuilder()
-          .setFreeData(
-            MemoryProfiler.AllocationEvent.Deallocation.newBuilder().setTag(freeResult.getInt(1)).setClassTag(freeResult.getInt(2))
-              .setSize(freeResult.getLong(5)).setLength(freeResult.getInt(6)).setThreadId(freeResult.getInt(7))
-              .setStackId(freeResult.getInt(8)).setHeapId(freeResult.getInt(9)).build())
-          .setTimestamp(freeTime).build();
-        sampleBuilder.addEvents(event);
-        timestamp = Math.max(timestamp, freeTime);
+        sampleBuilder.addDeallocation(freeResult, freeResult.getLong(4), 5);
       }
-
-      sampleBuilder.setTimestamp(timestamp);
     }
     catch (SQLException ex) {
       onError(ex);
@@ -241,9 +270,40 @@ public class MemoryLiveAllocationTable extends DataStoreTable<MemoryLiveAllocati
     return sampleBuilder.build();
   }
 
+  @NotNull
+  private MemoryProfiler.BatchAllocationSample getColumnarSnapshot(@NotNull Common.Session session, long endTime) {
+    AllocationSampleBuilder sampleBuilder = new AllocationSampleBuilder();
+    synchronized (myAllocationColumns) {
+      AllocationEventColumns columns = myAllocationColumns.get(session.getSessionId());
+      if (columns != null) {
+        columns.forEachAliveAt(endTime, row -> sampleBuilder.addAllocation(columns, row));
+      }
+    }
+    return sampleBuilder.build();
+  }
+
+  @NotNull
+  private MemoryProfiler.BatchAllocationSample getColumnarAllocations(@NotNull Common.Session session, long startTime, long endTime) {
+    AllocationSampleBuilder sampleBuilder = new AllocationSampleBuilder();
+    synchronized (myAllocationColumns) {
+      AllocationEventColumns columns = myAllocationColumns.get(session.getSessionId());
+      if (columns != null) {
+        columns.forEachAllocatedIn(startTime, endTime, row -> sampleBuilder.addAllocation(columns, row));
+        columns.forEachFreedIn(startTime, endTime, row -> sampleBuilder.addDeallocation(columns, row));
+      }
+    }
+    return sampleBuilder.build();
+  }
+
   @NotNull
   public LatestAllocationTimeResponse getLatestDataTimestamp(Common.Session session) {
     LatestAllocationTimeResponse.Builder builder = LatestAllocationTimeResponse.newBuilder();
+    if (myBackend == AllocationBackend.COLUMNAR) {
+      synchronized (myAllocationColumns) {
+        AllocationEventColumns columns = myAllocationColumns.get(session.getSessionId());
+        return builder.setTimestamp(columns == null ? 0 : columns.getLatestTimestamp()).build();
+      }
+    }
     try {
       long latest = 0;
       ResultSet result = executeQuery(QUERY_LATEST_ALLOC_TIME, session.getSessionId());
@@ -430,13 +490,20 @@ public class MemoryLiveAllocationTable extends DataStoreTable<MemoryLiveAllocati
         insertStackStatement.executeBatch();
       }
       if (insertRefStatement != null) {
-        insertRefStatement.executeBatch();
+        long insertedCount = countUpdatedRows(insertRefStatement.executeBatch());
+        myJniRefRetention.addRows(insertedCount, insertedCount * JNI_REF_ROW_BYTES);
       }
       if (updateRefStatement != null) {
-        updateRefStatement.executeBatch();
+        int[] results = updateRefStatement.executeBatch();
+        int resultIndex = 0;
+        for (JNIGlobalReferenceEvent event : batch.getEventsList()) {
+          if (event.getEventType() == JNIGlobalReferenceEvent.Type.DELETE_GLOBAL_REF && isUpdated(results[resultIndex++])) {
+            myJniRefRetention.markDroppable(session.getSessionId(), event.getTimestamp(), JNI_REF_ROW_BYTES);
+          }
+        }
       }
       if (batch.getEventsCount() > 0) {
-        pruneJniRefRecords(session);
+        myJniRefRetention.enforce();
       }
     }
     catch (SQLException ex) {
@@ -445,14 +512,21 @@ public class MemoryLiveAllocationTable extends DataStoreTable<MemoryLiveAllocati
   }
 
   public void insertAllocationData(Common.Session session, MemoryProfiler.BatchAllocationSample sample) {
+    if (myBackend == AllocationBackend.COLUMNAR) {
+      insertColumnarAllocationData(session, sample);
+      return;
+    }
+
     MemoryProfiler.AllocationEvent.EventCase currentCase = null;
     PreparedStatement currentStatement = null;
+    // Free times of the FREE_DATA events of the current batch, in batch order.
+    List<Long> freeTimes = new ArrayList<>();
     int allocAndFreeCount = 0;
     try {
       for (MemoryProfiler.AllocationEvent event : sample.getEventsList()) {
         if (currentCase != event.getEventCase()) {
           if (currentCase != null) {
-            currentStatement.executeBatch();
+            executeAllocationBatch(session, currentCase, currentStatement, freeTimes);
           }
 
           currentCase = event.getEventCase();
@@ -491,6 +565,7 @@ public class MemoryLiveAllocationTable extends DataStoreTable<MemoryLiveAllocati
             allocAndFreeCount++;
             AllocationEvent.Deallocation free = event.getFreeData();
             applyParams(currentStatement, event.getTimestamp(), session.getSessionId(), free.getTag());
+            freeTimes.add(event.getTimestamp());
             break;
           default:
             assert false;
@@ -499,10 +574,87 @@ public class MemoryLiveAllocationTable extends DataStoreTable<MemoryLiveAllocati
       }
 
       // Handles last batch after exiting from for-loop.
-      currentStatement.executeBatch();
+      executeAllocationBatch(session, currentCase, currentStatement, freeTimes);
+
+      if (allocAndFreeCount > 0) {
+        myAllocationRetention.enforce();
+      }
+    }
+    catch (SQLException ex) {
+      onError(ex);
+    }
+  }
+
+  private void executeAllocationBatch(@NotNull Common.Session session,
+                                      @NotNull MemoryProfiler.AllocationEvent.EventCase eventCase,
+                                      @NotNull PreparedStatement statement,
+                                      @NotNull List<Long> freeTimes)
+    throws SQLException {
+    int[] results = statement.executeBatch();
+    if (eventCase == MemoryProfiler.AllocationEvent.EventCase.ALLOC_DATA) {
+      long insertedCount = countUpdatedRows(results);
+      myAllocationRetention.addRows(insertedCount, insertedCount * myAllocationRowBytes);
+    }
+    else if (eventCase == MemoryProfiler.AllocationEvent.EventCase.FREE_DATA) {
+      // Frees of unknown allocations, e.g. of objects allocated before tracking started, don't make anything droppable.
+      assert results.length == freeTimes.size();
+      for (int i = 0; i < results.length; i++) {
+        if (isUpdated(results[i])) {
+          myAllocationRetention.markDroppable(session.getSessionId(), freeTimes.get(i), myAllocationRowBytes);
+        }
+      }
+      freeTimes.clear();
+    }
+  }
+
+  private void insertColumnarAllocationData(@NotNull Common.Session session, @NotNull MemoryProfiler.BatchAllocationSample sample) {
+    PreparedStatement classStatement = null;
+    int allocAndFreeCount = 0;
+    try {
+      synchronized (myAllocationColumns) {
+        if (myEndedSessions.containsKey(session.getSessionId())) {
+          return;
+        }
+        AllocationEventColumns columns = myAllocationColumns.computeIfAbsent(session.getSessionId(), id -> new AllocationEventColumns());
+        for (MemoryProfiler.AllocationEvent event : sample.getEventsList()) {
+          switch (event.getEventCase()) {
+            case CLASS_DATA:
+              if (classStatement == null) {
+                classStatement = getStatementMap().get(INSERT_CLASS);
+              }
+              AllocatedClass klass = event.getClassData();
+              applyParams(classStatement, session.getSessionId(), klass.getClassId(), event.getTimestamp(),
+                          jniToJavaName(klass.getClassName()));
+              classStatement.addBatch();
+              break;
+            case ALLOC_DATA:
+              allocAndFreeCount++;
+              AllocationEvent.Allocation allocation = event.getAllocData();
+              if (columns.insertAllocation(allocation.getTag(), allocation.getClassTag(), event.getTimestamp(), allocation.getSize(),
+                                           allocation.getLength(), allocation.getThreadId(), allocation.getStackId(),
+                                           allocation.getHeapId())) {
+                myAllocationRetention.addRows(1, myAllocationRowBytes);
+              }
+              break;
+            case FREE_DATA:
+              allocAndFreeCount++;
+              if (columns.freeAllocation(event.getFreeData().getTag(), event.getTimestamp())) {
+                myAllocationRetention.markDroppable(session.getSessionId(), event.getTimestamp(), myAllocationRowBytes);
+              }
+              break;
+            default:
+              assert false;
+          }
+        }
 
+      }
+      // Outside of the columns' lock, the retention takes it again to drop rows.
       if (allocAndFreeCount > 0) {
-        pruneAllocations(session);
+        myAllocationRetention.enforce();
+      }
+
+      if (classStatement != null) {
+        classStatement.executeBatch();
       }
     }
     catch (SQLException ex) {
@@ -572,41 +724,69 @@ public class MemoryLiveAllocationTable extends DataStoreTable<MemoryLiveAllocati
   }
 
   /**
-   * Removes entries from the allocations table so the process (in-memory DB) doesn't run out of memory.
+   * Makes the allocations of a session that ended droppable, including the ones still alive. They are kept to review the session until
+   * the retention policy needs their room, at which point the COLUMNAR backend releases the direct memory of the whole session at once.
    */
-  private void pruneAllocations(@NotNull Common.Session session) {
-    try {
-      // TODO save data to disk
-      ResultSet result = executeQuery(COUNT_ALLOC);
-      result.next();
-      int rowCount = result.getInt(1);
-      if (rowCount > myAllocationCountLimit) {
-        int pruneCount = rowCount - myAllocationCountLimit;
-        execute(PRUNE_ALLOC, session.getSessionId(), session.getSessionId(), pruneCount);
-        getLogger().info(String.format("Allocations have exceed %d entries. Attempting to prune %d.", myAllocationCountLimit, pruneCount));
+  public void endSession(@NotNull Common.Session session) {
+    if (myBackend != AllocationBackend.COLUMNAR) {
+      return;
+    }
+    long sessionId = session.getSessionId();
+    long endTime;
+    int aliveCount;
+    synchronized (myAllocationColumns) {
+      AllocationEventColumns columns = myAllocationColumns.get(sessionId);
+      if (columns == null || myEndedSessions.containsKey(sessionId)) {
+        return;
       }
+      endTime = columns.getLatestTimestamp();
+      aliveCount = columns.getAliveCount();
+      myEndedSessions.put(sessionId, endTime);
     }
-    catch (SQLException e) {
-      onError(e);
-    }
+    // The freed allocations are already droppable, by their own free time.
+    myAllocationRetention.markDroppable(sessionId, endTime, aliveCount * myAllocationRowBytes);
   }
 
-  private void pruneJniRefRecords(@NotNull Common.Session session) {
-    try {
-      // TODO save data to disk
-      ResultSet result = executeQuery(COUNT_JNI_REF_RECORDS);
-      result.next();
-      int rowCount = result.getInt(1);
-      if (rowCount > myAllocationCountLimit) {
-        int pruneCount = rowCount - myAllocationCountLimit;
-        execute(PRUNE_JNI_REF_RECORDS, session.getSessionId(), session.getSessionId(), pruneCount);
-        getLogger()
-          .info(String.format("JNI ref records have exceed %d entries. Attempting to prune %d.", myAllocationCountLimit, pruneCount));
+  /**
+   * Drops the allocations of the session that were freed before {@code endTime}, or all of them if the session ended before it.
+   */
+  private long dropColumnarAllocations(long sessionId, long endTime) {
+    synchronized (myAllocationColumns) {
+      AllocationEventColumns columns = myAllocationColumns.get(sessionId);
+      if (columns == null) {
+        return 0;
       }
+      Long sessionEndTime = myEndedSessions.get(sessionId);
+      if (sessionEndTime != null && sessionEndTime < endTime) {
+        myAllocationColumns.remove(sessionId);
+        myEndedSessions.remove(sessionId);
+        return columns.size();
+      }
+      return columns.pruneFreedBefore(endTime);
     }
-    catch (SQLException e) {
-      onError(e);
+  }
+
+  /**
+   * @return the number of rows a batch of INSERT OR IGNORE statements actually inserted.
+   */
+  private static long countUpdatedRows(@NotNull int[] results) {
+    long count = 0;
+    for (int result : results) {
+      if (result == Statement.SUCCESS_NO_INFO) {
+        count++;
+      }
+      else if (result > 0) {
+        count += result;
+      }
     }
+    return count;
+  }
+
+  /**
+   * @return whether a statement of a batch inserted or updated a row.
+   */
+  private static boolean isUpdated(int result) {
+    return result == Statement.SUCCESS_NO_INFO || result > 0;
   }
 
   /**
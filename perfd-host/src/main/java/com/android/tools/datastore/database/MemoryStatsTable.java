@@ -81,6 +81,9 @@ public class MemoryStatsTable extends DataStoreTable<MemoryStatsTable.MemoryStat
     }
   }
 
+  @NotNull private final TableRetention mySamplesRetention =
+    createRetention("Memory_Samples", "Timestamp", "LENGTH(Data)", RetentionPolicy.TIME_SERIES);
+
   private enum MemorySamplesType {
     MEMORY,
     ALLOC_STATS,
@@ -146,25 +149,27 @@ public class MemoryStatsTable extends DataStoreTable<MemoryStatsTable.MemoryStat
 
   public void insertMemory(Common.Session session, List<MemoryData.MemorySample> samples) {
     for (MemoryData.MemorySample sample : samples) {
-      execute(INSERT_SAMPLE, session.getSessionId(), sample.getTimestamp(), MemorySamplesType.MEMORY.ordinal(),
-              sample.toByteArray());
+      insertSample(session, sample.getTimestamp(), MemorySamplesType.MEMORY, sample.toByteArray());
     }
   }
 
   public void insertAllocStats(Common.Session session, List<MemoryData.AllocStatsSample> samples) {
     for (MemoryData.AllocStatsSample sample : samples) {
-      execute(INSERT_SAMPLE, session.getSessionId(), sample.getTimestamp(), MemorySamplesType.ALLOC_STATS.ordinal(),
-              sample.toByteArray());
+      insertSample(session, sample.getTimestamp(), MemorySamplesType.ALLOC_STATS, sample.toByteArray());
     }
   }
 
   public void insertGcStats(Common.Session session, List<MemoryData.GcStatsSample> samples) {
     for (MemoryData.GcStatsSample sample : samples) {
-      execute(INSERT_SAMPLE, session.getSessionId(), sample.getStartTime(), MemorySamplesType.GC_STATS.ordinal(),
-              sample.toByteArray());
+      insertSample(session, sample.getStartTime(), MemorySamplesType.GC_STATS, sample.toByteArray());
     }
   }
 
+  private void insertSample(@NotNull Common.Session session, long timestamp, @NotNull MemorySamplesType type, @NotNull byte[] data) {
+    execute(INSERT_SAMPLE, session.getSessionId(), timestamp, type.ordinal(), data);
+    mySamplesRetention.recordRows(session.getSessionId(), timestamp, 1, data.length);
+  }
+
   /**
    * Note: this will reset the row's Status and DumpData to NOT_READY and null respectively, if an info with the same DumpId already exist.
    */
@@ -37,6 +37,9 @@ public class NetworkTable extends DataStoreTable<NetworkTable.NetworkStatements>
   }
 
   private static final Map<NetworkProfiler.NetworkProfilerData.DataCase, Integer> DATACASE_REQUEST_TYPE_MAP = new HashMap<>();
+
+  @NotNull private final TableRetention myDataRetention =
+    createRetention("Network_Data", "EndTime", "LENGTH(Data)", RetentionPolicy.TIME_SERIES);
   private static final int REQUEST_COLUMN = 2;
   private static final int RESPONSE_COLUMN = 3;
   private static final int REQUEST_BODY_COLUMN = 4;
@@ -64,6 +67,8 @@ public class NetworkTable extends DataStoreTable<NetworkTable.NetworkStatements>
                   "ThreadsData BLOB",
                   "PRIMARY KEY(Session, Id)");
       createUniqueIndex("Network_Data", "Session", "Type", "EndTime");
+      // For the range deletes of the retention, which don't filter by type.
+      createIndex("Network_Data", 0, "Session", "EndTime");
       createUniqueIndex("Network_Connection", "Session", "Id");
     }
     catch (SQLException ex) {
@@ -139,8 +144,10 @@ public class NetworkTable extends DataStoreTable<NetworkTable.NetworkStatements>
   }
 
   public void insert(@NotNull Common.Session session, NetworkProfiler.NetworkProfilerData data) {
+    byte[] bytes = data.toByteArray();
     execute(NetworkStatements.INSERT_NETWORK_DATA, session.getSessionId(), DATACASE_REQUEST_TYPE_MAP.get(data.getDataCase()),
-            data.getEndTimestamp(), data.toByteArray());
+            data.getEndTimestamp(), bytes);
+    myDataRetention.recordRows(session.getSessionId(), data.getEndTimestamp(), 1, bytes.length);
   }
 
   public NetworkProfiler.HttpDetailsResponse getHttpDetailsResponseById(long connId,
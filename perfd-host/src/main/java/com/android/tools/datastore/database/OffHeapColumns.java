@@ -0,0 +1,286 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.datastore.database;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Growable columns of primitives that live outside of the Java heap. Storage is allocated in fixed-size chunks, so growing a column
+ * never copies the data that is already there.
+ */
+final class OffHeapColumns {
+  static final int CHUNK_SHIFT = 16;
+  static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+  static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+  private OffHeapColumns() {
+  }
+
+  /**
+   * @return the amount of direct memory this process may allocate, beyond which allocating a chunk fails with an OutOfMemoryError.
+   */
+  static long getMaxDirectMemoryBytes() {
+    String prefix = "-XX:MaxDirectMemorySize=";
+    for (String argument : ManagementFactory.getRuntimeMXBean().getInputArguments()) {
+      if (argument.startsWith(prefix)) {
+        long bytes = parseMemorySize(argument.substring(prefix.length()));
+        if (bytes > 0) {
+          return bytes;
+        }
+      }
+    }
+    // Same default as the JVM, the maximum heap size.
+    return Runtime.getRuntime().maxMemory();
+  }
+
+  /**
+   * Parses a JVM memory size such as 512m, returns -1 if it is invalid.
+   */
+  static long parseMemorySize(@NotNull String size) {
+    if (size.isEmpty()) {
+      return -1;
+    }
+    long multiplier = 1;
+    switch (size.toLowerCase(Locale.US).charAt(size.length() - 1)) {
+      case 't':
+        multiplier <<= 10;
+        // fall through
+      case 'g':
+        multiplier <<= 10;
+        // fall through
+      case 'm':
+        multiplier <<= 10;
+        // fall through
+      case 'k':
+        multiplier <<= 10;
+        size = size.substring(0, size.length() - 1);
+        break;
+      default:
+        break;
+    }
+    try {
+      return Long.parseLong(size) * multiplier;
+    }
+    catch (NumberFormatException ex) {
+      return -1;
+    }
+  }
+
+  @NotNull
+  private static ByteBuffer allocateChunk(int bytesPerValue) {
+    return ByteBuffer.allocateDirect(CHUNK_SIZE * bytesPerValue).order(ByteOrder.nativeOrder());
+  }
+
+  static final class IntColumn {
+    private final List<IntBuffer> myChunks = new ArrayList<>();
+    private int mySize;
+
+    int size() {
+      return mySize;
+    }
+
+    int get(int index) {
+      return myChunks.get(index >>> CHUNK_SHIFT).get(index & CHUNK_MASK);
+    }
+
+    void set(int index, int value) {
+      myChunks.get(index >>> CHUNK_SHIFT).put(index & CHUNK_MASK, value);
+    }
+
+    void add(int value) {
+      setSize(mySize + 1);
+      set(mySize - 1, value);
+    }
+
+    void swap(int i, int j) {
+      int value = get(i);
+      set(i, get(j));
+      set(j, value);
+    }
+
+    /**
+     * Grows or shrinks the column. Values of newly exposed indices are unspecified, chunks that are no longer needed are released.
+     */
+    void setSize(int size) {
+      while ((long)myChunks.size() * CHUNK_SIZE < size) {
+        myChunks.add(allocateChunk(Integer.BYTES).asIntBuffer());
+      }
+      int neededChunks = (size + CHUNK_MASK) >>> CHUNK_SHIFT;
+      while (myChunks.size() > neededChunks) {
+        myChunks.remove(myChunks.size() - 1);
+      }
+      mySize = size;
+    }
+
+    long getMemoryBytes() {
+      return (long)myChunks.size() * CHUNK_SIZE * Integer.BYTES;
+    }
+  }
+
+  static final class LongColumn {
+    private final List<LongBuffer> myChunks = new ArrayList<>();
+    private int mySize;
+
+    int size() {
+      return mySize;
+    }
+
+    long get(int index) {
+      return myChunks.get(index >>> CHUNK_SHIFT).get(index & CHUNK_MASK);
+    }
+
+    void set(int index, long value) {
+      myChunks.get(index >>> CHUNK_SHIFT).put(index & CHUNK_MASK, value);
+    }
+
+    void add(long value) {
+      setSize(mySize + 1);
+      set(mySize - 1, value);
+    }
+
+    /**
+     * Grows or shrinks the column. Values of newly exposed indices are unspecified, chunks that are no longer needed are released.
+     */
+    void setSize(int size) {
+      while ((long)myChunks.size() * CHUNK_SIZE < size) {
+        myChunks.add(allocateChunk(Long.BYTES).asLongBuffer());
+      }
+      int neededChunks = (size + CHUNK_MASK) >>> CHUNK_SHIFT;
+      while (myChunks.size() > neededChunks) {
+        myChunks.remove(myChunks.size() - 1);
+      }
+      mySize = size;
+    }
+
+    long getMemoryBytes() {
+      return (long)myChunks.size() * CHUNK_SIZE * Long.BYTES;
+    }
+  }
+
+  /**
+   * Open-addressing int to non-negative int map whose table lives off-heap. Entries cannot be removed individually, callers rebuild
+   * the map through {@link #clear()} instead.
+   */
+  static final class IntIntMap {
+    private static final int MIN_CAPACITY = CHUNK_SIZE;
+
+    private IntColumn myKeys;
+    // Values are stored + 1, so that the zero-filled memory of a fresh chunk reads as empty slots.
+    private IntColumn myValues;
+    private int myCapacity;
+    private int mySize;
+
+    IntIntMap() {
+      allocate(MIN_CAPACITY);
+    }
+
+    int size() {
+      return mySize;
+    }
+
+    /**
+     * @return the value mapped to {@code key}, or -1 if there is none.
+     */
+    int get(int key) {
+      int mask = myCapacity - 1;
+      for (int slot = hash(key) & mask; ; slot = (slot + 1) & mask) {
+        int value = myValues.get(slot);
+        if (value == 0) {
+          return -1;
+        }
+        if (myKeys.get(slot) == key) {
+          return value - 1;
+        }
+      }
+    }
+
+    void put(int key, int value) {
+      assert value >= 0;
+      if ((long)(mySize + 1) * 4 > (long)myCapacity * 3) {
+        grow();
+      }
+      insert(key, value);
+    }
+
+    void clear() {
+      allocate(MIN_CAPACITY);
+    }
+
+    long getMemoryBytes() {
+      return myKeys.getMemoryBytes() + myValues.getMemoryBytes();
+    }
+
+    private void insert(int key, int value) {
+      int mask = myCapacity - 1;
+      for (int slot = hash(key) & mask; ; slot = (slot + 1) & mask) {
+        int current = myValues.get(slot);
+        if (current == 0) {
+          myKeys.set(slot, key);
+          myValues.set(slot, value + 1);
+          mySize++;
+          return;
+        }
+        if (myKeys.get(slot) == key) {
+          myValues.set(slot, value + 1);
+          return;
+        }
+      }
+    }
+
+    private void grow() {
+      int oldCapacity = myCapacity;
+      IntColumn oldKeys = myKeys;
+      IntColumn oldValues = myValues;
+      allocate(oldCapacity * 2);
+      for (int i = 0; i < oldCapacity; i++) {
+        int value = oldValues.get(i);
+        if (value != 0) {
+          insert(oldKeys.get(i), value - 1);
+        }
+      }
+    }
+
+    private void allocate(int capacity) {
+      // Fresh chunks are zero-filled, which marks every slot as empty.
+      myKeys = new IntColumn();
+      myValues = new IntColumn();
+      myKeys.setSize(capacity);
+      myValues.setSize(capacity);
+      myCapacity = capacity;
+      mySize = 0;
+    }
+
+    private static int hash(int key) {
+      // Murmur3 finalizer, JVMTI tags are sequential so they need to be spread over the table.
+      int h = key;
+      h ^= h >>> 16;
+      h *= 0x85ebca6b;
+      h ^= h >>> 13;
+      h *= 0xc2b2ae35;
+      h ^= h >>> 16;
+      return h;
+    }
+  }
+}
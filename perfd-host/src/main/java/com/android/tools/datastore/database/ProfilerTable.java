@@ -24,8 +24,10 @@ import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
 
 /**
  * Class that wraps database access for profiler level services.
@@ -57,21 +59,78 @@ public class ProfilerTable extends DataStoreTable<ProfilerTable.ProfilerStatemen
     super.initialize(connection);
     try {
       createTable("Profiler_Bytes", "Id STRING NOT NULL", "Session INTEGER", "Data BLOB");
-      createTable("Profiler_Devices", "DeviceId INTEGER", "Data BLOB");
-      createTable("Profiler_Processes", "DeviceId INTEGER", "ProcessId INTEGER", "StartTime INTEGER", "EndTime INTEGER",
-                  "HasAgent INTEGER", "LastKnownAttachedTime INTEGER", "Data BLOB");
-      createTable("Profiler_Sessions", "SessionId INTEGER", "DeviceId INTEGER", "ProcessId INTEGER", "StartTime INTEGER",
-                  "EndTime INTEGER");
+      boolean restored = createTable("Profiler_Devices", "DeviceId INTEGER", "Data BLOB");
+      restored |= createTable("Profiler_Processes", "DeviceId INTEGER", "ProcessId INTEGER", "StartTime INTEGER", "EndTime INTEGER",
+                              "HasAgent INTEGER", "LastKnownAttachedTime INTEGER", "Data BLOB");
+      // The session catalog: sessions of previous runs are listed along with the new ones, and their data is read from the
+      // database on demand like for any other session.
+      restored |= createTable("Profiler_Sessions", "SessionId INTEGER", "DeviceId INTEGER", "ProcessId INTEGER", "StartTime INTEGER",
+                              "EndTime INTEGER");
       createUniqueIndex("Profiler_Processes", "DeviceId", "ProcessId", "StartTime");
       createUniqueIndex("Profiler_Devices", "DeviceId");
       createUniqueIndex("Profiler_Bytes", "Id", "Session");
       createUniqueIndex("Profiler_Sessions", "SessionId");
+      if (restored) {
+        endPreviousRun(connection);
+      }
     }
     catch (SQLException ex) {
       onError(ex);
     }
   }
 
+  /**
+   * Nothing that was connected or running in a previous run of the datastore still is: marks its devices as disconnected, its
+   * processes as dead, and ends its open sessions at the last time their agent was known to be attached.
+   */
+  private static void endPreviousRun(@NotNull Connection connection) throws SQLException {
+    try (Statement select = connection.createStatement();
+         PreparedStatement update = connection.prepareStatement("UPDATE Profiler_Devices SET Data = ? WHERE DeviceId = ?")) {
+      ResultSet results = select.executeQuery("SELECT DeviceId, Data FROM Profiler_Devices");
+      while (results.next()) {
+        Common.Device device = Common.Device.parseFrom(results.getBytes(2));
+        update.setBytes(1, device.toBuilder().setState(Common.Device.State.DISCONNECTED).build().toByteArray());
+        update.setLong(2, results.getLong(1));
+        update.addBatch();
+      }
+      update.executeBatch();
+    }
+    catch (InvalidProtocolBufferException ex) {
+      onError(ex);
+    }
+
+    try (Statement select = connection.createStatement();
+         PreparedStatement update = connection.prepareStatement(
+           "UPDATE Profiler_Processes SET Data = ? WHERE DeviceId = ? AND ProcessId = ? AND StartTime = ?")) {
+      ResultSet results = select.executeQuery("SELECT DeviceId, ProcessId, StartTime, Data FROM Profiler_Processes");
+      while (results.next()) {
+        byte[] data = results.getBytes(4);
+        if (data == null) {
+          continue;
+        }
+        Common.Process process = Common.Process.parseFrom(data);
+        update.setBytes(1, process.toBuilder().setState(Common.Process.State.DEAD).build().toByteArray());
+        update.setLong(2, results.getLong(1));
+        update.setLong(3, results.getLong(2));
+        update.setLong(4, results.getLong(3));
+        update.addBatch();
+      }
+      update.executeBatch();
+    }
+    catch (InvalidProtocolBufferException ex) {
+      onError(ex);
+    }
+
+    try (PreparedStatement update = connection.prepareStatement(
+      "UPDATE Profiler_Sessions SET EndTime = MAX(StartTime, IFNULL(" +
+      "(SELECT MAX(p.LastKnownAttachedTime) FROM Profiler_Processes p " +
+      "WHERE p.DeviceId = Profiler_Sessions.DeviceId AND p.ProcessId = Profiler_Sessions.ProcessId), 0)) " +
+      "WHERE EndTime = ?")) {
+      update.setLong(1, Long.MAX_VALUE);
+      update.execute();
+    }
+  }
+
   @Override
   public void prepareStatements() {
     try {
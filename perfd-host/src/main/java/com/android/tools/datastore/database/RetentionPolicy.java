@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.datastore.database;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Limits on how much data a {@link TableRetention} keeps. When any of them is exceeded, the oldest segments are dropped until none is.
+ */
+public final class RetentionPolicy {
+  public static final RetentionPolicy UNLIMITED = new RetentionPolicy(Long.MAX_VALUE, Long.MAX_VALUE, Long.MAX_VALUE);
+
+  /**
+   * Default of the tables of periodic samples, e.g. CPU usage or memory stats. The pollers add a few small rows per second per session,
+   * so this keeps hours of every session while capping what a long run of many sessions holds.
+   */
+  public static final RetentionPolicy TIME_SERIES = new RetentionPolicy(TimeUnit.HOURS.toNanos(8), 2_000_000, 256L * 1024 * 1024);
+
+  private final long myMaxAgeNs;
+  private final long myMaxRowCount;
+  private final long myMaxBytes;
+
+  /**
+   * @param maxAgeNs    how far, in the data's time base, a segment may end before the latest timestamp seen.
+   * @param maxRowCount maximum number of rows across all sessions.
+   * @param maxBytes    maximum estimated size of the rows across all sessions.
+   */
+  public RetentionPolicy(long maxAgeNs, long maxRowCount, long maxBytes) {
+    myMaxAgeNs = maxAgeNs;
+    myMaxRowCount = maxRowCount;
+    myMaxBytes = maxBytes;
+  }
+
+  public long getMaxAgeNs() {
+    return myMaxAgeNs;
+  }
+
+  public long getMaxRowCount() {
+    return myMaxRowCount;
+  }
+
+  public long getMaxBytes() {
+    return myMaxBytes;
+  }
+
+  @NotNull
+  public RetentionPolicy withMaxAgeNs(long maxAgeNs) {
+    return new RetentionPolicy(maxAgeNs, myMaxRowCount, myMaxBytes);
+  }
+
+  @NotNull
+  public RetentionPolicy withMaxRowCount(long maxRowCount) {
+    return new RetentionPolicy(myMaxAgeNs, maxRowCount, myMaxBytes);
+  }
+
+  @NotNull
+  public RetentionPolicy withMaxBytes(long maxBytes) {
+    return new RetentionPolicy(myMaxAgeNs, myMaxRowCount, maxBytes);
+  }
+
+  @Override
+  public String toString() {
+    return String.format("RetentionPolicy{maxAgeNs=%d, maxRowCount=%d, maxBytes=%d}", myMaxAgeNs, myMaxRowCount, myMaxBytes);
+  }
+}
@@ -0,0 +1,250 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.datastore.database;
+
+import com.intellij.openapi.diagnostic.Logger;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Retention bookkeeping for the rows of one store of a {@link DataStoreTable}, usually one SQL table.
+ *
+ * Rows that may be dropped are accounted into time-partitioned segments per session, keyed by the timestamp the store drops its rows by
+ * (e.g. a sample's time, or an allocation's free time). Enforcing the {@link RetentionPolicy} then never has to look at the data: it
+ * picks the oldest segment across sessions and asks the store to drop everything of that session before the segment's end, which for
+ * SQL tables is a single range DELETE over the (Session, time) index instead of a correlated subquery over the whole session.
+ *
+ * Rows can be accounted before they become droppable ({@link #addRows(long, long)}), so row and byte budgets apply to everything the
+ * store holds, e.g. live allocations that are never dropped.
+ */
+public final class TableRetention {
+  /**
+   * Span of a segment, in the time base of the data (device nanoseconds).
+   */
+  public static final long DEFAULT_SEGMENT_DURATION_NS = TimeUnit.SECONDS.toNanos(10);
+
+  public interface SegmentDropper {
+    /**
+     * Drops the rows of the session whose retention timestamp is before {@code endTime}.
+     *
+     * @return the number of rows dropped.
+     */
+    long dropBefore(long sessionId, long endTime);
+  }
+
+  private static Logger getLogger() {
+    return Logger.getInstance(TableRetention.class);
+  }
+
+  @NotNull private final String myName;
+  @NotNull private final SegmentDropper myDropper;
+  private final long mySegmentDurationNs;
+  @NotNull private volatile RetentionPolicy myPolicy;
+
+  /**
+   * Segments of each session, by index of their time partition.
+   */
+  private final Map<Long, TreeMap<Long, Segment>> mySegments = new HashMap<>();
+  private int mySegmentCount;
+  private long myRowCount;
+  private long myBytes;
+  /**
+   * Latest timestamp marked droppable in each session that has segments. Ages are measured per session, as sessions of different
+   * devices have unrelated time bases.
+   */
+  private final Map<Long, Long> myLatestTimestamps = new HashMap<>();
+  private long myDroppedRowCount;
+  private long myDroppedSegmentCount;
+
+  public TableRetention(@NotNull String name, @NotNull RetentionPolicy policy, @NotNull SegmentDropper dropper) {
+    this(name, policy, dropper, DEFAULT_SEGMENT_DURATION_NS);
+  }
+
+  public TableRetention(@NotNull String name, @NotNull RetentionPolicy policy, @NotNull SegmentDropper dropper, long segmentDurationNs) {
+    assert segmentDurationNs > 0;
+    myName = name;
+    myPolicy = policy;
+    myDropper = dropper;
+    mySegmentDurationNs = segmentDurationNs;
+  }
+
+  @NotNull
+  public String getName() {
+    return myName;
+  }
+
+  public long getSegmentDurationNs() {
+    return mySegmentDurationNs;
+  }
+
+  @NotNull
+  public RetentionPolicy getPolicy() {
+    return myPolicy;
+  }
+
+  public void setPolicy(@NotNull RetentionPolicy policy) {
+    myPolicy = policy;
+  }
+
+  /**
+   * Accounts rows that were added and can be dropped right away, by {@code timestamp}.
+   */
+  public synchronized void recordRows(long sessionId, long timestamp, long rowCount, long bytes) {
+    addRows(rowCount, bytes);
+    markDroppable(sessionId, timestamp, bytes);
+  }
+
+  /**
+   * Accounts rows that were added but cannot be dropped until {@link #markDroppable(long, long, long)} is called for them.
+   */
+  public synchronized void addRows(long rowCount, long bytes) {
+    myRowCount += rowCount;
+    myBytes += bytes;
+  }
+
+  /**
+   * Makes rows that were already accounted droppable once their segment is the oldest one over the policy.
+   */
+  public synchronized void markDroppable(long sessionId, long timestamp, long bytes) {
+    long index = Math.floorDiv(timestamp, mySegmentDurationNs);
+    Segment segment = mySegments.computeIfAbsent(sessionId, id -> new TreeMap<>()).get(index);
+    if (segment == null) {
+      segment = new Segment(sessionId, index);
+      mySegments.get(sessionId).put(index, segment);
+      mySegmentCount++;
+    }
+    segment.myBytes += bytes;
+    myLatestTimestamps.merge(sessionId, timestamp, Math::max);
+  }
+
+  /**
+   * Drops the oldest segments, across all sessions, until the policy is satisfied or there is nothing left to drop. The store is
+   * called without holding this object's lock, so it is free to take its own locks.
+   *
+   * @return the number of rows dropped.
+   */
+  public long enforce() {
+    long dropped = 0;
+    while (true) {
+      Segment segment;
+      synchronized (this) {
+        segment = pollSegmentOverPolicy();
+      }
+      if (segment == null) {
+        if (dropped > 0) {
+          getLogger().info(String.format("%s is over its retention policy, dropped %d rows.", myName, dropped));
+        }
+        return dropped;
+      }
+
+      long rowCount = myDropper.dropBefore(segment.mySessionId, getEndTime(segment.myIndex));
+      dropped += rowCount;
+      synchronized (this) {
+        myRowCount = Math.max(0, myRowCount - rowCount);
+        myBytes = Math.max(0, myBytes - segment.myBytes);
+        myDroppedRowCount += rowCount;
+        myDroppedSegmentCount++;
+      }
+    }
+  }
+
+  public synchronized long getRowCount() {
+    return myRowCount;
+  }
+
+  public synchronized long getBytes() {
+    return myBytes;
+  }
+
+  public synchronized int getSegmentCount() {
+    return mySegmentCount;
+  }
+
+  public synchronized long getDroppedRowCount() {
+    return myDroppedRowCount;
+  }
+
+  public synchronized long getDroppedSegmentCount() {
+    return myDroppedSegmentCount;
+  }
+
+  /**
+   * Removes and returns the oldest segment if the policy is exceeded, null otherwise.
+   */
+  @Nullable
+  private Segment pollSegmentOverPolicy() {
+    assert Thread.holdsLock(this);
+    RetentionPolicy policy = myPolicy;
+    Segment oldest = null;
+    Segment tooOld = null;
+    for (TreeMap<Long, Segment> sessionSegments : mySegments.values()) {
+      if (!sessionSegments.isEmpty()) {
+        Segment first = sessionSegments.firstEntry().getValue();
+        if (oldest == null || first.myIndex < oldest.myIndex) {
+          oldest = first;
+        }
+        if (tooOld == null && isTooOld(first, policy)) {
+          tooOld = first;
+        }
+      }
+    }
+
+    Segment segment = tooOld;
+    if (segment == null && (myRowCount > policy.getMaxRowCount() || myBytes > policy.getMaxBytes())) {
+      segment = oldest;
+    }
+    if (segment == null) {
+      return null;
+    }
+
+    TreeMap<Long, Segment> sessionSegments = mySegments.get(segment.mySessionId);
+    sessionSegments.remove(segment.myIndex);
+    if (sessionSegments.isEmpty()) {
+      mySegments.remove(segment.mySessionId);
+      myLatestTimestamps.remove(segment.mySessionId);
+    }
+    mySegmentCount--;
+    return segment;
+  }
+
+  private boolean isTooOld(@NotNull Segment segment, @NotNull RetentionPolicy policy) {
+    if (policy.getMaxAgeNs() == Long.MAX_VALUE) {
+      return false;
+    }
+    long latestTimestamp = myLatestTimestamps.get(segment.mySessionId);
+    return getEndTime(segment.myIndex) <= latestTimestamp - policy.getMaxAgeNs();
+  }
+
+  private long getEndTime(long index) {
+    return index >= Long.MAX_VALUE / mySegmentDurationNs ? Long.MAX_VALUE : (index + 1) * mySegmentDurationNs;
+  }
+
+  private static final class Segment {
+    private final long mySessionId;
+    private final long myIndex;
+    private long myBytes;
+
+    private Segment(long sessionId, long index) {
+      mySessionId = sessionId;
+      myIndex = index;
+    }
+  }
+}
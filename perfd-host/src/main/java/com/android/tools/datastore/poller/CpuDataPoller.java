@@ -21,8 +21,10 @@ import com.android.tools.profiler.proto.CpuProfiler;
 import com.android.tools.profiler.proto.CpuServiceGrpc;
 import io.grpc.StatusRuntimeException;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import java.util.List;
+import java.util.concurrent.Executor;
 
 /**
  * This class gathers sets up a CPUProfilerService and forward all commands to the connected channel with the exception of getData.
@@ -38,27 +40,55 @@ public class CpuDataPoller extends PollRunner {
   private final CpuTable myCpuTable;
   @NotNull
   private final Common.Session mySession;
+  @NotNull
+  private final SampleStream<CpuProfiler.CpuUsageData> myUsageStream;
 
   public CpuDataPoller(@NotNull Common.Session session,
                        @NotNull CpuTable table,
                        @NotNull CpuServiceGrpc.CpuServiceBlockingStub pollingService) {
+    this(session, table, pollingService, null);
+  }
+
+  /**
+   * @param sampleWriter executor the usage samples are inserted into the table on, or null to insert them while polling.
+   */
+  public CpuDataPoller(@NotNull Common.Session session,
+                       @NotNull CpuTable table,
+                       @NotNull CpuServiceGrpc.CpuServiceBlockingStub pollingService,
+                       @Nullable Executor sampleWriter) {
     super(POLLING_DELAY_NS);
     myCpuTable = table;
     myPollingService = pollingService;
     mySession = session;
+    // Usage samples carry cumulative counters, dropping some of them only lowers the resolution of the usage graph.
+    myUsageStream =
+      new SampleStream<>("CpuUsageData", data -> myCpuTable.insert(mySession, data), sampleWriter, SampleStream.keepLatest());
+  }
+
+  @Override
+  public void stop() {
+    super.stop();
+    myUsageStream.onCompleted();
+  }
+
+  @NotNull
+  @Override
+  public Object getSchedulingGroup() {
+    return mySession.getSessionId();
   }
 
   @Override
   public void poll() throws StatusRuntimeException {
+    CpuServiceGrpc.CpuServiceBlockingStub service = withPollDeadline(myPollingService);
     long getDataStartNs = myDataRequestStartTimestampNs;
     CpuProfiler.CpuDataRequest.Builder request = CpuProfiler.CpuDataRequest.newBuilder()
       .setSession(mySession)
       .setStartTimestamp(getDataStartNs)
       .setEndTimestamp(Long.MAX_VALUE);
-    CpuProfiler.CpuDataResponse response = myPollingService.getData(request.build());
+    CpuProfiler.CpuDataResponse response = service.getData(request.build());
     for (CpuProfiler.CpuUsageData data : response.getDataList()) {
       getDataStartNs = Math.max(getDataStartNs, data.getEndTimestamp());
-      myCpuTable.insert(mySession, data);
+      myUsageStream.onNext(data);
     }
 
     long getThreadsStartNs = myDataRequestStartTimestampNs;
@@ -66,7 +96,7 @@ public class CpuDataPoller extends PollRunner {
       .setSession(mySession)
       .setStartTimestamp(getThreadsStartNs)
       .setEndTimestamp(Long.MAX_VALUE);
-    CpuProfiler.GetThreadsResponse threadsResponse = myPollingService.getThreads(threadsRequest.build());
+    CpuProfiler.GetThreadsResponse threadsResponse = service.getThreads(threadsRequest.build());
 
     if (myDataRequestStartTimestampNs == Long.MIN_VALUE) {
       // Store the very first snapshot in the database.
@@ -86,6 +116,7 @@ public class CpuDataPoller extends PollRunner {
 
       myCpuTable.insertActivities(mySession, thread.getTid(), thread.getName(), activities);
     }
+    setHasNewData(getDataStartNs > myDataRequestStartTimestampNs || getThreadsStartNs > myDataRequestStartTimestampNs);
     myDataRequestStartTimestampNs = Math.max(Math.max(myDataRequestStartTimestampNs + 1, getDataStartNs), getThreadsStartNs);
   }
 }
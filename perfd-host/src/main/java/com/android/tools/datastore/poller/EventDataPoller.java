@@ -21,6 +21,7 @@ import com.android.tools.profiler.proto.EventProfiler.*;
 import com.android.tools.profiler.proto.EventServiceGrpc;
 import io.grpc.StatusRuntimeException;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 /**
  * This class host an EventService that will provide callers access to all cached EventData. The data is populated from polling the service
@@ -29,6 +30,10 @@ import org.jetbrains.annotations.NotNull;
 public class EventDataPoller extends PollRunner {
 
   private long myDataRequestStartTimestampNs = Long.MIN_VALUE;
+  /**
+   * Perfd keeps returning the system events after the last activity state, so new system data is told apart from the last response.
+   */
+  @Nullable private SystemDataResponse myLastSystemResponse;
   @NotNull private final Common.Session mySession;
   @NotNull private final EventsTable myEventsTable;
   @NotNull private final EventServiceGrpc.EventServiceBlockingStub myEventPollingService;
@@ -42,14 +47,22 @@ public class EventDataPoller extends PollRunner {
     mySession = session;
   }
 
+  @NotNull
+  @Override
+  public Object getSchedulingGroup() {
+    return mySession.getSessionId();
+  }
+
   @Override
   public void poll() throws StatusRuntimeException {
     EventDataRequest.Builder dataRequestBuilder = EventDataRequest.newBuilder()
       .setSession(mySession)
       .setStartTimestamp(myDataRequestStartTimestampNs)
       .setEndTimestamp(Long.MAX_VALUE);
+    EventServiceGrpc.EventServiceBlockingStub service = withPollDeadline(myEventPollingService);
+    boolean hasNewData = false;
     // Query for and cache activity data that has changed since our last polling.
-    ActivityDataResponse activityResponse = myEventPollingService.getActivityData(dataRequestBuilder.build());
+    ActivityDataResponse activityResponse = service.getActivityData(dataRequestBuilder.build());
     for (ActivityData data : activityResponse.getDataList()) {
       long id = data.getHash();
       ActivityData cached_data = myEventsTable.findActivityDataOrNull(mySession, id);
@@ -59,6 +72,7 @@ public class EventDataPoller extends PollRunner {
         for (ActivityStateData state : data.getStateChangesList()) {
           if (!cached_data.getStateChangesList().contains(state)) {
             builder.addStateChanges(state);
+            hasNewData = true;
           }
           if (state.getTimestamp() > myDataRequestStartTimestampNs) {
             myDataRequestStartTimestampNs = state.getTimestamp();
@@ -67,6 +81,7 @@ public class EventDataPoller extends PollRunner {
         myEventsTable.insertOrReplace(id, mySession, builder.build());
       }
       else {
+        hasNewData = true;
         myEventsTable.insertOrReplace(id, mySession, data);
         for (ActivityStateData state : data.getStateChangesList()) {
           if (state.getTimestamp() > myDataRequestStartTimestampNs) {
@@ -78,10 +93,13 @@ public class EventDataPoller extends PollRunner {
 
     // Poll for system event data. If we have a duplicate event then we replace it with the incomming one.
     // we replace the event as the event information may have changed, eg now it has an uptime where previously it didn't
-    SystemDataResponse systemResponse = myEventPollingService.getSystemData(dataRequestBuilder.build());
+    SystemDataResponse systemResponse = service.getSystemData(dataRequestBuilder.build());
     for (SystemData data : systemResponse.getDataList()) {
       long id = data.getEventId();
       myEventsTable.insertOrReplace(id, mySession, data);
     }
+    hasNewData |= !systemResponse.equals(myLastSystemResponse);
+    myLastSystemResponse = systemResponse;
+    setHasNewData(hasNewData);
   }
 }
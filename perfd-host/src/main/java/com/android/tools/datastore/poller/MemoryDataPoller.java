@@ -67,13 +67,19 @@ public class MemoryDataPoller extends PollRunner {
     super.stop();
   }
 
+  @NotNull
+  @Override
+  public Object getSchedulingGroup() {
+    return mySession.getSessionId();
+  }
+
   @Override
   public void poll() {
     MemoryRequest.Builder dataRequestBuilder = MemoryRequest.newBuilder()
       .setSession(mySession)
       .setStartTime(myDataRequestStartTimestampNs)
       .setEndTime(Long.MAX_VALUE);
-    MemoryData response = myPollingService.getData(dataRequestBuilder.build());
+    MemoryData response = withPollDeadline(myPollingService).getData(dataRequestBuilder.build());
 
     // TODO: A UI request may come in while mid way through the poll, this can cause us to have partial data
     // returned to the UI. This can be solved using transactions in the DB when this class is moved fully over.
@@ -142,6 +148,9 @@ public class MemoryDataPoller extends PollRunner {
     fetchLegacyAllocData(allocDumpsToFetch.stream().filter(AllocationsInfo::getLegacy).collect(Collectors.toList()));
     fetchHeapDumpData(heapDumpsToFetch);
 
+    // Poll faster while allocation tracking or a heap dump is in progress, so its end is picked up sooner.
+    setCapturing(myPendingAllocationSample != null || myPendingHeapDumpSample != null);
+    setHasNewData(response.getEndTimestamp() > myDataRequestStartTimestampNs);
     if (response.getEndTimestamp() > myDataRequestStartTimestampNs) {
       myDataRequestStartTimestampNs = response.getEndTimestamp();
     }
@@ -22,20 +22,57 @@ import com.android.tools.profiler.proto.MemoryProfiler.BatchAllocationSample;
 import com.android.tools.profiler.proto.MemoryProfiler.MemoryData;
 import com.android.tools.profiler.proto.MemoryProfiler.MemoryRequest;
 import com.android.tools.profiler.proto.MemoryServiceGrpc;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.concurrent.Executor;
 
 public class MemoryJvmtiDataPoller extends PollRunner {
   private long myDataRequestStartTimestampNs = Long.MIN_VALUE;
   private final MemoryServiceGrpc.MemoryServiceBlockingStub myPollingService;
   private final MemoryLiveAllocationTable myLiveAllocationTable;
   private final Common.Session mySession;
+  private final SampleStream<BatchAllocationSample> myAllocationStream;
+  private final SampleStream<MemoryProfiler.BatchJNIGlobalRefEvent> myJniReferenceStream;
 
   public MemoryJvmtiDataPoller(Common.Session session,
                                MemoryLiveAllocationTable liveAllocationTable,
                                MemoryServiceGrpc.MemoryServiceBlockingStub pollingService) {
+    this(session, liveAllocationTable, pollingService, null);
+  }
+
+  /**
+   * @param sampleWriter executor the allocation batches are inserted into the table on, or null to insert them while polling.
+   */
+  public MemoryJvmtiDataPoller(Common.Session session,
+                               MemoryLiveAllocationTable liveAllocationTable,
+                               MemoryServiceGrpc.MemoryServiceBlockingStub pollingService,
+                               @Nullable Executor sampleWriter) {
     super(POLLING_DELAY_NS);
     mySession = session;
     myLiveAllocationTable = liveAllocationTable;
     myPollingService = pollingService;
+    // Every allocation and reference event is needed to track what is alive, so batches received while the writer is behind are
+    // merged into one bigger batch rather than dropped.
+    myAllocationStream = new SampleStream<>("BatchAllocationSample", this::insertAllocationSample, sampleWriter,
+                                            (older, newer) -> older.toBuilder().mergeFrom(newer).build());
+    myJniReferenceStream = new SampleStream<>("BatchJNIGlobalRefEvent",
+                                              batch -> myLiveAllocationTable.insertJniReferenceData(mySession, batch),
+                                              sampleWriter,
+                                              (older, newer) -> older.toBuilder().mergeFrom(newer).build());
+  }
+
+  @Override
+  public void stop() {
+    super.stop();
+    myAllocationStream.onCompleted();
+    myJniReferenceStream.onCompleted();
+  }
+
+  @NotNull
+  @Override
+  public Object getSchedulingGroup() {
+    return mySession.getSessionId();
   }
 
   @Override
@@ -44,19 +81,24 @@ public class MemoryJvmtiDataPoller extends PollRunner {
       .setSession(mySession)
       .setStartTime(myDataRequestStartTimestampNs)
       .setEndTime(Long.MAX_VALUE);
-    MemoryData response = myPollingService.getJvmtiData(dataRequestBuilder.build());
+    MemoryData response = withPollDeadline(myPollingService).getJvmtiData(dataRequestBuilder.build());
 
     for (BatchAllocationSample sample : response.getAllocationSamplesList()) {
-      myLiveAllocationTable.insertMethodInfo(mySession, sample.getMethodsList());
-      myLiveAllocationTable.insertStackInfo(mySession, sample.getStacksList());
-      myLiveAllocationTable.insertThreadInfo(mySession, sample.getThreadInfosList());
-      myLiveAllocationTable.insertAllocationData(mySession, sample);
+      myAllocationStream.onNext(sample);
     }
     for (MemoryProfiler.BatchJNIGlobalRefEvent batchJniEvent : response.getJniReferenceEventBatchesList()) {
-      myLiveAllocationTable.insertJniReferenceData(mySession, batchJniEvent);
+      myJniReferenceStream.onNext(batchJniEvent);
     }
+    setHasNewData(response.getEndTimestamp() > myDataRequestStartTimestampNs);
     if (response.getEndTimestamp() > myDataRequestStartTimestampNs) {
       myDataRequestStartTimestampNs = response.getEndTimestamp();
     }
   }
+
+  private void insertAllocationSample(BatchAllocationSample sample) {
+    myLiveAllocationTable.insertMethodInfo(mySession, sample.getMethodsList());
+    myLiveAllocationTable.insertStackInfo(mySession, sample.getStacksList());
+    myLiveAllocationTable.insertThreadInfo(mySession, sample.getThreadInfosList());
+    myLiveAllocationTable.insertAllocationData(mySession, sample);
+  }
 }
\ No newline at end of file
@@ -19,6 +19,7 @@ import com.android.tools.datastore.database.NetworkTable;
 import com.android.tools.profiler.proto.Common;
 import com.android.tools.profiler.proto.NetworkProfiler.*;
 import com.android.tools.profiler.proto.NetworkServiceGrpc;
+import org.jetbrains.annotations.NotNull;
 
 // TODO: Implement a storage container that can read/write data to disk
 public class NetworkDataPoller extends PollRunner {
@@ -41,6 +42,12 @@ public class NetworkDataPoller extends PollRunner {
     myPollingService = pollingService;
   }
 
+  @NotNull
+  @Override
+  public Object getSchedulingGroup() {
+    return mySession.getSessionId();
+  }
+
   @Override
   public void poll() {
     NetworkDataRequest.Builder dataRequestBuilder = NetworkDataRequest.newBuilder()
@@ -48,21 +55,26 @@ public class NetworkDataPoller extends PollRunner {
       .setStartTimestamp(myDataRequestStartTimestampNs)
       .setEndTimestamp(Long.MAX_VALUE)
       .setType(NetworkDataRequest.Type.ALL);
-    NetworkDataResponse response = myPollingService.getData(dataRequestBuilder.build());
+    NetworkServiceGrpc.NetworkServiceBlockingStub service = withPollDeadline(myPollingService);
+    NetworkDataResponse response = service.getData(dataRequestBuilder.build());
 
     for (NetworkProfilerData data : response.getDataList()) {
       myDataRequestStartTimestampNs = Math.max(myDataRequestStartTimestampNs, data.getEndTimestamp());
       myNetworkTable.insert(mySession, data);
     }
-    pollHttpRange();
+    boolean hasNewConnections = pollHttpRange(service);
+    setHasNewData(response.getDataCount() > 0 || hasNewConnections);
   }
 
-  private void pollHttpRange() {
+  /**
+   * @return whether any connection was updated.
+   */
+  private boolean pollHttpRange(@NotNull NetworkServiceGrpc.NetworkServiceBlockingStub service) {
     HttpRangeRequest.Builder requestBuilder = HttpRangeRequest.newBuilder()
       .setSession(mySession)
       .setStartTimestamp(myHttpRangeRequestStartTimeNs)
       .setEndTimestamp(Long.MAX_VALUE);
-    HttpRangeResponse httpRange = myPollingService.getHttpRange(requestBuilder.build());
+    HttpRangeResponse httpRange = service.getHttpRange(requestBuilder.build());
 
     for (HttpConnectionData connection : httpRange.getDataList()) {
       myHttpRangeRequestStartTimeNs = Math.max(myHttpRangeRequestStartTimeNs, connection.getStartTimestamp() + 1);
@@ -78,25 +90,28 @@ public class NetworkDataPoller extends PollRunner {
       HttpDetailsResponse responseBody = null;
       HttpDetailsResponse threads;
       if (initialData == null) {
-        request = pollHttpDetails(connection.getConnId(), HttpDetailsRequest.Type.REQUEST);
+        request = pollHttpDetails(service, connection.getConnId(), HttpDetailsRequest.Type.REQUEST);
       }
       if (connection.getUploadedTimestamp() != 0) {
-        requestBody = pollHttpDetails(connection.getConnId(), HttpDetailsRequest.Type.REQUEST_BODY);
+        requestBody = pollHttpDetails(service, connection.getConnId(), HttpDetailsRequest.Type.REQUEST_BODY);
       }
       if (connection.getEndTimestamp() != 0) {
-        response = pollHttpDetails(connection.getConnId(), HttpDetailsRequest.Type.RESPONSE);
-        responseBody = pollHttpDetails(connection.getConnId(), HttpDetailsRequest.Type.RESPONSE_BODY);
+        response = pollHttpDetails(service, connection.getConnId(), HttpDetailsRequest.Type.RESPONSE);
+        responseBody = pollHttpDetails(service, connection.getConnId(), HttpDetailsRequest.Type.RESPONSE_BODY);
       }
-      threads = pollHttpDetails(connection.getConnId(), HttpDetailsRequest.Type.ACCESSING_THREADS);
+      threads = pollHttpDetails(service, connection.getConnId(), HttpDetailsRequest.Type.ACCESSING_THREADS);
       myNetworkTable.insertOrReplace(mySession, request, response, requestBody, responseBody, threads, connection);
     }
+    return httpRange.getDataCount() > 0;
   }
 
-  private HttpDetailsResponse pollHttpDetails(long id, HttpDetailsRequest.Type type) {
+  private static HttpDetailsResponse pollHttpDetails(@NotNull NetworkServiceGrpc.NetworkServiceBlockingStub service,
+                                                     long id,
+                                                     HttpDetailsRequest.Type type) {
     HttpDetailsRequest request = HttpDetailsRequest.newBuilder()
       .setConnId(id)
       .setType(type)
       .build();
-    return myPollingService.getHttpDetails(request);
+    return service.getHttpDetails(request);
   }
 }
\ No newline at end of file
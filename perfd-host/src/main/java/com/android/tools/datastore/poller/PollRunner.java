@@ -15,7 +15,12 @@
  */
 package com.android.tools.datastore.poller;
 
+import com.intellij.openapi.diagnostic.Logger;
+import io.grpc.Status;
 import io.grpc.StatusRuntimeException;
+import io.grpc.stub.AbstractStub;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.RunnableFuture;
@@ -24,11 +29,28 @@ import java.util.concurrent.TimeUnit;
 /**
  * A {@link RunnableFuture} which, while running, triggers a callback at a specified period
  * (which can be used to poll a target service at some frequency).
+ *
+ * The runner can also be handed to a {@link PollScheduler}, which calls {@link #poll()} from a shared pool instead of dedicating a
+ * thread to it. Either way the delay between two polls adapts to what the last polls returned, see {@link #getNextPollDelayNs()}.
  */
 public abstract class PollRunner implements RunnableFuture<Void> {
 
   public static final long POLLING_DELAY_NS = TimeUnit.MILLISECONDS.toNanos(250);
 
+  /**
+   * Longest delay a runner backs off to while its polls return no new data.
+   */
+  public static final long MAX_IDLE_POLLING_DELAY_NS = TimeUnit.SECONDS.toNanos(2);
+
+  /**
+   * How long the calls of a single poll may take altogether, see {@link #withPollDeadline(AbstractStub)}.
+   */
+  public static final long POLL_DEADLINE_NS = TimeUnit.SECONDS.toNanos(5);
+
+  private static Logger getLogger() {
+    return Logger.getInstance(PollRunner.class);
+  }
+
   private long myPollPeriodNs;
 
   private boolean myIsRunning = false;
@@ -37,11 +59,64 @@ public abstract class PollRunner implements RunnableFuture<Void> {
 
   private CountDownLatch myIsDone = new CountDownLatch(1);
 
+  private volatile int myIdlePollCount;
+
+  private volatile boolean myCapturing;
+
+  @Nullable private volatile Runnable myCancelListener;
 
   public PollRunner(long pollPeriodNs) {
     myPollPeriodNs = pollPeriodNs;
   }
 
+  /**
+   * Runners polling on behalf of the same session should return the same group, a {@link PollScheduler} polls at most one runner of
+   * each group at a time so a busy session cannot starve the others. By default each runner is its own group.
+   */
+  @NotNull
+  public Object getSchedulingGroup() {
+    return this;
+  }
+
+  /**
+   * Tells the runner whether its last poll returned anything new. Runners that keep getting nothing back poll less and less often,
+   * up to {@link #MAX_IDLE_POLLING_DELAY_NS}, until new data shows up again. Runners that never call this poll at their period.
+   */
+  protected void setHasNewData(boolean hasNewData) {
+    myIdlePollCount = hasNewData ? 0 : Math.min(myIdlePollCount + 1, Long.numberOfLeadingZeros(myPollPeriodNs) - 1);
+  }
+
+  /**
+   * @return {@code stub} with the deadline of a poll starting now. Pollers should make their calls through it, so a device that stops
+   * answering fails the poll instead of holding a polling thread indefinitely. A poll that runs past its deadline counts as one that
+   * returned no new data, the runner keeps polling.
+   */
+  @NotNull
+  protected static <S extends AbstractStub<S>> S withPollDeadline(@NotNull S stub) {
+    return stub.withDeadlineAfter(POLL_DEADLINE_NS, TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * While a capture is in progress, the runner polls twice as often as its period so the capture's data shows up sooner.
+   */
+  public void setCapturing(boolean capturing) {
+    myCapturing = capturing;
+  }
+
+  public boolean isCapturing() {
+    return myCapturing;
+  }
+
+  /**
+   * @return how long to wait between the start of the last poll and the next one.
+   */
+  public long getNextPollDelayNs() {
+    if (myCapturing) {
+      return myPollPeriodNs / 2;
+    }
+    return Math.min(myPollPeriodNs << myIdlePollCount, Math.max(myPollPeriodNs, MAX_IDLE_POLLING_DELAY_NS));
+  }
+
   public void stop() {
     cancel(true);
     try {
@@ -58,8 +133,8 @@ public abstract class PollRunner implements RunnableFuture<Void> {
       myIsRunning = true;
       while (myRunning.getCount() > 0) {
         long startTimeNs = System.nanoTime();
-        poll();
-        long sleepTime = Math.max(myPollPeriodNs - (System.nanoTime() - startTimeNs), 0L);
+        pollWithinDeadline();
+        long sleepTime = Math.max(getNextPollDelayNs() - (System.nanoTime() - startTimeNs), 0L);
         myRunning.await(sleepTime, TimeUnit.NANOSECONDS);
       }
     }
@@ -73,9 +148,62 @@ public abstract class PollRunner implements RunnableFuture<Void> {
 
   public abstract void poll();
 
+  /**
+   * Called by the {@link PollScheduler} taking over this runner, {@code cancelListener} is run when the runner gets cancelled.
+   */
+  void onScheduled(@NotNull Runnable cancelListener) {
+    myCancelListener = cancelListener;
+    myIsRunning = true;
+  }
+
+  /**
+   * Polls once on behalf of a {@link PollScheduler}.
+   *
+   * @return whether the runner should be polled again.
+   */
+  boolean pollScheduled() {
+    try {
+      pollWithinDeadline();
+    }
+    catch (StatusRuntimeException e) {
+      // The device went away, just like in run() this ends the polling.
+      return false;
+    }
+    catch (RuntimeException e) {
+      getLogger().warn(e);
+      return false;
+    }
+    return !isCancelled();
+  }
+
+  private void pollWithinDeadline() {
+    try {
+      poll();
+    }
+    catch (StatusRuntimeException e) {
+      if (e.getStatus().getCode() != Status.Code.DEADLINE_EXCEEDED) {
+        throw e;
+      }
+      // The device is slow rather than gone, back off and try again.
+      getLogger().debug(e);
+      setHasNewData(false);
+    }
+  }
+
+  /**
+   * Called by the {@link PollScheduler} once it will no longer poll this runner.
+   */
+  void onUnscheduled() {
+    myIsDone.countDown();
+  }
+
   @Override
   public boolean cancel(boolean mayInterruptIfRunning) {
     myRunning.countDown();
+    Runnable cancelListener = myCancelListener;
+    if (cancelListener != null) {
+      cancelListener.run();
+    }
     return true;
   }
 
@@ -0,0 +1,300 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.datastore.poller;
+
+import com.intellij.openapi.diagnostic.Logger;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Consumer;
+
+/**
+ * Polls any number of {@link PollRunner}s from a small shared pool, instead of one sleeping thread per runner.
+ *
+ * A single timer thread waits for the runners' next polls to be due, the polls themselves run on a work-stealing
+ * {@link ForkJoinPool}. Runners are grouped by {@link PollRunner#getSchedulingGroup()} (their session): at most one poll per group runs
+ * at a time, and a group goes back to the end of the pool's queue after each poll, so a session with slow or many runners cannot hold
+ * up the others. The delay before a runner's next poll is whatever {@link PollRunner#getNextPollDelayNs()} says after each poll.
+ *
+ * Polls mostly wait on blocking gRPC calls, bounded by {@link PollRunner#POLL_DEADLINE_NS}. Each one runs as a
+ * {@link ForkJoinPool.ManagedBlocker}, so the pool can add threads while its own are blocked; as a group is polled by one thread at a
+ * time, that is at most one thread per group.
+ *
+ * Cancelling a runner, through {@link PollRunner#cancel(boolean)} or {@link PollRunner#stop()}, takes it out of the schedule right away,
+ * or as soon as its in-flight poll returns; {@link PollRunner#stop()} waits for that.
+ */
+public final class PollScheduler {
+  private static Logger getLogger() {
+    return Logger.getInstance(PollScheduler.class);
+  }
+
+  @NotNull private final ForkJoinPool myPool;
+  @NotNull private final ScheduledExecutorService myTimer;
+
+  // Guarded by this.
+  private final Map<Object, Group> myGroups = new HashMap<>();
+  private final Set<Entry> myEntries = new HashSet<>();
+  private boolean myShutdown;
+
+  public PollScheduler() {
+    this(Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors())));
+  }
+
+  public PollScheduler(int parallelism) {
+    myPool = new ForkJoinPool(parallelism, pool -> {
+      ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+      thread.setName("DataStorePoller-" + thread.getPoolIndex());
+      return thread;
+    }, null, true);
+    myTimer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "DataStorePollTimer");
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  /**
+   * @return a fetch executor for the datastore services that hands {@link PollRunner}s to this scheduler, and everything else to
+   * {@code fetchExecutor}.
+   */
+  @NotNull
+  public Consumer<Runnable> asFetchExecutor(@NotNull Consumer<Runnable> fetchExecutor) {
+    return runnable -> {
+      if (runnable instanceof PollRunner) {
+        schedule((PollRunner)runnable);
+      }
+      else {
+        fetchExecutor.accept(runnable);
+      }
+    };
+  }
+
+  /**
+   * Starts polling {@code runner}, its first poll is due right away.
+   */
+  public void schedule(@NotNull PollRunner runner) {
+    Entry entry;
+    synchronized (this) {
+      if (myShutdown) {
+        getLogger().warn("Poller scheduled after the scheduler was shut down.");
+        return;
+      }
+      Group group = myGroups.computeIfAbsent(runner.getSchedulingGroup(), Group::new);
+      group.myEntryCount++;
+      entry = new Entry(runner, group);
+      myEntries.add(entry);
+    }
+    runner.onScheduled(() -> cancel(entry));
+    if (runner.isCancelled()) {
+      cancel(entry);
+    }
+    else {
+      makeReady(entry);
+    }
+  }
+
+  /**
+   * @return the number of runners being polled.
+   */
+  public synchronized int getRunnerCount() {
+    return myEntries.size();
+  }
+
+  /**
+   * @return the number of groups (sessions) the runners being polled belong to.
+   */
+  public synchronized int getGroupCount() {
+    return myGroups.size();
+  }
+
+  /**
+   * Cancels every runner and waits briefly for the polls in flight to return.
+   */
+  public void shutdown() {
+    List<Entry> entries;
+    synchronized (this) {
+      myShutdown = true;
+      entries = new ArrayList<>(myEntries);
+    }
+    entries.forEach(entry -> entry.myRunner.cancel(true));
+    myTimer.shutdownNow();
+    myPool.shutdown();
+    try {
+      myPool.awaitTermination(1, TimeUnit.SECONDS);
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private void makeReady(@NotNull Entry entry) {
+    Group group = entry.myGroup;
+    synchronized (group) {
+      if (entry.myFinished) {
+        return;
+      }
+      entry.myTimeout = null;
+      group.myReady.add(entry);
+      if (group.myDispatched) {
+        return;
+      }
+      group.myDispatched = true;
+    }
+    dispatch(group);
+  }
+
+  private void dispatch(@NotNull Group group) {
+    try {
+      myPool.execute(() -> runNext(group));
+    }
+    catch (RejectedExecutionException e) {
+      // Shutting down, the entries are getting cancelled.
+      synchronized (group) {
+        group.myDispatched = false;
+      }
+    }
+  }
+
+  /**
+   * Polls the group's next ready runner, then lets the other groups go first if it has more.
+   */
+  private void runNext(@NotNull Group group) {
+    Entry entry;
+    synchronized (group) {
+      entry = group.myReady.poll();
+      if (entry == null) {
+        group.myDispatched = false;
+        return;
+      }
+      entry.myPolling = true;
+    }
+
+    ScheduledPoll poll = new ScheduledPoll(entry.myRunner);
+    try {
+      ForkJoinPool.managedBlock(poll);
+    }
+    catch (InterruptedException e) {
+      // Not expected, polls don't wait interruptibly.
+      Thread.currentThread().interrupt();
+    }
+    boolean again = poll.myAgain;
+
+    boolean finish = false;
+    boolean more;
+    synchronized (group) {
+      entry.myPolling = false;
+      if (!again || entry.myRunner.isCancelled()) {
+        finish = !entry.myFinished;
+        entry.myFinished = true;
+      }
+      else {
+        try {
+          entry.myTimeout = myTimer.schedule(() -> makeReady(entry), entry.myRunner.getNextPollDelayNs(), TimeUnit.NANOSECONDS);
+        }
+        catch (RejectedExecutionException e) {
+          finish = true;
+          entry.myFinished = true;
+        }
+      }
+      more = !group.myReady.isEmpty();
+      group.myDispatched = more;
+    }
+    if (finish) {
+      finish(entry);
+    }
+    if (more) {
+      dispatch(group);
+    }
+  }
+
+  private void cancel(@NotNull Entry entry) {
+    Group group = entry.myGroup;
+    synchronized (group) {
+      // A runner that is being polled finishes once the poll returns.
+      if (entry.myFinished || entry.myPolling) {
+        return;
+      }
+      entry.myFinished = true;
+      if (entry.myTimeout != null) {
+        entry.myTimeout.cancel(false);
+        entry.myTimeout = null;
+      }
+      group.myReady.remove(entry);
+    }
+    finish(entry);
+  }
+
+  private void finish(@NotNull Entry entry) {
+    synchronized (this) {
+      myEntries.remove(entry);
+      if (--entry.myGroup.myEntryCount == 0) {
+        myGroups.remove(entry.myGroup.myKey);
+      }
+    }
+    entry.myRunner.onUnscheduled();
+  }
+
+  private static final class ScheduledPoll implements ForkJoinPool.ManagedBlocker {
+    @NotNull private final PollRunner myRunner;
+    private boolean myDone;
+    private boolean myAgain;
+
+    private ScheduledPoll(@NotNull PollRunner runner) {
+      myRunner = runner;
+    }
+
+    @Override
+    public boolean block() {
+      myAgain = myRunner.pollScheduled();
+      myDone = true;
+      return true;
+    }
+
+    @Override
+    public boolean isReleasable() {
+      return myDone;
+    }
+  }
+
+  private static final class Group {
+    @NotNull private final Object myKey;
+    // Guarded by this group.
+    private final Deque<Entry> myReady = new ArrayDeque<>();
+    private boolean myDispatched;
+    // Guarded by the scheduler.
+    private int myEntryCount;
+
+    private Group(@NotNull Object key) {
+      myKey = key;
+    }
+  }
+
+  private static final class Entry {
+    @NotNull private final PollRunner myRunner;
+    @NotNull private final Group myGroup;
+    // Guarded by the group.
+    @Nullable private ScheduledFuture<?> myTimeout;
+    private boolean myPolling;
+    private boolean myFinished;
+
+    private Entry(@NotNull PollRunner runner, @NotNull Group group) {
+      myRunner = runner;
+      myGroup = group;
+    }
+  }
+}
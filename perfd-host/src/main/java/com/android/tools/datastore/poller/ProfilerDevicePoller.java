@@ -22,6 +22,7 @@ import com.android.tools.datastore.database.ProfilerTable;
 import com.android.tools.profiler.proto.Common;
 import com.android.tools.profiler.proto.Profiler.*;
 import com.android.tools.profiler.proto.ProfilerServiceGrpc;
+import io.grpc.Status;
 import io.grpc.StatusRuntimeException;
 
 import java.util.HashMap;
@@ -67,7 +68,8 @@ public class ProfilerDevicePoller extends PollRunner implements DataStoreTable.D
   public void poll() {
     try {
       GetDevicesRequest devicesRequest = GetDevicesRequest.newBuilder().build();
-      GetDevicesResponse deviceResponse = myPollingService.getDevices(devicesRequest);
+      ProfilerServiceGrpc.ProfilerServiceBlockingStub service = withPollDeadline(myPollingService);
+      GetDevicesResponse deviceResponse = service.getDevices(devicesRequest);
       for (Common.Device device : deviceResponse.getDeviceList()) {
         DeviceId deviceId = DeviceId.of(device.getDeviceId());
 
@@ -76,7 +78,7 @@ public class ProfilerDevicePoller extends PollRunner implements DataStoreTable.D
 
         myService.setConnectedClients(deviceId, myPollingService.getChannel());
         GetProcessesRequest processesRequest = GetProcessesRequest.newBuilder().setDeviceId(deviceId.get()).build();
-        GetProcessesResponse processesResponse = myPollingService.getProcesses(processesRequest);
+        GetProcessesResponse processesResponse = service.getProcesses(processesRequest);
 
         // Gather the list of last known active processes.
         Set<Common.Process> liveProcesses = new HashSet<>();
@@ -92,7 +94,7 @@ public class ProfilerDevicePoller extends PollRunner implements DataStoreTable.D
 
           AgentStatusRequest agentStatusRequest =
             AgentStatusRequest.newBuilder().setProcessId(process.getPid()).setDeviceId(deviceId.get()).build();
-          AgentStatusResponse agentStatusResponse = myPollingService.getAgentStatus(agentStatusRequest);
+          AgentStatusResponse agentStatusResponse = service.getAgentStatus(agentStatusRequest);
           myTable.updateAgentStatus(deviceId, process, agentStatusResponse);
         }
 
@@ -103,6 +105,10 @@ public class ProfilerDevicePoller extends PollRunner implements DataStoreTable.D
       }
     }
     catch (StatusRuntimeException ex) {
+      if (ex.getStatus().getCode() == Status.Code.DEADLINE_EXCEEDED) {
+        // The device is slow to answer, not gone. The devices and processes seen so far are polled again next time.
+        return;
+      }
       // We expect this to get called when connection to the device is lost.
       // To properly clean up the state we first set all ALIVE processes to DEAD
       // then we disconnect the channel.
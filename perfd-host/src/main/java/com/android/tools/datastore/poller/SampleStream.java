@@ -0,0 +1,218 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.datastore.poller;
+
+import com.intellij.openapi.diagnostic.Logger;
+import io.grpc.stub.StreamObserver;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BinaryOperator;
+import java.util.function.Consumer;
+
+/**
+ * Consumer side of a stream of samples coming from perfd: every sample pushed through {@link #onNext(Object)} is handed to a sink,
+ * usually one that inserts it into a datastore table.
+ *
+ * When given a writer {@link Executor}, samples are queued and written there, so the thread receiving them (a poller, or a gRPC
+ * stream) does not wait on the database. Without a writer, samples are written inline.
+ *
+ * The queue is bounded and {@link #onNext(Object)} never blocks. Once the queue is full, further samples are folded into a single
+ * overflow sample by the stream's overflow policy, which is written after the queued ones: {@link #keepLatest()} drops all but the most
+ * recent sample, which suits samples that each describe the whole state, while a policy merging its arguments keeps every sample of
+ * streams that can't afford to lose any. {@link #getOverflowCount()} tells how many samples went through the policy.
+ *
+ * Samples are written in the order they are received, one at a time. The writer executor should therefore not run two drains of the
+ * same stream concurrently, which this class guarantees by scheduling at most one drain at a time.
+ */
+public final class SampleStream<T> implements StreamObserver<T> {
+  public static final int DEFAULT_CAPACITY = 256;
+
+  private static Logger getLogger() {
+    return Logger.getInstance(SampleStream.class);
+  }
+
+  @NotNull private final String myName;
+  @NotNull private final Consumer<T> mySink;
+  @Nullable private final Executor myWriter;
+  @NotNull private final BinaryOperator<T> myOverflowPolicy;
+  private final int myCapacity;
+
+  // Guarded by this.
+  private final Deque<T> myQueue = new ArrayDeque<>();
+  @Nullable private T myOverflow;
+  /**
+   * Whether a drain is scheduled or running.
+   */
+  private boolean myDraining;
+  private int myMaxQueueDepth;
+  private long myOverflowCount;
+
+  private volatile boolean myCompleted;
+
+  /**
+   * @return an overflow policy which drops the older of the samples it is given.
+   */
+  @NotNull
+  public static <T> BinaryOperator<T> keepLatest() {
+    return (older, newer) -> newer;
+  }
+
+  public SampleStream(@NotNull String name,
+                      @NotNull Consumer<T> sink,
+                      @Nullable Executor writer,
+                      @NotNull BinaryOperator<T> overflowPolicy) {
+    this(name, sink, writer, overflowPolicy, DEFAULT_CAPACITY);
+  }
+
+  /**
+   * @param overflowPolicy called with the pending overflow sample and the one just received once the queue is full, returns the
+   *                       sample to write in their place.
+   */
+  public SampleStream(@NotNull String name,
+                      @NotNull Consumer<T> sink,
+                      @Nullable Executor writer,
+                      @NotNull BinaryOperator<T> overflowPolicy,
+                      int capacity) {
+    assert capacity > 0;
+    myName = name;
+    mySink = sink;
+    myWriter = writer;
+    myOverflowPolicy = overflowPolicy;
+    myCapacity = capacity;
+  }
+
+  @Override
+  public void onNext(T sample) {
+    if (myCompleted) {
+      getLogger().warn(String.format("Sample received after %s completed.", myName));
+    }
+    if (myWriter == null) {
+      write(sample);
+      return;
+    }
+
+    synchronized (this) {
+      // Once there is an overflow sample, later samples must go through it too to stay behind it.
+      if (myOverflow == null && myQueue.size() < myCapacity) {
+        myQueue.add(sample);
+        myMaxQueueDepth = Math.max(myMaxQueueDepth, myQueue.size());
+      }
+      else {
+        myOverflow = myOverflow == null ? sample : myOverflowPolicy.apply(myOverflow, sample);
+        myOverflowCount++;
+      }
+    }
+    scheduleDrain();
+  }
+
+  @Override
+  public void onError(Throwable t) {
+    getLogger().warn(String.format("%s failed.", myName), t);
+    onCompleted();
+  }
+
+  /**
+   * Marks the end of the stream and waits for the samples already received to be written.
+   */
+  @Override
+  public void onCompleted() {
+    myCompleted = true;
+    synchronized (this) {
+      try {
+        while (myDraining) {
+          wait(TimeUnit.SECONDS.toMillis(1));
+        }
+      }
+      catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  public boolean isCompleted() {
+    return myCompleted;
+  }
+
+  /**
+   * @return the number of samples waiting to be written, including the overflow sample.
+   */
+  public synchronized int getQueueDepth() {
+    return myQueue.size() + (myOverflow == null ? 0 : 1);
+  }
+
+  public synchronized int getMaxQueueDepth() {
+    return myMaxQueueDepth;
+  }
+
+  /**
+   * @return the number of samples received while the queue was full, each of them was handed to the overflow policy.
+   */
+  public synchronized long getOverflowCount() {
+    return myOverflowCount;
+  }
+
+  private void scheduleDrain() {
+    assert myWriter != null;
+    synchronized (this) {
+      if (myDraining) {
+        return;
+      }
+      myDraining = true;
+    }
+    try {
+      myWriter.execute(this::drain);
+    }
+    catch (RejectedExecutionException e) {
+      // The writer is shutting down, finish on this thread.
+      drain();
+    }
+  }
+
+  private void drain() {
+    while (true) {
+      T sample;
+      synchronized (this) {
+        sample = myQueue.poll();
+        if (sample == null) {
+          sample = myOverflow;
+          myOverflow = null;
+        }
+        if (sample == null) {
+          myDraining = false;
+          notifyAll();
+          return;
+        }
+      }
+      write(sample);
+    }
+  }
+
+  private void write(T sample) {
+    try {
+      mySink.accept(sample);
+    }
+    catch (RuntimeException e) {
+      // Tables report their own errors, this only keeps one bad sample from stopping the stream.
+      getLogger().warn(String.format("Failed to write a sample of %s.", myName), e);
+    }
+  }
+}
@@ -15,6 +15,7 @@
  */
 package com.android.tools.datastore.service;
 
+import com.android.tools.datastore.DataStoreDatabase;
 import com.android.tools.datastore.DataStoreService;
 import com.android.tools.datastore.DeviceId;
 import com.android.tools.datastore.ServicePassThrough;
@@ -27,7 +28,6 @@ import com.android.tools.profiler.proto.CpuServiceGrpc;
 import io.grpc.stub.StreamObserver;
 import org.jetbrains.annotations.NotNull;
 
-import java.sql.Connection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
@@ -126,9 +126,7 @@ public class CpuService extends CpuServiceGrpc.CpuServiceImplBase implements Ser
       observer.onNext(client.startMonitoringApp(request));
       observer.onCompleted();
       long sessionId = request.getSession().getSessionId();
-      myRunners
-        .put(sessionId,
-             new CpuDataPoller(request.getSession(), myCpuTable, myService.getCpuClient(DeviceId.fromSession(request.getSession()))));
+      myRunners.put(sessionId, new CpuDataPoller(request.getSession(), myCpuTable, client, myService.getSampleWriter()));
       myFetchExecutor.accept(myRunners.get(sessionId));
     }
     else {
@@ -162,7 +160,11 @@ public class CpuService extends CpuServiceGrpc.CpuServiceImplBase implements Ser
                                 StreamObserver<CpuProfilingAppStartResponse> observer) {
     CpuServiceGrpc.CpuServiceBlockingStub client = myService.getCpuClient(DeviceId.fromSession(request.getSession()));
     if (client != null) {
-      observer.onNext(client.startProfilingApp(request));
+      CpuProfilingAppStartResponse response = client.startProfilingApp(request);
+      if (response.getStatus() == CpuProfilingAppStartResponse.Status.SUCCESS) {
+        setCapturing(request.getSession().getSessionId(), true);
+      }
+      observer.onNext(response);
     }
     else {
       observer.onNext(CpuProfilingAppStartResponse.getDefaultInstance());
@@ -177,6 +179,7 @@ public class CpuService extends CpuServiceGrpc.CpuServiceImplBase implements Ser
     CpuProfilingAppStopResponse response = CpuProfilingAppStopResponse.getDefaultInstance();
     if (client != null) {
       response = client.stopProfilingApp(request);
+      setCapturing(request.getSession().getSessionId(), false);
       // Only add successfully captured traces to the database
       if (response.getStatus() == CpuProfilingAppStopResponse.Status.SUCCESS) {
         myCpuTable.insertTrace(request.getSession(), response.getTraceId(), request.getProfilerType(), response.getTrace());
@@ -221,9 +224,19 @@ public class CpuService extends CpuServiceGrpc.CpuServiceImplBase implements Ser
   }
 
   @Override
-  public void setBackingStore(@NotNull DataStoreService.BackingNamespace namespace, @NotNull Connection connection) {
+  public void setBackingStore(@NotNull DataStoreService.BackingNamespace namespace, @NotNull DataStoreDatabase database) {
     assert namespace == DataStoreService.BackingNamespace.DEFAULT_SHARED_NAMESPACE;
-    myCpuTable.initialize(connection);
+    myCpuTable.initialize(database);
+  }
+
+  /**
+   * Lets the session's poller know whether a trace is being recorded, so it can poll faster in the meantime.
+   */
+  private void setCapturing(long sessionId, boolean capturing) {
+    PollRunner runner = myRunners.get(sessionId);
+    if (runner != null) {
+      runner.setCapturing(capturing);
+    }
   }
 
   /**
@@ -263,11 +263,12 @@ public class DataStoreServiceTest extends DataStorePollerTest {
     }
 
     @Override
-    public void setBackingStore(@NotNull BackingNamespace namespace, @NotNull Connection connection) {
+    public void setBackingStore(@NotNull BackingNamespace namespace, @NotNull DataStoreDatabase database) {
+      Connection connection = database.getConnection();
       assert myNamespaces.contains(namespace) && !myReceivedBackingStores.containsKey(namespace) && !myReceivedBackingStores
         .containsValue(connection);
       myReceivedBackingStores.put(namespace, connection);
-      myProfilerTable.initialize(connection);
+      myProfilerTable.initialize(database);
       myConnection = connection;
     }
 
@@ -77,7 +77,7 @@ public final class TestGrpcService<S extends BindableService> extends ExternalRe
     myTestFile = new File("/tmp/datastoredb");
     myDatabase = new DataStoreDatabase(myTestFile.getAbsolutePath(), DataStoreDatabase.Characteristic.DURABLE);
     myDataStoreService.getBackingNamespaces()
-      .forEach(namespace -> myDataStoreService.setBackingStore(namespace, myDatabase.getConnection()));
+      .forEach(namespace -> myDataStoreService.setBackingStore(namespace, myDatabase));
   }
 
   @Override
@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.datastore.database;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public class AllocationEventColumnsTest {
+  @Test
+  public void testDuplicatedTagIsIgnored() {
+    AllocationEventColumns columns = new AllocationEventColumns();
+    assertThat(columns.insertAllocation(1, 10, 0, 0, 0, 0, 0, 0)).isTrue();
+    assertThat(columns.insertAllocation(1, 11, 5, 0, 0, 0, 0, 0)).isFalse();
+    assertThat(columns.size()).isEqualTo(1);
+    assertThat(columns.getClassTag(0)).isEqualTo(10);
+  }
+
+  @Test
+  public void testRangeQueriesAreSortedByTime() {
+    AllocationEventColumns columns = new AllocationEventColumns();
+    // Allocations arriving out of order.
+    columns.insertAllocation(1, 0, 30, 0, 0, 0, 0, 0);
+    columns.insertAllocation(2, 0, 10, 0, 0, 0, 0, 0);
+    columns.insertAllocation(3, 0, 20, 0, 0, 0, 0, 0);
+    columns.freeAllocation(3, 50);
+    columns.freeAllocation(2, 40);
+
+    assertThat(getAllocatedTags(columns, 0, Long.MAX_VALUE)).containsExactly(2, 3, 1).inOrder();
+    assertThat(getAllocatedTags(columns, 10, 30)).containsExactly(2, 3).inOrder();
+    assertThat(getFreedTags(columns, 0, Long.MAX_VALUE)).containsExactly(2, 3).inOrder();
+    assertThat(getFreedTags(columns, 41, Long.MAX_VALUE)).containsExactly(3);
+    assertThat(columns.getLatestTimestamp()).isEqualTo(50);
+  }
+
+  @Test
+  public void testAliveAt() {
+    AllocationEventColumns columns = new AllocationEventColumns();
+    for (int i = 0; i < 5000; i++) {
+      columns.insertAllocation(i, 0, i, 0, 0, 0, 0, 0);
+      // Every object but the multiples of 1000 dies shortly after.
+      if (i % 1000 != 0) {
+        columns.freeAllocation(i, i + 2);
+      }
+    }
+
+    assertThat(getAliveTags(columns, 2500)).containsExactly(0, 1000, 2000, 2499);
+    assertThat(getAliveTags(columns, 2000)).containsExactly(0, 1000, 1999);
+    assertThat(getAliveTags(columns, 0)).isEmpty();
+  }
+
+  @Test
+  public void testAliveAtMatchesScanWithOutOfOrderEvents() {
+    AllocationEventColumns columns = new AllocationEventColumns();
+    Random random = new Random(1);
+    for (int i = 0; i < 3000; i++) {
+      columns.insertAllocation(i, 0, random.nextInt(10000), 0, 0, 0, 0, 0);
+    }
+    for (int i = 0; i < 3000; i += 2) {
+      columns.freeAllocation(i, columns.getAllocTime(i) + random.nextInt(2000) + 1);
+    }
+
+    for (long time = 0; time < 12000; time += 997) {
+      List<Integer> expected = new ArrayList<>();
+      for (int row = 0; row < columns.size(); row++) {
+        if (columns.getAllocTime(row) < time && time < columns.getFreeTime(row)) {
+          expected.add(columns.getTag(row));
+        }
+      }
+      assertThat(getAliveTags(columns, time)).containsExactlyElementsIn(expected);
+    }
+  }
+
+  @Test
+  public void testPruneOnlyDropsFreedRows() {
+    AllocationEventColumns columns = new AllocationEventColumns();
+    columns.insertAllocation(1, 0, 0, 0, 0, 0, 0, 0);
+    columns.insertAllocation(2, 0, 1, 0, 0, 0, 0, 0);
+    columns.insertAllocation(3, 0, 2, 0, 0, 0, 0, 0);
+    columns.freeAllocation(2, 5);
+    columns.freeAllocation(3, 6);
+
+    assertThat(columns.pruneFreedBefore(6)).isEqualTo(1);
+    assertThat(getAllocatedTags(columns, 0, Long.MAX_VALUE)).containsExactly(1, 3).inOrder();
+    assertThat(getFreedTags(columns, 0, Long.MAX_VALUE)).containsExactly(3);
+
+    // Tag 2 is gone, so it can be inserted again.
+    assertThat(columns.insertAllocation(2, 0, 7, 0, 0, 0, 0, 0)).isTrue();
+    assertThat(columns.pruneFreedBefore(100)).isEqualTo(1);
+    assertThat(getAllocatedTags(columns, 0, Long.MAX_VALUE)).containsExactly(1, 2).inOrder();
+  }
+
+  @Test
+  public void testConsecutivePrunesCountEachRowOnce() {
+    AllocationEventColumns columns = new AllocationEventColumns();
+    for (int tag = 1; tag <= 4; tag++) {
+      columns.insertAllocation(tag, 0, tag, 0, 0, 0, 0, 0);
+    }
+    columns.freeAllocation(1, 10);
+    columns.freeAllocation(2, 20);
+    columns.freeAllocation(3, 30);
+
+    // A retention pass moves the cutoff several times before the rows are compacted.
+    assertThat(columns.pruneFreedBefore(15)).isEqualTo(1);
+    assertThat(columns.pruneFreedBefore(15)).isEqualTo(0);
+    assertThat(columns.pruneFreedBefore(35)).isEqualTo(2);
+    assertThat(columns.size()).isEqualTo(1);
+    assertThat(getAllocatedTags(columns, 0, Long.MAX_VALUE)).containsExactly(4);
+    assertThat(getFreedTags(columns, 0, Long.MAX_VALUE)).isEmpty();
+  }
+
+  private static List<Integer> getAllocatedTags(AllocationEventColumns columns, long startTime, long endTime) {
+    List<Integer> tags = new ArrayList<>();
+    columns.forEachAllocatedIn(startTime, endTime, row -> tags.add(columns.getTag(row)));
+    return tags;
+  }
+
+  private static List<Integer> getFreedTags(AllocationEventColumns columns, long startTime, long endTime) {
+    List<Integer> tags = new ArrayList<>();
+    columns.forEachFreedIn(startTime, endTime, row -> tags.add(columns.getTag(row)));
+    return tags;
+  }
+
+  private static List<Integer> getAliveTags(AllocationEventColumns columns, long time) {
+    List<Integer> tags = new ArrayList<>();
+    columns.forEachAliveAt(time, row -> tags.add(columns.getTag(row)));
+    return tags;
+  }
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.datastore.database;
+
+import com.android.tools.profiler.proto.MemoryProfiler.AllocationEvent;
+import com.android.tools.profiler.proto.MemoryProfiler.BatchAllocationSample;
+import org.junit.Test;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public class AllocationSampleBuilderTest {
+  @Test
+  public void testReusedBuildersDoNotLeakBetweenEvents() {
+    AllocationSampleBuilder builder = new AllocationSampleBuilder();
+    builder.addAllocation(10, 1, 2, 3, 4, 5, 6, 7);
+    builder.addDeallocation(30, 1, 2, 3, 4, 5, 6, 7);
+    builder.addAllocation(20, 8, 9, 10, 11, 12, 13, 14);
+    BatchAllocationSample sample = builder.build();
+
+    AllocationEvent.Allocation first = AllocationEvent.Allocation.newBuilder()
+      .setTag(1).setClassTag(2).setSize(3).setLength(4).setThreadId(5).setStackId(6).setHeapId(7).build();
+    AllocationEvent.Deallocation free = AllocationEvent.Deallocation.newBuilder()
+      .setTag(1).setClassTag(2).setSize(3).setLength(4).setThreadId(5).setStackId(6).setHeapId(7).build();
+    AllocationEvent.Allocation second = AllocationEvent.Allocation.newBuilder()
+      .setTag(8).setClassTag(9).setSize(10).setLength(11).setThreadId(12).setStackId(13).setHeapId(14).build();
+    assertThat(sample.getEventsList()).containsExactly(
+      AllocationEvent.newBuilder().setAllocData(first).setTimestamp(10).build(),
+      AllocationEvent.newBuilder().setFreeData(free).setTimestamp(30).build(),
+      AllocationEvent.newBuilder().setAllocData(second).setTimestamp(20).build()).inOrder();
+    assertThat(sample.getTimestamp()).isEqualTo(30);
+  }
+
+  @Test
+  public void testEmptySample() {
+    assertThat(new AllocationSampleBuilder().build()).isEqualTo(BatchAllocationSample.newBuilder().setTimestamp(Long.MIN_VALUE).build());
+  }
+}
@@ -28,6 +28,7 @@ import java.io.File;
 import java.util.ArrayList;
 import java.util.List;
 
+import static com.google.common.truth.Truth.assertThat;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNull;
 
@@ -112,6 +113,24 @@ public class CpuTableTest {
     }
   }
 
+  @Test
+  public void testRetentionIsRestoredOnReopen() throws Exception {
+    TableRetention retention = myTable.getRetentions().get(0);
+    assertThat(retention.getRowCount()).isEqualTo(TEST_DATA * 2);
+    long bytes = retention.getBytes();
+    myTable.flush();
+    myDatabase.disconnect();
+
+    myDatabase = new DataStoreDatabase(myDbFile.getAbsolutePath(), DataStoreDatabase.Characteristic.DURABLE);
+    myTable = new CpuTable();
+    myTable.initialize(myDatabase.getConnection());
+    TableRetention restored = myTable.getRetentions().get(0);
+    assertThat(restored.getRowCount()).isEqualTo(TEST_DATA * 2);
+    assertThat(restored.getBytes()).isEqualTo(bytes);
+    // One segment for each session.
+    assertThat(restored.getSegmentCount()).isEqualTo(2);
+  }
+
   @Test
   public void testGetData() throws Exception {
     CpuProfiler.CpuDataRequest request = CpuProfiler.CpuDataRequest.newBuilder()
@@ -35,15 +35,63 @@ class DataStoreDatabaseTest {
   }
 
   @Test
-  fun testDatabaseDeletesExisitingFileOnLoad() {
+  fun testDatabaseReplacesUnreadableFileOnLoad() {
     val outputStream = BufferedOutputStream(FileOutputStream(myDatabaseFile))
     outputStream.write(ByteArray(1024))
     outputStream.close()
     assertThat(myDatabaseFile.length()).isEqualTo(1024)
     val db = DataStoreDatabase(myDatabaseFile.absolutePath, DataStoreDatabase.Characteristic.DURABLE)
-    assertThat(myDatabaseFile.length()).isEqualTo(0)
+    db.connection.createStatement().execute("CREATE TABLE Test (Value INTEGER)")
     db.disconnect()
     assertThat(myDatabaseFile.exists()).isTrue()
+    assertThat(myDatabaseFile.length()).isNotEqualTo(1024)
+  }
+
+  @Test
+  fun testDatabaseKeepsExistingFileOnLoad() {
+    myDatabaseFile.delete()
+    var db = DataStoreDatabase(myDatabaseFile.absolutePath, DataStoreDatabase.Characteristic.DURABLE)
+    db.connection.createStatement().execute("CREATE TABLE Test (Value INTEGER)")
+    db.connection.createStatement().execute("INSERT INTO Test (Value) VALUES (42)")
+    db.disconnect()
+
+    db = DataStoreDatabase(myDatabaseFile.absolutePath, DataStoreDatabase.Characteristic.DURABLE)
+    val result = db.connection.createStatement().executeQuery("SELECT Value FROM Test")
+    assertThat(result.next()).isTrue()
+    assertThat(result.getInt(1)).isEqualTo(42)
+    val journalMode = db.connection.createStatement().executeQuery("PRAGMA journal_mode")
+    assertThat(journalMode.next()).isTrue()
+    assertThat(journalMode.getString(1)).isEqualTo("wal")
+    db.disconnect()
+  }
+
+  @Test
+  fun testDatabaseEvictsOldestSessionsOverSizeCap() {
+    myDatabaseFile.delete()
+    var db = DataStoreDatabase(myDatabaseFile.absolutePath, DataStoreDatabase.Characteristic.DURABLE)
+    val statement = db.connection.createStatement()
+    statement.execute("CREATE TABLE Profiler_Sessions (SessionId INTEGER)")
+    statement.execute("CREATE TABLE Test (Session INTEGER, Data BLOB)")
+    for (session in 1..3) {
+      statement.execute("INSERT INTO Profiler_Sessions (SessionId) VALUES ($session)")
+      statement.execute("INSERT INTO Test (Session, Data) VALUES ($session, zeroblob(1048576))")
+    }
+    db.disconnect()
+
+    // The sessions take a megabyte each, only two of them fit.
+    db = DataStoreDatabase(myDatabaseFile.absolutePath, DataStoreDatabase.Characteristic.DURABLE, 5L * 1024 * 1024 / 2, {})
+    assertThat(readSessions(db, "SELECT SessionId FROM Profiler_Sessions")).containsExactly(2L, 3L)
+    assertThat(readSessions(db, "SELECT Session FROM Test")).containsExactly(2L, 3L)
+    db.disconnect()
+  }
+
+  private fun readSessions(db: DataStoreDatabase, query: String): List<Long> {
+    val sessions = mutableListOf<Long>()
+    val result = db.connection.createStatement().executeQuery(query)
+    while (result.next()) {
+      sessions.add(result.getLong(1))
+    }
+    return sessions
   }
 
   @Test
@@ -23,6 +23,7 @@ import org.junit.Test;
 
 import java.io.File;
 import java.sql.Connection;
+import java.sql.DriverManager;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.concurrent.CountDownLatch;
@@ -72,6 +73,65 @@ public class DatabaseTableTest {
     assertThat(resultSet).isInstanceOf(EmptyResultSet.class);
   }
 
+  @Test
+  public void testQueuedWritesAreVisibleToQueries() throws Exception {
+    myTable.insertData(1, 2, 3);
+    assertThat(myTable.getPendingWriteCount()).isEqualTo(3);
+
+    ResultSet resultSet = myTable.readDataRaw();
+    int count = 0;
+    while (resultSet.next()) {
+      count++;
+    }
+    assertThat(count).isEqualTo(3);
+    assertThat(myTable.getPendingWriteCount()).isEqualTo(0);
+    assertThat(myTable.getMaxWriteLagNs()).isAtLeast(myTable.getLastWriteLagNs());
+  }
+
+  @Test
+  public void testDisconnectFlushesAndCommitsRegisteredTables() throws Exception {
+    ThreadTestTable table = new ThreadTestTable();
+    table.initialize(myDatabase);
+    table.insertData(1, 2);
+    myDatabase.disconnect();
+    assertThat(myDatabase.getPendingWriteCount()).isEqualTo(0);
+
+    try (Connection connection = DriverManager.getConnection(String.format("jdbc:sqlite:%s", myDbFile.getAbsolutePath()));
+         ResultSet resultSet = connection.createStatement().executeQuery("SELECT COUNT(*) FROM Thread_Table")) {
+      assertThat(resultSet.getInt(1)).isEqualTo(2);
+    }
+  }
+
+  @Test
+  public void testFailedFlushIsRolledBack() throws Exception {
+    myTable.insertData(1, 2);
+    myTable.readDataRaw();
+    // The last write breaks the check of the column, none of the writes queued with it are applied.
+    myTable.insertData(3, 4, -1);
+    myTable.flush();
+    assertThat(myTable.getPendingWriteCount()).isEqualTo(0);
+    assertThat(countRows(myTable.readDataRaw())).isEqualTo(2);
+  }
+
+  @Test
+  public void testQueriesSeeWritesQueuedInOtherTables() throws Exception {
+    ThreadTestTable writer = new ThreadTestTable();
+    writer.initialize(myDatabase);
+    ThreadTestTable reader = new ThreadTestTable();
+    reader.initialize(myDatabase);
+    writer.insertData(1, 2);
+    assertThat(countRows(reader.readDataRaw())).isEqualTo(2);
+    assertThat(writer.getPendingWriteCount()).isEqualTo(0);
+  }
+
+  private static int countRows(@NotNull ResultSet resultSet) throws SQLException {
+    int count = 0;
+    while (resultSet.next()) {
+      count++;
+    }
+    return count;
+  }
+
   @Test
   public void testThreadMultiThreadExecute() throws Exception {
     // Insert some fake data
@@ -159,7 +219,7 @@ public class DatabaseTableTest {
     public void initialize(@NotNull Connection connection) {
       super.initialize(connection);
       try {
-        createTable("Thread_Table", "DataColumn INTEGER");
+        createTable("Thread_Table", "DataColumn INTEGER CHECK (DataColumn >= 0)");
       }
       catch (SQLException ex) {
         // Failed to create table.
@@ -561,6 +561,65 @@ public class MemoryLiveAllocationTableTest {
     Truth.assertThat(querySample.getEvents(1)).isEqualTo(alloc4);
   }
 
+  @Test
+  public void testEndedSessionKeepsAllocationDataUntilRetentionDropsIt() throws Exception {
+    AllocationEvent alloc = AllocationEvent.newBuilder()
+      .setAllocData(AllocationEvent.Allocation.newBuilder().setTag(KLASS1_INSTANCE1_TAG).setClassTag(CLASS1)).setTimestamp(0).build();
+    myAllocationTable.insertAllocationData(VALID_SESSION, BatchAllocationSample.newBuilder().addEvents(alloc).build());
+    myAllocationTable.endSession(VALID_SESSION);
+    // The ended session can still be reviewed.
+    Truth.assertThat(myAllocationTable.getSnapshot(VALID_SESSION, 1).getEventsCount()).isEqualTo(1);
+    Truth.assertThat(myAllocationTable.getRetentions().get(0).getRowCount()).isEqualTo(1);
+
+    // Late events of the ended session are dropped.
+    AllocationEvent lateAlloc = AllocationEvent.newBuilder()
+      .setAllocData(AllocationEvent.Allocation.newBuilder().setTag(KLASS1_INSTANCE2_TAG).setClassTag(CLASS1)).setTimestamp(2).build();
+    myAllocationTable.insertAllocationData(VALID_SESSION, BatchAllocationSample.newBuilder().addEvents(lateAlloc).build());
+    Truth.assertThat(myAllocationTable.getSnapshot(VALID_SESSION, 3).getEventsCount()).isEqualTo(1);
+
+    // Once over the limit, the live allocations of the ended session are dropped along with the session.
+    myAllocationTable.setAllocationCountLimit(1);
+    Common.Session otherSession = VALID_SESSION.toBuilder().setSessionId(2L).build();
+    AllocationEvent otherAlloc = AllocationEvent.newBuilder()
+      .setAllocData(AllocationEvent.Allocation.newBuilder().setTag(KLASS2_INSTANCE1_TAG).setClassTag(CLASS2)).setTimestamp(1).build();
+    myAllocationTable.insertAllocationData(otherSession, BatchAllocationSample.newBuilder().addEvents(otherAlloc).build());
+    Truth.assertThat(myAllocationTable.getSnapshot(VALID_SESSION, 3).getEventsCount()).isEqualTo(0);
+    Truth.assertThat(myAllocationTable.getSnapshot(otherSession, 3).getEventsCount()).isEqualTo(1);
+    Truth.assertThat(myAllocationTable.getRetentions().get(0).getRowCount()).isEqualTo(1);
+  }
+
+  @Test
+  public void testPruningSqliteAllocationData() throws Exception {
+    MemoryLiveAllocationTable sqliteTable = new MemoryLiveAllocationTable(MemoryLiveAllocationTable.AllocationBackend.SQLITE);
+    sqliteTable.initialize(myDatabase.getConnection());
+    sqliteTable.setAllocationCountLimit(2);
+
+    AllocationEvent alloc1 = AllocationEvent.newBuilder()
+      .setAllocData(AllocationEvent.Allocation.newBuilder().setTag(KLASS1_INSTANCE1_TAG).setClassTag(CLASS1)).setTimestamp(0).build();
+    AllocationEvent alloc2 = AllocationEvent.newBuilder()
+      .setAllocData(AllocationEvent.Allocation.newBuilder().setTag(KLASS1_INSTANCE2_TAG).setClassTag(CLASS1)).setTimestamp(1).build();
+    AllocationEvent alloc3 = AllocationEvent.newBuilder()
+      .setAllocData(AllocationEvent.Allocation.newBuilder().setTag(KLASS2_INSTANCE1_TAG).setClassTag(CLASS2)).setTimestamp(2).build();
+    sqliteTable.insertAllocationData(VALID_SESSION, BatchAllocationSample.newBuilder()
+      .addEvents(alloc1).addEvents(alloc2).addEvents(alloc3).build());
+    // Over the limit, but live objects are never pruned.
+    Truth.assertThat(sqliteTable.getAllocations(VALID_SESSION, 0, Long.MAX_VALUE).getEventsCount()).isEqualTo(3);
+
+    // Freeing an object whose allocation is unknown doesn't make anything droppable.
+    AllocationEvent unknownDealloc = AllocationEvent.newBuilder()
+      .setFreeData(AllocationEvent.Deallocation.newBuilder().setTag(KLASS2_INSTANCE2_TAG)).setTimestamp(4).build();
+    sqliteTable.insertAllocationData(VALID_SESSION, BatchAllocationSample.newBuilder().addEvents(unknownDealloc).build());
+    Truth.assertThat(sqliteTable.getRetentions().get(0).getSegmentCount()).isEqualTo(0);
+
+    AllocationEvent dealloc1 = AllocationEvent.newBuilder()
+      .setFreeData(AllocationEvent.Deallocation.newBuilder().setTag(KLASS1_INSTANCE1_TAG)).setTimestamp(5).build();
+    sqliteTable.insertAllocationData(VALID_SESSION, BatchAllocationSample.newBuilder().addEvents(dealloc1).build());
+    BatchAllocationSample querySample = sqliteTable.getAllocations(VALID_SESSION, 0, Long.MAX_VALUE);
+    Truth.assertThat(querySample.getEventsCount()).isEqualTo(2);
+    Truth.assertThat(querySample.getEvents(0).getAllocData().getTag()).isEqualTo(KLASS1_INSTANCE2_TAG);
+    Truth.assertThat(querySample.getEvents(1).getAllocData().getTag()).isEqualTo(KLASS2_INSTANCE1_TAG);
+  }
+
   @Test
   public void testIgnoreDuplicatedAllocationContext() throws Exception {
     List<StackFrame> methodsToInsert = new ArrayList<>();
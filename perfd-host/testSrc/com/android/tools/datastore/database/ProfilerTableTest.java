@@ -20,6 +20,8 @@ import com.android.tools.datastore.DeviceId;
 import com.android.tools.profiler.proto.Common;
 import com.android.tools.profiler.proto.Profiler.AgentStatusRequest;
 import com.android.tools.profiler.proto.Profiler.AgentStatusResponse;
+import com.android.tools.profiler.proto.Profiler.GetDevicesRequest;
+import com.android.tools.profiler.proto.Profiler.GetProcessesRequest;
 import com.android.tools.profiler.proto.Profiler.GetSessionsRequest;
 import com.android.tools.profiler.proto.Profiler.GetSessionsResponse;
 import com.intellij.openapi.util.io.FileUtil;
@@ -140,4 +142,33 @@ public class ProfilerTableTest {
     myTable.insertOrUpdateProcess(FAKE_DEVICE_ID, process);
     assertThat(myTable.getAgentStatus(request).getStatus()).isEqualTo(AgentStatusResponse.Status.ATTACHED);
   }
-}
\ No newline at end of file
+
+  @Test
+  public void testPreviousRunIsEndedOnReopen() throws Exception {
+    Common.Device device = Common.Device.newBuilder().setDeviceId(FAKE_DEVICE_ID.get()).setState(Common.Device.State.ONLINE).build();
+    Common.Process process = Common.Process.newBuilder().setPid(99).setDeviceId(FAKE_DEVICE_ID.get()).setName("FakeProcess")
+      .setState(Common.Process.State.ALIVE).build();
+    Common.Session session = Common.Session.newBuilder().setSessionId(1).setDeviceId(FAKE_DEVICE_ID.get()).setPid(99)
+      .setStartTimestamp(40).setEndTimestamp(Long.MAX_VALUE).build();
+    Common.Session endedSession = session.toBuilder().setSessionId(2).setEndTimestamp(45).build();
+    myTable.insertOrUpdateDevice(device);
+    myTable.insertOrUpdateProcess(FAKE_DEVICE_ID, process);
+    myTable.updateAgentStatus(FAKE_DEVICE_ID, process, AgentStatusResponse.newBuilder()
+      .setStatus(AgentStatusResponse.Status.ATTACHED).setLastTimestamp(70).build());
+    myTable.insertOrUpdateSession(session);
+    myTable.insertOrUpdateSession(endedSession);
+    myTable.flush();
+    myDatabase.disconnect();
+
+    // Reopening the same file keeps the sessions, and nothing from the previous run is alive anymore.
+    myDatabase = new DataStoreDatabase(myDbFile.getAbsolutePath(), DataStoreDatabase.Characteristic.DURABLE);
+    myTable = new ProfilerTable();
+    myTable.initialize(myDatabase.getConnection());
+    assertThat(myTable.getSessions(GetSessionsRequest.getDefaultInstance()).getSessionsList())
+      .containsExactly(session.toBuilder().setEndTimestamp(70).build(), endedSession).inOrder();
+    assertThat(myTable.getDevices(GetDevicesRequest.getDefaultInstance()).getDeviceList())
+      .containsExactly(device.toBuilder().setState(Common.Device.State.DISCONNECTED).build());
+    assertThat(myTable.getProcesses(GetProcessesRequest.newBuilder().setDeviceId(FAKE_DEVICE_ID.get()).build()).getProcessList())
+      .containsExactly(process.toBuilder().setState(Common.Process.State.DEAD).build());
+  }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.datastore.database;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public class TableRetentionTest {
+  private static final long SEGMENT_NS = 10;
+
+  private final List<String> myDrops = new ArrayList<>();
+
+  @Test
+  public void testDropsOldestSegmentsAcrossSessionsOverRowCount() {
+    TableRetention retention = createRetention(RetentionPolicy.UNLIMITED.withMaxRowCount(4));
+    retention.recordRows(1, 25, 2, 0);
+    retention.recordRows(2, 5, 2, 0);
+    retention.recordRows(1, 12, 2, 0);
+    assertThat(retention.getSegmentCount()).isEqualTo(3);
+
+    // 6 rows for a budget of 4, dropping session 2's segment [0, 10) is enough.
+    assertThat(retention.enforce()).isEqualTo(2);
+    assertThat(myDrops).containsExactly("2:10");
+    assertThat(retention.getRowCount()).isEqualTo(4);
+    assertThat(retention.getSegmentCount()).isEqualTo(2);
+
+    retention.recordRows(2, 31, 1, 0);
+    assertThat(retention.enforce()).isEqualTo(2);
+    assertThat(myDrops).containsExactly("2:10", "1:20").inOrder();
+    assertThat(retention.getDroppedRowCount()).isEqualTo(4);
+    assertThat(retention.getDroppedSegmentCount()).isEqualTo(2);
+  }
+
+  @Test
+  public void testRowsNotYetDroppableCountTowardsTheBudget() {
+    TableRetention retention = createRetention(RetentionPolicy.UNLIMITED.withMaxRowCount(2));
+    retention.addRows(3, 0);
+    // Over budget but nothing can be dropped.
+    assertThat(retention.enforce()).isEqualTo(0);
+    assertThat(myDrops).isEmpty();
+
+    retention.markDroppable(1, 42, 0);
+    assertThat(retention.enforce()).isEqualTo(2);
+    assertThat(myDrops).containsExactly("1:50");
+  }
+
+  @Test
+  public void testDropsByAgeAndBytes() {
+    TableRetention retention = createRetention(RetentionPolicy.UNLIMITED.withMaxAgeNs(20));
+    retention.recordRows(1, 0, 2, 0);
+    retention.recordRows(1, 15, 2, 0);
+    retention.recordRows(1, 40, 2, 0);
+    // Segments ending at or before 40 - 20 are too old.
+    assertThat(retention.enforce()).isEqualTo(4);
+    assertThat(myDrops).containsExactly("1:10", "1:20").inOrder();
+
+    myDrops.clear();
+    retention.setPolicy(RetentionPolicy.UNLIMITED.withMaxBytes(100));
+    retention.recordRows(1, 45, 2, 80);
+    assertThat(retention.enforce()).isEqualTo(0);
+    retention.recordRows(1, 55, 2, 80);
+    assertThat(retention.enforce()).isEqualTo(2);
+    assertThat(myDrops).containsExactly("1:50");
+    assertThat(retention.getBytes()).isEqualTo(80);
+  }
+
+  @Test
+  public void testAgeIsMeasuredPerSession() {
+    TableRetention retention = createRetention(RetentionPolicy.UNLIMITED.withMaxAgeNs(20));
+    // The sessions are of devices whose clocks are far apart.
+    retention.recordRows(1, 0, 2, 0);
+    retention.recordRows(2, 1000, 2, 0);
+    assertThat(retention.enforce()).isEqualTo(0);
+
+    retention.recordRows(2, 1040, 2, 0);
+    assertThat(retention.enforce()).isEqualTo(2);
+    assertThat(myDrops).containsExactly("2:1010");
+    assertThat(retention.getSegmentCount()).isEqualTo(2);
+  }
+
+  private TableRetention createRetention(RetentionPolicy policy) {
+    // Every segment holds two rows in these tests.
+    return new TableRetention("Test", policy, (sessionId, endTime) -> {
+      myDrops.add(sessionId + ":" + endTime);
+      return 2;
+    }, SEGMENT_NS);
+  }
+}
@@ -0,0 +1,198 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.datastore.poller;
+
+import io.grpc.Status;
+import org.jetbrains.annotations.NotNull;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public class PollSchedulerTest {
+  private static final long TEST_PERIOD_NS = TimeUnit.MILLISECONDS.toNanos(1);
+
+  private final PollScheduler myScheduler = new PollScheduler(4);
+
+  @After
+  public void tearDown() {
+    myScheduler.shutdown();
+  }
+
+  @Test
+  public void testPollsUntilStopped() throws Exception {
+    CountingRunner runner = new CountingRunner("A", TEST_PERIOD_NS, 10);
+    myScheduler.schedule(runner);
+    assertThat(runner.myPolled.await(5, TimeUnit.SECONDS)).isTrue();
+    assertThat(myScheduler.getRunnerCount()).isEqualTo(1);
+
+    runner.stop();
+    assertThat(runner.isDone()).isTrue();
+    int polls = runner.myPollCount.get();
+    Thread.sleep(20);
+    assertThat(runner.myPollCount.get()).isEqualTo(polls);
+    assertThat(myScheduler.getRunnerCount()).isEqualTo(0);
+    assertThat(myScheduler.getGroupCount()).isEqualTo(0);
+  }
+
+  @Test
+  public void testStopsWithoutWaitingForNextPoll() {
+    CountingRunner runner = new CountingRunner("A", TimeUnit.HOURS.toNanos(1), 1);
+    myScheduler.schedule(runner);
+    long startNs = System.nanoTime();
+    runner.stop();
+    assertThat(runner.isDone()).isTrue();
+    assertThat(System.nanoTime() - startNs).isLessThan(TimeUnit.SECONDS.toNanos(5));
+  }
+
+  @Test
+  public void testPollsOneRunnerOfAGroupAtATime() throws Exception {
+    AtomicBoolean overlapped = new AtomicBoolean();
+    AtomicInteger polling = new AtomicInteger();
+    CountingRunner[] sameSession = new CountingRunner[3];
+    for (int i = 0; i < sameSession.length; i++) {
+      sameSession[i] = new CountingRunner("Session", TEST_PERIOD_NS, 10) {
+        @Override
+        public void poll() {
+          if (polling.incrementAndGet() > 1) {
+            overlapped.set(true);
+          }
+          try {
+            Thread.sleep(1);
+          }
+          catch (InterruptedException ignored) {
+          }
+          polling.decrementAndGet();
+          super.poll();
+        }
+      };
+      myScheduler.schedule(sameSession[i]);
+    }
+    CountingRunner other = new CountingRunner("Other", TEST_PERIOD_NS, 10);
+    myScheduler.schedule(other);
+    assertThat(myScheduler.getGroupCount()).isEqualTo(2);
+
+    for (CountingRunner runner : sameSession) {
+      assertThat(runner.myPolled.await(5, TimeUnit.SECONDS)).isTrue();
+    }
+    assertThat(other.myPolled.await(5, TimeUnit.SECONDS)).isTrue();
+    assertThat(overlapped.get()).isFalse();
+  }
+
+  @Test
+  public void testBlockedPollDoesNotStarveOtherGroups() throws Exception {
+    PollScheduler scheduler = new PollScheduler(1);
+    CountDownLatch release = new CountDownLatch(1);
+    try {
+      CountingRunner blocked = new CountingRunner("Blocked", TEST_PERIOD_NS, 1) {
+        @Override
+        public void poll() {
+          super.poll();
+          try {
+            release.await();
+          }
+          catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+        }
+      };
+      scheduler.schedule(blocked);
+      assertThat(blocked.myPolled.await(5, TimeUnit.SECONDS)).isTrue();
+
+      // The only thread of the pool is stuck in the first runner's poll.
+      CountingRunner other = new CountingRunner("Other", TEST_PERIOD_NS, 10);
+      scheduler.schedule(other);
+      assertThat(other.myPolled.await(5, TimeUnit.SECONDS)).isTrue();
+    }
+    finally {
+      release.countDown();
+      scheduler.shutdown();
+    }
+  }
+
+  @Test
+  public void testKeepsPollingPastDeadline() throws Exception {
+    CountingRunner slow = new CountingRunner("Slow", TEST_PERIOD_NS, 3) {
+      @Override
+      public void poll() {
+        super.poll();
+        throw Status.DEADLINE_EXCEEDED.asRuntimeException();
+      }
+    };
+    myScheduler.schedule(slow);
+    assertThat(slow.myPolled.await(5, TimeUnit.SECONDS)).isTrue();
+    assertThat(slow.getNextPollDelayNs()).isGreaterThan(TEST_PERIOD_NS);
+
+    CountingRunner gone = new CountingRunner("Gone", TEST_PERIOD_NS, 1) {
+      @Override
+      public void poll() {
+        super.poll();
+        throw Status.UNAVAILABLE.asRuntimeException();
+      }
+    };
+    myScheduler.schedule(gone);
+    assertThat(gone.myPolled.await(5, TimeUnit.SECONDS)).isTrue();
+    gone.get(5, TimeUnit.SECONDS);
+    assertThat(gone.isDone()).isTrue();
+    assertThat(gone.myPollCount.get()).isEqualTo(1);
+  }
+
+  @Test
+  public void testAdaptivePollDelay() {
+    CountingRunner runner = new CountingRunner("A", PollRunner.POLLING_DELAY_NS, 1);
+    assertThat(runner.getNextPollDelayNs()).isEqualTo(PollRunner.POLLING_DELAY_NS);
+    runner.setHasNewData(false);
+    assertThat(runner.getNextPollDelayNs()).isEqualTo(PollRunner.POLLING_DELAY_NS * 2);
+    for (int i = 0; i < 10; i++) {
+      runner.setHasNewData(false);
+    }
+    assertThat(runner.getNextPollDelayNs()).isEqualTo(PollRunner.MAX_IDLE_POLLING_DELAY_NS);
+    runner.setCapturing(true);
+    assertThat(runner.getNextPollDelayNs()).isEqualTo(PollRunner.POLLING_DELAY_NS / 2);
+    runner.setCapturing(false);
+    runner.setHasNewData(true);
+    assertThat(runner.getNextPollDelayNs()).isEqualTo(PollRunner.POLLING_DELAY_NS);
+  }
+
+  private static class CountingRunner extends PollRunner {
+    @NotNull private final Object myGroup;
+    private final AtomicInteger myPollCount = new AtomicInteger();
+    private final CountDownLatch myPolled;
+
+    CountingRunner(@NotNull Object group, long pollPeriodNs, int pollsToWaitFor) {
+      super(pollPeriodNs);
+      myGroup = group;
+      myPolled = new CountDownLatch(pollsToWaitFor);
+    }
+
+    @NotNull
+    @Override
+    public Object getSchedulingGroup() {
+      return myGroup;
+    }
+
+    @Override
+    public void poll() {
+      myPollCount.incrementAndGet();
+      myPolled.countDown();
+    }
+  }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.datastore.poller;
+
+import org.jetbrains.annotations.NotNull;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.BinaryOperator;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public class SampleStreamTest {
+  @Test
+  public void testWritesInlineWithoutWriter() {
+    List<Integer> written = new ArrayList<>();
+    SampleStream<Integer> stream = new SampleStream<>("Test", written::add, null, SampleStream.keepLatest());
+    stream.onNext(1);
+    stream.onNext(2);
+    assertThat(written).containsExactly(1, 2).inOrder();
+    assertThat(stream.getMaxQueueDepth()).isEqualTo(0);
+  }
+
+  @Test
+  public void testKeepLatestDropsOverflowWithoutBlocking() throws Exception {
+    List<Integer> written = writeWhileWriterIsBlocked(SampleStream.keepLatest());
+    // The writer holds 0 and the queue 1 and 2, everything after that overflows and only the last one is kept.
+    assertThat(written).containsExactly(0, 1, 2, 9).inOrder();
+  }
+
+  @Test
+  public void testMergingPolicyKeepsEverySample() throws Exception {
+    List<Integer> written = writeWhileWriterIsBlocked((older, newer) -> older * 10 + newer);
+    assertThat(written).containsExactly(0, 1, 2, 3456789).inOrder();
+  }
+
+  @Test
+  public void testFailedSampleDoesNotStopTheStream() {
+    List<Integer> written = new ArrayList<>();
+    SampleStream<Integer> stream = new SampleStream<>("Test", sample -> {
+      if (sample == 1) {
+        throw new IllegalStateException();
+      }
+      written.add(sample);
+    }, Runnable::run, SampleStream.keepLatest());
+    stream.onNext(0);
+    stream.onNext(1);
+    stream.onNext(2);
+    stream.onCompleted();
+    assertThat(written).containsExactly(0, 2).inOrder();
+  }
+
+  /**
+   * Sends 0 to 9 through a stream with a queue of 2 while its writer is stuck on the first sample.
+   */
+  private static List<Integer> writeWhileWriterIsBlocked(@NotNull BinaryOperator<Integer> overflowPolicy) throws Exception {
+    CountDownLatch release = new CountDownLatch(1);
+    List<Integer> written = Collections.synchronizedList(new ArrayList<>());
+    ExecutorService writer = Executors.newSingleThreadExecutor();
+    try {
+      SampleStream<Integer> stream = new SampleStream<>("Test", sample -> {
+        try {
+          release.await();
+        }
+        catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+        written.add(sample);
+      }, writer, overflowPolicy, 2);
+
+      stream.onNext(0);
+      // Wait for the writer to take the first sample, so that it no longer counts against the queue.
+      while (stream.getQueueDepth() > 0) {
+        Thread.sleep(1);
+      }
+      for (int i = 1; i < 10; i++) {
+        stream.onNext(i);
+      }
+      // None of this waited on the writer.
+      assertThat(written).isEmpty();
+      assertThat(stream.getQueueDepth()).isEqualTo(3);
+      assertThat(stream.getOverflowCount()).isEqualTo(7L);
+
+      release.countDown();
+      stream.onCompleted();
+      assertThat(stream.getQueueDepth()).isEqualTo(0);
+      assertThat(stream.getMaxQueueDepth()).isEqualTo(2);
+      assertThat(stream.isCompleted()).isTrue();
+      return written;
+    }
+    finally {
+      writer.shutdownNow();
+    }
+  }
+}
@@ -16,6 +16,7 @@
 package com.android.tools.idea.profilers;
 
 import com.android.tools.datastore.DataStoreService;
+import com.android.tools.datastore.poller.PollScheduler;
 import com.android.tools.idea.sdk.IdeSdks;
 import com.android.tools.profilers.ProfilerClient;
 import com.intellij.openapi.Disposable;
@@ -46,8 +47,8 @@ public class ProfilerService implements Disposable {
 
   private ProfilerService() {
     String datastoreDirectory = Paths.get(System.getProperty("user.home"), ".android").toString() + File.separator;
-    myDataStoreService =
-      new DataStoreService(DATASTORE_NAME, datastoreDirectory, ApplicationManager.getApplication()::executeOnPooledThread);
+    myDataStoreService = new DataStoreService(DATASTORE_NAME, datastoreDirectory, ApplicationManager.getApplication()::executeOnPooledThread,
+                                              null, new PollScheduler());
     myManager = new StudioProfilerDeviceManager(myDataStoreService);
     myClient = new ProfilerClient(DATASTORE_NAME);
     IdeSdks.subscribe(myManager, this);
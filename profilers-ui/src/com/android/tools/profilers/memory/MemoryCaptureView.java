@@ -19,8 +19,10 @@ import com.android.tools.adtui.TabularLayout;
 import com.android.tools.adtui.flat.FlatButton;
 import com.android.tools.adtui.flat.FlatSeparator;
 import com.android.tools.adtui.model.AspectObserver;
+import com.android.tools.profiler.proto.MemoryProfiler.HeapDumpInfo;
 import com.android.tools.profilers.IdeProfilerComponents;
 import com.android.tools.profilers.memory.adapters.CaptureObject;
+import com.android.tools.profilers.memory.adapters.HeapDumpCaptureObject;
 import com.google.common.annotations.VisibleForTesting;
 import com.intellij.icons.AllIcons;
 import com.intellij.openapi.diagnostic.Logger;
@@ -40,8 +42,12 @@ public final class MemoryCaptureView extends AspectObserver {
 
   @NotNull private final JLabel myLabel;
 
+  @NotNull private final JLabel myAnalysisLabel;
+
   @NotNull private final JButton myExportButton;
 
+  @NotNull private final JButton myCompareButton;
+
   @NotNull private final JPanel myPanel;
 
   @Nullable private CaptureObject myCaptureObject = null;
@@ -50,19 +56,28 @@ public final class MemoryCaptureView extends AspectObserver {
     myStage = stage;
     myStage.getAspect().addDependency(this)
       .onChange(MemoryProfilerAspect.CURRENT_LOADING_CAPTURE, this::reset)
-      .onChange(MemoryProfilerAspect.CURRENT_LOADED_CAPTURE, this::refresh);
+      .onChange(MemoryProfilerAspect.CURRENT_LOADED_CAPTURE, this::refresh)
+      .onChange(MemoryProfilerAspect.CURRENT_CAPTURE_ANALYSIS, this::refreshAnalysis)
+      .onChange(MemoryProfilerAspect.CURRENT_HEAP_CONTENTS, this::refreshAnalysis);
 
-    myPanel = new JPanel(new TabularLayout("Fit,Fit,Fit,Fit", "*"));
+    myPanel = new JPanel(new TabularLayout("Fit,Fit,Fit,Fit,Fit,Fit", "*"));
 
     myLabel = new JLabel();
     myLabel.setBorder(BorderFactory.createEmptyBorder(0, 3, 0, 3));
 
+    myAnalysisLabel = new JLabel();
+    myAnalysisLabel.setBorder(BorderFactory.createEmptyBorder(0, 3, 0, 3));
+
     myExportButton = new FlatButton(AllIcons.ToolbarDecorator.Export);
     myExportButton.setToolTipText("Export capture to file");
     myExportButton.addActionListener(e -> ideProfilerComponents.createExportDialog().open(
       () -> "Export As",
       this::getFileExtension,
       file -> stage.getStudioProfilers().getIdeServices().saveFile(file, this::saveToFile, null)));
+
+    myCompareButton = new FlatButton(AllIcons.Actions.Diff);
+    myCompareButton.setToolTipText("Compare with previous heap dump");
+    myCompareButton.addActionListener(e -> compareWithPreviousHeapDump());
     reset();
   }
 
@@ -72,6 +87,18 @@ public final class MemoryCaptureView extends AspectObserver {
     return myLabel;
   }
 
+  @VisibleForTesting
+  @NotNull
+  JLabel getAnalysisLabel() {
+    return myAnalysisLabel;
+  }
+
+  @VisibleForTesting
+  @NotNull
+  JButton getCompareButton() {
+    return myCompareButton;
+  }
+
   @NotNull
   JComponent getComponent() {
     return myPanel;
@@ -80,6 +107,7 @@ public final class MemoryCaptureView extends AspectObserver {
   private void reset() {
     myPanel.removeAll();
     myLabel.setText("");
+    myAnalysisLabel.setText("");
     myCaptureObject = myStage.getSelectedCapture();
     myExportButton.setEnabled(false);
   }
@@ -97,6 +125,41 @@ public final class MemoryCaptureView extends AspectObserver {
       myLabel.setText(myCaptureObject.getName());
       myPanel.add(myLabel, new TabularLayout.Constraint(0, 2));
       myPanel.add(new FlatSeparator(), new TabularLayout.Constraint(0, 3));
+      myPanel.add(myAnalysisLabel, new TabularLayout.Constraint(0, 4));
+      refreshAnalysis();
+      if (myCaptureObject instanceof HeapDumpCaptureObject) {
+        myCompareButton.setEnabled(myStage.getPreviousHeapDumpInfo() != null);
+        myPanel.add(myCompareButton, new TabularLayout.Constraint(0, 5));
+      }
+    }
+  }
+
+  private void refreshAnalysis() {
+    if (!(myCaptureObject instanceof HeapDumpCaptureObject) || myCaptureObject != myStage.getSelectedCapture()) {
+      myAnalysisLabel.setText("");
+      return;
+    }
+
+    HeapDumpCaptureObject heapDump = (HeapDumpCaptureObject)myCaptureObject;
+    if (heapDump.isDominatorTreeFailed()) {
+      myAnalysisLabel.setText("Retained sizes unavailable");
+    }
+    else if (heapDump.isDominatorTreeComputing()) {
+      myAnalysisLabel.setText(String.format("Computing retained sizes: %d%%", (int)(heapDump.getDominatorTreeProgress() * 100)));
+    }
+    else {
+      myAnalysisLabel.setText("");
+    }
+  }
+
+  private void compareWithPreviousHeapDump() {
+    if (!(myCaptureObject instanceof HeapDumpCaptureObject)) {
+      return;
+    }
+
+    HeapDumpInfo previous = myStage.getPreviousHeapDumpInfo();
+    if (previous != null) {
+      myStage.selectHeapDumpDiff(previous, ((HeapDumpCaptureObject)myCaptureObject).getHeapDumpInfo(), SwingUtilities::invokeLater);
     }
   }
 
@@ -45,10 +45,15 @@ import java.util.stream.Stream;
 import static com.android.tools.adtui.common.AdtUiUtils.DEFAULT_TOP_BORDER;
 import static com.android.tools.profilers.ProfilerLayout.ROW_HEIGHT_PADDING;
 import static com.android.tools.profilers.ProfilerLayout.TABLE_ROW_BORDER;
+import static com.android.tools.profilers.memory.adapters.MemoryObject.INVALID_VALUE;
 
 final class MemoryClassSetView extends AspectObserver {
   private static final int LABEL_COLUMN_WIDTH = 500;
   private static final int DEFAULT_COLUMN_WIDTH = 80;
+  /**
+   * Shown as the depth of heap dump instances until their depths are computed.
+   */
+  static final String UNKNOWN_DEPTH_TEXT = "unknown";
 
   @NotNull private final MemoryProfilerStage myStage;
 
@@ -117,9 +122,12 @@ final class MemoryClassSetView extends AspectObserver {
         () -> new SimpleColumnRenderer<>(value -> {
           MemoryObject node = value.getAdapter();
           if (node instanceof ValueObject) {
-            ValueObject valueObject = (ValueObject)node;
-            if (valueObject.getDepth() >= 0 && valueObject.getDepth() < Integer.MAX_VALUE) {
-              return Integer.toString(valueObject.getDepth());
+            int depth = ((ValueObject)node).getDepth();
+            if (depth == INVALID_VALUE) {
+              return UNKNOWN_DEPTH_TEXT;
+            }
+            if (depth >= 0 && depth < Integer.MAX_VALUE) {
+              return Integer.toString(depth);
             }
           }
           return "";
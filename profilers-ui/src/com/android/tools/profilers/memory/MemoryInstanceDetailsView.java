@@ -120,6 +120,9 @@ final class MemoryInstanceDetailsView extends AspectObserver {
         "Depth",
         () -> new SimpleColumnRenderer<ValueObject>(value -> {
           int depth = value.getAdapter().getDepth();
+          if (depth == INVALID_VALUE) {
+            return MemoryClassSetView.UNKNOWN_DEPTH_TEXT;
+          }
           if (depth >= 0 && depth < Integer.MAX_VALUE) {
             return Integer.toString(depth);
           }
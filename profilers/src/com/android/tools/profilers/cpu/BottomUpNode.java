@@ -19,6 +19,7 @@ import com.android.tools.adtui.model.Range;
 import com.android.tools.profilers.cpu.nodemodel.CaptureNodeModel;
 import com.android.tools.profilers.cpu.nodemodel.SingleNameModel;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import java.util.*;
 
@@ -28,6 +29,11 @@ public class BottomUpNode extends CpuTreeNode<BottomUpNode> {
   private final boolean myIsRoot;
   private boolean myChildrenBuilt;
 
+  /**
+   * Index of the nodes at the top of the call stack, see {@link #update(Range)}.
+   */
+  @Nullable private IntervalIndex myOuterIntervals;
+
   private BottomUpNode(String id) {
     super(id);
     myIsRoot = false;
@@ -42,14 +48,14 @@ public class BottomUpNode extends CpuTreeNode<BottomUpNode> {
     List<CaptureNode> allNodes = new ArrayList<>();
     // Pre-order traversal with Stack.
     // The traversal will sort nodes by CaptureNode#getStart(), if they'll be equal then ancestor will come first.
-    Stack<CaptureNode> stack = new Stack<>();
-    stack.add(node);
+    Deque<CaptureNode> stack = new ArrayDeque<>();
+    stack.push(node);
     while (!stack.isEmpty()) {
       CaptureNode curNode = stack.pop();
       allNodes.add(curNode);
       // Adding in reverse order so that the first child is processed first
       for (int i = curNode.getChildren().size() - 1; i >= 0; --i) {
-        stack.add(curNode.getChildren().get(i));
+        stack.push(curNode.getChildren().get(i));
       }
     }
 
@@ -127,39 +133,36 @@ public class BottomUpNode extends CpuTreeNode<BottomUpNode> {
 
   @Override
   public void update(@NotNull Range range) {
+    validateIntervals();
+    assert myOuterIntervals != null;
     // how much time was spent in this call stack path, and in the functions it called
-    myTotal = 0;
+    myTotal = myOuterIntervals.getIntersectionLength(range);
     // how much time was spent doing work directly in this call stack path
-    double self = 0;
+    double self = getNodeIntervals().getIntersectionLength(range) - getChildIntervals().getIntersectionLength(range);
+    myChildrenTotal = myTotal - self;
+  }
+
+  @Override
+  protected void buildIntervals() {
+    super.buildIntervals();
 
     // The node that is at the top of the call stack, e.g if the call stack looks like B [0..30] -> B [1..20],
     // then the second method can't be outerSoFar.
     // It's used to exclude nodes which aren't at the top of the
     // call stack from the total time calculation.
     CaptureNode outerSoFar = null;
+    List<CaptureNode> outerNodes = new ArrayList<>();
 
     // myNodes is sorted by CaptureNode#getStart() in increasing order,
     // if they are equal then ancestor comes first
     for (CaptureNode node : myNodes) {
       if (outerSoFar == null || node.getEnd() > outerSoFar.getEnd()) {
-        if (outerSoFar != null) {
-          // |outerSoFar| is at the top of the call stack
-          myTotal += getIntersection(range, outerSoFar);
-        }
         outerSoFar = node;
-      }
-
-      self += getIntersection(range, node);
-      for (CaptureNode child : node.getChildren()) {
-        self -= getIntersection(range, child);
+        // |outerSoFar| is at the top of the call stack
+        outerNodes.add(outerSoFar);
       }
     }
-
-    if (outerSoFar != null) {
-      // |outerSoFar| is at the top of the call stack
-      myTotal += getIntersection(range, outerSoFar);
-    }
-    myChildrenTotal = myTotal - self;
+    myOuterIntervals = indexIntervals(outerNodes);
   }
 
   @NotNull
@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.profilers.cpu;
+
+import com.android.tools.profilers.cpu.nodemodel.CaptureNodeModel;
+import gnu.trove.TIntArrayList;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.*;
+import java.util.regex.Pattern;
+import java.util.stream.IntStream;
+
+/**
+ * Index of the nodes of a {@link CaptureNode} tree by method name, to apply filters to it.
+ *
+ * The tree is flattened in pre-order once, with the parent and the distinct full name of each node. A filter is then evaluated once per
+ * distinct name, in parallel, and the {@link CaptureNode.FilterType} of the nodes are computed with two passes over the arrays instead
+ * of matching the filter against every node recursively.
+ */
+final class CaptureFilterIndex {
+  private static final int NO_NAME = -1;
+
+  @NotNull private final CaptureNode myRoot;
+
+  /**
+   * The nodes of the tree in pre-order, so a node's parent and ancestors come before it.
+   */
+  @NotNull private final CaptureNode[] myNodes;
+  @NotNull private final int[] myParents;
+  /**
+   * Index of each node's full name in {@link #myNames}, or {@link #NO_NAME} if the node has no data.
+   */
+  @NotNull private final int[] myNameIds;
+  @NotNull private final String[] myNames;
+
+  CaptureFilterIndex(@NotNull CaptureNode root) {
+    myRoot = root;
+    List<CaptureNode> nodes = new ArrayList<>();
+    TIntArrayList parents = new TIntArrayList();
+    Deque<CaptureNode> stack = new ArrayDeque<>();
+    // Index of the parent of each node in the stack.
+    TIntArrayList parentStack = new TIntArrayList();
+    stack.push(root);
+    parentStack.add(-1);
+    while (!stack.isEmpty()) {
+      CaptureNode node = stack.pop();
+      int index = nodes.size();
+      nodes.add(node);
+      parents.add(parentStack.remove(parentStack.size() - 1));
+      // Adding in reverse order so that the first child is processed first
+      for (int i = node.getChildren().size() - 1; i >= 0; --i) {
+        stack.push(node.getChildren().get(i));
+        parentStack.add(index);
+      }
+    }
+
+    myNodes = nodes.toArray(new CaptureNode[0]);
+    myParents = parents.toNativeArray();
+    myNameIds = new int[myNodes.length];
+    // Nodes of the same method usually share their model, which saves computing and hashing the name for each of them.
+    Map<CaptureNodeModel, Integer> modelNameIds = new IdentityHashMap<>();
+    Map<String, Integer> nameIds = new HashMap<>();
+    for (int i = 0; i < myNodes.length; i++) {
+      CaptureNodeModel model = myNodes[i].getData();
+      if (model == null) {
+        myNameIds[i] = NO_NAME;
+        continue;
+      }
+      Integer nameId = modelNameIds.get(model);
+      if (nameId == null) {
+        nameId = nameIds.computeIfAbsent(model.getFullName(), name -> nameIds.size());
+        modelNameIds.put(model, nameId);
+      }
+      myNameIds[i] = nameId;
+    }
+    myNames = new String[nameIds.size()];
+    nameIds.forEach((name, id) -> myNames[id] = name);
+  }
+
+  @NotNull
+  CaptureNode getRoot() {
+    return myRoot;
+  }
+
+  int getNodeCount() {
+    return myNodes.length;
+  }
+
+  /**
+   * Sets the {@link CaptureNode.FilterType} of every node of the tree for {@code filter}, see {@link CaptureNode#matchesToFilter}.
+   *
+   * @return the number of nodes which match the filter.
+   */
+  int applyFilter(@Nullable Pattern filter) {
+    boolean[] nameMatches = new boolean[myNames.length];
+    IntStream.range(0, myNames.length).parallel().forEach(i -> nameMatches[i] = filter == null || filter.matcher(myNames[i]).matches());
+
+    int n = myNodes.length;
+    int exactMatchCount = 0;
+    boolean[] exactMatches = new boolean[n];
+    // Whether the node or one of its ancestors matches.
+    boolean[] matches = new boolean[n];
+    for (int i = 0; i < n; i++) {
+      exactMatches[i] = myNameIds[i] == NO_NAME ? filter == null : nameMatches[myNameIds[i]];
+      if (exactMatches[i]) {
+        exactMatchCount++;
+      }
+      matches[i] = exactMatches[i] || (myParents[i] >= 0 && matches[myParents[i]]);
+    }
+
+    // Whether the node or one of its descendants matches. Descendants come after their ancestors, so iterating backwards visits the
+    // children of a node before it.
+    boolean[] subtreeMatches = new boolean[n];
+    for (int i = n - 1; i >= 0; i--) {
+      subtreeMatches[i] |= exactMatches[i];
+      if (subtreeMatches[i] && myParents[i] >= 0) {
+        subtreeMatches[myParents[i]] = true;
+      }
+    }
+
+    for (int i = 0; i < n; i++) {
+      if (!matches[i] && !subtreeMatches[i]) {
+        myNodes[i].setFilterType(CaptureNode.FilterType.UNMATCH);
+      }
+      else if (exactMatches[i] && filter != null) {
+        myNodes[i].setFilterType(CaptureNode.FilterType.EXACT_MATCH);
+      }
+      else {
+        myNodes[i].setFilterType(CaptureNode.FilterType.MATCH);
+      }
+    }
+    return exactMatchCount;
+  }
+}
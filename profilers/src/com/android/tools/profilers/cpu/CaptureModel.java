@@ -66,6 +66,12 @@ class CaptureModel {
 
   private int myFilterNodeCount;
 
+  /**
+   * Index of the tree of the selected thread, used to apply {@link #myFilter} to it.
+   */
+  @Nullable
+  private CaptureFilterIndex myFilterIndex;
+
   /**
    * Reference to a selection range converted to ClockType.THREAD.
    */
@@ -170,7 +176,14 @@ class CaptureModel {
     if (type != null) {
       CaptureNode node = getNode();
       if (node != null) {
-        applyFilter(node, false);
+        if (myFilterIndex == null || myFilterIndex.getRoot() != node) {
+          myFilterIndex = new CaptureFilterIndex(node);
+        }
+        myTotalNodeCount = myFilterIndex.getNodeCount();
+        myFilterNodeCount = myFilterIndex.applyFilter(myFilter);
+      }
+      else {
+        myFilterIndex = null;
       }
       myDetails = type.build(myCaptureConvertedRange, node);
     }
@@ -194,38 +207,6 @@ class CaptureModel {
     return myFilterNodeCount;
   }
 
-  /**
-   * Applies the current filter {@link #myFilter} to the {@param node}.
-   *
-   * @param node    - a node to apply the current filter
-   * @param matches - whether there is a match to the filter in one of its ancestors.
-   */
-  private void applyFilter(@NotNull CaptureNode node, boolean matches) {
-    boolean nodeExactMatch = node.matchesToFilter(myFilter);
-    matches = matches || nodeExactMatch;
-    boolean allChildrenUnmatch = true;
-    myTotalNodeCount++;
-    if (nodeExactMatch) {
-      myFilterNodeCount++;
-    }
-    for (CaptureNode child : node.getChildren()) {
-      applyFilter(child, matches);
-      if (!child.isUnmatched()) {
-        allChildrenUnmatch = false;
-      }
-    }
-
-    if (!matches && allChildrenUnmatch) {
-      node.setFilterType(CaptureNode.FilterType.UNMATCH);
-    }
-    else if (nodeExactMatch && myFilter != null) {
-      node.setFilterType(CaptureNode.FilterType.EXACT_MATCH);
-    }
-    else {
-      node.setFilterType(CaptureNode.FilterType.MATCH);
-    }
-  }
-
   /**
    * When using ClockType.THREAD, we need to scale the selection to actually select a relevant range in the capture.
    * That happens because selection is based on wall-clock time, which is usually way greater than thread time.
@@ -22,6 +22,7 @@ import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.regex.Pattern;
 
@@ -49,8 +50,11 @@ public class CaptureNode implements HNode<CaptureNode> {
    */
   private long myEndThread;
 
+  /**
+   * Most nodes of a capture are leaves, so they all share an immutable empty list until a child is added.
+   */
   @NotNull
-  private final List<CaptureNode> myChildren;
+  private List<CaptureNode> myChildren = Collections.emptyList();
 
   @NotNull
   private ClockType myClockType;
@@ -75,13 +79,15 @@ public class CaptureNode implements HNode<CaptureNode> {
   private final CaptureNodeModel myData;
 
   public CaptureNode(@NotNull CaptureNodeModel model) {
-    myChildren = new ArrayList<>();
     myClockType = ClockType.GLOBAL;
     myDepth = 0;
     myData = model;
   }
 
   public void addChild(CaptureNode node) {
+    if (myChildren.isEmpty()) {
+      myChildren = new ArrayList<>(2);
+    }
     myChildren.add(node);
     node.myParent = this;
   }
@@ -16,8 +16,10 @@
 package com.android.tools.profilers.cpu;
 
 import com.android.tools.adtui.model.Range;
+import com.android.tools.perflib.vmtrace.ClockType;
 import com.android.tools.profilers.cpu.nodemodel.CaptureNodeModel;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -34,6 +36,14 @@ public abstract class CpuTreeNode<T extends CpuTreeNode> {
   protected double myTotal = 0;
   protected double myChildrenTotal = 0;
 
+  /**
+   * Indices of the intervals of {@link #myNodes} and of their children, which make {@link #update(Range)} and {@link #inRange(Range)}
+   * logarithmic in the number of nodes. They are built when first needed, and again if nodes are added or the clock type changes.
+   */
+  @Nullable private IntervalIndex myNodeIntervals;
+  @Nullable private IntervalIndex myChildIntervals;
+  @Nullable private ClockType myIndexedClockType;
+
   public CpuTreeNode(String id) {
     myId = id;
   }
@@ -44,6 +54,7 @@ public abstract class CpuTreeNode<T extends CpuTreeNode> {
 
   protected void addNode(@NotNull CaptureNode node) {
     myNodes.add(node);
+    myNodeIntervals = null;
   }
 
   protected void addNodes(@NotNull List<CaptureNode> nodes) {
@@ -76,24 +87,57 @@ public abstract class CpuTreeNode<T extends CpuTreeNode> {
   }
 
   public void update(@NotNull Range range) {
-    myTotal = 0.0;
-    myChildrenTotal = 0;
+    myTotal = getNodeIntervals().getIntersectionLength(range);
+    myChildrenTotal = getChildIntervals().getIntersectionLength(range);
+  }
 
-    for (CaptureNode node : myNodes) {
-      myTotal += getIntersection(range, node);
-      for (CaptureNode child : node.getChildren()) {
-        myChildrenTotal += getIntersection(range, child);
-      }
+  public boolean inRange(Range range) {
+    return getNodeIntervals().intersects(range);
+  }
+
+  @NotNull
+  protected IntervalIndex getNodeIntervals() {
+    validateIntervals();
+    assert myNodeIntervals != null;
+    return myNodeIntervals;
+  }
+
+  @NotNull
+  protected IntervalIndex getChildIntervals() {
+    validateIntervals();
+    assert myChildIntervals != null;
+    return myChildIntervals;
+  }
+
+  protected void validateIntervals() {
+    ClockType clockType = myNodes.isEmpty() ? null : myNodes.get(0).getClockType();
+    if (myNodeIntervals == null || clockType != myIndexedClockType) {
+      myIndexedClockType = clockType;
+      buildIntervals();
     }
   }
 
-  protected static double getIntersection(@NotNull Range range, @NotNull CaptureNode node) {
-    Range intersection = range.getIntersection(new Range(node.getStart(), node.getEnd()));
-    return intersection.isEmpty() ? 0.0 : intersection.getLength();
+  /**
+   * Indexes the intervals needed by {@link #update(Range)} and {@link #inRange(Range)}. Subclasses which need more of them override it.
+   */
+  protected void buildIntervals() {
+    myNodeIntervals = indexIntervals(myNodes);
+    List<CaptureNode> children = new ArrayList<>();
+    for (CaptureNode node : myNodes) {
+      children.addAll(node.getChildren());
+    }
+    myChildIntervals = indexIntervals(children);
   }
 
-  public boolean inRange(Range range) {
-    return myNodes.stream().anyMatch(node -> node.getStart() < range.getMax() && range.getMin() < node.getEnd());
+  @NotNull
+  protected static IntervalIndex indexIntervals(@NotNull List<CaptureNode> nodes) {
+    long[] starts = new long[nodes.size()];
+    long[] ends = new long[nodes.size()];
+    for (int i = 0; i < nodes.size(); ++i) {
+      starts[i] = nodes.get(i).getStart();
+      ends[i] = nodes.get(i).getEnd();
+    }
+    return new IntervalIndex(starts, ends);
   }
 
   public void reset() {
@@ -0,0 +1,166 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.profilers.cpu;
+
+import com.android.tools.adtui.model.Range;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Arrays;
+
+/**
+ * Index of a set of [start, end] intervals, which may overlap, answering in logarithmic time how much of them intersects a range.
+ *
+ * The sum of the intersections of the intervals with [a, b] is F(b) - F(a), where F(t) is the sum of their parts before t:
+ * F(t) = sum of (t - start) over the starts before t - sum of (t - end) over the ends before t. Both sums are computed from the sorted
+ * starts or ends and their prefix sums, kept relative to the first start and in longs so that they stay exact. Whether an interval
+ * intersects a range is answered from the union of the intervals, which is sorted and disjoint.
+ */
+final class IntervalIndex {
+  @NotNull private final long[] mySortedStarts;
+  @NotNull private final long[] mySortedEnds;
+  /**
+   * Sums of the first i sorted starts and ends, relative to the first start.
+   */
+  @NotNull private final long[] myStartSums;
+  @NotNull private final long[] myEndSums;
+
+  /**
+   * Union of the intervals, merging the ones which overlap by more than a point.
+   */
+  @NotNull private final long[] myUnionStarts;
+  @NotNull private final long[] myUnionEnds;
+
+  /**
+   * Indexes the intervals [starts[i], ends[i]]. The arrays are left unchanged.
+   */
+  IntervalIndex(@NotNull long[] starts, @NotNull long[] ends) {
+    assert starts.length == ends.length;
+    int count = starts.length;
+    // Union of the intervals, which needs them sorted by start, ancestors (i.e. longest) first.
+    Integer[] order = null;
+    for (int i = 1; i < count; i++) {
+      if (starts[i] < starts[i - 1]) {
+        order = new Integer[count];
+        for (int j = 0; j < count; j++) {
+          order[j] = j;
+        }
+        Arrays.sort(order, (i1, i2) -> starts[i1] != starts[i2]
+                                       ? Long.compare(starts[i1], starts[i2])
+                                       : Long.compare(ends[i2], ends[i1]));
+        break;
+      }
+    }
+    long[] unionStarts = new long[count];
+    long[] unionEnds = new long[count];
+    int unionCount = 0;
+    for (int i = 0; i < count; i++) {
+      int index = order == null ? i : order[i];
+      if (unionCount > 0 && starts[index] < unionEnds[unionCount - 1]) {
+        unionEnds[unionCount - 1] = Math.max(unionEnds[unionCount - 1], ends[index]);
+      }
+      else {
+        unionStarts[unionCount] = starts[index];
+        unionEnds[unionCount] = ends[index];
+        unionCount++;
+      }
+    }
+    myUnionStarts = Arrays.copyOf(unionStarts, unionCount);
+    myUnionEnds = Arrays.copyOf(unionEnds, unionCount);
+
+    mySortedStarts = starts.clone();
+    mySortedEnds = ends.clone();
+    Arrays.sort(mySortedStarts);
+    Arrays.sort(mySortedEnds);
+    myStartSums = prefixSums(mySortedStarts, count == 0 ? 0 : mySortedStarts[0]);
+    myEndSums = prefixSums(mySortedEnds, count == 0 ? 0 : mySortedStarts[0]);
+  }
+
+  /**
+   * Returns the sum of the lengths of the intersections of the intervals with {@code range}.
+   */
+  double getIntersectionLength(@NotNull Range range) {
+    if (range.isEmpty() || mySortedStarts.length == 0) {
+      return 0;
+    }
+    return getLengthBefore(range.getMax()) - getLengthBefore(range.getMin());
+  }
+
+  /**
+   * Returns whether an interval [start, end] verifies start < range's max and range's min < end.
+   */
+  boolean intersects(@NotNull Range range) {
+    // The first interval of the union which ends after the range's min is the one which starts first among them.
+    int index = firstGreaterThan(myUnionEnds, range.getMin());
+    return index < myUnionStarts.length && myUnionStarts[index] < range.getMax();
+  }
+
+  /**
+   * Returns the sum of the lengths of the parts of the intervals before {@code time}.
+   */
+  private double getLengthBefore(double time) {
+    long origin = mySortedStarts[0];
+    if (time <= origin) {
+      return 0;
+    }
+    // Past the last end, every interval is whole.
+    time = Math.min(time, mySortedEnds[mySortedEnds.length - 1]);
+    int started = firstGreaterOrEqual(mySortedStarts, time);
+    int ended = firstGreaterOrEqual(mySortedEnds, time);
+    long whole = (long)Math.floor(time - origin);
+    double fraction = time - origin - whole;
+    long length = (started * whole - myStartSums[started]) - (ended * whole - myEndSums[ended]);
+    return length + (started - ended) * fraction;
+  }
+
+  @NotNull
+  private static long[] prefixSums(@NotNull long[] values, long origin) {
+    long[] sums = new long[values.length + 1];
+    for (int i = 0; i < values.length; i++) {
+      sums[i + 1] = sums[i] + values[i] - origin;
+    }
+    return sums;
+  }
+
+  private static int firstGreaterOrEqual(@NotNull long[] sorted, double value) {
+    int low = 0;
+    int high = sorted.length;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (sorted[mid] < value) {
+        low = mid + 1;
+      }
+      else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+
+  private static int firstGreaterThan(@NotNull long[] sorted, double value) {
+    int low = 0;
+    int high = sorted.length;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (sorted[mid] <= value) {
+        low = mid + 1;
+      }
+      else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+}
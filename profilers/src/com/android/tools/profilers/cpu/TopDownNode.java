@@ -18,8 +18,7 @@ package com.android.tools.profilers.cpu;
 import com.android.tools.profilers.cpu.nodemodel.CaptureNodeModel;
 import org.jetbrains.annotations.NotNull;
 
-import java.util.Map;
-import java.util.TreeMap;
+import java.util.*;
 
 /**
  * A top-down CPU usage tree. This is a node on that tree and represents all the calls that share the same callstack upto a point.
@@ -29,20 +28,41 @@ class TopDownNode extends CpuTreeNode<TopDownNode> {
   private static final String INVALID_ID = "";
 
   TopDownNode(@NotNull CaptureNode node) {
-    super(node.getData() == null ? INVALID_ID : node.getData().getId());
-    addNode(node);
+    this(Collections.singletonList(node));
+  }
+
+  /**
+   * Creates the node representing {@code nodes}, which share the same path from the root.
+   * Each level of the tree is built by grouping the children of the nodes of the previous one, so every {@link CaptureNode} is visited
+   * once, instead of building a node per call and merging them.
+   */
+  private TopDownNode(@NotNull List<CaptureNode> nodes) {
+    super(nodes.get(0).getData() == null ? INVALID_ID : nodes.get(0).getData().getId());
+    addNodes(nodes);
 
-    // We're adding unmatched children separately, because we don't want to merge unmatched with matched,
+    // We use a separate map for unmatched children, because we can not merge unmatched with matched,
     // i.e all merged children should have the same {@link CaptureNode.FilterType}.
-    addChildren(node, false);
-    addChildren(node, true);
+    // Children are ordered by their first call, and the matched children of a call come before its unmatched ones.
+    Map<String, List<CaptureNode>> children = new HashMap<>();
+    Map<String, List<CaptureNode>> unmatchedChildren = new HashMap<>();
+    List<List<CaptureNode>> groups = new ArrayList<>();
+    for (CaptureNode node : nodes) {
+      addChildren(node, false, children, groups);
+      addChildren(node, true, unmatchedChildren, groups);
+    }
+    for (List<CaptureNode> group : groups) {
+      addChild(new TopDownNode(group));
+    }
   }
 
   /**
-   * Adds children of {@param node} whose filter type matches to the flag {@param unmatched}.
+   * Adds the children of {@param node} whose filter type matches to the flag {@param unmatched} to their group in {@param groupsById},
+   * creating it and adding it to {@param groups} if needed.
    */
-  private void addChildren(@NotNull CaptureNode node, boolean unmatched) {
-    Map<String, TopDownNode> children = new TreeMap<>();
+  private static void addChildren(@NotNull CaptureNode node,
+                                  boolean unmatched,
+                                  @NotNull Map<String, List<CaptureNode>> groupsById,
+                                  @NotNull List<List<CaptureNode>> groups) {
     for (CaptureNode child : node.getChildren()) {
       assert child.getData() != null;
 
@@ -50,48 +70,13 @@ class TopDownNode extends CpuTreeNode<TopDownNode> {
         continue;
       }
 
-      TopDownNode prev = children.get(child.getData().getId());
-      TopDownNode other = new TopDownNode(child);
-      if (prev == null) {
-        children.put(child.getData().getId(), other);
-        addChild(other);
-      }
-      else {
-        prev.merge(other);
-      }
-    }
-  }
-
-  private void merge(TopDownNode other) {
-    addNodes(other.getNodes());
-
-    // We use a separate map for unmatched children, because we can not merge unmatched with matched,
-    // i.e all merged children should have the same {@link CaptureNode.FilterType};
-    Map<String, TopDownNode> children = new TreeMap<>();
-    Map<String, TopDownNode> unmatchedChildren = new TreeMap<>();
-
-    for (TopDownNode child : getChildren()) {
-      if (child.isUnmatched()) {
-        unmatchedChildren.put(child.getId(), child);
-      } else {
-        children.put(child.getId(), child);
-      }
-    }
-
-    for (TopDownNode otherChild : other.getChildren()) {
-      TopDownNode existing;
-
-      if (otherChild.isUnmatched()) {
-        existing = unmatchedChildren.get(otherChild.getId());
-      } else {
-        existing = children.get(otherChild.getId());
-      }
-      if (existing != null) {
-        existing.merge(otherChild);
-      }
-      else {
-        addChild(otherChild);
+      List<CaptureNode> group = groupsById.get(child.getData().getId());
+      if (group == null) {
+        group = new ArrayList<>();
+        groupsById.put(child.getData().getId(), group);
+        groups.add(group);
       }
+      group.add(child);
     }
   }
 
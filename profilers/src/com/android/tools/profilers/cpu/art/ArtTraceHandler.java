@@ -24,8 +24,11 @@ import com.android.tools.profilers.cpu.nodemodel.SingleNameModel;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.stream.Collectors;
 
 public class ArtTraceHandler implements VmTraceHandler {
   private static final String KEY_ELAPSED_TIME_US = "elapsed-time-usec";
@@ -43,9 +46,9 @@ public class ArtTraceHandler implements VmTraceHandler {
   private final Map<Long, CaptureNodeModel> myMethods = new HashMap<>();
 
   /**
-   * Map from thread id to per thread stack call constructor.
+   * Map from thread id to the method actions recorded on that thread, in trace order.
    */
-  private final Map<Integer, CaptureNodeConstructor> myNodeConstructors = new HashMap<>();
+  private final Map<Integer, ThreadActions> myThreadActions = new HashMap<>();
 
   @Nullable
   private Map<CpuThreadInfo, CaptureNode> myThreadsGraph;
@@ -65,7 +68,7 @@ public class ArtTraceHandler implements VmTraceHandler {
                               int threadTime, int globalTime) {
     // create thread info if it doesn't exist
     if (!myThreads.containsKey(threadId)) {
-      myThreads.put(threadId, String.format("Thread id: %1$d", threadId));
+      myThreads.put(threadId, getDefaultThreadName(threadId));
     }
 
     // create method info if it doesn't exist
@@ -73,20 +76,19 @@ public class ArtTraceHandler implements VmTraceHandler {
       myMethods.put(methodId, new SingleNameModel("unknown"));
     }
 
-    CaptureNodeConstructor constructor = myNodeConstructors.get(threadId);
-    if (constructor == null) {
-      CaptureNodeModel topLevelModel = createUniqueMethodForThread(threadId);
-      constructor = new CaptureNodeConstructor(topLevelModel);
-      myNodeConstructors.put(threadId, constructor);
+    ThreadActions actions = myThreadActions.get(threadId);
+    if (actions == null) {
+      actions = new ThreadActions(createUniqueMethodForThread(threadId));
+      myThreadActions.put(threadId, actions);
     }
-    constructor.addTraceAction(myMethods.get(methodId), methodAction, threadTime, globalTime);
+    actions.add(myMethods.get(methodId), methodAction == TraceAction.METHOD_ENTER, threadTime, globalTime);
   }
 
   private CaptureNodeModel createUniqueMethodForThread(int threadId) {
     long id = Long.MAX_VALUE - threadId;
     assert myMethods.get(id) == null :
       "Unexpected error while attempting to create a unique key - key already exists";
-    CaptureNodeModel model = new SingleNameModel(myThreads.get(threadId));
+    CaptureNodeModel model = new SingleNameModel(getThreadName(threadId));
     myMethods.put(id, model);
     return model;
   }
@@ -98,30 +100,44 @@ public class ArtTraceHandler implements VmTraceHandler {
     return myThreadsGraph;
   }
 
+  /**
+   * The call stacks of different threads don't depend on each other, so each thread's tree is built in its own fork-join task once the
+   * whole trace has been read, instead of one action at a time while {@link VmTraceParser} reads it.
+   */
   @NotNull
   private Map<CpuThreadInfo, CaptureNode> createThreadsGraph() {
-    Map<CpuThreadInfo, CaptureNode> threadsGraph = new HashMap<>(myThreads.size());
-
-    for (Map.Entry<Integer, String> entry : myThreads.entrySet()) {
-      final int id = entry.getKey();
-      final String name = entry.getValue();
-
-      CaptureNodeConstructor constructor = myNodeConstructors.get(id);
-      if (constructor == null) {
-        continue;
-      }
+    return myThreadActions.entrySet().parallelStream()
+      .collect(Collectors.toMap(entry -> new CpuThreadInfo(entry.getKey(), getThreadName(entry.getKey())),
+                                entry -> createThreadTree(entry.getValue())));
+  }
 
-      CaptureNode topLevelCall = constructor.getTopLevel();
-      assert topLevelCall != null;
-      CpuThreadInfo info = new CpuThreadInfo(id, name);
+  /**
+   * @return the name the trace gave the thread, or a name made of its id if the trace has none for it.
+   */
+  @NotNull
+  private String getThreadName(int threadId) {
+    String name = myThreads.get(threadId);
+    return name != null ? name : getDefaultThreadName(threadId);
+  }
 
-      long topLevelGlobalStart = topLevelCall.getStartGlobal() + myStartTimeUs;
-      adjustNodesTimeAndDepth(topLevelCall, topLevelGlobalStart, 0);
+  @NotNull
+  private static String getDefaultThreadName(int threadId) {
+    return String.format("Thread id: %1$d", threadId);
+  }
 
-      threadsGraph.put(info, topLevelCall);
+  @NotNull
+  private CaptureNode createThreadTree(@NotNull ThreadActions actions) {
+    CaptureNodeConstructor constructor = new CaptureNodeConstructor(actions.myTopLevelModel);
+    for (int i = 0; i < actions.mySize; i++) {
+      TraceAction action = actions.myEnters.get(i) ? TraceAction.METHOD_ENTER : TraceAction.METHOD_EXIT;
+      constructor.addTraceAction(actions.myModels[i], action, actions.myThreadTimes[i], actions.myGlobalTimes[i]);
     }
 
-    return threadsGraph;
+    CaptureNode topLevelCall = constructor.getTopLevel();
+    assert topLevelCall != null;
+    long topLevelGlobalStart = topLevelCall.getStartGlobal() + myStartTimeUs;
+    adjustNodesTimeAndDepth(topLevelCall, topLevelGlobalStart, 0);
+    return topLevelCall;
   }
 
   /**
@@ -166,4 +182,36 @@ public class ArtTraceHandler implements VmTraceHandler {
   public void setVersion(int version) {
     // We don't need this information
   }
+
+  /**
+   * Method actions of a single thread, stored in flat arrays until the thread's call tree is built.
+   */
+  private static final class ThreadActions {
+    private static final int INITIAL_CAPACITY = 64;
+
+    @NotNull private final CaptureNodeModel myTopLevelModel;
+    private CaptureNodeModel[] myModels = new CaptureNodeModel[INITIAL_CAPACITY];
+    private int[] myThreadTimes = new int[INITIAL_CAPACITY];
+    private int[] myGlobalTimes = new int[INITIAL_CAPACITY];
+    private final BitSet myEnters = new BitSet();
+    private int mySize;
+
+    private ThreadActions(@NotNull CaptureNodeModel topLevelModel) {
+      myTopLevelModel = topLevelModel;
+    }
+
+    private void add(@NotNull CaptureNodeModel model, boolean enter, int threadTime, int globalTime) {
+      if (mySize == myModels.length) {
+        int capacity = mySize * 2;
+        myModels = Arrays.copyOf(myModels, capacity);
+        myThreadTimes = Arrays.copyOf(myThreadTimes, capacity);
+        myGlobalTimes = Arrays.copyOf(myGlobalTimes, capacity);
+      }
+      myModels[mySize] = model;
+      myThreadTimes[mySize] = threadTime;
+      myGlobalTimes[mySize] = globalTime;
+      myEnters.set(mySize, enter);
+      mySize++;
+    }
+  }
 }
@@ -17,81 +17,160 @@ package com.android.tools.profilers.cpu.atrace;
 
 import com.google.common.base.Charsets;
 import com.android.tools.profiler.protobuf3jarjar.ByteString;
+import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import trebuchet.io.BufferProducer;
 import trebuchet.io.DataSlice;
 
 import java.io.*;
-import java.util.LinkedList;
-import java.util.Queue;
 import java.util.zip.DataFormatException;
 import java.util.zip.Inflater;
 
 /**
- * This class takes concatenated compressed atrace files and will on the fly decompress them one line at a time.
- * As lines are requested from nextLine this class will read in a chunk of the compressed atrace file decompress it
- * and return the next line decoded. Each line is returned as a string as the atrace file is encoded as a series of
- * strings.
+ * This class takes concatenated compressed atrace files and decompresses them on the fly, as the parser requests more data.
+ * The decompressed data is handed over to the parser in large slices of bytes, which it splits in lines itself: the data isn't
+ * decoded to strings, and the parser holds only a few slices at a time, so memory stays bounded whatever the size of the file.
+ * {@link #getNextLine()} returns the same data one line at a time, decoded.
  */
 public class AtraceDecompressor implements BufferProducer {
-  private static final int BUFFER_SIZE_BYTES = 2048;
-  private byte[] myOutputBuffer = new byte[BUFFER_SIZE_BYTES];
-  private byte[] myInputBuffer = new byte[BUFFER_SIZE_BYTES];
-  private int myInputBufferOffset = 0;
-  private boolean myIsFinished = false;
-  private Queue<String> myLineQueue = new LinkedList<>();
-  private String myLastPartialLine = "";
-  private InputStream myInputStream;
-  private Inflater myInflater;
+  /**
+   * Size of the slices of decompressed data returned by {@link #next()}.
+   */
+  private static final int SLICE_SIZE_BYTES = 64 * 1024;
+  private static final int INPUT_BUFFER_SIZE_BYTES = 64 * 1024;
 
   /**
    * The TRACE:\n header comes from atrace when it dumps data to disk. Each compressed chunk starts with this.
    */
   private static final ByteString HEADER = ByteString.copyFrom("TRACE:\n", Charsets.UTF_8);
+  private static final String INITIAL_LINE = "# Initial Data Required by Importer\n";
+
+  private final InputStream myInputStream;
+  private final Inflater myInflater;
+  private final byte[] myInputBuffer = new byte[INPUT_BUFFER_SIZE_BYTES];
+  /**
+   * The compressed data read from the file and not consumed yet is myInputBuffer[myInputStart..myInputEnd).
+   */
+  private int myInputStart = 0;
+  private int myInputEnd = 0;
+  private boolean myInitialLineReturned = false;
+  private boolean myIsInputFinished = false;
+  private boolean myIsFinished = false;
+
+  /**
+   * The slice {@link #getNextLine()} is reading lines from, and the index of the next byte to read from it.
+   */
+  @Nullable private DataSlice myLineSlice;
+  private int myLineSliceIndex;
+  private final ByteArrayOutputStream myLine = new ByteArrayOutputStream();
 
   public AtraceDecompressor(File file) throws IOException {
     myInputStream = new FileInputStream(file);
     myInflater = new Inflater();
 
     // Read the inital header off the input file.
-    myInputStream.read(myInputBuffer, 0, HEADER.size());
-    verifyHeader();
-    myInputBufferOffset = 0;
-    myLineQueue.add("# Initial Data Required by Importer");
+    if (!startChunk()) {
+      myIsInputFinished = true;
+    }
   }
 
-  private void verifyHeader() throws IOException {
-    for (int i = 0; i < HEADER.size(); i++) {
-      assert HEADER.byteAt(i) == myInputBuffer[myInputBufferOffset];
-      myInputBufferOffset++;
+  /**
+   * Returns whether at least {@code count} bytes of compressed data are available in the input buffer, reading more from the file if
+   * needed.
+   */
+  private boolean ensureInput(int count) throws IOException {
+    if (myInputEnd - myInputStart >= count) {
+      return true;
+    }
+    // Shift the data left before reading more data from the file.
+    System.arraycopy(myInputBuffer, myInputStart, myInputBuffer, 0, myInputEnd - myInputStart);
+    myInputEnd -= myInputStart;
+    myInputStart = 0;
+    while (myInputEnd < count) {
+      int readAmount = myInputStream.read(myInputBuffer, myInputEnd, myInputBuffer.length - myInputEnd);
+      if (readAmount < 0) {
+        return false;
+      }
+      myInputEnd += readAmount;
     }
+    return true;
   }
 
   /**
-   * Read as much data as we can from our input file, and set a new input buffer on the inflater.
+   * Reads the header of the next compressed chunk and resets the inflater to decompress it.
+   *
+   * @return false if there is no chunk left.
    */
-  private void fill() throws IOException {
-    if (myInputBufferOffset != 0) {
-      shift(myInputBuffer, myInputBufferOffset, 0, myInputBuffer.length - myInputBufferOffset);
-      myInputBufferOffset = myInputBuffer.length - myInputBufferOffset;
+  private boolean startChunk() throws IOException {
+    if (!ensureInput(1)) {
+      return false;
+    }
+    if (!ensureInput(HEADER.size())) {
+      throw new EOFException("Truncated atrace header");
     }
-    int readAmount = myInputStream.read(myInputBuffer, myInputBufferOffset, myInputBuffer.length - myInputBufferOffset);
-    myInflater.setInput(myInputBuffer, 0, readAmount + myInputBufferOffset);
-    myInputBufferOffset = 0;
+    for (int i = 0; i < HEADER.size(); i++) {
+      if (HEADER.byteAt(i) != myInputBuffer[myInputStart + i]) {
+        throw new IOException("Invalid atrace header");
+      }
+    }
+    myInputStart += HEADER.size();
+    myInflater.reset();
+    myInflater.setInput(myInputBuffer, myInputStart, myInputEnd - myInputStart);
+    return true;
   }
 
   /**
-   * Move data from one part of an array to another. This is used to shift data left before reading more data from the file.
+   * Decompresses the next slice of data, across compressed chunks if needed.
    *
-   * @param data       array to move data around in.
-   * @param srcOffset  offset to start moving data from.
-   * @param destOffset offset to move data to, has to be less than srcOffset.
-   * @param length     amount of data to move.
+   * @return the slice, or null if there is no data left.
    */
-  private void shift(byte[] data, int srcOffset, int destOffset, int length) {
-    for (int i = 0; i < length; i++) {
-      data[destOffset + i] = data[srcOffset + i];
+  @Nullable
+  private DataSlice inflateSlice() throws IOException, DataFormatException {
+    // A new array for each slice, as the parser keeps the previous ones while it reads the lines crossing them.
+    byte[] data = new byte[SLICE_SIZE_BYTES];
+    int length = 0;
+    while (length < data.length && !myIsInputFinished) {
+      int inflated = myInflater.inflate(data, length, data.length - length);
+      length += inflated;
+      if (inflated > 0) {
+        continue;
+      }
+      if (myInflater.needsDictionary()) {
+        throw new DataFormatException("Unexpected atrace dictionary");
+      }
+      myInputStart = myInputEnd - myInflater.getRemaining();
+      // If we are done with this chunk of the file, the next one starts with its own header.
+      boolean hasInput = myInflater.finished() ? startChunk() : ensureInput(1);
+      if (!hasInput) {
+        myIsInputFinished = true;
+      }
+      else if (myInflater.needsInput()) {
+        myInflater.setInput(myInputBuffer, myInputStart, myInputEnd - myInputStart);
+      }
+    }
+    return length == 0 ? null : new DataSlice(data, 0, length);
+  }
+
+  /**
+   * @return the next slice of the trace, or null at the end of the trace. The parser assumes that each line ends with \n, so the trace
+   * is preceded by an initial line and ends with an additional \n.
+   */
+  @Nullable
+  private DataSlice nextSlice() throws IOException, DataFormatException {
+    if (!myInitialLineReturned) {
+      myInitialLineReturned = true;
+      return new DataSlice(INITIAL_LINE.getBytes(Charsets.UTF_8));
+    }
+    DataSlice slice = inflateSlice();
+    if (slice != null) {
+      return slice;
+    }
+    if (!myIsFinished) {
+      myIsFinished = true;
+      myInputStream.close();
+      return new DataSlice(new byte[]{'\n'});
     }
+    return null;
   }
 
   /**
@@ -100,62 +179,33 @@ public class AtraceDecompressor implements BufferProducer {
    * @return the next line of data from the trace.
    */
   public String getNextLine() throws IOException, DataFormatException {
-    // Early out if we have no more data to read from the file, and we have no lines in our queue.
-    if (myIsFinished && myLineQueue.isEmpty()) {
-      return null;
-    }
-
-    // If we have more data in the file, and our queue is empty we get the next block of lines.
-    while (myLineQueue.isEmpty()) {
-
-      // If we are finished with our decompression buffer, we either are done with our input,
-      // or we are done with this chunk of the file.
-      if (myInflater.finished()) {
-        // If we have no more input then we are at the end of the file, and have nothing left to
-        // decompress.
-        if (myInputStream.available() == 0) {
-          myIsFinished = true;
-          myInputStream.close();
-          myLineQueue.add(myLastPartialLine);
-          myLastPartialLine = "";
-          break;
-        }
-        else {
-          // If we are only done with one chunk of the file, then we read the header and reset our
-          // inflater.
-          verifyHeader();
-          myInflater = new Inflater();
+    myLine.reset();
+    while (true) {
+      if (myLineSlice == null || myLineSliceIndex == myLineSlice.getEndIndex()) {
+        myLineSlice = nextSlice();
+        if (myLineSlice == null) {
+          return myLine.size() > 0 ? decode(myLine) : null;
         }
+        myLineSliceIndex = myLineSlice.getStartIndex();
       }
-
-      if (myInflater.needsInput()) {
-        fill();
+      byte[] buffer = myLineSlice.getBuffer();
+      int lineEnd = myLineSliceIndex;
+      while (lineEnd < myLineSlice.getEndIndex() && buffer[lineEnd] != '\n') {
+        lineEnd++;
       }
-
-      // Need to keep track of where in our buffer the inflater has read to. To do this,
-      // we keep track of the total bytes in the inflater has consumed. So we subtract
-      // the previous total from our new total and add this to our buffer count.
-      int inputBufferTotal = myInflater.getTotalIn();
-      int bytesInOutputBuffer = myInflater.inflate(myOutputBuffer, 0, myOutputBuffer.length);
-      inputBufferTotal = myInflater.getTotalIn() - inputBufferTotal;
-      myInputBufferOffset += inputBufferTotal;
-
-      // Create a string from our decompressed buffer, and split it into the lines for that string.
-      myLastPartialLine += new String(myOutputBuffer, 0, bytesInOutputBuffer);
-      // By default string split gets passed 0, this indicates that the string should return minimum number of split lines. -1 indicates
-      // that we want to return the actual number of splits. Allowing the split to handle the case of the last char of \n instead of
-      // dropping it we get an additional line. So foo\nbar\n ends up returning 3 lines ("foo", "bar", "") which works with our
-      // lastIndexOf('\n') substring below.
-      String[] lines = myLastPartialLine.split("\n", -1);
-
-      // Add each line to our queue and keep track of our partial line for the next time we decompress more info.
-      for (int i = 0; i < lines.length - 1; i++) {
-        myLineQueue.add(lines[i]);
+      myLine.write(buffer, myLineSliceIndex, lineEnd - myLineSliceIndex);
+      if (lineEnd < myLineSlice.getEndIndex()) {
+        // Skip the \n.
+        myLineSliceIndex = lineEnd + 1;
+        return decode(myLine);
       }
-
-      myLastPartialLine = myLastPartialLine.substring(myLastPartialLine.lastIndexOf('\n') + 1);
+      myLineSliceIndex = lineEnd;
     }
-    return myLineQueue.remove();
+  }
+
+  @NotNull
+  private static String decode(@NotNull ByteArrayOutputStream line) throws UnsupportedEncodingException {
+    return line.toString(Charsets.UTF_8.name());
   }
 
   /**
@@ -173,18 +223,13 @@ public class AtraceDecompressor implements BufferProducer {
   }
 
   /**
-   * @return the next line used by {@link BufferProducer}. The parser assumes that each line ends
-   * with \n, so we add a return to the string before returning the next requested slice.
+   * @return the next slice of decompressed data used by {@link BufferProducer}, or null at the end of the trace.
    */
   @Nullable
   @Override
   public DataSlice next() {
     try {
-      String line = getNextLine();
-      if (line != null) {
-        byte[] data = String.format("%s\n", line).getBytes();
-        return new DataSlice(data, 0, data.length);
-      }
+      return nextSlice();
     }
     catch (IOException | DataFormatException ex) {
       ex.printStackTrace();
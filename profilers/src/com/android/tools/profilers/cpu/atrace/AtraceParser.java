@@ -42,6 +42,8 @@ public class AtraceParser implements TraceParser {
   // Trebuchet is our parser for atrace (systrace) raw data. trebuchet.Model is what Trebuchet uses to represent captured data."
   private Model myModel;
   private HashMap<CpuThreadInfo, CaptureNode> myCaptureTreeNodes = new HashMap<>();
+  // Slices with the same name share their model.
+  private final Map<String, SingleNameModel> mySliceModels = new HashMap<>();
   private int myProcessId;
 
   public AtraceParser(int processId) {
@@ -102,7 +104,7 @@ public class AtraceParser implements TraceParser {
   }
 
   private CaptureNode populateCaptureNode(SliceGroup slice, int depth) {
-    CaptureNode node = new CaptureNode(new SingleNameModel(slice.getName()));
+    CaptureNode node = new CaptureNode(mySliceModels.computeIfAbsent(slice.getName(), SingleNameModel::new));
     node.setStartGlobal(convertToUserTimeUs(slice.getStartTime()));
     node.setEndGlobal(convertToUserTimeUs(slice.getEndTime()));
     node.setDepth(depth);
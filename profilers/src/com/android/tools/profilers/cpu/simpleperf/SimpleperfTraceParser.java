@@ -34,7 +34,10 @@ import java.nio.ByteOrder;
 import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 /**
  * Parses a trace file obtained using simpleperf to a map threadId -> {@link CaptureNode}.
@@ -62,6 +65,17 @@ public class SimpleperfTraceParser implements TraceParser {
   @VisibleForTesting
   final List<SimpleperfReport.Sample> mySamples;
 
+  /**
+   * Maps a file id and a symbol id, packed in a long, to the model shared by all the calls of that symbol. Threads are parsed
+   * concurrently, hence the concurrent map.
+   */
+  private final Map<Long, CaptureNodeModel> mySymbolModels = new ConcurrentHashMap<>();
+
+  /**
+   * Maps a file id to the models shared by all the calls of the addresses without a symbol in that file, by address.
+   */
+  private final Map<Integer, Map<Long, CaptureNodeModel>> myNoSymbolModels = new ConcurrentHashMap<>();
+
   /**
    * Maps a {@link CpuThreadInfo} to its correspondent method call tree.
    */
@@ -176,16 +190,26 @@ public class SimpleperfTraceParser implements TraceParser {
   @VisibleForTesting
   void parseTraceFile(File trace) throws IOException {
     ByteBuffer buffer = byteBufferFromFile(trace, ByteOrder.LITTLE_ENDIAN);
+    // Find where the records are first, which only means reading their sizes, so they can be decoded in parallel.
+    List<Integer> recordOffsets = new ArrayList<>();
     // Read the first record size
     int recordSize = buffer.getInt();
 
     // 0 is used to indicate the end of the trace
     while (recordSize != 0) {
+      recordOffsets.add(buffer.position());
       // The next recordSize bytes should represent the record
-      byte[] recordBytes = new byte[recordSize];
-      buffer.get(recordBytes);
-      SimpleperfReport.Record record = SimpleperfReport.Record.parseFrom(recordBytes);
+      buffer.position(buffer.position() + recordSize);
+      // read the next record size
+      recordSize = buffer.getInt();
+    }
 
+    List<SimpleperfReport.Record> records = IntStream.range(0, recordOffsets.size()).parallel()
+      .mapToObj(i -> parseRecord(buffer, recordOffsets.get(i)))
+      .collect(Collectors.toList());
+
+    // Records are handled in trace order, so samples stay sorted by time.
+    for (SimpleperfReport.Record record : records) {
       switch (record.getRecordDataCase()) {
         case FILE:
           SimpleperfReport.File file = record.getFile();
@@ -212,9 +236,6 @@ public class SimpleperfTraceParser implements TraceParser {
         default:
           getLog().warn("Unexpected record data type " + record.getRecordDataCase());
       }
-
-      // read the next record size
-      recordSize = buffer.getInt();
     }
 
     if (mySamples.size() != mySampleCount) {
@@ -223,6 +244,24 @@ public class SimpleperfTraceParser implements TraceParser {
     }
   }
 
+  /**
+   * Decodes the record whose size precedes {@code offset} in {@code buffer}. Reads through a duplicate of the buffer, so records can be
+   * decoded concurrently.
+   */
+  @NotNull
+  private static SimpleperfReport.Record parseRecord(@NotNull ByteBuffer buffer, int offset) {
+    ByteBuffer recordBuffer = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+    byte[] recordBytes = new byte[recordBuffer.getInt(offset - Integer.BYTES)];
+    recordBuffer.position(offset);
+    recordBuffer.get(recordBytes);
+    try {
+      return SimpleperfReport.Record.parseFrom(recordBytes);
+    }
+    catch (IOException e) {
+      throw new IllegalStateException("Malformed trace file: record at offset " + offset + " could not be parsed.", e);
+    }
+  }
+
   /**
    * Parses the data from {@link #mySamples} into a map of tid -> {@link CaptureNode}.
    */
@@ -238,10 +277,16 @@ public class SimpleperfTraceParser implements TraceParser {
     // Split the samples per thread.
     Map<Integer, List<SimpleperfReport.Sample>> threadSamples = splitSamplesPerThread();
 
-    // Process the sampels for each thread
-    for (Map.Entry<Integer, List<SimpleperfReport.Sample>> threadSamplesEntry : threadSamples.entrySet()) {
-      parseThreadSamples(threadSamplesEntry.getKey(), threadSamplesEntry.getValue());
+    for (Integer threadId : threadSamples.keySet()) {
+      if (!myThreads.containsKey(threadId)) {
+        throw new IllegalStateException("Malformed trace file: thread with id " + threadId + " not found.");
+      }
     }
+
+    // Process the samples of each thread in its own fork-join task, as the threads' trees are independent from each other.
+    myCaptureTrees.putAll(threadSamples.entrySet().parallelStream().collect(Collectors.toMap(
+      entry -> new CpuThreadInfo(entry.getKey(), myThreads.get(entry.getKey())),
+      entry -> parseThreadSamples(entry.getKey(), entry.getValue()))));
   }
 
   /**
@@ -272,23 +317,15 @@ public class SimpleperfTraceParser implements TraceParser {
   }
 
   /**
-   * Parses the list of samples of a thread into a {@link CaptureNode} tree.
+   * Parses the non-empty list of samples of a thread into a {@link CaptureNode} tree and returns its root. Only reads the parser's state,
+   * so the threads can be parsed concurrently.
    */
-  private void parseThreadSamples(int threadId, List<SimpleperfReport.Sample> threadSamples) {
-    if (threadSamples.isEmpty()) {
-      getLog().warn(String.format("Warning: No samples read for thread %s (%d)", myThreads.get(threadId), threadId));
-      return;
-    }
-
-    if (!myThreads.containsKey(threadId)) {
-      throw new IllegalStateException("Malformed trace file: thread with id " + threadId + " not found.");
-    }
-
+  @NotNull
+  private CaptureNode parseThreadSamples(int threadId, List<SimpleperfReport.Sample> threadSamples) {
     // Add a root node to represent the thread itself.
     long firstTimestamp = threadSamples.get(0).getTime();
     CaptureNode root = createCaptureNode(new SingleNameModel(myThreads.get(threadId)), firstTimestamp);
     root.setDepth(0);
-    myCaptureTrees.put(new CpuThreadInfo(threadId, myThreads.get(threadId)), root);
 
     // Parse the first call chain so we have a value for lastCallchain
     List<SimpleperfReport.Sample.CallChainEntry> previousCallChain = Lists.reverse(threadSamples.get(0).getCallchainList());
@@ -312,6 +349,7 @@ public class SimpleperfTraceParser implements TraceParser {
     updateAncestorsEndTime(lastTimestamp, lastVisitedNode);
     // update the root timestamp
     setNodeEndTime(root, lastTimestamp);
+    return root;
   }
 
   /**
@@ -391,15 +429,29 @@ public class SimpleperfTraceParser implements TraceParser {
     return node;
   }
 
+  /**
+   * Returns the model of a call chain entry. Every call of the same symbol (or address, for unsymbolized entries) shares one model, so
+   * large captures don't keep one model, and its names, per call.
+   */
   private CaptureNodeModel methodModelFromCallchainEntry(SimpleperfReport.Sample.CallChainEntry callChainEntry) {
+    int fileId = callChainEntry.getFileId();
     int symbolId = callChainEntry.getSymbolId();
-    SimpleperfReport.File symbolFile = myFiles.get(callChainEntry.getFileId());
+    if (symbolId == INVALID_SYMBOL_ID) {
+      return myNoSymbolModels.computeIfAbsent(fileId, id -> new ConcurrentHashMap<>())
+        .computeIfAbsent(callChainEntry.getVaddrInFile(), vaddr -> createMethodModel(fileId, symbolId, vaddr));
+    }
+    return mySymbolModels.computeIfAbsent(((long)fileId << 32) | (symbolId & 0xFFFFFFFFL),
+                                          key -> createMethodModel(fileId, symbolId, callChainEntry.getVaddrInFile()));
+  }
+
+  private CaptureNodeModel createMethodModel(int fileId, int symbolId, long vaddrInFile) {
+    SimpleperfReport.File symbolFile = myFiles.get(fileId);
     if (symbolFile == null) {
-      throw new IllegalStateException("Symbol file with id \"" + callChainEntry.getFileId() + "\" not found.");
+      throw new IllegalStateException("Symbol file with id \"" + fileId + "\" not found.");
     }
     if (symbolId == INVALID_SYMBOL_ID) {
       // if symbol_id is -1, we report the method as fileName+vAddress (e.g. program.so+0x3039)
-      String hexAddress = "0x" + Long.toHexString(callChainEntry.getVaddrInFile());
+      String hexAddress = "0x" + Long.toHexString(vaddrInFile);
       String methodName = fileNameFromPath(symbolFile.getPath()) + "+" + hexAddress;
       return new NoSymbolModel(methodName);
     }
@@ -31,10 +31,14 @@ import java.util.List;
 import java.util.concurrent.TimeUnit;
 
 class HeapDumpSampleDataSeries extends CaptureDataSeries<CaptureObject> {
+  @Nullable private final MemoryProfilerStage myStage;
+
   HeapDumpSampleDataSeries(@NotNull MemoryServiceGrpc.MemoryServiceBlockingStub client,
                                   @Nullable Common.Session session,
-                                  @NotNull FeatureTracker featureTracker) {
+                                  @NotNull FeatureTracker featureTracker,
+                                  @Nullable MemoryProfilerStage stage) {
     super(client, session, featureTracker);
+    myStage = stage;
   }
 
   @Override
@@ -52,7 +56,7 @@ class HeapDumpSampleDataSeries extends CaptureDataSeries<CaptureObject> {
           getDurationUs(info.getStartTime(), info.getEndTime()), false, false,
           new CaptureEntry<>(
             info,
-            () -> new HeapDumpCaptureObject(myClient, mySession, info, null, myFeatureTracker)))));
+            () -> new HeapDumpCaptureObject(myClient, mySession, info, null, myFeatureTracker, myStage)))));
     }
 
     return seriesData;
@@ -19,6 +19,7 @@ public enum MemoryProfilerAspect {
   TRACKING_ENABLED,
   CLASS_GROUPING,
   CURRENT_CAPTURE_ELAPSED_TIME,
+  CURRENT_CAPTURE_ANALYSIS,
   CURRENT_LOADING_CAPTURE,
   CURRENT_LOADED_CAPTURE,
   CURRENT_HEAP,
@@ -94,6 +94,7 @@ public class MemoryProfilerStage extends Stage implements CodeNavigator.Listener
   private boolean myTrackingAllocations;
   private boolean myUpdateCaptureOnSelection = true;
   private final CaptureElapsedTimeUpdatable myCaptureElapsedTimeUpdatable = new CaptureElapsedTimeUpdatable();
+  private final CaptureAnalysisUpdatable myCaptureAnalysisUpdatable = new CaptureAnalysisUpdatable();
   private long myPendingCaptureStartTime = INVALID_START_TIME;
   private long myPendingLegacyAllocationStartTimeNs = INVALID_START_TIME;
 
@@ -108,7 +109,7 @@ public class MemoryProfilerStage extends Stage implements CodeNavigator.Listener
     myClient = profilers.getClient().getMemoryClient();
     HeapDumpSampleDataSeries heapDumpSeries =
       new HeapDumpSampleDataSeries(profilers.getClient().getMemoryClient(), mySessionData,
-                                   getStudioProfilers().getIdeServices().getFeatureTracker());
+                                   getStudioProfilers().getIdeServices().getFeatureTracker(), this);
     AllocationInfosDataSeries allocationSeries =
       new AllocationInfosDataSeries(profilers.getClient().getMemoryClient(), mySessionData,
                                     getStudioProfilers().getIdeServices().getFeatureTracker(), this);
@@ -181,6 +182,7 @@ public class MemoryProfilerStage extends Stage implements CodeNavigator.Listener
     getStudioProfilers().getUpdater().register(myTooltipLegends);
     getStudioProfilers().getUpdater().register(myGcStats);
     getStudioProfilers().getUpdater().register(myCaptureElapsedTimeUpdatable);
+    getStudioProfilers().getUpdater().register(myCaptureAnalysisUpdatable);
 
     getStudioProfilers().getIdeServices().getCodeNavigator().addListener(this);
     getStudioProfilers().getIdeServices().getFeatureTracker().trackEnterStage(getClass());
@@ -215,6 +217,7 @@ public class MemoryProfilerStage extends Stage implements CodeNavigator.Listener
     getStudioProfilers().getUpdater().unregister(myTooltipLegends);
     getStudioProfilers().getUpdater().unregister(myGcStats);
     getStudioProfilers().getUpdater().unregister(myCaptureElapsedTimeUpdatable);
+    getStudioProfilers().getUpdater().unregister(myCaptureAnalysisUpdatable);
     selectCaptureDuration(null, null);
     myLoader.stop();
 
@@ -341,6 +344,40 @@ public class MemoryProfilerStage extends Stage implements CodeNavigator.Listener
     myInstructionsEaseOutModel.setCurrentPercentage(1);
   }
 
+  /**
+   * @return the last completed heap dump taken before the selected heap dump capture, or null if there is none to compare it with.
+   */
+  @Nullable
+  public HeapDumpInfo getPreviousHeapDumpInfo() {
+    CaptureObject capture = getSelectedCapture();
+    if (!(capture instanceof HeapDumpCaptureObject)) {
+      return null;
+    }
+
+    long targetStartTime = ((HeapDumpCaptureObject)capture).getHeapDumpInfo().getStartTime();
+    ListHeapDumpInfosResponse response = myClient.listHeapDumpInfos(
+      ListDumpInfosRequest.newBuilder().setSession(mySessionData).setStartTime(Long.MIN_VALUE).setEndTime(targetStartTime - 1).build());
+    HeapDumpInfo previous = null;
+    for (HeapDumpInfo info : response.getInfosList()) {
+      if (info.getStartTime() < targetStartTime && info.getEndTime() != Long.MAX_VALUE &&
+          (previous == null || info.getStartTime() > previous.getStartTime())) {
+        previous = info;
+      }
+    }
+    return previous;
+  }
+
+  /**
+   * Selects and loads the comparison of the {@code target} heap dump against the {@code base} one, see {@link HeapDumpDiffCaptureObject}.
+   */
+  public void selectHeapDumpDiff(@NotNull HeapDumpInfo base, @NotNull HeapDumpInfo target, @Nullable Executor joiner) {
+    CaptureEntry<CaptureObject> entry = new CaptureEntry<>(
+      Arrays.asList(base, target),
+      () -> new HeapDumpDiffCaptureObject(myClient, mySessionData, base, target, null));
+    long durationUs = TimeUnit.NANOSECONDS.toMicros(target.getEndTime() - base.getStartTime());
+    selectCaptureDuration(new CaptureDurationData<>(durationUs, false, false, entry), joiner);
+  }
+
   public void forceGarbageCollection() {
     myClient.forceGarbageCollection(ForceGarbageCollectionRequest.newBuilder().setSession(mySessionData).build());
   }
@@ -727,4 +764,22 @@ public class MemoryProfilerStage extends Stage implements CodeNavigator.Listener
       }
     }
   }
+
+  /**
+   * Notifies {@link MemoryProfilerAspect#CURRENT_CAPTURE_ANALYSIS} while the selected heap dump computes its dominator tree, and once
+   * more when the computation ends.
+   */
+  private class CaptureAnalysisUpdatable implements Updatable {
+    private boolean myWasComputing;
+
+    @Override
+    public void update(long elapsedNs) {
+      CaptureObject capture = getSelectedCapture();
+      boolean computing = capture instanceof HeapDumpCaptureObject && ((HeapDumpCaptureObject)capture).isDominatorTreeComputing();
+      if (computing || myWasComputing) {
+        myAspect.changed(MemoryProfilerAspect.CURRENT_CAPTURE_ANALYSIS);
+      }
+      myWasComputing = computing;
+    }
+  }
 }
@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.profilers.memory.adapters;
+
+import com.android.tools.profiler.proto.MemoryProfiler.AllocationStack;
+import com.android.tools.profilers.stacktrace.ThreadId;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Everything the {@link ClassifierSet.Classifier}s look at to classify an {@link InstanceObject}: its heap, class, allocation thread and
+ * allocation callstack. Instances with equal keys end up in the same {@link ClassifierSet} whichever the grouping, so they can be added
+ * to or removed from a {@link HeapSet} as a group, walking down the classifier levels once for the whole group.
+ */
+final class ClassificationKey {
+  private final int myHeapId;
+  @NotNull private final ClassDb.ClassEntry myClassEntry;
+  @NotNull private final ThreadId myThreadId;
+  // Callstacks are shared between the instances that were allocated from the same stack, so they are compared by identity, which is
+  // much cheaper than comparing the frames.
+  @Nullable private final AllocationStack myCallStack;
+
+  ClassificationKey(@NotNull InstanceObject instance) {
+    this(instance.getHeapId(), instance.getClassEntry(), instance.getAllocationThreadId(), instance.getAllocationCallStack());
+  }
+
+  ClassificationKey(int heapId, @NotNull ClassDb.ClassEntry classEntry, @NotNull ThreadId threadId, @Nullable AllocationStack callStack) {
+    myHeapId = heapId;
+    myClassEntry = classEntry;
+    myThreadId = threadId;
+    myCallStack = callStack;
+  }
+
+  /**
+   * Splits {@code instances} into groups of instances with equal keys, keeping the order in which each key first appears.
+   */
+  @NotNull
+  static List<List<InstanceObject>> group(@NotNull List<InstanceObject> instances) {
+    Map<ClassificationKey, List<InstanceObject>> groups = new LinkedHashMap<>();
+    for (InstanceObject instance : instances) {
+      groups.computeIfAbsent(new ClassificationKey(instance), key -> new ArrayList<>()).add(instance);
+    }
+    return new ArrayList<>(groups.values());
+  }
+
+  @Override
+  public int hashCode() {
+    int result = myHeapId;
+    result = 31 * result + myClassEntry.hashCode();
+    result = 31 * result + myThreadId.hashCode();
+    result = 31 * result + System.identityHashCode(myCallStack);
+    return result;
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (!(obj instanceof ClassificationKey)) {
+      return false;
+    }
+
+    ClassificationKey other = (ClassificationKey)obj;
+    return myHeapId == other.myHeapId &&
+           myClassEntry.equals(other.myClassEntry) &&
+           myThreadId.equals(other.myThreadId) &&
+           myCallStack == other.myCallStack;
+  }
+}
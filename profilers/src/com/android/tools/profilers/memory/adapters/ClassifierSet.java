@@ -16,6 +16,7 @@
 package com.android.tools.profilers.memory.adapters;
 
 import com.android.annotations.VisibleForTesting;
+import gnu.trove.TIntArrayList;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import sun.reflect.generics.reflectiveObjects.NotImplementedException;
@@ -39,6 +40,11 @@ public abstract class ClassifierSet implements MemoryObject {
   // Note that instances here can also appear in the set of snapshot instances (e.g. when a instance is allocated before the selection
   // and deallocation within the selection).
   @NotNull protected final Set<InstanceObject> myDeltaInstances = new LinkedHashSet<>(0);
+  // Delta allocations/deallocations which are only accounted for by their counts and sizes, their objects are created on demand.
+  @NotNull protected final List<InstanceGroup> myAddedInstanceGroups = new ArrayList<>(0);
+  @NotNull protected final List<InstanceGroup> myFreedInstanceGroups = new ArrayList<>(0);
+  // Live allocations which are accounted for by their groups, their objects are created on demand.
+  @NotNull protected final Set<LiveAllocationInstanceGroup> myLiveInstanceGroups = new LinkedHashSet<>(0);
 
   // Lazily create the Classifier, as it is configurable and isn't necessary until nodes under this node needs to be classified.
   @Nullable protected Classifier myClassifier = null;
@@ -80,7 +86,9 @@ public abstract class ClassifierSet implements MemoryObject {
   }
 
   public boolean isEmpty() {
-    return mySnapshotObjectCount == 0 && myDeltaAllocations == 0 && myDeltaDeallocations == 0;
+    // Instance groups may only carry a change in size, see InstanceGroup.
+    return mySnapshotObjectCount == 0 && myDeltaAllocations == 0 && myDeltaDeallocations == 0 &&
+           myTotalShallowSize == 0 && myTotalNativeSize == 0;
   }
 
   public int getTotalObjectCount() {
@@ -120,20 +128,32 @@ public abstract class ClassifierSet implements MemoryObject {
    * Note that instances at the baseline must be an allocation event.
    */
   public void addSnapshotInstanceObject(@NotNull InstanceObject instanceObject) {
+    addSnapshotInstanceObjects(Collections.singletonList(instanceObject));
+  }
+
+  /**
+   * Same as {@link #addSnapshotInstanceObject(InstanceObject)} for a group of instances which all belong to the same
+   * {@link ClassificationKey}: the descendant sets are looked up once for the group and the totals are updated in bulk.
+   */
+  public void addSnapshotInstanceObjects(@NotNull List<InstanceObject> instanceObjects) {
+    if (instanceObjects.isEmpty()) {
+      return;
+    }
+
     if (myClassifier != null && !myClassifier.isTerminalClassifier()) {
-      myClassifier.getClassifierSet(instanceObject, true).addSnapshotInstanceObject(instanceObject);
+      myClassifier.getClassifierSet(instanceObjects.get(0), true).addSnapshotInstanceObjects(instanceObjects);
     }
     else {
-      assert !mySnapshotInstances.contains(instanceObject);
-      mySnapshotInstances.add(instanceObject);
+      for (InstanceObject instanceObject : instanceObjects) {
+        assert !mySnapshotInstances.contains(instanceObject);
+        mySnapshotInstances.add(instanceObject);
+      }
     }
 
-    mySnapshotObjectCount++;
-    myTotalNativeSize += instanceObject.getNativeSize() == INVALID_VALUE ? 0 : instanceObject.getNativeSize();
-    myTotalShallowSize += instanceObject.getShallowSize() == INVALID_VALUE ? 0 : instanceObject.getShallowSize();
-    myTotalRetainedSize += instanceObject.getRetainedSize() == INVALID_VALUE ? 0 : instanceObject.getRetainedSize();
-    if (instanceObject.getCallStackDepth() > 0) {
-      myInstancesWithStackInfoCount++;
+    mySnapshotObjectCount += instanceObjects.size();
+    addTotalSizes(instanceObjects, 1);
+    if (instanceObjects.get(0).getCallStackDepth() > 0) {
+      myInstancesWithStackInfoCount += instanceObjects.size();
     }
     myNeedsRefiltering = true;
   }
@@ -142,22 +162,34 @@ public abstract class ClassifierSet implements MemoryObject {
    * Remove an instance from the baseline snapshot and update the accounting of the "total" values.
    */
   public void removeSnapshotInstanceObject(@NotNull InstanceObject instanceObject) {
+    removeSnapshotInstanceObjects(Collections.singletonList(instanceObject));
+  }
+
+  /**
+   * Same as {@link #removeSnapshotInstanceObject(InstanceObject)} for a group of instances which all belong to the same
+   * {@link ClassificationKey}.
+   */
+  public void removeSnapshotInstanceObjects(@NotNull List<InstanceObject> instanceObjects) {
+    if (instanceObjects.isEmpty()) {
+      return;
+    }
+
     if (myClassifier != null && !myClassifier.isTerminalClassifier()) {
-      ClassifierSet classifierSet = myClassifier.getClassifierSet(instanceObject, false);
+      ClassifierSet classifierSet = myClassifier.getClassifierSet(instanceObjects.get(0), false);
       assert classifierSet != null;
-      classifierSet.removeSnapshotInstanceObject(instanceObject);
+      classifierSet.removeSnapshotInstanceObjects(instanceObjects);
     }
     else {
-      assert mySnapshotInstances.contains(instanceObject);
-      mySnapshotInstances.remove(instanceObject);
+      for (InstanceObject instanceObject : instanceObjects) {
+        assert mySnapshotInstances.contains(instanceObject);
+        mySnapshotInstances.remove(instanceObject);
+      }
     }
 
-    mySnapshotObjectCount--;
-    myTotalNativeSize -= instanceObject.getNativeSize() == INVALID_VALUE ? 0 : instanceObject.getNativeSize();
-    myTotalShallowSize -= instanceObject.getShallowSize() == INVALID_VALUE ? 0 : instanceObject.getShallowSize();
-    myTotalRetainedSize -= instanceObject.getRetainedSize() == INVALID_VALUE ? 0 : instanceObject.getRetainedSize();
-    if (instanceObject.getCallStackDepth() > 0) {
-      myInstancesWithStackInfoCount--;
+    mySnapshotObjectCount -= instanceObjects.size();
+    addTotalSizes(instanceObjects, -1);
+    if (instanceObjects.get(0).getCallStackDepth() > 0) {
+      myInstancesWithStackInfoCount -= instanceObjects.size();
     }
     myNeedsRefiltering = true;
   }
@@ -165,108 +197,253 @@ public abstract class ClassifierSet implements MemoryObject {
   // Add delta alloc information into the ClassifierSet
   // Return true if the set did not contain the instance prior to invocation
   public boolean addDeltaInstanceObject(@NotNull InstanceObject instanceObject) {
-    return addDeltaInstanceInformation(instanceObject, true);
+    return addDeltaInstanceInformation(Collections.singletonList(instanceObject), true) > 0;
   }
 
   // Add delta dealloc information into the ClassifierSet
   // Return true if the set did not contain the instance prior to invocation
   public boolean freeDeltaInstanceObject(@NotNull InstanceObject instanceObject) {
-    return addDeltaInstanceInformation(instanceObject, false);
+    return addDeltaInstanceInformation(Collections.singletonList(instanceObject), false) > 0;
+  }
+
+  // Bulk versions of addDeltaInstanceObject/freeDeltaInstanceObject, for instances which all belong to the same ClassificationKey
+  // Return the number of instances the set did not contain prior to invocation
+  public int addDeltaInstanceObjects(@NotNull List<InstanceObject> instanceObjects) {
+    return instanceObjects.isEmpty() ? 0 : addDeltaInstanceInformation(instanceObjects, true);
+  }
+
+  public int freeDeltaInstanceObjects(@NotNull List<InstanceObject> instanceObjects) {
+    return instanceObjects.isEmpty() ? 0 : addDeltaInstanceInformation(instanceObjects, false);
   }
 
   // Remove delta instance alloc information
   // Remove instance when it neither has alloc nor dealloc information
   // Return true if the instance is removed
   public boolean removeAddedDeltaInstanceObject(@NotNull InstanceObject instanceObject) {
-    return removeDeltaInstanceInformation(instanceObject, true);
+    return removeDeltaInstanceInformation(Collections.singletonList(instanceObject), true) > 0;
   }
 
   // Remove delta instance dealloc information
   // Remove instance when it neither has alloc nor dealloc information
   // Return true if the instance is removed
   public boolean removeFreedDeltaInstanceObject(@NotNull InstanceObject instanceObject) {
-    return removeDeltaInstanceInformation(instanceObject, false);
+    return removeDeltaInstanceInformation(Collections.singletonList(instanceObject), false) > 0;
+  }
+
+  // Bulk versions of removeAddedDeltaInstanceObject/removeFreedDeltaInstanceObject, for instances which all belong to the same
+  // ClassificationKey
+  // Return the number of instances removed
+  public int removeAddedDeltaInstanceObjects(@NotNull List<InstanceObject> instanceObjects) {
+    return instanceObjects.isEmpty() ? 0 : removeDeltaInstanceInformation(instanceObjects, true);
+  }
+
+  public int removeFreedDeltaInstanceObjects(@NotNull List<InstanceObject> instanceObjects) {
+    return instanceObjects.isEmpty() ? 0 : removeDeltaInstanceInformation(instanceObjects, false);
+  }
+
+  /**
+   * Adds a group of delta allocations by its count and sizes, without creating the {@link InstanceObject}s of the group. Like instances
+   * without time data, the group counts as allocations only.
+   */
+  public void addDeltaInstanceGroup(@NotNull InstanceGroup group) {
+    addDeltaInstanceGroup(group, true);
+  }
+
+  /**
+   * Adds a group of delta deallocations by its count and sizes, see {@link #addDeltaInstanceGroup(InstanceGroup)}.
+   */
+  public void freeDeltaInstanceGroup(@NotNull InstanceGroup group) {
+    addDeltaInstanceGroup(group, false);
+  }
+
+  private void addDeltaInstanceGroup(@NotNull InstanceGroup group, boolean isAllocation) {
+    if (group.getCount() == 0 && group.getTotalShallowSize() == 0 && group.getTotalNativeSize() == 0) {
+      return;
+    }
+
+    if (myClassifier != null && !myClassifier.isTerminalClassifier()) {
+      myClassifier.getClassifierSet(group.getRepresentative(), true).addDeltaInstanceGroup(group, isAllocation);
+    }
+    else if (isAllocation) {
+      myAddedInstanceGroups.add(group);
+    }
+    else {
+      myFreedInstanceGroups.add(group);
+    }
+
+    int sign = isAllocation ? 1 : -1;
+    if (isAllocation) {
+      myDeltaAllocations += group.getCount();
+    }
+    else {
+      myDeltaDeallocations += group.getCount();
+    }
+    myTotalNativeSize += sign * group.getTotalNativeSize();
+    myTotalShallowSize += sign * group.getTotalShallowSize();
+    myTotalRetainedSize += sign * getValidRetainedSize(group);
+    if (group.getRepresentative().getCallStackDepth() > 0) {
+      myInstancesWithStackInfoCount += group.getCount();
+    }
+    myNeedsRefiltering = true;
+  }
+
+  /**
+   * Same as {@link #addSnapshotInstanceObjects(List)} for the instances {@code tags} of a {@link LiveAllocationInstanceGroup}, without
+   * creating their {@link InstanceObject}s.
+   */
+  void addSnapshotInstances(@NotNull LiveAllocationInstanceGroup group, @NotNull TIntArrayList tags) {
+    updateLiveInstanceGroup(group, () -> group.addSnapshotInstances(tags));
+  }
+
+  void removeSnapshotInstances(@NotNull LiveAllocationInstanceGroup group, @NotNull TIntArrayList tags) {
+    updateLiveInstanceGroup(group, () -> group.removeSnapshotInstances(tags));
+  }
+
+  /**
+   * Same as {@link #addDeltaInstanceObjects(List)} and {@link #freeDeltaInstanceObjects(List)} for the instances {@code tags} of a
+   * {@link LiveAllocationInstanceGroup}.
+   */
+  void addDeltaInstances(@NotNull LiveAllocationInstanceGroup group, @NotNull TIntArrayList tags, boolean isAllocation) {
+    updateLiveInstanceGroup(group, () -> group.addDeltaInstances(tags, isAllocation));
+  }
+
+  /**
+   * Same as {@link #removeAddedDeltaInstanceObjects(List)} and {@link #removeFreedDeltaInstanceObjects(List)} for the instances
+   * {@code tags} of a {@link LiveAllocationInstanceGroup}.
+   */
+  void removeDeltaInstances(@NotNull LiveAllocationInstanceGroup group, @NotNull TIntArrayList tags, boolean isAllocation) {
+    updateLiveInstanceGroup(group, () -> group.removeDeltaInstances(tags, isAllocation));
+  }
+
+  // The group keeps its own accounting: each level down to the set which holds the group swaps the group's old totals for the new ones
+  private void updateLiveInstanceGroup(@NotNull LiveAllocationInstanceGroup group, @NotNull Runnable update) {
+    addLiveInstanceGroupTotals(group, -1);
+    if (myClassifier != null && !myClassifier.isTerminalClassifier()) {
+      myClassifier.getClassifierSet(group.getRepresentative(), true).updateLiveInstanceGroup(group, update);
+    }
+    else {
+      update.run();
+      if (group.isEmpty()) {
+        myLiveInstanceGroups.remove(group);
+      }
+      else {
+        myLiveInstanceGroups.add(group);
+      }
+    }
+    addLiveInstanceGroupTotals(group, 1);
+    myNeedsRefiltering = true;
+  }
+
+  // Add a group with its current totals, when partitioning
+  private void addLiveInstanceGroup(@NotNull LiveAllocationInstanceGroup group) {
+    if (myClassifier != null && !myClassifier.isTerminalClassifier()) {
+      myClassifier.getClassifierSet(group.getRepresentative(), true).addLiveInstanceGroup(group);
+    }
+    else {
+      myLiveInstanceGroups.add(group);
+    }
+    addLiveInstanceGroupTotals(group, 1);
+    myNeedsRefiltering = true;
+  }
+
+  private void addLiveInstanceGroupTotals(@NotNull LiveAllocationInstanceGroup group, int sign) {
+    mySnapshotObjectCount += sign * group.getSnapshotObjectCount();
+    myDeltaAllocations += sign * group.getDeltaAllocationCount();
+    myDeltaDeallocations += sign * group.getDeltaDeallocationCount();
+    myTotalShallowSize += sign * group.getTotalShallowSize();
+    myInstancesWithStackInfoCount += sign * group.getInstancesWithStackInfoCount();
   }
 
   // Add delta information into the ClassifierSet when correspondent alloc event is inside selection range
-  // Return true if the set did not contain the instance prior to invocation
-  private boolean addDeltaInstanceInformation(@NotNull InstanceObject instanceObject, boolean isAllocation) {
-    boolean instanceAdded = false;
+  // Return the number of instances the set did not contain prior to invocation
+  private int addDeltaInstanceInformation(@NotNull List<InstanceObject> instanceObjects, boolean isAllocation) {
+    int instancesAdded = 0;
 
     if (myClassifier != null && !myClassifier.isTerminalClassifier()) {
-      instanceAdded = myClassifier.getClassifierSet(instanceObject, true).addDeltaInstanceInformation(instanceObject, isAllocation);
+      instancesAdded =
+        myClassifier.getClassifierSet(instanceObjects.get(0), true).addDeltaInstanceInformation(instanceObjects, isAllocation);
     }
     else {
-      if (!myDeltaInstances.contains(instanceObject)) {
-        instanceAdded = true;
-        myDeltaInstances.add(instanceObject);
+      for (InstanceObject instanceObject : instanceObjects) {
+        if (myDeltaInstances.add(instanceObject)) {
+          instancesAdded++;
+        }
       }
     }
 
     if (isAllocation) {
-      myDeltaAllocations++;
+      myDeltaAllocations += instanceObjects.size();
     }
     else {
-      myDeltaDeallocations++;
+      myDeltaDeallocations += instanceObjects.size();
     }
 
     // TODO update deltas instead.
-    myTotalNativeSize +=
-      (isAllocation ? 1 : -1) * (instanceObject.getNativeSize() == INVALID_VALUE ? 0 : instanceObject.getNativeSize());
-    myTotalShallowSize +=
-      (isAllocation ? 1 : -1) * (instanceObject.getShallowSize() == INVALID_VALUE ? 0 : instanceObject.getShallowSize());
-    myTotalRetainedSize +=
-      (isAllocation ? 1 : -1) * (instanceObject.getRetainedSize() == INVALID_VALUE ? 0 : instanceObject.getRetainedSize());
-
-    if (instanceAdded && instanceObject.getCallStackDepth() > 0) {
-      myInstancesWithStackInfoCount++;
+    addTotalSizes(instanceObjects, isAllocation ? 1 : -1);
+
+    if (instancesAdded > 0 && instanceObjects.get(0).getCallStackDepth() > 0) {
+      myInstancesWithStackInfoCount += instancesAdded;
       myNeedsRefiltering = true;
     }
 
-    return instanceAdded;
+    return instancesAdded;
   }
 
   // Remove delta information from the ClassifierSet
-  // Return true if the instance is removed
-  private boolean removeDeltaInstanceInformation(@NotNull InstanceObject instanceObject, boolean isAllocation) {
-    boolean instanceRemoved = false;
+  // Return the number of instances removed
+  private int removeDeltaInstanceInformation(@NotNull List<InstanceObject> instanceObjects, boolean isAllocation) {
+    int instancesRemoved = 0;
     if (myClassifier != null && !myClassifier.isTerminalClassifier()) {
-      ClassifierSet classifierSet = myClassifier.getClassifierSet(instanceObject, false);
+      ClassifierSet classifierSet = myClassifier.getClassifierSet(instanceObjects.get(0), false);
       assert classifierSet != null;
-      instanceRemoved = classifierSet.removeDeltaInstanceInformation(instanceObject, isAllocation);
+      instancesRemoved = classifierSet.removeDeltaInstanceInformation(instanceObjects, isAllocation);
     }
     else {
-      if (!instanceObject.hasTimeData() && myDeltaInstances.contains(instanceObject)) {
-        myDeltaInstances.remove(instanceObject);
-        instanceRemoved = true;
+      for (InstanceObject instanceObject : instanceObjects) {
+        if (!instanceObject.hasTimeData() && myDeltaInstances.remove(instanceObject)) {
+          instancesRemoved++;
+        }
       }
     }
 
     if (isAllocation) {
-      myDeltaAllocations--;
+      myDeltaAllocations -= instanceObjects.size();
     }
     else {
-      myDeltaDeallocations--;
+      myDeltaDeallocations -= instanceObjects.size();
     }
 
     // TODO update deltas instead.
-    myTotalNativeSize -=
-      (isAllocation ? 1 : -1) * (instanceObject.getNativeSize() == INVALID_VALUE ? 0 : instanceObject.getNativeSize());
-    myTotalShallowSize -=
-      (isAllocation ? 1 : -1) * (instanceObject.getShallowSize() == INVALID_VALUE ? 0 : instanceObject.getShallowSize());
-    myTotalRetainedSize -=
-      (isAllocation ? 1 : -1) * (instanceObject.getRetainedSize() == INVALID_VALUE ? 0 : instanceObject.getRetainedSize());
-    if (instanceRemoved && instanceObject.getCallStackDepth() > 0) {
-      myInstancesWithStackInfoCount--;
+    addTotalSizes(instanceObjects, isAllocation ? -1 : 1);
+    if (instancesRemoved > 0 && instanceObjects.get(0).getCallStackDepth() > 0) {
+      myInstancesWithStackInfoCount -= instancesRemoved;
       myNeedsRefiltering = true;
     }
 
-    return instanceRemoved;
+    return instancesRemoved;
+  }
+
+  // Adds (sign == 1) or subtracts (sign == -1) the sizes of the instances to the totals
+  private void addTotalSizes(@NotNull List<InstanceObject> instanceObjects, int sign) {
+    long nativeSize = 0;
+    long shallowSize = 0;
+    long retainedSize = 0;
+    for (InstanceObject instanceObject : instanceObjects) {
+      nativeSize += instanceObject.getNativeSize() == INVALID_VALUE ? 0 : instanceObject.getNativeSize();
+      shallowSize += instanceObject.getShallowSize() == INVALID_VALUE ? 0 : instanceObject.getShallowSize();
+      retainedSize += instanceObject.getRetainedSize() == INVALID_VALUE ? 0 : instanceObject.getRetainedSize();
+    }
+    myTotalNativeSize += sign * nativeSize;
+    myTotalShallowSize += sign * shallowSize;
+    myTotalRetainedSize += sign * retainedSize;
   }
 
   public void clearClassifierSets() {
     mySnapshotInstances.clear();
     myDeltaInstances.clear();
+    myAddedInstanceGroups.clear();
+    myFreedInstanceGroups.clear();
+    myLiveInstanceGroups.clear();
     myClassifier = createSubClassifier();
     mySnapshotObjectCount = 0;
     myDeltaAllocations = 0;
@@ -279,10 +456,20 @@ public abstract class ClassifierSet implements MemoryObject {
   }
 
   public int getInstancesCount() {
-    if (myClassifier == null) {
+    if (myClassifier == null || myClassifier.isTerminalClassifier()) {
       Set<InstanceObject> total = new HashSet<>(mySnapshotInstances);
       total.addAll(myDeltaInstances);
-      return total.size();
+      int groupObjectCount = 0;
+      for (InstanceGroup group : myAddedInstanceGroups) {
+        groupObjectCount += group.getInstanceObjectCount();
+      }
+      for (InstanceGroup group : myFreedInstanceGroups) {
+        groupObjectCount += group.getInstanceObjectCount();
+      }
+      for (LiveAllocationInstanceGroup group : myLiveInstanceGroups) {
+        groupObjectCount += group.getInstanceObjectCount();
+      }
+      return total.size() + groupObjectCount;
     }
     else {
       return (int)getInstancesStream().count();
@@ -290,11 +477,15 @@ public abstract class ClassifierSet implements MemoryObject {
   }
 
   /**
-   * Gets a stream of all instances (including all descendants) in this ClassifierSet.
+   * Gets a stream of all instances (including all descendants) in this ClassifierSet. The objects of the {@link InstanceGroup}s are
+   * created by the stream.
    */
   @NotNull
   public Stream<InstanceObject> getInstancesStream() {
-    Stream<InstanceObject> total = Stream.concat(mySnapshotInstances.stream(), myDeltaInstances.stream()).distinct();
+    Stream<InstanceObject> total = Stream.concat(Stream.concat(mySnapshotInstances.stream(), myDeltaInstances.stream()).distinct(),
+                                                 Stream.concat(myAddedInstanceGroups.stream(), myFreedInstanceGroups.stream())
+                                                   .flatMap(InstanceGroup::createInstances));
+    total = Stream.concat(total, myLiveInstanceGroups.stream().flatMap(LiveAllocationInstanceGroup::createInstances));
     if (myClassifier == null) {
       return total;
     }
@@ -318,6 +509,36 @@ public abstract class ClassifierSet implements MemoryObject {
     }
   }
 
+  /**
+   * Return the stream of the groups of delta allocations ({@code isAllocation}) or deallocations of this set and its descendants.
+   */
+  @NotNull
+  protected Stream<InstanceGroup> getInstanceGroupStream(boolean isAllocation) {
+    Stream<InstanceGroup> groups = (isAllocation ? myAddedInstanceGroups : myFreedInstanceGroups).stream();
+    if (myClassifier == null) {
+      return groups;
+    }
+    else {
+      return Stream
+        .concat(myClassifier.getAllClassifierSets().stream().flatMap(classifierSet -> classifierSet.getInstanceGroupStream(isAllocation)),
+                groups);
+    }
+  }
+
+  /**
+   * Return the stream of the {@link LiveAllocationInstanceGroup}s of this set and its descendants.
+   */
+  @NotNull
+  protected Stream<LiveAllocationInstanceGroup> getLiveInstanceGroupStream() {
+    if (myClassifier == null) {
+      return myLiveInstanceGroups.stream();
+    }
+    else {
+      return Stream.concat(myClassifier.getAllClassifierSets().stream().flatMap(ClassifierSet::getLiveInstanceGroupStream),
+                           myLiveInstanceGroups.stream());
+    }
+  }
+
   /**
    * Return the stream of instance objects that contribute to the baseline snapshot.
    * Note that there can duplicated entries as {@link #getDeltaInstanceStream()}.
@@ -354,18 +575,14 @@ public abstract class ClassifierSet implements MemoryObject {
    */
   @Nullable
   public ClassifierSet findContainingClassifierSet(@NotNull InstanceObject target) {
-    boolean instancesContainsTarget =
-      Stream.concat(mySnapshotInstances.stream(), myDeltaInstances.stream()).filter(instance -> target.equals(instance)).findAny()
-        .isPresent();
+    boolean instancesContainsTarget = containsImmediateInstance(target);
     if (instancesContainsTarget && myClassifier != null) {
       return this;
     }
     else if (instancesContainsTarget || myClassifier != null) {
       List<ClassifierSet> childrenClassifierSets = getChildrenClassifierSets();
-      // mySnapshotInstances/myDeltaInstances can be updated after getChildrenClassiferSets so rebuild the stream.
-      boolean stillContainsTarget =
-        Stream.concat(mySnapshotInstances.stream(), myDeltaInstances.stream()).filter(instance -> target.equals(instance)).findAny()
-          .isPresent();
+      // The instances of this set can be updated after getChildrenClassiferSets so look them up again.
+      boolean stillContainsTarget = containsImmediateInstance(target);
       if (instancesContainsTarget && stillContainsTarget) {
         return this; // If after the partition the target still falls within the instances within this set, then return this set.
       }
@@ -380,6 +597,23 @@ public abstract class ClassifierSet implements MemoryObject {
     return null;
   }
 
+  private boolean containsImmediateInstance(@NotNull InstanceObject target) {
+    if (Stream.concat(mySnapshotInstances.stream(), myDeltaInstances.stream()).anyMatch(instance -> target.equals(instance))) {
+      return true;
+    }
+    // Only create the objects of the groups which could contain the target.
+    return Stream.concat(myAddedInstanceGroups.stream(), myFreedInstanceGroups.stream())
+             .filter(group -> isSameHeapAndClass(group.getRepresentative(), target))
+             .anyMatch(group -> group.createInstances().anyMatch(instance -> target.equals(instance))) ||
+           myLiveInstanceGroups.stream()
+             .filter(group -> isSameHeapAndClass(group.getRepresentative(), target))
+             .anyMatch(group -> group.createInstances().anyMatch(instance -> target.equals(instance)));
+  }
+
+  private static boolean isSameHeapAndClass(@NotNull InstanceObject representative, @NotNull InstanceObject target) {
+    return representative.getHeapId() == target.getHeapId() && representative.getClassEntry().equals(target.getClassEntry());
+  }
+
   /**
    * Determines if {@code this} ClassifierSet's descendant children forms a superset (could be equivalent) of the given
    * {@code targetSet}'s immediate children.
@@ -401,6 +635,8 @@ public abstract class ClassifierSet implements MemoryObject {
     if (myClassifier == null) {
       myClassifier = createSubClassifier();
       myClassifier.partition(mySnapshotInstances, myDeltaInstances);
+      myClassifier.partitionInstanceGroups(myAddedInstanceGroups, myFreedInstanceGroups);
+      myClassifier.partitionLiveInstanceGroups(myLiveInstanceGroups);
     }
   }
 
@@ -464,6 +700,54 @@ public abstract class ClassifierSet implements MemoryObject {
     return filter != null && filter.matcher(getName()).matches();
   }
 
+  /**
+   * Recomputes the total retained size of this set and of its descendants, for when the retained sizes of the instances become known
+   * after they were added (e.g. heap dumps computing their dominator tree in the background).
+   */
+  public void refreshTotalRetainedSize() {
+    long retainedSize = 0;
+    for (InstanceObject instance : mySnapshotInstances) {
+      retainedSize += getValidRetainedSize(instance);
+    }
+    for (InstanceObject instance : myDeltaInstances) {
+      // Mirrors how the delta instances are accounted for, see Classifier#partition.
+      if (!instance.hasTimeData()) {
+        retainedSize += getValidRetainedSize(instance);
+        continue;
+      }
+      if (instance.hasAllocTime() && !mySnapshotInstances.contains(instance)) {
+        retainedSize += getValidRetainedSize(instance);
+      }
+      if (instance.hasDeallocTime()) {
+        retainedSize -= getValidRetainedSize(instance);
+      }
+    }
+    for (InstanceGroup group : myAddedInstanceGroups) {
+      retainedSize += getValidRetainedSize(group);
+    }
+    for (InstanceGroup group : myFreedInstanceGroups) {
+      retainedSize -= getValidRetainedSize(group);
+    }
+    if (myClassifier != null) {
+      for (ClassifierSet classifierSet : myClassifier.getAllClassifierSets()) {
+        classifierSet.refreshTotalRetainedSize();
+        if (!classifierSet.getIsFiltered()) {
+          retainedSize += classifierSet.myTotalRetainedSize;
+        }
+      }
+    }
+    myTotalRetainedSize = retainedSize;
+  }
+
+  private static long getValidRetainedSize(@NotNull InstanceObject instance) {
+    return instance.getRetainedSize() == INVALID_VALUE ? 0 : instance.getRetainedSize();
+  }
+
+  private static long getValidRetainedSize(@NotNull InstanceGroup group) {
+    long retainedSize = group.getTotalRetainedSize();
+    return retainedSize == INVALID_VALUE ? 0 : retainedSize;
+  }
+
   /**
    * The base index for holding child {@link ClassifierSet}s.
    */
@@ -547,5 +831,34 @@ public abstract class ClassifierSet implements MemoryObject {
       snapshotInstances.clear();
       deltaInstances.clear();
     }
+
+    /**
+     * Partitions the {@link InstanceGroup}s of delta allocations and deallocations like {@link #partition(Collection, Collection)}, each
+     * group as a whole. This will consume the groups from the input.
+     */
+    public final void partitionInstanceGroups(@NotNull Collection<InstanceGroup> addedGroups,
+                                              @NotNull Collection<InstanceGroup> freedGroups) {
+      if (isTerminalClassifier()) {
+        return;
+      }
+
+      addedGroups.forEach(group -> getClassifierSet(group.getRepresentative(), true).addDeltaInstanceGroup(group));
+      freedGroups.forEach(group -> getClassifierSet(group.getRepresentative(), true).freeDeltaInstanceGroup(group));
+      addedGroups.clear();
+      freedGroups.clear();
+    }
+
+    /**
+     * Partitions the {@link LiveAllocationInstanceGroup}s, each group with its totals as a whole. This will consume the groups from the
+     * input.
+     */
+    final void partitionLiveInstanceGroups(@NotNull Collection<LiveAllocationInstanceGroup> groups) {
+      if (isTerminalClassifier()) {
+        return;
+      }
+
+      groups.forEach(group -> getClassifierSet(group.getRepresentative(), true).addLiveInstanceGroup(group));
+      groups.clear();
+    }
   }
 }
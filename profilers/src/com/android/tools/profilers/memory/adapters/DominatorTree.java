@@ -0,0 +1,274 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.profilers.memory.adapters;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.stream.IntStream;
+
+/**
+ * Dominator tree, retained sizes and distances to the roots of a graph whose nodes are the ints [0, nodeCount).
+ *
+ * The graph is given by the predecessors of each node in compressed rows: the predecessors of node i are
+ * {@code predecessors[predecessorOffsets[i]]} to {@code predecessors[predecessorOffsets[i + 1] - 1]}. The roots are all dominated by a
+ * virtual root, so a node reachable from two roots has no immediate dominator in the graph.
+ *
+ * Immediate dominators are computed with the semi-NCA algorithm (Georgiadis, "Linear-Time Algorithms for Dominators and Related
+ * Problems"), with an iterative depth-first search and path compression so that the deep reference chains of heap dumps do not overflow
+ * the stack. Inverting the graph is done in parallel; the algorithm itself is sequential but linear-ish and works on int arrays only.
+ */
+final class DominatorTree {
+  static final int NO_DOMINATOR = -1;
+
+  private static final int PROGRESS_STEP = 1 << 16;
+
+  private final int myNodeCount;
+  @NotNull private final int[] myPredecessorOffsets;
+  @NotNull private final int[] myPredecessors;
+  @NotNull private final int[] myRoots;
+
+  @NotNull private final int[] myImmediateDominators;
+  @NotNull private final int[] myDepths;
+  @NotNull private final long[] myRetainedSizes;
+
+  /**
+   * Number of steps done, out of {@link #getStepCount()}. Each pass over the nodes counts for {@code myNodeCount} steps.
+   */
+  private volatile long myStepsDone;
+
+  DominatorTree(int nodeCount, @NotNull int[] predecessorOffsets, @NotNull int[] predecessors, @NotNull int[] roots) {
+    assert predecessorOffsets.length == nodeCount + 1;
+    myNodeCount = nodeCount;
+    myPredecessorOffsets = predecessorOffsets;
+    myPredecessors = predecessors;
+    myRoots = roots;
+    myImmediateDominators = new int[nodeCount];
+    myDepths = new int[nodeCount];
+    myRetainedSizes = new long[nodeCount];
+  }
+
+  /**
+   * Computes the dominator tree and the distances to the roots, then sums {@code sizes} up the tree into retained sizes.
+   */
+  void compute(@NotNull long[] sizes) {
+    assert sizes.length == myNodeCount;
+    int n = myNodeCount;
+    // Virtual root dominating every root.
+    int virtualRoot = n;
+
+    // Successors in compressed rows, inverted from the predecessors.
+    int[] successorOffsets = new int[n + 2];
+    AtomicIntegerArray outDegrees = new AtomicIntegerArray(n + 1);
+    IntStream.range(0, n).parallel().forEach(node -> {
+      for (int i = myPredecessorOffsets[node]; i < myPredecessorOffsets[node + 1]; i++) {
+        outDegrees.incrementAndGet(myPredecessors[i]);
+      }
+    });
+    for (int node = 0; node < n; node++) {
+      successorOffsets[node + 1] = successorOffsets[node] + outDegrees.get(node);
+    }
+    successorOffsets[n + 1] = successorOffsets[n] + myRoots.length;
+    int[] successors = new int[successorOffsets[n + 1]];
+    AtomicIntegerArray cursors = new AtomicIntegerArray(Arrays.copyOf(successorOffsets, n + 1));
+    IntStream.range(0, n).parallel().forEach(node -> {
+      for (int i = myPredecessorOffsets[node]; i < myPredecessorOffsets[node + 1]; i++) {
+        successors[cursors.getAndIncrement(myPredecessors[i])] = node;
+      }
+    });
+    System.arraycopy(myRoots, 0, successors, successorOffsets[n], myRoots.length);
+    step(n);
+
+    // Depth first search from the virtual root, numbering the reachable nodes in pre-order.
+    int[] preOrder = new int[n + 1];
+    int[] parents = new int[n + 1];
+    int[] numbers = new int[n + 1];
+    Arrays.fill(numbers, -1);
+    int count = 0;
+    int[] stack = new int[n + 1];
+    int[] nextEdges = new int[n + 1];
+    int stackSize = 0;
+    numbers[virtualRoot] = count;
+    preOrder[count++] = virtualRoot;
+    stack[stackSize] = virtualRoot;
+    nextEdges[stackSize++] = successorOffsets[virtualRoot];
+    while (stackSize > 0) {
+      int top = stackSize - 1;
+      int node = stack[top];
+      if (nextEdges[top] == successorOffsets[node + 1]) {
+        stackSize--;
+        continue;
+      }
+      int successor = successors[nextEdges[top]++];
+      if (numbers[successor] < 0) {
+        numbers[successor] = count;
+        parents[count] = numbers[node];
+        preOrder[count++] = successor;
+        stack[stackSize] = successor;
+        nextEdges[stackSize++] = successorOffsets[successor];
+        if ((count & (PROGRESS_STEP - 1)) == 0) {
+          step(PROGRESS_STEP);
+        }
+      }
+    }
+    step(n - (count & ~(PROGRESS_STEP - 1)));
+
+    // Semi-dominators, in pre-order numbers. A node is linked to its parent in the forest once its semi-dominator is known.
+    boolean[] isRoot = new boolean[n];
+    for (int root : myRoots) {
+      isRoot[root] = true;
+    }
+    int[] semis = new int[count];
+    int[] labels = new int[count];
+    int[] ancestors = new int[count];
+    for (int i = 0; i < count; i++) {
+      semis[i] = i;
+      labels[i] = i;
+      ancestors[i] = -1;
+    }
+    int[] path = new int[count];
+    for (int i = count - 1; i > 0; i--) {
+      int node = preOrder[i];
+      int semi = isRoot[node] ? 0 : semis[i];
+      for (int j = myPredecessorOffsets[node]; j < myPredecessorOffsets[node + 1]; j++) {
+        int predecessor = numbers[myPredecessors[j]];
+        if (predecessor >= 0) {
+          semi = Math.min(semi, semis[eval(predecessor, ancestors, labels, semis, path)]);
+        }
+      }
+      semis[i] = semi;
+      ancestors[i] = parents[i];
+      if ((i & (PROGRESS_STEP - 1)) == 0) {
+        step(PROGRESS_STEP);
+      }
+    }
+    step(n - (count & ~(PROGRESS_STEP - 1)));
+
+    // The immediate dominator of a node is the nearest common ancestor of its parent and its semi-dominator in the tree so far.
+    int[] dominators = parents;
+    for (int i = 1; i < count; i++) {
+      int dominator = dominators[i];
+      while (dominator > semis[i]) {
+        dominator = dominators[dominator];
+      }
+      dominators[i] = dominator;
+    }
+
+    // Descendants come after their ancestors in pre-order, so the retained sizes are summed bottom-up in reverse pre-order.
+    long[] retainedSizes = new long[count];
+    for (int i = 1; i < count; i++) {
+      retainedSizes[i] = sizes[preOrder[i]];
+    }
+    for (int i = count - 1; i > 1; i--) {
+      retainedSizes[dominators[i]] += retainedSizes[i];
+    }
+
+    Arrays.fill(myImmediateDominators, NO_DOMINATOR);
+    for (int i = 1; i < count; i++) {
+      int node = preOrder[i];
+      myImmediateDominators[node] = dominators[i] == 0 ? NO_DOMINATOR : preOrder[dominators[i]];
+      myRetainedSizes[node] = retainedSizes[i];
+    }
+    step(n);
+
+    computeDepths(successorOffsets, successors);
+    step(n);
+  }
+
+  /**
+   * Returns the progress of {@link #compute}, between 0 and 1.
+   */
+  double getProgress() {
+    return myNodeCount == 0 ? 1 : Math.min(1, (double)myStepsDone / getStepCount());
+  }
+
+  /**
+   * Returns the immediate dominator of {@code node}, or {@link #NO_DOMINATOR} if it is only dominated by the virtual root or if it is
+   * unreachable.
+   */
+  int getImmediateDominator(int node) {
+    return myImmediateDominators[node];
+  }
+
+  /**
+   * Returns the sum of the sizes of the nodes dominated by {@code node}, itself included, or 0 if it is unreachable.
+   */
+  long getRetainedSize(int node) {
+    return myRetainedSizes[node];
+  }
+
+  /**
+   * Returns the length of the shortest path from a root to {@code node}, or {@link Integer#MAX_VALUE} if it is unreachable.
+   */
+  int getDepth(int node) {
+    return myDepths[node];
+  }
+
+  private long getStepCount() {
+    return 5L * myNodeCount;
+  }
+
+  private void step(long steps) {
+    myStepsDone += steps;
+  }
+
+  private void computeDepths(@NotNull int[] successorOffsets, @NotNull int[] successors) {
+    Arrays.fill(myDepths, Integer.MAX_VALUE);
+    int[] queue = new int[myNodeCount];
+    int head = 0;
+    int tail = 0;
+    for (int root : myRoots) {
+      if (myDepths[root] != 0) {
+        myDepths[root] = 0;
+        queue[tail++] = root;
+      }
+    }
+    while (head < tail) {
+      int node = queue[head++];
+      for (int i = successorOffsets[node]; i < successorOffsets[node + 1]; i++) {
+        int successor = successors[i];
+        if (myDepths[successor] == Integer.MAX_VALUE) {
+          myDepths[successor] = myDepths[node] + 1;
+          queue[tail++] = successor;
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns the node with the smallest semi-dominator on the path from {@code node} to the root of its tree in the forest of linked
+   * nodes, compressing the path on the way.
+   */
+  private static int eval(int node, @NotNull int[] ancestors, @NotNull int[] labels, @NotNull int[] semis, @NotNull int[] path) {
+    if (ancestors[node] < 0) {
+      return node;
+    }
+    int length = 0;
+    for (int current = node; ancestors[ancestors[current]] >= 0; current = ancestors[current]) {
+      path[length++] = current;
+    }
+    for (int i = length - 1; i >= 0; i--) {
+      int current = path[i];
+      int ancestor = ancestors[current];
+      if (semis[labels[ancestor]] < semis[labels[current]]) {
+        labels[current] = labels[ancestor];
+      }
+      ancestors[current] = ancestors[ancestor];
+    }
+    return labels[node];
+  }
+}
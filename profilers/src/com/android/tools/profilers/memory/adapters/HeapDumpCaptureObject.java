@@ -16,34 +16,50 @@
 package com.android.tools.profilers.memory.adapters;
 
 import com.android.tools.adtui.model.Range;
+import com.android.tools.perflib.captures.MemoryMappedFileBuffer;
 import com.android.tools.perflib.heap.ClassObj;
 import com.android.tools.perflib.heap.Heap;
 import com.android.tools.perflib.heap.Instance;
+import com.android.tools.perflib.heap.RootObj;
 import com.android.tools.perflib.heap.Snapshot;
 import com.android.tools.perflib.heap.ext.NativeRegistryPostProcessor;
-import com.android.tools.perflib.heap.io.InMemoryBuffer;
 import com.android.tools.profiler.proto.Common;
 import com.android.tools.profiler.proto.MemoryProfiler.DumpDataRequest;
 import com.android.tools.profiler.proto.MemoryProfiler.DumpDataResponse;
 import com.android.tools.profiler.proto.MemoryProfiler.HeapDumpInfo;
 import com.android.tools.profiler.proto.MemoryServiceGrpc.MemoryServiceBlockingStub;
+import com.android.tools.profiler.protobuf3jarjar.ByteString;
 import com.android.tools.profilers.analytics.FeatureTracker;
+import com.android.tools.profilers.memory.MemoryProfilerStage;
 import com.android.tools.proguard.ProguardMap;
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.intellij.openapi.diagnostic.Logger;
+import gnu.trove.TIntArrayList;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.function.Function;
+import java.util.stream.IntStream;
 import java.util.stream.Stream;
 
 import static com.android.tools.profilers.memory.adapters.CaptureObject.ClassifierAttribute.*;
 
 public class HeapDumpCaptureObject implements CaptureObject {
 
+  private static Logger getLogger() {
+    return Logger.getInstance(HeapDumpCaptureObject.class);
+  }
+
   @NotNull
   private final MemoryServiceBlockingStub myClient;
 
@@ -59,9 +75,6 @@ public class HeapDumpCaptureObject implements CaptureObject {
   @NotNull
   private final Map<ClassObj, InstanceObject> myClassObjectIndex = new HashMap<>();
 
-  @NotNull
-  private final Map<Instance, InstanceObject> myInstanceIndex = new HashMap<>();
-
   @NotNull
   private final ClassDb myClassDb = new ClassDb();
 
@@ -71,9 +84,37 @@ public class HeapDumpCaptureObject implements CaptureObject {
   @Nullable
   private final ProguardMap myProguardMap;
 
+  @Nullable
+  private final MemoryProfilerStage myStage;
+
   @Nullable
   private volatile Snapshot mySnapshot;
 
+  /**
+   * The spooled hprof which {@link #mySnapshot} reads from, released by {@link #unload()}.
+   */
+  @Nullable
+  private MappedHeapDump myHeapDump;
+
+  /**
+   * The computation of the dominator tree when it runs in the background, the snapshot must not be released before it is done.
+   */
+  @Nullable
+  private CompletableFuture<Void> myDominatorTreeComputation;
+
+  /**
+   * Sorted ids of the class objects and instances of the heap dump, whose indices are the nodes of {@link #myDominatorTree}.
+   */
+  @NotNull
+  private long[] myInstanceIds = new long[0];
+
+  @Nullable
+  private volatile DominatorTree myDominatorTree;
+
+  private volatile boolean myIsDominatorTreeComputed = false;
+
+  private volatile boolean myIsDominatorTreeFailed = false;
+
   private volatile boolean myIsLoadingError = false;
 
   private boolean myHasNativeAllocations;
@@ -82,12 +123,14 @@ public class HeapDumpCaptureObject implements CaptureObject {
                                @NotNull Common.Session session,
                                @NotNull HeapDumpInfo heapDumpInfo,
                                @Nullable ProguardMap proguardMap,
-                               @NotNull FeatureTracker featureTracker) {
+                               @NotNull FeatureTracker featureTracker,
+                               @Nullable MemoryProfilerStage stage) {
     myClient = client;
     mySession = session;
     myHeapDumpInfo = heapDumpInfo;
     myProguardMap = proguardMap;
     myFeatureTracker = featureTracker;
+    myStage = stage;
   }
 
   @NotNull
@@ -162,49 +205,57 @@ public class HeapDumpCaptureObject implements CaptureObject {
     return myHeapDumpInfo.getEndTime();
   }
 
+  @NotNull
+  public HeapDumpInfo getHeapDumpInfo() {
+    return myHeapDumpInfo;
+  }
+
   public boolean getHasNativeAllocations() {
     return myHasNativeAllocations;
   }
 
+  @VisibleForTesting
+  @Nullable
+  File getHeapDumpFile() {
+    MappedHeapDump heapDump = myHeapDump;
+    return heapDump == null ? null : heapDump.myFile;
+  }
+
   @Override
   public boolean load(@Nullable Range queryRange, @Nullable Executor queryJoiner) {
-    DumpDataResponse response;
-    while (true) {
-      // TODO move this to another thread and complete before we notify
-      response = myClient.getHeapDump(DumpDataRequest.newBuilder()
-                                        .setSession(mySession)
-                                        .setDumpTime(myHeapDumpInfo.getStartTime()).build());
-      if (response.getStatus() == DumpDataResponse.Status.SUCCESS) {
-        break;
-      }
-      else if (response.getStatus() == DumpDataResponse.Status.NOT_READY) {
-        try {
-          Thread.sleep(50L);
-        }
-        catch (InterruptedException e) {
-          Thread.currentThread().interrupt();
-          myIsLoadingError = true;
-          return false;
-        }
-        continue;
-      }
+    DumpDataResponse response = requestHeapDump(myClient, mySession, myHeapDumpInfo.getStartTime());
+    if (response == null) {
+      myIsLoadingError = true;
+      return false;
+    }
+
+    MappedHeapDump heapDump;
+    try {
+      heapDump = mapHeapDump(response.getData());
+    }
+    catch (IOException e) {
       myIsLoadingError = true;
       return false;
     }
+    response = null;
+    myHeapDump = heapDump;
 
-    InMemoryBuffer buffer = new InMemoryBuffer(response.getData().asReadOnlyByteBuffer());
     Snapshot snapshot;
     NativeRegistryPostProcessor nativeRegistryPostProcessor = new NativeRegistryPostProcessor();
     if (myProguardMap != null) {
-      snapshot = Snapshot.createSnapshot(buffer, myProguardMap, Arrays.asList(nativeRegistryPostProcessor));
+      snapshot = Snapshot.createSnapshot(heapDump.getBuffer(), myProguardMap, Arrays.asList(nativeRegistryPostProcessor));
     }
     else {
-      snapshot = Snapshot.createSnapshot(buffer, new ProguardMap(), Arrays.asList(nativeRegistryPostProcessor));
+      snapshot = Snapshot.createSnapshot(heapDump.getBuffer(), new ProguardMap(), Arrays.asList(nativeRegistryPostProcessor));
     }
-    snapshot.computeDominators();
     myHasNativeAllocations = nativeRegistryPostProcessor.getHasNativeAllocations();
     mySnapshot = snapshot;
 
+    if (queryJoiner == null) {
+      // Nothing to notify once the retained sizes are known, so compute them before the heap sets sum them up.
+      computeDominatorTree(snapshot);
+    }
+
     Map<Heap, HeapSet> heapSets = new HashMap<>(snapshot.getHeaps().size());
     InstanceObject javaLangClassObject = null;
     for (Heap heap : snapshot.getHeaps()) {
@@ -220,27 +271,25 @@ public class HeapDumpCaptureObject implements CaptureObject {
     }
 
     InstanceObject finalJavaLangClassObject = javaLangClassObject;
+    List<ClassObj> classObjs = new ArrayList<>();
     for (Heap heap : snapshot.getHeaps()) {
       HeapSet heapSet = heapSets.get(heap);
       heap.getClasses().forEach(classObj -> {
         InstanceObject classObject = createClassObjectInstance(finalJavaLangClassObject, classObj);
-        myInstanceIndex.put(classObj, classObject);
         heapSet.addDeltaInstanceObject(classObject);
+        classObjs.add(classObj);
       });
     }
 
+    // The other instances are only counted per class, their InstanceObjects are created when the instances of a class are listed.
     for (Heap heap : snapshot.getHeaps()) {
       HeapSet heapSet = heapSets.get(heap);
-      heap.forEachInstance(instance -> {
-        assert !ClassDb.JAVA_LANG_CLASS.equals(getName());
-        ClassObj classObj = instance.getClassObj();
-        InstanceObject instanceObject =
-          new HeapDumpInstanceObject(this, getClassObjectInstance(instance), instance,
-                                     myClassDb.registerClass(classObj.getClassLoaderId(), classObj.getClassName()), null);
-        myInstanceIndex.put(instance, instanceObject);
-        heapSet.addDeltaInstanceObject(instanceObject);
-        return true;
-      });
+      for (ClassObj classObj : classObjs) {
+        List<Instance> instances = classObj.getHeapInstances(heap.getId());
+        if (!instances.isEmpty()) {
+          heapSet.addDeltaInstanceGroup(new ClassInstanceGroup(classObj, heap.getId(), instances));
+        }
+      }
     }
     heapSets.forEach((key, value) -> {
       if ("default".equals(key.getName())) {
@@ -253,9 +302,206 @@ public class HeapDumpCaptureObject implements CaptureObject {
       }
     });
 
+    if (queryJoiner != null) {
+      // The class histogram can be shown already, the retained sizes and depths are filled in once the dominator tree is computed.
+      ExecutorService executorService =
+        Executors.newSingleThreadExecutor(new ThreadFactoryBuilder().setNameFormat("profiler-heap-dump-dominators").setDaemon(true).build());
+      myDominatorTreeComputation = CompletableFuture.runAsync(() -> {
+        computeDominatorTree(snapshot);
+        queryJoiner.execute(() -> {
+          if (mySnapshot == null) {
+            // Unloaded in the meantime.
+            return;
+          }
+          myHeapSets.values().forEach(ClassifierSet::refreshTotalRetainedSize);
+          if (myStage != null) {
+            myStage.refreshSelectedHeap();
+          }
+        });
+      }, executorService).whenComplete((result, error) -> {
+        if (error == null) {
+          return;
+        }
+        getLogger().warn("Failed to compute the dominator tree of the heap dump", error);
+        myIsDominatorTreeFailed = true;
+        queryJoiner.execute(() -> {
+          if (myStage != null) {
+            myStage.refreshSelectedHeap();
+          }
+        });
+      });
+      executorService.shutdown();
+    }
+
     return true;
   }
 
+  /**
+   * Requests the hprof of the heap dump which started at {@code dumpTime}, waiting for it to be ready.
+   *
+   * @return the successful response, or null if the dump could not be retrieved.
+   */
+  @Nullable
+  static DumpDataResponse requestHeapDump(@NotNull MemoryServiceBlockingStub client, @NotNull Common.Session session, long dumpTime) {
+    while (true) {
+      // TODO move this to another thread and complete before we notify
+      DumpDataResponse response = client.getHeapDump(DumpDataRequest.newBuilder().setSession(session).setDumpTime(dumpTime).build());
+      if (response.getStatus() == DumpDataResponse.Status.SUCCESS) {
+        return response;
+      }
+      else if (response.getStatus() == DumpDataResponse.Status.NOT_READY) {
+        try {
+          Thread.sleep(50L);
+        }
+        catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          return null;
+        }
+        continue;
+      }
+      return null;
+    }
+  }
+
+  /**
+   * Spools the hprof to disk and maps it, so that a {@link Snapshot} reads the dump from outside of the Java heap instead of keeping it
+   * all in memory for as long as the snapshot is around. The caller has to {@link MappedHeapDump#dispose()} it once the snapshot is no
+   * longer used.
+   */
+  @NotNull
+  static MappedHeapDump mapHeapDump(@NotNull ByteString data) throws IOException {
+    File hprofFile = File.createTempFile("heapdump", ".hprof");
+    // Only a fallback, the file is deleted as soon as the dump is disposed.
+    hprofFile.deleteOnExit();
+    try {
+      try (FileOutputStream outputStream = new FileOutputStream(hprofFile)) {
+        data.writeTo(outputStream);
+      }
+      return new MappedHeapDump(hprofFile, new MemoryMappedFileBuffer(hprofFile));
+    }
+    catch (IOException e) {
+      //noinspection ResultOfMethodCallIgnored
+      hprofFile.delete();
+      throw e;
+    }
+  }
+
+  public boolean isDominatorTreeComputed() {
+    return myIsDominatorTreeComputed;
+  }
+
+  /**
+   * @return whether the dominator tree is being computed in the background, the retained sizes and depths are unknown until it is done.
+   */
+  public boolean isDominatorTreeComputing() {
+    CompletableFuture<Void> computation = myDominatorTreeComputation;
+    return computation != null && !computation.isDone();
+  }
+
+  /**
+   * @return whether the dominator tree could not be computed, in which case the retained sizes and depths stay unknown.
+   */
+  public boolean isDominatorTreeFailed() {
+    return myIsDominatorTreeFailed;
+  }
+
+  /**
+   * @return the fraction of the dominator tree computation which is done, between 0 and 1.
+   */
+  public double getDominatorTreeProgress() {
+    if (myIsDominatorTreeComputed) {
+      return 1;
+    }
+    DominatorTree dominatorTree = myDominatorTree;
+    return dominatorTree == null ? 0 : dominatorTree.getProgress();
+  }
+
+  /**
+   * Indexes the class objects and instances of {@code snapshot} by id and computes their dominator tree from their hard references.
+   */
+  private void computeDominatorTree(@NotNull Snapshot snapshot) {
+    List<Instance> instanceList = new ArrayList<>();
+    for (Heap heap : snapshot.getHeaps()) {
+      instanceList.addAll(heap.getClasses());
+      heap.forEachInstance(instance -> {
+        instanceList.add(instance);
+        return true;
+      });
+    }
+    Instance[] instances = instanceList.toArray(new Instance[0]);
+    Arrays.parallelSort(instances, Comparator.comparingLong(Instance::getId));
+    int count = instances.length;
+    long[] ids = new long[count];
+    long[] sizes = new long[count];
+    IntStream.range(0, count).parallel().forEach(i -> {
+      ids[i] = instances[i].getId();
+      sizes[i] = instances[i].getSize();
+    });
+
+    // The predecessors of each instance in compressed rows, leaving out the referrers which are not indexed.
+    int[] predecessorOffsets = new int[count + 1];
+    IntStream.range(0, count).parallel().forEach(i -> {
+      int predecessorCount = 0;
+      for (Instance reference : instances[i].getHardReverseReferences()) {
+        if (Arrays.binarySearch(ids, reference.getId()) >= 0) {
+          predecessorCount++;
+        }
+      }
+      predecessorOffsets[i + 1] = predecessorCount;
+    });
+    for (int i = 0; i < count; i++) {
+      predecessorOffsets[i + 1] += predecessorOffsets[i];
+    }
+    int[] predecessors = new int[predecessorOffsets[count]];
+    IntStream.range(0, count).parallel().forEach(i -> {
+      int offset = predecessorOffsets[i];
+      for (Instance reference : instances[i].getHardReverseReferences()) {
+        int index = Arrays.binarySearch(ids, reference.getId());
+        if (index >= 0) {
+          predecessors[offset++] = index;
+        }
+      }
+    });
+
+    TIntArrayList roots = new TIntArrayList();
+    for (RootObj root : snapshot.getGCRoots()) {
+      Instance instance = root.getReferredInstance();
+      int index = instance == null ? -1 : Arrays.binarySearch(ids, instance.getId());
+      if (index >= 0) {
+        roots.add(index);
+      }
+    }
+
+    DominatorTree dominatorTree = new DominatorTree(count, predecessorOffsets, predecessors, roots.toNativeArray());
+    myInstanceIds = ids;
+    myDominatorTree = dominatorTree;
+    dominatorTree.compute(sizes);
+    myIsDominatorTreeComputed = true;
+  }
+
+  /**
+   * @return the retained size of {@code instance}, or {@link MemoryObject#INVALID_VALUE} if the dominator tree is not computed yet.
+   */
+  long getRetainedSize(@NotNull Instance instance) {
+    int index = getDominatorTreeIndex(instance);
+    return index < 0 ? INVALID_VALUE : myDominatorTree.getRetainedSize(index);
+  }
+
+  /**
+   * @return the distance of {@code instance} to a GC root, or {@link MemoryObject#INVALID_VALUE} if the dominator tree is not computed yet.
+   */
+  int getDepth(@NotNull Instance instance) {
+    int index = getDominatorTreeIndex(instance);
+    return index < 0 ? INVALID_VALUE : myDominatorTree.getDepth(index);
+  }
+
+  private int getDominatorTreeIndex(@NotNull Instance instance) {
+    if (!myIsDominatorTreeComputed) {
+      return -1;
+    }
+    return Arrays.binarySearch(myInstanceIds, instance.getId());
+  }
+
   @Override
   public boolean isDoneLoading() {
     return mySnapshot != null || myIsLoadingError;
@@ -268,7 +514,29 @@ public class HeapDumpCaptureObject implements CaptureObject {
 
   @Override
   public void unload() {
-
+    Snapshot snapshot = mySnapshot;
+    MappedHeapDump heapDump = myHeapDump;
+    mySnapshot = null;
+    myHeapDump = null;
+    myHeapSets.clear();
+    myClassObjectIndex.clear();
+
+    Runnable release = () -> {
+      if (snapshot != null) {
+        snapshot.dispose();
+      }
+      if (heapDump != null) {
+        heapDump.dispose();
+      }
+    };
+    CompletableFuture<Void> dominatorTreeComputation = myDominatorTreeComputation;
+    if (dominatorTreeComputation == null) {
+      release.run();
+    }
+    else {
+      // Runs right away if the computation is done already.
+      dominatorTreeComputation.whenComplete((result, throwable) -> release.run());
+    }
   }
 
   @NotNull
@@ -289,13 +557,27 @@ public class HeapDumpCaptureObject implements CaptureObject {
              .asList(InstanceAttribute.LABEL, InstanceAttribute.DEPTH, InstanceAttribute.SHALLOW_SIZE, InstanceAttribute.RETAINED_SIZE);
   }
 
+  /**
+   * Returns the {@link InstanceObject} of {@code instance}. Only class objects are indexed, other instances are wrapped on demand
+   * rather than keeping a map of every object of the heap dump: {@link HeapDumpInstanceObject}s of the same {@link Instance} are equal.
+   */
   @Nullable
   public InstanceObject findInstanceObject(@NotNull Instance instance) {
     if (mySnapshot == null) {
       return null;
     }
 
-    return myInstanceIndex.get(instance);
+    if (instance instanceof ClassObj) {
+      return myClassObjectIndex.get(instance);
+    }
+    return createInstanceObject(instance);
+  }
+
+  @NotNull
+  private InstanceObject createInstanceObject(@NotNull Instance instance) {
+    ClassObj classObj = instance.getClassObj();
+    return new HeapDumpInstanceObject(this, getClassObjectInstance(instance), instance,
+                                      myClassDb.registerClass(classObj.getClassLoaderId(), classObj.getClassName()), null);
   }
 
   @NotNull
@@ -323,4 +605,104 @@ public class HeapDumpCaptureObject implements CaptureObject {
     ClassObj classObj = instance.getClassObj();
     return myClassObjectIndex.get(classObj);
   }
+
+  /**
+   * The instances of a class in one heap. Only their counts and sizes are kept, they are wrapped into {@link InstanceObject}s when they
+   * are listed, so the capture holds objects per class rather than per instance.
+   */
+  private final class ClassInstanceGroup implements InstanceGroup {
+    @NotNull private final ClassObj myClassObj;
+    private final int myHeapId;
+    @NotNull private final InstanceObject myRepresentative;
+    private final int myCount;
+    private final long myTotalNativeSize;
+    private final long myTotalShallowSize;
+
+    private ClassInstanceGroup(@NotNull ClassObj classObj, int heapId, @NotNull List<Instance> instances) {
+      assert !instances.isEmpty();
+      myClassObj = classObj;
+      myHeapId = heapId;
+      myRepresentative = createInstanceObject(instances.get(0));
+      myCount = instances.size();
+      long nativeSize = 0;
+      long shallowSize = 0;
+      for (Instance instance : instances) {
+        nativeSize += instance.getNativeSize();
+        shallowSize += instance.getSize();
+      }
+      myTotalNativeSize = nativeSize;
+      myTotalShallowSize = shallowSize;
+    }
+
+    @NotNull
+    @Override
+    public InstanceObject getRepresentative() {
+      return myRepresentative;
+    }
+
+    @Override
+    public int getCount() {
+      return myCount;
+    }
+
+    @Override
+    public long getTotalNativeSize() {
+      return myTotalNativeSize;
+    }
+
+    @Override
+    public long getTotalShallowSize() {
+      return myTotalShallowSize;
+    }
+
+    @Override
+    public long getTotalRetainedSize() {
+      if (!myIsDominatorTreeComputed) {
+        return INVALID_VALUE;
+      }
+      long retainedSize = 0;
+      for (Instance instance : myClassObj.getHeapInstances(myHeapId)) {
+        retainedSize += Math.max(0, getRetainedSize(instance));
+      }
+      return retainedSize;
+    }
+
+    @Override
+    public int getInstanceObjectCount() {
+      return myCount;
+    }
+
+    @NotNull
+    @Override
+    public Stream<InstanceObject> createInstances() {
+      return myClassObj.getHeapInstances(myHeapId).stream().map(instance -> createInstanceObject(instance));
+    }
+  }
+
+  /**
+   * A heap dump spooled to a temporary file and mapped into memory, see {@link #mapHeapDump(ByteString)}.
+   */
+  static final class MappedHeapDump {
+    @NotNull private final File myFile;
+    @NotNull private final MemoryMappedFileBuffer myBuffer;
+
+    private MappedHeapDump(@NotNull File file, @NotNull MemoryMappedFileBuffer buffer) {
+      myFile = file;
+      myBuffer = buffer;
+    }
+
+    @NotNull
+    MemoryMappedFileBuffer getBuffer() {
+      return myBuffer;
+    }
+
+    /**
+     * Unmaps the dump and deletes its file. Nothing may read from the snapshots of the dump afterwards.
+     */
+    void dispose() {
+      myBuffer.dispose();
+      //noinspection ResultOfMethodCallIgnored
+      myFile.delete();
+    }
+  }
 }
@@ -0,0 +1,265 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.profilers.memory.adapters;
+
+import com.android.tools.adtui.model.Range;
+import com.android.tools.perflib.heap.Snapshot;
+import com.android.tools.profiler.proto.Common;
+import com.android.tools.profiler.proto.MemoryProfiler.DumpDataResponse;
+import com.android.tools.profiler.proto.MemoryProfiler.HeapDumpInfo;
+import com.android.tools.profiler.proto.MemoryServiceGrpc.MemoryServiceBlockingStub;
+import com.android.tools.proguard.ProguardMap;
+import com.google.common.collect.ImmutableList;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import sun.reflect.generics.reflectiveObjects.NotImplementedException;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.*;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+import static com.android.tools.profilers.memory.adapters.CaptureObject.ClassifierAttribute.*;
+
+/**
+ * Compares two heap dumps of the same session: the instances of each class which are in the target dump but not in the base one show up
+ * as delta allocations of the {@link HeapSet}s, and the ones which are gone as delta deallocations.
+ *
+ * Each dump is reduced to a {@link HeapDumpHistogram} and released before the next one is loaded, so only one {@link Snapshot} is in
+ * memory at a time. The capture itself holds one {@link InstanceGroup} per class which changed, whatever the difference in counts.
+ */
+public class HeapDumpDiffCaptureObject implements CaptureObject {
+  @NotNull private final MemoryServiceBlockingStub myClient;
+  @NotNull private final Common.Session mySession;
+  @NotNull private final HeapDumpInfo myBaseHeapDumpInfo;
+  @NotNull private final HeapDumpInfo myTargetHeapDumpInfo;
+  @Nullable private final ProguardMap myProguardMap;
+
+  @NotNull private final Map<Integer, HeapSet> myHeapSets = new HashMap<>();
+  @NotNull private final ClassDb myClassDb = new ClassDb();
+
+  private volatile boolean myIsDoneLoading = false;
+  private volatile boolean myIsLoadingError = false;
+
+  public HeapDumpDiffCaptureObject(@NotNull MemoryServiceBlockingStub client,
+                                   @NotNull Common.Session session,
+                                   @NotNull HeapDumpInfo baseHeapDumpInfo,
+                                   @NotNull HeapDumpInfo targetHeapDumpInfo,
+                                   @Nullable ProguardMap proguardMap) {
+    myClient = client;
+    mySession = session;
+    myBaseHeapDumpInfo = baseHeapDumpInfo;
+    myTargetHeapDumpInfo = targetHeapDumpInfo;
+    myProguardMap = proguardMap;
+  }
+
+  @NotNull
+  @Override
+  public String getName() {
+    return "Heap Dump Diff";
+  }
+
+  @Nullable
+  @Override
+  public String getExportableExtension() {
+    return null;
+  }
+
+  @Override
+  public void saveToFile(@NotNull OutputStream outputStream) throws IOException {
+    throw new NotImplementedException();
+  }
+
+  @NotNull
+  @Override
+  public List<ClassifierAttribute> getClassifierAttributes() {
+    return ImmutableList.of(LABEL, ALLOCATIONS, DEALLOCATIONS, TOTAL_COUNT, NATIVE_SIZE, SHALLOW_SIZE);
+  }
+
+  @NotNull
+  @Override
+  public List<InstanceAttribute> getInstanceAttributes() {
+    return ImmutableList.of(InstanceAttribute.LABEL, InstanceAttribute.NATIVE_SIZE, InstanceAttribute.SHALLOW_SIZE);
+  }
+
+  @NotNull
+  @Override
+  public Collection<HeapSet> getHeapSets() {
+    return myIsDoneLoading ? myHeapSets.values() : Collections.emptyList();
+  }
+
+  @Nullable
+  @Override
+  public HeapSet getHeapSet(int heapId) {
+    return myHeapSets.getOrDefault(heapId, null);
+  }
+
+  @NotNull
+  @Override
+  public Stream<InstanceObject> getInstances() {
+    return getHeapSets().stream().map(ClassifierSet::getInstancesStream).flatMap(Function.identity());
+  }
+
+  @Override
+  public long getStartTimeNs() {
+    return myBaseHeapDumpInfo.getStartTime();
+  }
+
+  @Override
+  public long getEndTimeNs() {
+    return myTargetHeapDumpInfo.getEndTime();
+  }
+
+  @Override
+  public boolean load(@Nullable Range queryRange, @Nullable Executor queryJoiner) {
+    HeapDumpHistogram baseHistogram = loadHistogram(myBaseHeapDumpInfo);
+    HeapDumpHistogram targetHistogram = baseHistogram == null ? null : loadHistogram(myTargetHeapDumpInfo);
+    if (targetHistogram == null) {
+      myIsLoadingError = true;
+      return false;
+    }
+
+    for (HeapDumpHistogram.ClassDelta delta : HeapDumpHistogram.diff(baseHistogram, targetHistogram)) {
+      HeapSet heapSet = myHeapSets.computeIfAbsent(delta.getHeapId(), id -> new HeapSet(this, delta.getHeapName(), id));
+      ClassDb.ClassEntry classEntry = myClassDb.registerClass(DEFAULT_CLASSLOADER_ID, delta.getClassName());
+      // A class whose instances only changed in size counts as an allocation of no instances, of the size difference.
+      boolean isAllocation = delta.getCountDelta() >= 0;
+      int sign = isAllocation ? 1 : -1;
+      InstanceObject representative =
+        new HeapDumpDiffInstanceObject(classEntry, delta.getHeapId(), isAllocation, myTargetHeapDumpInfo.getStartTime());
+      DiffInstanceGroup group = new DiffInstanceGroup(representative, sign * delta.getCountDelta(), sign * delta.getShallowSizeDelta(),
+                                                      sign * delta.getNativeSizeDelta());
+      if (isAllocation) {
+        heapSet.addDeltaInstanceGroup(group);
+      }
+      else {
+        heapSet.freeDeltaInstanceGroup(group);
+      }
+    }
+    myIsDoneLoading = true;
+    return true;
+  }
+
+  /**
+   * Parses the heap dump described by {@code heapDumpInfo} into its histogram, disposing of its {@link Snapshot} and its temp file right
+   * after.
+   *
+   * @return the histogram, or null if the dump could not be retrieved.
+   */
+  @Nullable
+  private HeapDumpHistogram loadHistogram(@NotNull HeapDumpInfo heapDumpInfo) {
+    DumpDataResponse response = HeapDumpCaptureObject.requestHeapDump(myClient, mySession, heapDumpInfo.getStartTime());
+    if (response == null) {
+      return null;
+    }
+
+    HeapDumpCaptureObject.MappedHeapDump heapDump;
+    try {
+      heapDump = HeapDumpCaptureObject.mapHeapDump(response.getData());
+    }
+    catch (IOException e) {
+      return null;
+    }
+    response = null;
+
+    Snapshot snapshot = null;
+    try {
+      snapshot = Snapshot.createSnapshot(heapDump.getBuffer(), myProguardMap != null ? myProguardMap : new ProguardMap(),
+                                         Collections.emptyList());
+      return HeapDumpHistogram.create(snapshot);
+    }
+    finally {
+      if (snapshot != null) {
+        snapshot.dispose();
+      }
+      heapDump.dispose();
+    }
+  }
+
+  @Override
+  public boolean isDoneLoading() {
+    return myIsDoneLoading || myIsLoadingError;
+  }
+
+  @Override
+  public boolean isError() {
+    return myIsLoadingError;
+  }
+
+  @Override
+  public void unload() {
+    // The dumps are released as soon as their histograms are built, only the heap sets are left.
+    myIsDoneLoading = false;
+    myHeapSets.clear();
+  }
+
+  /**
+   * The change in the number and total sizes of the instances of a class. Instances cannot be matched across dumps, so the group has no
+   * {@link InstanceObject}s to list.
+   */
+  private static final class DiffInstanceGroup implements InstanceGroup {
+    @NotNull private final InstanceObject myRepresentative;
+    private final int myCount;
+    private final long myTotalShallowSize;
+    private final long myTotalNativeSize;
+
+    private DiffInstanceGroup(@NotNull InstanceObject representative, int count, long totalShallowSize, long totalNativeSize) {
+      myRepresentative = representative;
+      myCount = count;
+      myTotalShallowSize = totalShallowSize;
+      myTotalNativeSize = totalNativeSize;
+    }
+
+    @NotNull
+    @Override
+    public InstanceObject getRepresentative() {
+      return myRepresentative;
+    }
+
+    @Override
+    public int getCount() {
+      return myCount;
+    }
+
+    @Override
+    public long getTotalNativeSize() {
+      return myTotalNativeSize;
+    }
+
+    @Override
+    public long getTotalShallowSize() {
+      return myTotalShallowSize;
+    }
+
+    @Override
+    public long getTotalRetainedSize() {
+      return INVALID_VALUE;
+    }
+
+    @Override
+    public int getInstanceObjectCount() {
+      return 0;
+    }
+
+    @NotNull
+    @Override
+    public Stream<InstanceObject> createInstances() {
+      return Stream.empty();
+    }
+  }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.profilers.memory.adapters;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Stands for the instances more (allocations) or fewer (deallocations) of a class between two heap dumps, see
+ * {@link HeapDumpDiffCaptureObject}. Instances cannot be matched across dumps, so this is only the representative of the
+ * {@link InstanceGroup} of a class rather than an actual object, and has no size of its own.
+ */
+final class HeapDumpDiffInstanceObject implements InstanceObject {
+  @NotNull private final ClassDb.ClassEntry myClassEntry;
+  private final int myHeapId;
+  private final boolean myIsAllocation;
+  private final long myTimeNs;
+
+  HeapDumpDiffInstanceObject(@NotNull ClassDb.ClassEntry classEntry, int heapId, boolean isAllocation, long timeNs) {
+    myClassEntry = classEntry;
+    myHeapId = heapId;
+    myIsAllocation = isAllocation;
+    myTimeNs = timeNs;
+  }
+
+  @NotNull
+  @Override
+  public String getName() {
+    return "";
+  }
+
+  @NotNull
+  @Override
+  public String getValueText() {
+    return myClassEntry.getSimpleClassName();
+  }
+
+  @Override
+  public int getHeapId() {
+    return myHeapId;
+  }
+
+  @NotNull
+  @Override
+  public ClassDb.ClassEntry getClassEntry() {
+    return myClassEntry;
+  }
+
+  @Nullable
+  @Override
+  public InstanceObject getClassObject() {
+    return null;
+  }
+
+  @NotNull
+  @Override
+  public ValueType getValueType() {
+    return ValueType.OBJECT;
+  }
+
+  @Override
+  public long getAllocTime() {
+    return myIsAllocation ? myTimeNs : Long.MIN_VALUE;
+  }
+
+  @Override
+  public long getDeallocTime() {
+    return myIsAllocation ? Long.MAX_VALUE : myTimeNs;
+  }
+
+  @Override
+  public boolean hasTimeData() {
+    return true;
+  }
+
+  @Override
+  public boolean hasAllocTime() {
+    return myIsAllocation;
+  }
+
+  @Override
+  public boolean hasDeallocTime() {
+    return !myIsAllocation;
+  }
+}
@@ -39,17 +39,22 @@ final class HeapDumpFieldObject implements FieldObject {
     .put(Type.DOUBLE, DOUBLE)
     .build();
 
+  @NotNull private final HeapDumpCaptureObject myCaptureObject;
   @NotNull private final FieldValue myField;
   @NotNull private final ValueObject.ValueType myValueType;
   @Nullable private final InstanceObject myInstanceObject;
-  private final int myDepth;
+  /**
+   * The instance whose depth is the depth of this field, and whose retained size is the retained size of this field if it is a reference.
+   * The retained sizes and depths are only known once the dominator tree is computed, so they are looked up when asked for.
+   */
+  @Nullable private final Instance myDepthInstance;
   private final long myNativeSize;
   private final int myShallowSize;
-  private final long myRetainedSize;
 
   private final int myHashCode;
 
   HeapDumpFieldObject(@NotNull HeapDumpCaptureObject captureObject, @NotNull Instance parentInstance, @NotNull FieldValue field) {
+    myCaptureObject = captureObject;
     myField = field;
     Type type = myField.getField().getType();
     if (type == Type.OBJECT) {
@@ -59,8 +64,7 @@ final class HeapDumpFieldObject implements FieldObject {
         myInstanceObject = null;
         myNativeSize = 0;
         myShallowSize = 0;
-        myRetainedSize = 0;
-        myDepth = Integer.MAX_VALUE;
+        myDepthInstance = null;
       }
       else {
         myInstanceObject = captureObject.findInstanceObject(instance);
@@ -79,8 +83,7 @@ final class HeapDumpFieldObject implements FieldObject {
 
         myNativeSize = instance.getNativeSize();
         myShallowSize = instance.getSize();
-        myRetainedSize = instance.getTotalRetainedSize();
-        myDepth = instance.getDistanceToGcRoot();
+        myDepthInstance = instance;
       }
     }
     else {
@@ -88,8 +91,7 @@ final class HeapDumpFieldObject implements FieldObject {
       myInstanceObject = null;
       myNativeSize = 0;
       myShallowSize = type.getSize();
-      myRetainedSize = type.getSize();
-      myDepth = parentInstance.getDistanceToGcRoot();
+      myDepthInstance = parentInstance;
     }
 
     myHashCode = Arrays.hashCode(new Object[]{myInstanceObject, getFieldName(), getValueType(), myField.getValue()});
@@ -131,12 +133,15 @@ final class HeapDumpFieldObject implements FieldObject {
 
   @Override
   public long getRetainedSize() {
-    return myRetainedSize;
+    if (myField.getField().getType() != Type.OBJECT) {
+      return myShallowSize;
+    }
+    return myDepthInstance == null ? 0 : myCaptureObject.getRetainedSize(myDepthInstance);
   }
 
   @Override
   public int getDepth() {
-    return myDepth;
+    return myDepthInstance == null ? Integer.MAX_VALUE : myCaptureObject.getDepth(myDepthInstance);
   }
 
   @NotNull
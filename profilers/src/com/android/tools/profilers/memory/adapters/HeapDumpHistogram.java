@@ -0,0 +1,162 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.profilers.memory.adapters;
+
+import com.android.tools.perflib.heap.Heap;
+import com.android.tools.perflib.heap.Snapshot;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.*;
+
+/**
+ * The number and sizes of the instances of each class of a heap dump, per heap.
+ *
+ * A histogram holds no reference to its dump, so dumps can be reduced to histograms one after the other and then compared, without
+ * keeping their {@link Snapshot}s in memory at the same time.
+ */
+final class HeapDumpHistogram {
+  @NotNull private final Map<Integer, String> myHeapNames = new HashMap<>();
+  @NotNull private final Map<Integer, Map<String, ClassCounts>> myClassCounts = new HashMap<>();
+
+  /**
+   * Builds the histogram of {@code snapshot}. Class objects are counted as instances of java.lang.Class, as in
+   * {@link HeapDumpCaptureObject}.
+   */
+  @NotNull
+  static HeapDumpHistogram create(@NotNull Snapshot snapshot) {
+    HeapDumpHistogram histogram = new HeapDumpHistogram();
+    for (Heap heap : snapshot.getHeaps()) {
+      heap.getClasses().forEach(
+        classObj -> histogram.add(heap.getId(), heap.getName(), ClassDb.JAVA_LANG_CLASS, classObj.getSize(), classObj.getNativeSize()));
+      heap.forEachInstance(instance -> {
+        histogram.add(heap.getId(), heap.getName(), instance.getClassObj().getClassName(), instance.getSize(), instance.getNativeSize());
+        return true;
+      });
+    }
+    return histogram;
+  }
+
+  void add(int heapId, @NotNull String heapName, @NotNull String className, long shallowSize, long nativeSize) {
+    myHeapNames.putIfAbsent(heapId, heapName);
+    ClassCounts counts = myClassCounts.computeIfAbsent(heapId, id -> new HashMap<>()).computeIfAbsent(className, name -> new ClassCounts());
+    counts.myInstanceCount++;
+    counts.myShallowSize += shallowSize;
+    counts.myNativeSize += nativeSize;
+  }
+
+  int getInstanceCount(int heapId, @NotNull String className) {
+    ClassCounts counts = myClassCounts.getOrDefault(heapId, Collections.emptyMap()).get(className);
+    return counts == null ? 0 : counts.myInstanceCount;
+  }
+
+  /**
+   * Compares the histograms of two heap dumps.
+   *
+   * @return the classes whose number of instances or sizes changed from {@code base} to {@code target}, sorted by heap id then class
+   * name.
+   */
+  @NotNull
+  static List<ClassDelta> diff(@NotNull HeapDumpHistogram base, @NotNull HeapDumpHistogram target) {
+    Map<Integer, String> heapNames = new TreeMap<>(base.myHeapNames);
+    heapNames.putAll(target.myHeapNames);
+
+    List<ClassDelta> deltas = new ArrayList<>();
+    heapNames.forEach((heapId, heapName) -> {
+      Map<String, ClassCounts> baseCounts = base.myClassCounts.getOrDefault(heapId, Collections.emptyMap());
+      Map<String, ClassCounts> targetCounts = target.myClassCounts.getOrDefault(heapId, Collections.emptyMap());
+      Set<String> classNames = new TreeSet<>(baseCounts.keySet());
+      classNames.addAll(targetCounts.keySet());
+      for (String className : classNames) {
+        ClassCounts baseClassCounts = baseCounts.getOrDefault(className, ClassCounts.EMPTY);
+        ClassCounts targetClassCounts = targetCounts.getOrDefault(className, ClassCounts.EMPTY);
+        int countDelta = targetClassCounts.myInstanceCount - baseClassCounts.myInstanceCount;
+        long shallowSizeDelta = targetClassCounts.myShallowSize - baseClassCounts.myShallowSize;
+        long nativeSizeDelta = targetClassCounts.myNativeSize - baseClassCounts.myNativeSize;
+        // Instances such as arrays and bitmaps may grow without their count changing.
+        if (countDelta != 0 || shallowSizeDelta != 0 || nativeSizeDelta != 0) {
+          deltas.add(new ClassDelta(heapId, heapName, className, countDelta, shallowSizeDelta, nativeSizeDelta));
+        }
+      }
+    });
+    return deltas;
+  }
+
+  private static final class ClassCounts {
+    private static final ClassCounts EMPTY = new ClassCounts();
+
+    private int myInstanceCount;
+    private long myShallowSize;
+    private long myNativeSize;
+  }
+
+  /**
+   * The change in the number and total sizes of the instances of a class of a heap, between two heap dumps.
+   */
+  static final class ClassDelta {
+    private final int myHeapId;
+    @NotNull private final String myHeapName;
+    @NotNull private final String myClassName;
+    private final int myCountDelta;
+    private final long myShallowSizeDelta;
+    private final long myNativeSizeDelta;
+
+    ClassDelta(int heapId,
+               @NotNull String heapName,
+               @NotNull String className,
+               int countDelta,
+               long shallowSizeDelta,
+               long nativeSizeDelta) {
+      myHeapId = heapId;
+      myHeapName = heapName;
+      myClassName = className;
+      myCountDelta = countDelta;
+      myShallowSizeDelta = shallowSizeDelta;
+      myNativeSizeDelta = nativeSizeDelta;
+    }
+
+    int getHeapId() {
+      return myHeapId;
+    }
+
+    @NotNull
+    String getHeapName() {
+      return myHeapName;
+    }
+
+    @NotNull
+    String getClassName() {
+      return myClassName;
+    }
+
+    /**
+     * @return the number of instances in the target dump minus the number of instances in the base dump.
+     */
+    int getCountDelta() {
+      return myCountDelta;
+    }
+
+    /**
+     * @return the total shallow size of the instances in the target dump minus the one in the base dump.
+     */
+    long getShallowSizeDelta() {
+      return myShallowSizeDelta;
+    }
+
+    long getNativeSizeDelta() {
+      return myNativeSizeDelta;
+    }
+  }
+}
@@ -49,11 +49,20 @@ public class HeapSet extends ClassifierSet {
     // Subsequent calls to getChildrenClassifierSets will re-partition them to the correct child ClassifierSet.
     List<InstanceObject> snapshotStream = getSnapshotInstanceStream().collect(Collectors.toList());
     List<InstanceObject> deltaStream = getDeltaInstanceStream().collect(Collectors.toList());
+    List<InstanceGroup> addedGroups = getInstanceGroupStream(true).collect(Collectors.toList());
+    List<InstanceGroup> freedGroups = getInstanceGroupStream(false).collect(Collectors.toList());
+    List<LiveAllocationInstanceGroup> liveGroups = getLiveInstanceGroupStream().collect(Collectors.toList());
     myDeltaInstances.clear();
     mySnapshotInstances.clear();
+    myAddedInstanceGroups.clear();
+    myFreedInstanceGroups.clear();
+    myLiveInstanceGroups.clear();
     myClassifier = null;
     myDeltaInstances.addAll(deltaStream);
     mySnapshotInstances.addAll(snapshotStream);
+    myAddedInstanceGroups.addAll(addedGroups);
+    myFreedInstanceGroups.addAll(freedGroups);
+    myLiveInstanceGroups.addAll(liveGroups);
     myNeedsRefiltering = true;
   }
 
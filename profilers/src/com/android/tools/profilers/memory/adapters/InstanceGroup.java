@@ -0,0 +1,59 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.profilers.memory.adapters;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.stream.Stream;
+
+/**
+ * Instances which all belong to the same {@link ClassificationKey}, added to a {@link ClassifierSet} by their count and total sizes.
+ * Their {@link InstanceObject}s are only created when the instances of a set are listed, e.g. when a class is expanded, so a set can
+ * account for many more instances than it holds objects.
+ */
+public interface InstanceGroup {
+  /**
+   * @return any instance of the group, the classifiers look at it to place the whole group.
+   */
+  @NotNull
+  InstanceObject getRepresentative();
+
+  /**
+   * @return the number of instances the group accounts for. A group of no instances may still carry a change in size, e.g. the growth of
+   * the instances of a class between two heap dumps.
+   */
+  int getCount();
+
+  long getTotalNativeSize();
+
+  long getTotalShallowSize();
+
+  /**
+   * @return the total retained size of the instances, or {@link MemoryObject#INVALID_VALUE} if it is not known yet.
+   */
+  long getTotalRetainedSize();
+
+  /**
+   * @return the number of objects {@link #createInstances()} returns, which is 0 for groups which only carry counts.
+   */
+  int getInstanceObjectCount();
+
+  /**
+   * Creates the {@link InstanceObject}s of the group. The objects of different calls are equal to each other.
+   */
+  @NotNull
+  Stream<InstanceObject> createInstances();
+}
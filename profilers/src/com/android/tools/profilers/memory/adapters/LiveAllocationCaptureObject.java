@@ -29,6 +29,7 @@ import com.android.tools.profilers.stacktrace.ThreadId;
 import com.google.common.collect.ImmutableList;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.intellij.openapi.diagnostic.Logger;
+import gnu.trove.TIntArrayList;
 import gnu.trove.TIntObjectHashMap;
 import gnu.trove.TLongObjectHashMap;
 import org.jetbrains.annotations.NotNull;
@@ -64,7 +65,9 @@ public class LiveAllocationCaptureObject implements CaptureObject {
   @VisibleForTesting final ExecutorService myExecutorService;
   private final ClassDb myClassDb;
   private final Map<ClassDb.ClassEntry, LiveAllocationInstanceObject> myClassMap;
-  private final TIntObjectHashMap<LiveAllocationInstanceObject> myInstanceMap;
+  // The groups of the live allocations by tag and by ClassificationKey, only used on the loader thread.
+  private final TIntObjectHashMap<LiveAllocationInstanceGroup> myInstanceGroups;
+  private final Map<ClassificationKey, LiveAllocationInstanceGroup> myKeyInstanceGroups;
   private final TIntObjectHashMap<AllocationStack> myCallstackMap;
   private final TIntObjectHashMap<ThreadId> myThreadIdMap;
   private final TLongObjectHashMap<StackFrameInfoResponse> myFrameInfoResponseMap;
@@ -99,7 +102,8 @@ public class LiveAllocationCaptureObject implements CaptureObject {
 
     myClassDb = new ClassDb();
     myClassMap = new HashMap<>();
-    myInstanceMap = new TIntObjectHashMap<>();
+    myInstanceGroups = new TIntObjectHashMap<>();
+    myKeyInstanceGroups = new HashMap<>();
     myCallstackMap = new TIntObjectHashMap<>();
     myThreadIdMap = new TIntObjectHashMap<>();
     myFrameInfoResponseMap = new TLongObjectHashMap<>();
@@ -316,81 +320,91 @@ public class LiveAllocationCaptureObject implements CaptureObject {
         }
 
         // Snapshots data
-        List<InstanceObject> snapshotList = new ArrayList<>();
-        List<InstanceObject> resetSnapshotList = new ArrayList<>();
+        InstanceUpdates snapshots = new InstanceUpdates();
+        InstanceUpdates resetSnapshots = new InstanceUpdates();
         // Delta data
-        List<InstanceObject> deltaAllocationList = new ArrayList<>();
-        List<InstanceObject> resetDeltaAllocationList = new ArrayList<>();
-        List<InstanceObject> deltaFreeList = new ArrayList<>();
-        List<InstanceObject> resetDeltaFreeList = new ArrayList<>();
+        InstanceUpdates deltaAllocations = new InstanceUpdates();
+        InstanceUpdates resetDeltaAllocations = new InstanceUpdates();
+        InstanceUpdates deltaFrees = new InstanceUpdates();
+        InstanceUpdates resetDeltaFrees = new InstanceUpdates();
 
         // Clear and recreate the instance/heap sets if previous range does not intersect with the new one
         boolean clear = myPreviousQueryEndTimeNs <= newStartTimeNs || newEndTimeNs <= myPreviousQueryStartTimeNs;
         if (clear) {
-          myInstanceMap.clear();
+          // The heap sets hold on to the previous groups until they are cleared on the joiner.
+          myInstanceGroups.clear();
+          myKeyInstanceGroups.clear();
           // If we are resetting, then first establish the object snapshot at the query range's start point.
-          queryJavaInstanceSnapshot(newStartTimeNs, snapshotList);
-          queryJniReferencesSnapshot(newStartTimeNs, snapshotList);
+          queryJavaInstanceSnapshot(newStartTimeNs, snapshots);
+          queryJniReferencesSnapshot(newStartTimeNs, snapshots);
 
           // Update the delta allocations and deallocations within the selection range on the snapshot.
-          queryJavaInstanceDelta(newStartTimeNs, newEndTimeNs, deltaAllocationList, deltaFreeList, false);
-          queryJniReferencesDelta(newStartTimeNs, newEndTimeNs, deltaAllocationList, deltaFreeList, false);
+          queryJavaInstanceDelta(newStartTimeNs, newEndTimeNs, deltaAllocations, deltaFrees, false);
+          queryJniReferencesDelta(newStartTimeNs, newEndTimeNs, deltaAllocations, deltaFrees, false);
         }
         else {
           // Compute selection left differences.
-          List<InstanceObject> leftAllocations = new ArrayList<>();
-          List<InstanceObject> leftDeallocations = new ArrayList<>();
+          InstanceUpdates leftAllocations = new InstanceUpdates();
+          InstanceUpdates leftDeallocations = new InstanceUpdates();
           if (newStartTimeNs < myPreviousQueryStartTimeNs) {
             // Selection's min shifts left
             queryJavaInstanceDelta(newStartTimeNs, myPreviousQueryStartTimeNs, leftAllocations, leftDeallocations, false);
             queryJniReferencesDelta(newStartTimeNs, myPreviousQueryStartTimeNs, leftAllocations, leftDeallocations, false);
             // add data within this range to the deltas
-            deltaAllocationList.addAll(leftAllocations);
-            deltaFreeList.addAll(leftDeallocations);
+            deltaAllocations.addAll(leftAllocations);
+            deltaFrees.addAll(leftDeallocations);
             // Allocations happen after selection min: remove instance from snapshot
-            resetSnapshotList.addAll(leftAllocations);
+            resetSnapshots.addAll(leftAllocations);
             // Deallocations happen after selection min: add instance to snapshot
-            snapshotList.addAll(leftDeallocations);
+            snapshots.addAll(leftDeallocations);
           }
           else if (newStartTimeNs > myPreviousQueryStartTimeNs) {
             // Selection's min shifts right
             queryJavaInstanceDelta(myPreviousQueryStartTimeNs, newStartTimeNs, leftAllocations, leftDeallocations, true);
             queryJniReferencesDelta(myPreviousQueryStartTimeNs, newStartTimeNs, leftAllocations, leftDeallocations, true);
             // Remove data within this range from the deltas
-            resetDeltaAllocationList.addAll(leftAllocations);
-            resetDeltaFreeList.addAll(leftDeallocations);
+            resetDeltaAllocations.addAll(leftAllocations);
+            resetDeltaFrees.addAll(leftDeallocations);
             // Allocations happen before the selection's min: add instance to snapshot
-            snapshotList.addAll(leftAllocations);
+            snapshots.addAll(leftAllocations);
             // Deallocations before the selection's min: remove instance from snapshot
-            resetSnapshotList.addAll(leftDeallocations);
+            resetSnapshots.addAll(leftDeallocations);
           }
 
           // Compute selection right differences.
-          List<InstanceObject> rightAllocations = new ArrayList<>();
-          List<InstanceObject> rightDeallocations = new ArrayList<>();
+          InstanceUpdates rightAllocations = new InstanceUpdates();
+          InstanceUpdates rightDeallocations = new InstanceUpdates();
           if (newEndTimeNs < myPreviousQueryEndTimeNs) {
             // Selection's max shifts left: remove data within this range from the deltas
             queryJavaInstanceDelta(newEndTimeNs, myPreviousQueryEndTimeNs, rightAllocations, rightDeallocations, true);
             queryJniReferencesDelta(newEndTimeNs, myPreviousQueryEndTimeNs, rightAllocations, rightDeallocations, true);
-            resetDeltaAllocationList.addAll(rightAllocations);
-            resetDeltaFreeList.addAll(rightDeallocations);
+            resetDeltaAllocations.addAll(rightAllocations);
+            resetDeltaFrees.addAll(rightDeallocations);
           }
           else if (newEndTimeNs > myPreviousQueryEndTimeNs) {
             // Selection's max shifts right: add data within this range to the deltas
             queryJavaInstanceDelta(myPreviousQueryEndTimeNs, newEndTimeNs, rightAllocations, rightDeallocations, false);
             queryJniReferencesDelta(myPreviousQueryEndTimeNs, newEndTimeNs, rightAllocations, rightDeallocations, false);
-            deltaAllocationList.addAll(rightAllocations);
-            deltaFreeList.addAll(rightDeallocations);
+            deltaAllocations.addAll(rightAllocations);
+            deltaFrees.addAll(rightDeallocations);
           }
         }
 
         myPreviousQueryStartTimeNs = newStartTimeNs;
         myPreviousQueryEndTimeNs = newEndTimeNs;
 
+        // The Java instances are already aggregated by group, the JNI references are aggregated by ClassificationKey here rather than on
+        // the joiner. Either way each group walks down the classifier levels of its heap once and is merged into each level in bulk.
+        List<List<InstanceObject>> snapshotReferences = ClassificationKey.group(snapshots.myInstances);
+        List<List<InstanceObject>> resetSnapshotReferences = ClassificationKey.group(resetSnapshots.myInstances);
+        List<List<InstanceObject>> deltaAllocationReferences = ClassificationKey.group(deltaAllocations.myInstances);
+        List<List<InstanceObject>> deltaFreeReferences = ClassificationKey.group(deltaFrees.myInstances);
+        List<List<InstanceObject>> resetDeltaAllocationReferences = ClassificationKey.group(resetDeltaAllocations.myInstances);
+        List<List<InstanceObject>> resetDeltaFreeReferences = ClassificationKey.group(resetDeltaFrees.myInstances);
+
         joiner.execute(() -> {
           myStage.getAspect().changed(MemoryProfilerAspect.CURRENT_HEAP_UPDATED);
-          if (clear ||
-              deltaAllocationList.size() + deltaFreeList.size() + resetDeltaAllocationList.size() + resetDeltaFreeList.size() > 0) {
+          if (clear || deltaAllocations.size() + deltaFrees.size() + resetDeltaAllocations.size() + resetDeltaFrees.size() > 0) {
             if (clear) {
               myHeapSets.forEach(heap -> heap.clearClassifierSets());
               if (myStage.getSelectedClassSet() != null) {
@@ -398,13 +412,19 @@ public class LiveAllocationCaptureObject implements CaptureObject {
               }
             }
             if (myStage.getStudioProfilers().getIdeServices().getFeatureConfig().isMemorySnapshotEnabled()) {
-              snapshotList.forEach(instance -> myHeapSets.get(instance.getHeapId()).addSnapshotInstanceObject(instance));
-              resetSnapshotList.forEach(instance -> myHeapSets.get(instance.getHeapId()).removeSnapshotInstanceObject(instance));
+              snapshots.myGroupTags.forEach((group, tags) -> getHeapSetOf(group).addSnapshotInstances(group, tags));
+              snapshotReferences.forEach(group -> getHeapSetOf(group).addSnapshotInstanceObjects(group));
+              resetSnapshots.myGroupTags.forEach((group, tags) -> getHeapSetOf(group).removeSnapshotInstances(group, tags));
+              resetSnapshotReferences.forEach(group -> getHeapSetOf(group).removeSnapshotInstanceObjects(group));
             }
-            deltaAllocationList.forEach(instance -> myHeapSets.get(instance.getHeapId()).addDeltaInstanceObject(instance));
-            deltaFreeList.forEach(instance -> myHeapSets.get(instance.getHeapId()).freeDeltaInstanceObject(instance));
-            resetDeltaAllocationList.forEach(instance -> myHeapSets.get(instance.getHeapId()).removeAddedDeltaInstanceObject(instance));
-            resetDeltaFreeList.forEach(instance -> myHeapSets.get(instance.getHeapId()).removeFreedDeltaInstanceObject(instance));
+            deltaAllocations.myGroupTags.forEach((group, tags) -> getHeapSetOf(group).addDeltaInstances(group, tags, true));
+            deltaAllocationReferences.forEach(group -> getHeapSetOf(group).addDeltaInstanceObjects(group));
+            deltaFrees.myGroupTags.forEach((group, tags) -> getHeapSetOf(group).addDeltaInstances(group, tags, false));
+            deltaFreeReferences.forEach(group -> getHeapSetOf(group).freeDeltaInstanceObjects(group));
+            resetDeltaAllocations.myGroupTags.forEach((group, tags) -> getHeapSetOf(group).removeDeltaInstances(group, tags, true));
+            resetDeltaAllocationReferences.forEach(group -> getHeapSetOf(group).removeAddedDeltaInstanceObjects(group));
+            resetDeltaFrees.myGroupTags.forEach((group, tags) -> getHeapSetOf(group).removeDeltaInstances(group, tags, false));
+            resetDeltaFreeReferences.forEach(group -> getHeapSetOf(group).removeFreedDeltaInstanceObjects(group));
             myStage.refreshSelectedHeap();
           }
         });
@@ -417,26 +437,37 @@ public class LiveAllocationCaptureObject implements CaptureObject {
   }
 
   @NotNull
-  private LiveAllocationInstanceObject getOrCreateInstanceObject(int tag, int classTag, int stackId, int threadId, long size, int heapId) {
-    LiveAllocationInstanceObject instance = myInstanceMap.get(tag);
-    if (instance == null) {
+  private HeapSet getHeapSetOf(@NotNull List<InstanceObject> group) {
+    // All the instances of a group share the same heap, see ClassificationKey.
+    return myHeapSets.get(group.get(0).getHeapId());
+  }
+
+  @NotNull
+  private HeapSet getHeapSetOf(@NotNull LiveAllocationInstanceGroup group) {
+    return myHeapSets.get(group.getRepresentative().getHeapId());
+  }
+
+  /**
+   * @return the group of the instance {@code tag}, in which the instance is recorded the first time it is seen.
+   */
+  @NotNull
+  private LiveAllocationInstanceGroup getOrCreateInstanceGroup(int tag, int classTag, int stackId, int threadId, long size, int heapId) {
+    LiveAllocationInstanceGroup group = myInstanceGroups.get(tag);
+    if (group == null) {
       ClassDb.ClassEntry entry = myClassDb.getEntry(classTag);
       assert myClassMap.containsKey(entry);
-      AllocationStack callstack = null;
-      if (stackId != 0) {
-        assert myCallstackMap.containsKey(stackId);
-        callstack = myCallstackMap.get(stackId);
-      }
-      ThreadId thread = null;
-      if (threadId != 0) {
-        assert myThreadIdMap.containsKey(threadId);
-        thread = myThreadIdMap.get(threadId);
-      }
-      instance = new LiveAllocationInstanceObject(this, entry, myClassMap.get(entry), thread, callstack, size, heapId);
-      myInstanceMap.put(tag, instance);
+      assert stackId == 0 || myCallstackMap.containsKey(stackId);
+      AllocationStack callstack = stackId == 0 ? null : myCallstackMap.get(stackId);
+      assert threadId == 0 || myThreadIdMap.containsKey(threadId);
+      ThreadId thread = threadId == 0 ? null : myThreadIdMap.get(threadId);
+      ClassificationKey key = new ClassificationKey(heapId, entry, thread == null ? ThreadId.INVALID_THREAD_ID : thread, callstack);
+      group = myKeyInstanceGroups.computeIfAbsent(
+        key, k -> new LiveAllocationInstanceGroup(this, entry, myClassMap.get(entry), thread, callstack, heapId));
+      group.recordInstance(tag, size);
+      myInstanceGroups.put(tag, group);
     }
 
-    return instance;
+    return group;
   }
 
   @Nullable
@@ -457,11 +488,12 @@ public class LiveAllocationCaptureObject implements CaptureObject {
 
   @Nullable
   private JniReferenceInstanceObject getOrCreateJniRefObject(int tag, long refValue, int threadId) {
-    LiveAllocationInstanceObject referencedObject = myInstanceMap.get(tag);
-    if (referencedObject == null) {
+    LiveAllocationInstanceGroup referencedGroup = myInstanceGroups.get(tag);
+    if (referencedGroup == null) {
       // If a Java object can't be found by a given tag, nothing is known about the JNI reference and we can't track it.
       return null;
     }
+    LiveAllocationInstanceObject referencedObject = referencedGroup.getOrCreateInstanceObject(tag);
     ThreadId thread = null;
     if (threadId != 0) {
       assert myThreadIdMap.containsKey(threadId);
@@ -476,7 +508,7 @@ public class LiveAllocationCaptureObject implements CaptureObject {
     return result;
   }
 
-  private void queryJavaInstanceSnapshot(long newTimeNs, @NotNull List<InstanceObject> setAllocationList) {
+  private void queryJavaInstanceSnapshot(long newTimeNs, @NotNull InstanceUpdates setAllocations) {
     if (!myStage.getStudioProfilers().getIdeServices().getFeatureConfig().isMemorySnapshotEnabled()) {
       return;
     }
@@ -487,11 +519,11 @@ public class LiveAllocationCaptureObject implements CaptureObject {
     for (AllocationEvent event : sampleResponse.getEventsList()) {
       if (event.getEventCase() == AllocationEvent.EventCase.ALLOC_DATA) {
         AllocationEvent.Allocation allocation = event.getAllocData();
-        LiveAllocationInstanceObject instance =
-          getOrCreateInstanceObject(allocation.getTag(), allocation.getClassTag(), allocation.getStackId(), allocation.getThreadId(),
-                                    allocation.getSize(), allocation.getHeapId());
-        instance.setAllocationTime(event.getTimestamp());
-        setAllocationList.add(instance);
+        LiveAllocationInstanceGroup group =
+          getOrCreateInstanceGroup(allocation.getTag(), allocation.getClassTag(), allocation.getStackId(), allocation.getThreadId(),
+                                   allocation.getSize(), allocation.getHeapId());
+        group.setAllocationTime(allocation.getTag(), event.getTimestamp());
+        setAllocations.add(group, allocation.getTag());
       }
       else {
         assert false;
@@ -499,7 +531,7 @@ public class LiveAllocationCaptureObject implements CaptureObject {
     }
   }
 
-  private void queryJniReferencesSnapshot(long newTimeNs, @NotNull List<InstanceObject> setAllocationList) {
+  private void queryJniReferencesSnapshot(long newTimeNs, @NotNull InstanceUpdates setAllocations) {
     if (!myEnableJniRefsTracking) {
       return;
     }
@@ -519,24 +551,24 @@ public class LiveAllocationCaptureObject implements CaptureObject {
       }
       refObject.setAllocationStack(convertNativeCallstack(event.getBacktrace()));
       refObject.setAllocationTime(event.getTimestamp());
-      setAllocationList.add(refObject);
+      setAllocations.add(refObject);
     }
   }
 
   /**
    * @param startTimeNs      start time to query data for.
    * @param endTimeNs        end time to query data for.
-   * @param allocationList   Instances that were allocated within the query range will be added here.
-   * @param deallocatoinList Instances that were deallocated within the query range will be added here.
-   * @param resetInstance    Whether the InstanceObject's alloc/dealloc time information should reset if a corresponding allocation or
+   * @param allocations      Instances that were allocated within the query range will be added here.
+   * @param deallocations    Instances that were deallocated within the query range will be added here.
+   * @param resetInstance    Whether the instance's alloc/dealloc time information should reset if a corresponding allocation or
    *                         deallocation event has occurred. The {@link ClassifierSet} rely on the presence (or absence) of these time data
    *                         to determine whether the InstanceObject should be added (or removed) from the ClassifierSet. Also see {@link
    *                         ClassifierSet#removeDeltaInstanceInformation(InstanceObject, boolean)}.
    */
   private void queryJavaInstanceDelta(long startTimeNs,
                                       long endTimeNs,
-                                      @NotNull List<InstanceObject> allocationList,
-                                      @NotNull List<InstanceObject> deallocatoinList,
+                                      @NotNull InstanceUpdates allocations,
+                                      @NotNull InstanceUpdates deallocations,
                                       boolean resetInstance) {
     if (startTimeNs == endTimeNs) {
       return;
@@ -548,19 +580,19 @@ public class LiveAllocationCaptureObject implements CaptureObject {
     for (AllocationEvent event : sampleResponse.getEventsList()) {
       if (event.getEventCase() == AllocationEvent.EventCase.ALLOC_DATA) {
         AllocationEvent.Allocation allocation = event.getAllocData();
-        LiveAllocationInstanceObject instance =
-          getOrCreateInstanceObject(allocation.getTag(), allocation.getClassTag(), allocation.getStackId(), allocation.getThreadId(),
-                                    allocation.getSize(), allocation.getHeapId());
-        instance.setAllocationTime(resetInstance ? Long.MIN_VALUE : event.getTimestamp());
-        allocationList.add(instance);
+        LiveAllocationInstanceGroup group =
+          getOrCreateInstanceGroup(allocation.getTag(), allocation.getClassTag(), allocation.getStackId(), allocation.getThreadId(),
+                                   allocation.getSize(), allocation.getHeapId());
+        group.setAllocationTime(allocation.getTag(), resetInstance ? Long.MIN_VALUE : event.getTimestamp());
+        allocations.add(group, allocation.getTag());
       }
       else if (event.getEventCase() == AllocationEvent.EventCase.FREE_DATA) {
         AllocationEvent.Deallocation deallocation = event.getFreeData();
-        LiveAllocationInstanceObject instance =
-          getOrCreateInstanceObject(deallocation.getTag(), deallocation.getClassTag(), deallocation.getStackId(),
-                                    deallocation.getThreadId(), deallocation.getSize(), deallocation.getHeapId());
-        instance.setDeallocTime(resetInstance ? Long.MAX_VALUE : event.getTimestamp());
-        deallocatoinList.add(instance);
+        LiveAllocationInstanceGroup group =
+          getOrCreateInstanceGroup(deallocation.getTag(), deallocation.getClassTag(), deallocation.getStackId(),
+                                   deallocation.getThreadId(), deallocation.getSize(), deallocation.getHeapId());
+        group.setDeallocTime(deallocation.getTag(), resetInstance ? Long.MAX_VALUE : event.getTimestamp());
+        deallocations.add(group, deallocation.getTag());
       }
       else {
         assert false;
@@ -570,8 +602,8 @@ public class LiveAllocationCaptureObject implements CaptureObject {
 
   private void queryJniReferencesDelta(long startTimeNs,
                                        long endTimeNs,
-                                       @NotNull List<InstanceObject> allocationList,
-                                       @NotNull List<InstanceObject> deallocatoinList,
+                                       @NotNull InstanceUpdates allocations,
+                                       @NotNull InstanceUpdates deallocations,
                                        boolean resetInstance) {
     if (!myEnableJniRefsTracking || startTimeNs == endTimeNs) {
       return;
@@ -595,7 +627,7 @@ public class LiveAllocationCaptureObject implements CaptureObject {
             refObject.setAllocationTime(event.getTimestamp());
             refObject.setAllocationStack(convertNativeCallstack(event.getBacktrace()));
           }
-          allocationList.add(refObject);
+          allocations.add(refObject);
           break;
         case DELETE_GLOBAL_REF:
           if (resetInstance) {
@@ -604,11 +636,42 @@ public class LiveAllocationCaptureObject implements CaptureObject {
             refObject.setDeallocTime(event.getTimestamp());
             refObject.setDeallocationStack(convertNativeCallstack(event.getBacktrace()));
           }
-          deallocatoinList.add(refObject);
+          deallocations.add(refObject);
           break;
         default:
           assert false;
       }
     }
   }
+
+  /**
+   * The instances of one kind of change to the heap sets, e.g. the delta allocations to add: the live allocations by group, and the JNI
+   * references, which are few, by object.
+   */
+  private static final class InstanceUpdates {
+    @NotNull private final Map<LiveAllocationInstanceGroup, TIntArrayList> myGroupTags = new LinkedHashMap<>();
+    @NotNull private final List<InstanceObject> myInstances = new ArrayList<>();
+    private int mySize = 0;
+
+    void add(@NotNull LiveAllocationInstanceGroup group, int tag) {
+      myGroupTags.computeIfAbsent(group, key -> new TIntArrayList()).add(tag);
+      mySize++;
+    }
+
+    void add(@NotNull InstanceObject instance) {
+      myInstances.add(instance);
+      mySize++;
+    }
+
+    void addAll(@NotNull InstanceUpdates other) {
+      other.myGroupTags.forEach(
+        (group, tags) -> myGroupTags.computeIfAbsent(group, key -> new TIntArrayList()).add(tags.toNativeArray()));
+      myInstances.addAll(other.myInstances);
+      mySize += other.mySize;
+    }
+
+    int size() {
+      return mySize;
+    }
+  }
 }
@@ -0,0 +1,285 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.profilers.memory.adapters;
+
+import com.android.annotations.VisibleForTesting;
+import com.android.tools.profiler.proto.MemoryProfiler.AllocationStack;
+import com.android.tools.profilers.stacktrace.ThreadId;
+import gnu.trove.TIntArrayList;
+import gnu.trove.TIntHashSet;
+import gnu.trove.TIntIntHashMap;
+import gnu.trove.TIntLongHashMap;
+import gnu.trove.TIntObjectHashMap;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * The live allocations of a {@link LiveAllocationCaptureObject} which share a {@link ClassificationKey}, recorded by their tags. Their
+ * sizes and allocation times are kept in primitive maps, and their {@link LiveAllocationInstanceObject}s are only created when the
+ * instances of a {@link ClassifierSet} are listed, e.g. when a class is expanded.
+ *
+ * The loader thread records the instances while the UI thread accounts for them in the {@link ClassifierSet}s, see
+ * {@link ClassifierSet#addSnapshotInstances(LiveAllocationInstanceGroup, TIntArrayList)}. Like the instance path, the group counts what
+ * it was given: the tags it holds are the instances the sets list, its totals are what the sets add up.
+ */
+final class LiveAllocationInstanceGroup {
+  @NotNull private final LiveAllocationCaptureObject myCaptureObject;
+  @NotNull private final ClassDb.ClassEntry myClassEntry;
+  @Nullable private final LiveAllocationInstanceObject myClassObject;
+  @Nullable private final ThreadId myThreadId;
+  @Nullable private final AllocationStack myCallStack;
+  private final int myHeapId;
+  @NotNull private final InstanceObject myRepresentative;
+
+  // The records of the instances, written by the loader thread and read by the UI thread, guarded by this.
+  @NotNull private final TIntIntHashMap mySizes = new TIntIntHashMap();
+  // Only the instances which have an allocation (resp. deallocation) within the queried range have an entry.
+  @NotNull private final TIntLongHashMap myAllocTimes = new TIntLongHashMap();
+  @NotNull private final TIntLongHashMap myDeallocTimes = new TIntLongHashMap();
+  @NotNull private final TIntObjectHashMap<LiveAllocationInstanceObject> myInstanceObjects = new TIntObjectHashMap<>();
+
+  // The instances of the group in the ClassifierSets and their accounting, only used on the UI thread.
+  @NotNull private final TIntHashSet mySnapshotTags = new TIntHashSet();
+  @NotNull private final TIntHashSet myDeltaTags = new TIntHashSet();
+  private int mySnapshotObjectCount = 0;
+  private int myDeltaAllocations = 0;
+  private int myDeltaDeallocations = 0;
+  private long myTotalShallowSize = 0L;
+  private int myInstancesWithStackInfoCount = 0;
+
+  LiveAllocationInstanceGroup(@NotNull LiveAllocationCaptureObject captureObject,
+                              @NotNull ClassDb.ClassEntry classEntry,
+                              @Nullable LiveAllocationInstanceObject classObject,
+                              @Nullable ThreadId threadId,
+                              @Nullable AllocationStack callStack,
+                              int heapId) {
+    myCaptureObject = captureObject;
+    myClassEntry = classEntry;
+    myClassObject = classObject;
+    myThreadId = threadId;
+    myCallStack = callStack;
+    myHeapId = heapId;
+    // Only looked at by the classifiers, it is not one of the instances of the group.
+    myRepresentative = new LiveAllocationInstanceObject(captureObject, classEntry, classObject, threadId, callStack, 0, heapId);
+  }
+
+  /**
+   * @return an object with the heap, class, thread and callstack of the instances, for the classifiers to place the whole group.
+   */
+  @NotNull
+  InstanceObject getRepresentative() {
+    return myRepresentative;
+  }
+
+  synchronized void recordInstance(int tag, long size) {
+    if (!mySizes.containsKey(tag)) {
+      mySizes.put(tag, (int)size);
+    }
+  }
+
+  /**
+   * Sets the allocation time of the instance {@code tag}, {@link Long#MIN_VALUE} meaning no allocation within the queried range.
+   */
+  synchronized void setAllocationTime(int tag, long allocTime) {
+    if (allocTime == Long.MIN_VALUE) {
+      myAllocTimes.remove(tag);
+    }
+    else {
+      myAllocTimes.put(tag, allocTime);
+    }
+    LiveAllocationInstanceObject instance = myInstanceObjects.get(tag);
+    if (instance != null) {
+      instance.setAllocationTime(allocTime);
+    }
+  }
+
+  /**
+   * Sets the deallocation time of the instance {@code tag}, {@link Long#MAX_VALUE} meaning no deallocation within the queried range.
+   */
+  synchronized void setDeallocTime(int tag, long deallocTime) {
+    if (deallocTime == Long.MAX_VALUE) {
+      myDeallocTimes.remove(tag);
+    }
+    else {
+      myDeallocTimes.put(tag, deallocTime);
+    }
+    LiveAllocationInstanceObject instance = myInstanceObjects.get(tag);
+    if (instance != null) {
+      instance.setDeallocTime(deallocTime);
+    }
+  }
+
+  private synchronized boolean hasTimeData(int tag) {
+    return myAllocTimes.containsKey(tag) || myDeallocTimes.containsKey(tag);
+  }
+
+  private synchronized long sumShallowSizes(@NotNull TIntArrayList tags) {
+    long size = 0;
+    for (int i = 0; i < tags.size(); i++) {
+      size += mySizes.get(tags.get(i));
+    }
+    return size;
+  }
+
+  /**
+   * @return the object of the instance {@code tag}, the same one for every call.
+   */
+  @NotNull
+  synchronized LiveAllocationInstanceObject getOrCreateInstanceObject(int tag) {
+    LiveAllocationInstanceObject instance = myInstanceObjects.get(tag);
+    if (instance == null) {
+      assert mySizes.containsKey(tag);
+      instance = new LiveAllocationInstanceObject(myCaptureObject, myClassEntry, myClassObject, myThreadId, myCallStack, mySizes.get(tag),
+                                                  myHeapId);
+      if (myAllocTimes.containsKey(tag)) {
+        instance.setAllocationTime(myAllocTimes.get(tag));
+      }
+      if (myDeallocTimes.containsKey(tag)) {
+        instance.setDeallocTime(myDeallocTimes.get(tag));
+      }
+      myInstanceObjects.put(tag, instance);
+    }
+    return instance;
+  }
+
+  @VisibleForTesting
+  synchronized int getCreatedInstanceObjectCount() {
+    return myInstanceObjects.size();
+  }
+
+  void addSnapshotInstances(@NotNull TIntArrayList tags) {
+    for (int i = 0; i < tags.size(); i++) {
+      boolean added = mySnapshotTags.add(tags.get(i));
+      assert added;
+    }
+    mySnapshotObjectCount += tags.size();
+    myTotalShallowSize += sumShallowSizes(tags);
+    if (myRepresentative.getCallStackDepth() > 0) {
+      myInstancesWithStackInfoCount += tags.size();
+    }
+  }
+
+  void removeSnapshotInstances(@NotNull TIntArrayList tags) {
+    for (int i = 0; i < tags.size(); i++) {
+      boolean removed = mySnapshotTags.remove(tags.get(i));
+      assert removed;
+    }
+    mySnapshotObjectCount -= tags.size();
+    myTotalShallowSize -= sumShallowSizes(tags);
+    if (myRepresentative.getCallStackDepth() > 0) {
+      myInstancesWithStackInfoCount -= tags.size();
+    }
+  }
+
+  /**
+   * Adds the delta allocations ({@code isAllocation}) or deallocations {@code tags}, see {@link ClassifierSet#addDeltaInstanceObject}.
+   */
+  void addDeltaInstances(@NotNull TIntArrayList tags, boolean isAllocation) {
+    int instancesAdded = 0;
+    for (int i = 0; i < tags.size(); i++) {
+      if (myDeltaTags.add(tags.get(i))) {
+        instancesAdded++;
+      }
+    }
+    if (isAllocation) {
+      myDeltaAllocations += tags.size();
+    }
+    else {
+      myDeltaDeallocations += tags.size();
+    }
+    myTotalShallowSize += (isAllocation ? 1 : -1) * sumShallowSizes(tags);
+    if (myRepresentative.getCallStackDepth() > 0) {
+      myInstancesWithStackInfoCount += instancesAdded;
+    }
+  }
+
+  /**
+   * Removes the delta allocations ({@code isAllocation}) or deallocations {@code tags}, the instances which have no time data left are
+   * removed from the group, see {@link ClassifierSet#removeAddedDeltaInstanceObject}.
+   */
+  void removeDeltaInstances(@NotNull TIntArrayList tags, boolean isAllocation) {
+    int instancesRemoved = 0;
+    for (int i = 0; i < tags.size(); i++) {
+      int tag = tags.get(i);
+      if (!hasTimeData(tag) && myDeltaTags.remove(tag)) {
+        instancesRemoved++;
+      }
+    }
+    if (isAllocation) {
+      myDeltaAllocations -= tags.size();
+    }
+    else {
+      myDeltaDeallocations -= tags.size();
+    }
+    myTotalShallowSize -= (isAllocation ? 1 : -1) * sumShallowSizes(tags);
+    if (myRepresentative.getCallStackDepth() > 0) {
+      myInstancesWithStackInfoCount -= instancesRemoved;
+    }
+  }
+
+  int getSnapshotObjectCount() {
+    return mySnapshotObjectCount;
+  }
+
+  int getDeltaAllocationCount() {
+    return myDeltaAllocations;
+  }
+
+  int getDeltaDeallocationCount() {
+    return myDeltaDeallocations;
+  }
+
+  long getTotalShallowSize() {
+    return myTotalShallowSize;
+  }
+
+  int getInstancesWithStackInfoCount() {
+    return myInstancesWithStackInfoCount;
+  }
+
+  /**
+   * @return whether the group neither holds instances nor accounts for any, in which case the sets can let go of it.
+   */
+  boolean isEmpty() {
+    return mySnapshotTags.isEmpty() && myDeltaTags.isEmpty() && mySnapshotObjectCount == 0 && myDeltaAllocations == 0 &&
+           myDeltaDeallocations == 0 && myTotalShallowSize == 0;
+  }
+
+  /**
+   * @return the number of instances the group holds, counting the ones which are both in the snapshot and in the delta once.
+   */
+  int getInstanceObjectCount() {
+    int count = mySnapshotTags.size();
+    for (int tag : myDeltaTags.toArray()) {
+      if (!mySnapshotTags.contains(tag)) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  /**
+   * Creates the {@link InstanceObject}s of the instances the group holds. The objects of different calls are the same.
+   */
+  @NotNull
+  Stream<InstanceObject> createInstances() {
+    IntStream deltaOnlyTags = IntStream.of(myDeltaTags.toArray()).filter(tag -> !mySnapshotTags.contains(tag));
+    return IntStream.concat(IntStream.of(mySnapshotTags.toArray()), deltaOnlyTags).mapToObj(this::getOrCreateInstanceObject);
+  }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.profilers.cpu;
+
+import com.android.tools.profilers.cpu.nodemodel.CaptureNodeModel;
+import com.android.tools.profilers.cpu.nodemodel.SingleNameModel;
+import org.junit.Test;
+
+import java.util.regex.Pattern;
+
+import static com.android.tools.profilers.cpu.CaptureNode.FilterType.*;
+import static com.google.common.truth.Truth.assertThat;
+
+public class CaptureFilterIndexTest {
+  /**
+   * main
+   *   -> A
+   *     -> B
+   *       -> C
+   *   -> D
+   *     -> B
+   *     -> E
+   *
+   * where both B share their model.
+   */
+  @Test
+  public void filterTypesAndMatchCount() {
+    CaptureNodeModel modelB = new SingleNameModel("B");
+    CaptureNode root = new CaptureNode(new SingleNameModel("main"));
+    CaptureNode a = addChild(root, new SingleNameModel("A"));
+    CaptureNode b = addChild(a, modelB);
+    CaptureNode c = addChild(b, new SingleNameModel("C"));
+    CaptureNode d = addChild(root, new SingleNameModel("D"));
+    CaptureNode otherB = addChild(d, modelB);
+    CaptureNode e = addChild(d, new SingleNameModel("E"));
+
+    CaptureFilterIndex index = new CaptureFilterIndex(root);
+    assertThat(index.getNodeCount()).isEqualTo(7);
+
+    assertThat(index.applyFilter(Pattern.compile("B"))).isEqualTo(2);
+    assertThat(root.getFilterType()).isEqualTo(MATCH);
+    assertThat(a.getFilterType()).isEqualTo(MATCH);
+    assertThat(b.getFilterType()).isEqualTo(EXACT_MATCH);
+    assertThat(c.getFilterType()).isEqualTo(MATCH);
+    assertThat(d.getFilterType()).isEqualTo(MATCH);
+    assertThat(otherB.getFilterType()).isEqualTo(EXACT_MATCH);
+    assertThat(e.getFilterType()).isEqualTo(UNMATCH);
+
+    assertThat(index.applyFilter(Pattern.compile("C"))).isEqualTo(1);
+    assertThat(c.getFilterType()).isEqualTo(EXACT_MATCH);
+    assertThat(a.getFilterType()).isEqualTo(MATCH);
+    assertThat(d.getFilterType()).isEqualTo(UNMATCH);
+    assertThat(otherB.getFilterType()).isEqualTo(UNMATCH);
+
+    // Every node matches the null filter, but none of them is marked as an exact match.
+    assertThat(index.applyFilter(null)).isEqualTo(7);
+    for (CaptureNode node : new CaptureNode[]{root, a, b, c, d, otherB, e}) {
+      assertThat(node.getFilterType()).isEqualTo(MATCH);
+    }
+  }
+
+  private static CaptureNode addChild(CaptureNode parent, CaptureNodeModel model) {
+    CaptureNode child = new CaptureNode(model);
+    parent.addChild(child);
+    return child;
+  }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.profilers.cpu;
+
+import com.android.tools.adtui.model.Range;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class IntervalIndexTest {
+  private static final double EPS = 1e-6;
+
+  @Test
+  public void intersectionsOfOverlappingIntervals() {
+    Random random = new Random(42);
+    long[] starts = new long[200];
+    long[] ends = new long[200];
+    for (int i = 0; i < starts.length; i++) {
+      starts[i] = 1_000_000_000L + random.nextInt(1000);
+      ends[i] = starts[i] + random.nextInt(50);
+    }
+    IntervalIndex index = new IntervalIndex(starts, ends);
+
+    for (int i = 0; i < 1000; i++) {
+      double min = 1_000_000_000L - 10 + random.nextDouble() * 1100;
+      Range range = new Range(min, min + random.nextDouble() * 200);
+      assertEquals(range.toString(), expectedIntersectionLength(starts, ends, range), index.getIntersectionLength(range), EPS);
+      assertEquals(range.toString(), expectedIntersects(starts, ends, range), index.intersects(range));
+    }
+  }
+
+  @Test
+  public void pointsAndEmptyRanges() {
+    IntervalIndex index = new IntervalIndex(new long[]{10, 20, 20}, new long[]{15, 20, 30});
+    assertEquals(0, index.getIntersectionLength(new Range()), EPS);
+    assertEquals(0, index.getIntersectionLength(new Range(12, 12)), EPS);
+    assertEquals(15, index.getIntersectionLength(new Range(-Double.MAX_VALUE, Double.MAX_VALUE)), EPS);
+    assertTrue(index.intersects(new Range(12, 12)));
+    // Only touches the intervals.
+    assertFalse(index.intersects(new Range(15, 15)));
+    assertFalse(index.intersects(new Range(30, 40)));
+    assertTrue(index.intersects(new Range(29, 40)));
+  }
+
+  private static double expectedIntersectionLength(long[] starts, long[] ends, Range range) {
+    double length = 0;
+    for (int i = 0; i < starts.length; i++) {
+      Range intersection = range.getIntersection(new Range(starts[i], ends[i]));
+      length += intersection.isEmpty() ? 0 : intersection.getLength();
+    }
+    return length;
+  }
+
+  private static boolean expectedIntersects(long[] starts, long[] ends, Range range) {
+    for (int i = 0; i < starts.length; i++) {
+      if (starts[i] < range.getMax() && range.getMin() < ends[i]) {
+        return true;
+      }
+    }
+    return false;
+  }
+}
@@ -15,6 +15,7 @@
  */
 package com.android.tools.profilers.cpu.art;
 
+import com.android.tools.perflib.vmtrace.TraceAction;
 import com.android.tools.perflib.vmtrace.VmTraceParser;
 import com.android.tools.profilers.cpu.CaptureNode;
 import com.android.tools.profilers.cpu.CpuProfilerTestUtils;
@@ -97,6 +98,59 @@ public class ArtTraceHandlerTest {
     }
   }
 
+  @Test
+  public void testInterleavedThreads() {
+    ArtTraceHandler handler = new ArtTraceHandler();
+    handler.setStartTimeUs(1000);
+    handler.addThread(1, "main");
+    handler.addThread(2, "worker");
+    // Actions of both threads are interleaved in the trace, each thread still gets its own tree.
+    handler.addMethodAction(1, 10, TraceAction.METHOD_ENTER, 0, 0);
+    handler.addMethodAction(2, 20, TraceAction.METHOD_ENTER, 0, 1);
+    handler.addMethodAction(1, 11, TraceAction.METHOD_ENTER, 2, 2);
+    handler.addMethodAction(2, 20, TraceAction.METHOD_EXIT, 3, 3);
+    handler.addMethodAction(1, 11, TraceAction.METHOD_EXIT, 4, 4);
+    handler.addMethodAction(1, 10, TraceAction.METHOD_EXIT, 5, 5);
+    handler.addMethodAction(3, 30, TraceAction.METHOD_ENTER, 0, 6);
+    handler.addThread(4, null);
+    handler.addMethodAction(4, 40, TraceAction.METHOD_ENTER, 0, 7);
+
+    Map<CpuThreadInfo, CaptureNode> trees = handler.getThreadsGraph();
+    assertEquals(4, trees.size());
+    for (Map.Entry<CpuThreadInfo, CaptureNode> entry : trees.entrySet()) {
+      CaptureNode root = entry.getValue();
+      assertEquals(entry.getKey().getName(), root.getData().getId());
+      switch (entry.getKey().getId()) {
+        case 1:
+          assertEquals("main", entry.getKey().getName());
+          assertEquals(1, root.getChildCount());
+          assertEquals(1, root.getChildAt(0).getChildCount());
+          assertEquals(1002, root.getChildAt(0).getChildAt(0).getStartGlobal());
+          assertEquals(1004, root.getChildAt(0).getChildAt(0).getEndGlobal());
+          assertEquals(2, root.getChildAt(0).getChildAt(0).getDepth());
+          break;
+        case 2:
+          assertEquals("worker", entry.getKey().getName());
+          assertEquals(1, root.getChildCount());
+          assertEquals(0, root.getChildAt(0).getChildCount());
+          assertEquals(1001, root.getChildAt(0).getStartGlobal());
+          assertEquals(1003, root.getChildAt(0).getEndGlobal());
+          break;
+        case 3:
+          // Threads that weren't declared are named after their id.
+          assertEquals("Thread id: 3", entry.getKey().getName());
+          assertEquals(1, root.getChildCount());
+          break;
+        case 4:
+          // So are threads the trace declared without a name.
+          assertEquals("Thread id: 4", entry.getKey().getName());
+          break;
+        default:
+          fail("Unexpected thread " + entry.getKey().getId());
+      }
+    }
+  }
+
   private static CaptureNode parseCaptureNode() throws IOException {
     ArtTraceHandler handler = new ArtTraceHandler();
     VmTraceParser parser = new VmTraceParser(CpuProfilerTestUtils.getTraceFile("basic.trace"), handler);
@@ -54,6 +54,14 @@ class AtraceDecompressorTest {
     assertThat(knownTimestampOccurences).isEqualTo(1)
   }
 
+  @Test
+  fun testSlicesHoldManyLines() {
+    // The first slice is the initial line, the next ones are large blocks of decompressed data.
+    assertThat(myDecompressor.next().toString()).isEqualTo("# Initial Data Required by Importer\n")
+    val slice = myDecompressor.next()!!
+    assertThat(slice.toString().count { it == '\n' }).isGreaterThan(1)
+  }
+
   @Test
   fun testEndOfFileReturnsNull() {
     do {
@@ -19,6 +19,7 @@ import com.android.tools.adtui.model.Range;
 import com.android.tools.profiler.protobuf3jarjar.ByteString;
 import com.android.tools.profilers.cpu.CaptureNode;
 import com.android.tools.profilers.cpu.CpuThreadInfo;
+import com.android.tools.profilers.cpu.nodemodel.CaptureNodeModel;
 import com.intellij.openapi.util.io.FileUtil;
 import org.junit.Before;
 import org.junit.Test;
@@ -26,7 +27,7 @@ import org.junit.Test;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.util.Map;
+import java.util.*;
 import java.util.concurrent.TimeUnit;
 
 import static com.android.tools.profilers.cpu.CpuProfilerTestUtils.traceFileToByteString;
@@ -162,6 +163,25 @@ public class SimpleperfTraceParserTest {
     }
   }
 
+  @Test
+  public void callsOfTheSameMethodShareTheirModel() throws IOException {
+    myParser.parse(myTraceFile);
+    Set<CaptureNodeModel> models = Collections.newSetFromMap(new IdentityHashMap<>());
+    int callCount = 0;
+    Queue<CaptureNode> queue = new LinkedList<>();
+    for (CaptureNode tree : myParser.getCaptureTrees().values()) {
+      // Thread roots have their own model.
+      queue.addAll(tree.getChildren());
+    }
+    while (!queue.isEmpty()) {
+      CaptureNode node = queue.poll();
+      callCount++;
+      models.add(node.getData());
+      queue.addAll(node.getChildren());
+    }
+    assertTrue(models.size() < callCount);
+  }
+
   @Test
   public void rangeShouldBeFromFirstToLastTimestamp() throws IOException {
     myParser.parse(myTraceFile);
@@ -26,7 +26,9 @@ import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
 import static com.android.tools.profilers.memory.adapters.CaptureObject.DEFAULT_HEAP_ID;
@@ -67,6 +69,7 @@ public class FakeMemoryService extends MemoryServiceGrpc.MemoryServiceImplBase {
   private HeapDumpInfo myExplicitHeapDumpInfo = null;
   private DumpDataResponse.Status myExplicitDumpDataStatus = null;
   private byte[] myExplicitSnapshotBuffer = null;
+  private final Map<Long, byte[]> mySnapshotBuffers = new HashMap<>();
   private MemoryData myMemoryData = null;
   private ListHeapDumpInfosResponse.Builder myHeapDumpInfoBuilder = ListHeapDumpInfosResponse.newBuilder();
   private LegacyAllocationEventsResponse.Builder myAllocationEventsBuilder = LegacyAllocationEventsResponse.newBuilder();
@@ -124,7 +127,10 @@ public class FakeMemoryService extends MemoryServiceGrpc.MemoryServiceImplBase {
     if (myExplicitDumpDataStatus != null) {
       response.setStatus(myExplicitDumpDataStatus);
     }
-    if (myExplicitSnapshotBuffer != null) {
+    if (mySnapshotBuffers.containsKey(request.getDumpTime())) {
+      response.setData(ByteString.copyFrom(mySnapshotBuffers.get(request.getDumpTime())));
+    }
+    else if (myExplicitSnapshotBuffer != null) {
       response.setData(ByteString.copyFrom(myExplicitSnapshotBuffer));
     }
     responseObserver.onNext(response.build());
@@ -410,6 +416,14 @@ public class FakeMemoryService extends MemoryServiceGrpc.MemoryServiceImplBase {
     return this;
   }
 
+  /**
+   * Sets the buffer of the heap dump which started at {@code dumpTime}, taking precedence over {@link #setExplicitSnapshotBuffer(byte[])}.
+   */
+  public FakeMemoryService setSnapshotBuffer(long dumpTime, @NotNull byte[] bytes) {
+    mySnapshotBuffers.put(dumpTime, bytes);
+    return this;
+  }
+
   public FakeMemoryService setExplicitDumpDataStatus(DumpDataResponse.Status status) {
     myExplicitDumpDataStatus = status;
     return this;
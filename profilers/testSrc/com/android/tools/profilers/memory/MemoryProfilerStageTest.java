@@ -19,6 +19,7 @@ import com.android.tools.adtui.model.FakeTimer;
 import com.android.tools.adtui.model.Range;
 import com.android.tools.adtui.model.RangedContinuousSeries;
 import com.android.tools.adtui.model.legend.SeriesLegend;
+import com.android.tools.perflib.heap.SnapshotBuilder;
 import com.android.tools.profiler.proto.Common;
 import com.android.tools.profiler.proto.MemoryProfiler.*;
 import com.android.tools.profiler.proto.Profiler.AgentStatusResponse;
@@ -223,6 +224,39 @@ public class MemoryProfilerStageTest extends MemoryProfilerTestBase {
     assertThat(myProfilers.getTimeline().isStreaming()).isTrue();
   }
 
+  @Test
+  public void testCompareWithPreviousHeapDump() throws Exception {
+    myMockLoader.setReturnImmediateFuture(true);
+    HeapDumpInfo ongoingInfo = HeapDumpInfo.newBuilder().setStartTime(0).setEndTime(Long.MAX_VALUE).build();
+    HeapDumpInfo baseInfo = HeapDumpInfo.newBuilder().setStartTime(1).setEndTime(2).build();
+    HeapDumpInfo targetInfo = HeapDumpInfo.newBuilder().setStartTime(5).setEndTime(6).build();
+    myService.addExplicitHeapDumpInfo(ongoingInfo).addExplicitHeapDumpInfo(baseInfo).addExplicitHeapDumpInfo(targetInfo);
+    myService.setSnapshotBuffer(1, new SnapshotBuilder(2, 0, 0).addReferences(1, 2).addRoot(1).getByteBuffer());
+    myService.setSnapshotBuffer(5, new SnapshotBuilder(4, 0, 0).addReferences(1, 2).addReferences(3, 4).addRoot(1).getByteBuffer());
+    myService.setExplicitDumpDataStatus(DumpDataResponse.Status.SUCCESS);
+
+    // Only a heap dump can be compared with the previous one.
+    assertThat(myStage.getPreviousHeapDumpInfo()).isNull();
+
+    myStage.selectCaptureDuration(
+      new CaptureDurationData<>(1, false, false, new CaptureEntry<CaptureObject>(
+        targetInfo,
+        () -> new HeapDumpCaptureObject(myGrpcChannel.getClient().getMemoryClient(), myProfilers.getSession(), targetInfo, null,
+                                        myIdeProfilerServices.getFeatureTracker(), myStage))),
+      null);
+    assertThat(myStage.getSelectedCapture()).isInstanceOf(HeapDumpCaptureObject.class);
+    assertThat(myStage.getPreviousHeapDumpInfo()).isEqualTo(baseInfo);
+
+    myStage.selectHeapDumpDiff(baseInfo, targetInfo, null);
+    CaptureObject diff = myStage.getSelectedCapture();
+    assertThat(diff).isInstanceOf(HeapDumpDiffCaptureObject.class);
+    assertThat(diff.isDoneLoading()).isTrue();
+    assertThat(diff.isError()).isFalse();
+    assertThat(diff.getStartTimeNs()).isEqualTo(1);
+    assertThat(diff.getEndTimeNs()).isEqualTo(6);
+    assertThat(myStage.getSelectedHeapSet()).isNotNull();
+  }
+
   @Test
   public void defaultHeapSetTest() throws ExecutionException, InterruptedException {
     myMockLoader.setReturnImmediateFuture(true);
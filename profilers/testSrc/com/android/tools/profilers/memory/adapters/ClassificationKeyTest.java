@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.profilers.memory.adapters;
+
+import com.android.tools.profiler.proto.MemoryProfiler.AllocationStack;
+import com.android.tools.profilers.stacktrace.ThreadId;
+import com.google.common.collect.ImmutableMap;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static com.android.tools.profilers.memory.MemoryProfilerTestUtils.findChildClassSetWithName;
+import static org.junit.Assert.assertEquals;
+
+public class ClassificationKeyTest {
+  private final FakeCaptureObject myCaptureObject = new FakeCaptureObject.Builder().setHeapIdToNameMap(ImmutableMap.of(1, "app")).build();
+
+  @Test
+  public void testGroupsByHeapClassThreadAndCallstack() {
+    ThreadId thread = new ThreadId("thread");
+    AllocationStack stack = AllocationStack.newBuilder().build();
+    InstanceObject foo0 = createInstance("Foo", 1, thread, stack);
+    InstanceObject bar = createInstance("Bar", 1, thread, stack);
+    InstanceObject foo1 = createInstance("Foo", 1, thread, stack);
+    InstanceObject fooOtherHeap = createInstance("Foo", 2, thread, stack);
+    InstanceObject fooOtherThread = createInstance("Foo", 1, new ThreadId("other"), stack);
+    InstanceObject fooOtherStack = createInstance("Foo", 1, thread, AllocationStack.newBuilder().build());
+
+    List<List<InstanceObject>> groups =
+      ClassificationKey.group(Arrays.asList(foo0, bar, foo1, fooOtherHeap, fooOtherThread, fooOtherStack));
+    assertEquals(5, groups.size());
+    assertEquals(Arrays.asList(foo0, foo1), groups.get(0));
+    assertEquals(Arrays.asList(bar), groups.get(1));
+    assertEquals(Arrays.asList(fooOtherHeap), groups.get(2));
+    assertEquals(Arrays.asList(fooOtherThread), groups.get(3));
+    assertEquals(Arrays.asList(fooOtherStack), groups.get(4));
+  }
+
+  @Test
+  public void testBulkUpdatesMatchPerInstanceUpdates() {
+    ThreadId thread = new ThreadId("thread");
+    List<InstanceObject> snapshot = Arrays.asList(createInstance("Foo", 1, thread, null), createInstance("Foo", 1, thread, null));
+    List<InstanceObject> allocations = Arrays.asList(createInstance("Foo", 1, thread, null), createInstance("Foo", 1, thread, null));
+
+    HeapSet heapSet = new HeapSet(myCaptureObject, "app", 1);
+    // Partition the heap first, so the groups are routed through the class classifier.
+    heapSet.getChildrenClassifierSets();
+    ClassificationKey.group(snapshot).forEach(heapSet::addSnapshotInstanceObjects);
+    ClassificationKey.group(allocations).forEach(heapSet::addDeltaInstanceObjects);
+    ClassificationKey.group(snapshot.subList(0, 1)).forEach(heapSet::freeDeltaInstanceObjects);
+
+    assertEquals(2, heapSet.getDeltaAllocationCount());
+    assertEquals(1, heapSet.getDeltaDeallocationCount());
+    assertEquals(3, heapSet.getTotalObjectCount());
+    assertEquals(3 * 8, heapSet.getTotalShallowSize());
+
+    ClassSet classSet = findChildClassSetWithName(heapSet, "Foo");
+    assertEquals(2, classSet.getDeltaAllocationCount());
+    assertEquals(1, classSet.getDeltaDeallocationCount());
+    assertEquals(3, classSet.getTotalObjectCount());
+    assertEquals(4, classSet.getInstancesCount());
+
+    ClassificationKey.group(allocations).forEach(heapSet::removeAddedDeltaInstanceObjects);
+    ClassificationKey.group(snapshot).forEach(heapSet::removeSnapshotInstanceObjects);
+    assertEquals(0, classSet.getDeltaAllocationCount());
+    assertEquals(-1, classSet.getTotalObjectCount());
+    assertEquals(-8, heapSet.getTotalShallowSize());
+  }
+
+  private InstanceObject createInstance(String className, int heapId, ThreadId thread, AllocationStack stack) {
+    return new FakeInstanceObject.Builder(myCaptureObject, className)
+      .setHeapId(heapId).setAllocationThreadId(thread).setAllocationStack(stack).setShallowSize(8).build();
+  }
+}
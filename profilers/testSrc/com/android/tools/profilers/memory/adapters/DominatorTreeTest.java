@@ -0,0 +1,184 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.profilers.memory.adapters;
+
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.assertEquals;
+
+public class DominatorTreeTest {
+  /**
+   * Roots 0 and 5:
+   * 0 -> 1 -> 2 -> 3
+   *      1 -> 3 -> 4
+   * 5 -> 4
+   * 6 -> 0, where 6 is unreachable
+   */
+  @Test
+  public void testSmallGraph() {
+    int[][] edges = {{0, 1}, {1, 2}, {2, 3}, {1, 3}, {3, 4}, {5, 4}, {6, 0}};
+    DominatorTree tree = createTree(7, edges, new int[]{0, 5});
+    tree.compute(new long[]{1, 2, 4, 8, 16, 32, 64});
+
+    assertEquals(DominatorTree.NO_DOMINATOR, tree.getImmediateDominator(0));
+    assertEquals(0, tree.getImmediateDominator(1));
+    assertEquals(1, tree.getImmediateDominator(2));
+    assertEquals(1, tree.getImmediateDominator(3));
+    // Reachable from both roots.
+    assertEquals(DominatorTree.NO_DOMINATOR, tree.getImmediateDominator(4));
+    assertEquals(DominatorTree.NO_DOMINATOR, tree.getImmediateDominator(6));
+
+    assertEquals(15, tree.getRetainedSize(0));
+    assertEquals(14, tree.getRetainedSize(1));
+    assertEquals(16, tree.getRetainedSize(4));
+    assertEquals(32, tree.getRetainedSize(5));
+    assertEquals(0, tree.getRetainedSize(6));
+
+    assertEquals(0, tree.getDepth(0));
+    assertEquals(2, tree.getDepth(3));
+    assertEquals(1, tree.getDepth(4));
+    assertEquals(Integer.MAX_VALUE, tree.getDepth(6));
+    assertEquals(1, tree.getProgress(), 0);
+  }
+
+  @Test
+  public void testMatchesIterativeDominatorsOnRandomGraphs() {
+    Random random = new Random(1);
+    for (int iteration = 0; iteration < 50; iteration++) {
+      int nodeCount = 1 + random.nextInt(60);
+      int[][] edges = new int[random.nextInt(nodeCount * 3)][];
+      for (int i = 0; i < edges.length; i++) {
+        edges[i] = new int[]{random.nextInt(nodeCount), random.nextInt(nodeCount)};
+      }
+      int[] roots = new int[1 + random.nextInt(3)];
+      for (int i = 0; i < roots.length; i++) {
+        roots[i] = random.nextInt(nodeCount);
+      }
+      long[] sizes = new long[nodeCount];
+      Arrays.fill(sizes, 1);
+
+      DominatorTree tree = createTree(nodeCount, edges, roots);
+      tree.compute(sizes);
+      int[] expected = computeDominatorsIteratively(nodeCount, edges, roots);
+      long[] expectedRetainedSizes = new long[nodeCount];
+      for (int node = 0; node < nodeCount; node++) {
+        assertEquals(expected[node], tree.getImmediateDominator(node));
+        // Every reachable node adds its size to its own retained size and to the ones of its dominators.
+        for (int dominator = node; dominator != DominatorTree.NO_DOMINATOR && tree.getDepth(node) != Integer.MAX_VALUE;
+             dominator = expected[dominator]) {
+          expectedRetainedSizes[dominator]++;
+        }
+      }
+      for (int node = 0; node < nodeCount; node++) {
+        assertEquals(expectedRetainedSizes[node], tree.getRetainedSize(node));
+      }
+    }
+  }
+
+  private static DominatorTree createTree(int nodeCount, int[][] edges, int[] roots) {
+    int[] offsets = new int[nodeCount + 1];
+    for (int[] edge : edges) {
+      offsets[edge[1] + 1]++;
+    }
+    for (int i = 0; i < nodeCount; i++) {
+      offsets[i + 1] += offsets[i];
+    }
+    int[] predecessors = new int[edges.length];
+    int[] cursors = Arrays.copyOf(offsets, nodeCount);
+    for (int[] edge : edges) {
+      predecessors[cursors[edge[1]]++] = edge[0];
+    }
+    return new DominatorTree(nodeCount, offsets, predecessors, roots);
+  }
+
+  /**
+   * Computes the immediate dominators from the sets of dominators, as the fixed point of dom(n) = {n} + intersection of dom(p).
+   */
+  private static int[] computeDominatorsIteratively(int nodeCount, int[][] edges, int[] roots) {
+    int virtualRoot = nodeCount;
+    List<List<Integer>> predecessors = new ArrayList<>();
+    for (int i = 0; i <= nodeCount; i++) {
+      predecessors.add(new ArrayList<>());
+    }
+    for (int[] edge : edges) {
+      predecessors.get(edge[1]).add(edge[0]);
+    }
+    for (int root : roots) {
+      predecessors.get(root).add(virtualRoot);
+    }
+
+    BitSet all = new BitSet();
+    all.set(0, nodeCount + 1);
+    BitSet[] dominators = new BitSet[nodeCount + 1];
+    for (int i = 0; i < nodeCount; i++) {
+      dominators[i] = (BitSet)all.clone();
+    }
+    dominators[virtualRoot] = new BitSet();
+    dominators[virtualRoot].set(virtualRoot);
+    boolean changed = true;
+    while (changed) {
+      changed = false;
+      for (int node = 0; node < nodeCount; node++) {
+        BitSet newDominators = (BitSet)all.clone();
+        for (int predecessor : predecessors.get(node)) {
+          newDominators.and(dominators[predecessor]);
+        }
+        newDominators.set(node);
+        if (!newDominators.equals(dominators[node])) {
+          dominators[node] = newDominators;
+          changed = true;
+        }
+      }
+    }
+
+    // Unreachable nodes keep every node as a dominator, so they are told apart by walking the graph.
+    BitSet reachable = new BitSet();
+    Deque<Integer> queue = new ArrayDeque<>();
+    for (int root : roots) {
+      queue.add(root);
+    }
+    while (!queue.isEmpty()) {
+      int node = queue.poll();
+      if (!reachable.get(node)) {
+        reachable.set(node);
+        for (int[] edge : edges) {
+          if (edge[0] == node) {
+            queue.add(edge[1]);
+          }
+        }
+      }
+    }
+
+    int[] immediateDominators = new int[nodeCount];
+    for (int node = 0; node < nodeCount; node++) {
+      immediateDominators[node] = DominatorTree.NO_DOMINATOR;
+      if (!reachable.get(node)) {
+        continue;
+      }
+      // The immediate dominator is the strict dominator with the most dominators itself.
+      int best = virtualRoot;
+      for (int dominator = dominators[node].nextSetBit(0); dominator >= 0; dominator = dominators[node].nextSetBit(dominator + 1)) {
+        if (dominator != node && dominators[dominator].cardinality() > dominators[best].cardinality()) {
+          best = dominator;
+        }
+      }
+      immediateDominators[node] = best == virtualRoot ? DominatorTree.NO_DOMINATOR : best;
+    }
+    return immediateDominators;
+  }
+}
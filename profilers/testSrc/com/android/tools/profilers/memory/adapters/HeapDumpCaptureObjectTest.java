@@ -26,6 +26,7 @@ import org.junit.Rule;
 import org.junit.Test;
 
 import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
@@ -57,7 +58,7 @@ public class HeapDumpCaptureObjectTest {
       MemoryProfiler.HeapDumpInfo.newBuilder().setStartTime(startTimeNs).setEndTime(endTimeNs).build();
     HeapDumpCaptureObject capture =
       new HeapDumpCaptureObject(myGrpcChannel.getClient().getMemoryClient(), ProfilersTestData.SESSION_DATA,
-                                dumpInfo, null, myIdeProfilerServices.getFeatureTracker());
+                                dumpInfo, null, myIdeProfilerServices.getFeatureTracker(), null);
 
     // Verify values associated with the HeapDumpInfo object.
     assertEquals(startTimeNs, capture.getStartTimeNs());
@@ -115,6 +116,13 @@ public class HeapDumpCaptureObjectTest {
     InstanceObject instance1 = findChildClassSetWithName(classClassifier, "Class1").getInstancesStream().findFirst().orElse(null);
     verifyInstance(instance0, "Class0@1 (0x1)", 0, 1, 0);
     verifyInstance(instance1, "Class1@2 (0x2)", 1, 0, 1);
+    // Loading without a joiner computes the dominator tree before returning: 1 dominates 2.
+    assertTrue(capture.isDominatorTreeComputed());
+    assertFalse(capture.isDominatorTreeComputing());
+    assertFalse(capture.isDominatorTreeFailed());
+    assertEquals(1, capture.getDominatorTreeProgress(), 0);
+    assertEquals(instance1.getShallowSize(), instance1.getRetainedSize());
+    assertEquals(instance0.getShallowSize() + instance1.getShallowSize(), instance0.getRetainedSize());
 
     FieldObject field0 = instance0.getFields().get(0);
     assertEquals(field0.getAsInstance(), instance1);
@@ -130,7 +138,7 @@ public class HeapDumpCaptureObjectTest {
       MemoryProfiler.HeapDumpInfo.newBuilder().setStartTime(startTimeNs).setEndTime(endTimeNs).build();
     HeapDumpCaptureObject capture =
       new HeapDumpCaptureObject(myGrpcChannel.getClient().getMemoryClient(), ProfilersTestData.SESSION_DATA, dumpInfo, null,
-                                myIdeProfilerServices.getFeatureTracker());
+                                myIdeProfilerServices.getFeatureTracker(), null);
 
     // Verify values associated with the HeapDumpInfo object.
     assertEquals(startTimeNs, capture.getStartTimeNs());
@@ -169,12 +177,60 @@ public class HeapDumpCaptureObjectTest {
     assertNotNull(defaultHeap);
   }
 
+  @Test
+  public void testDepthIsUnknownUntilDominatorTreeIsComputed() throws Exception {
+    MemoryProfiler.HeapDumpInfo dumpInfo = MemoryProfiler.HeapDumpInfo.newBuilder().setStartTime(3).setEndTime(8).build();
+    HeapDumpCaptureObject capture =
+      new HeapDumpCaptureObject(myGrpcChannel.getClient().getMemoryClient(), ProfilersTestData.SESSION_DATA, dumpInfo, null,
+                                myIdeProfilerServices.getFeatureTracker(), null);
+
+    // perflib's distance to the GC roots is not computed for heap dumps, so it is not shown in the meantime.
+    MockClassInstance instance = new MockClassInstance(1, 2, "MockClass");
+    assertFalse(capture.isDominatorTreeComputed());
+    assertEquals(0, capture.getDominatorTreeProgress(), 0);
+    assertEquals(MemoryObject.INVALID_VALUE, capture.getDepth(instance));
+    assertEquals(MemoryObject.INVALID_VALUE, capture.getRetainedSize(instance));
+  }
+
+  @Test
+  public void testUnloadReleasesHeapDump() throws Exception {
+    MemoryProfiler.HeapDumpInfo dumpInfo = MemoryProfiler.HeapDumpInfo.newBuilder().setStartTime(3).setEndTime(8).build();
+    HeapDumpCaptureObject capture =
+      new HeapDumpCaptureObject(myGrpcChannel.getClient().getMemoryClient(), ProfilersTestData.SESSION_DATA, dumpInfo, null,
+                                myIdeProfilerServices.getFeatureTracker(), null);
+
+    SnapshotBuilder snapshotBuilder = new SnapshotBuilder(2, 0, 0)
+      .addReferences(1, 2)
+      .addRoot(1);
+    myService.setExplicitSnapshotBuffer(snapshotBuilder.getByteBuffer());
+    myService.setExplicitDumpDataStatus(MemoryProfiler.DumpDataResponse.Status.SUCCESS);
+    assertTrue(capture.load(null, null));
+
+    // Instances are accounted for per class, their objects are only created when the class is listed.
+    HeapSet testHeap = capture.getHeapSets().stream().filter(heap -> "testHeap".equals(heap.getName())).findFirst().orElse(null);
+    assertNotNull(testHeap);
+    assertEquals(6, testHeap.getDeltaAllocationCount());
+    ClassifierSet class0 = findChildClassSetWithName(testHeap, "Class0");
+    assertEquals(1, class0.getDeltaAllocationCount());
+    assertEquals(1, class0.getInstancesCount());
+    assertEquals(class0.getInstancesStream().findFirst().orElse(null), class0.getInstancesStream().findFirst().orElse(null));
+
+    File heapDumpFile = capture.getHeapDumpFile();
+    assertNotNull(heapDumpFile);
+    assertTrue(heapDumpFile.exists());
+
+    capture.unload();
+    assertNull(capture.getHeapDumpFile());
+    assertFalse(heapDumpFile.exists());
+    assertEquals(0, capture.getHeapSets().size());
+  }
+
   @Test
   public void testLoadingFailure() throws Exception {
     MemoryProfiler.HeapDumpInfo dumpInfo = MemoryProfiler.HeapDumpInfo.newBuilder().setStartTime(3).setEndTime(8).build();
     HeapDumpCaptureObject capture =
       new HeapDumpCaptureObject(myGrpcChannel.getClient().getMemoryClient(), ProfilersTestData.SESSION_DATA, dumpInfo, null,
-                                myIdeProfilerServices.getFeatureTracker());
+                                myIdeProfilerServices.getFeatureTracker(), null);
 
     assertFalse(capture.isDoneLoading());
     assertFalse(capture.isError());
@@ -195,7 +251,7 @@ public class HeapDumpCaptureObjectTest {
       MemoryProfiler.HeapDumpInfo.newBuilder().setStartTime(startTimeNs).setEndTime(endTimeNs).build();
     HeapDumpCaptureObject capture =
       new HeapDumpCaptureObject(myGrpcChannel.getClient().getMemoryClient(), ProfilersTestData.SESSION_DATA,
-                                dumpInfo, null, myIdeProfilerServices.getFeatureTracker());
+                                dumpInfo, null, myIdeProfilerServices.getFeatureTracker(), null);
 
     final CountDownLatch loadLatch = new CountDownLatch(1);
     final CountDownLatch doneLatch = new CountDownLatch(1);
@@ -0,0 +1,94 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.profilers.memory.adapters;
+
+import com.android.tools.perflib.heap.SnapshotBuilder;
+import com.android.tools.profiler.proto.MemoryProfiler;
+import com.android.tools.profilers.FakeGrpcChannel;
+import com.android.tools.profilers.ProfilersTestData;
+import com.android.tools.profilers.memory.FakeMemoryService;
+import org.jetbrains.annotations.NotNull;
+import org.junit.Rule;
+import org.junit.Test;
+
+import static com.android.tools.profilers.memory.MemoryProfilerTestUtils.findChildClassSetWithName;
+import static org.junit.Assert.*;
+
+public class HeapDumpDiffCaptureObjectTest {
+  @NotNull private final FakeMemoryService myService = new FakeMemoryService();
+
+  @Rule
+  public FakeGrpcChannel myGrpcChannel = new FakeGrpcChannel("HeapDumpDiffCaptureObjectTest", myService);
+
+  @Test
+  public void testInstanceCountChangesShowUpAsDeltas() throws Exception {
+    // Each instance of a SnapshotBuilder has its own class, so the second dump has two more classes and two more instances.
+    myService.setSnapshotBuffer(1, new SnapshotBuilder(2, 0, 0).addReferences(1, 2).addRoot(1).getByteBuffer());
+    myService.setSnapshotBuffer(5, new SnapshotBuilder(4, 0, 0).addReferences(1, 2).addReferences(3, 4).addRoot(1).getByteBuffer());
+    myService.setExplicitDumpDataStatus(MemoryProfiler.DumpDataResponse.Status.SUCCESS);
+
+    HeapDumpDiffCaptureObject capture = createCapture(1, 5);
+    assertFalse(capture.isDoneLoading());
+    assertTrue(capture.load(null, null));
+    assertTrue(capture.isDoneLoading());
+    assertFalse(capture.isError());
+    assertEquals(1, capture.getStartTimeNs());
+    assertEquals(6, capture.getEndTimeNs());
+
+    HeapSet testHeap = capture.getHeapSets().stream().filter(heap -> "testHeap".equals(heap.getName())).findFirst().orElse(null);
+    assertNotNull(testHeap);
+    assertEquals(4, testHeap.getDeltaAllocationCount());
+    assertEquals(0, testHeap.getDeltaDeallocationCount());
+    assertEquals(4, testHeap.getTotalObjectCount());
+
+    assertEquals(2, findChildClassSetWithName(testHeap, ClassDb.JAVA_LANG_CLASS).getDeltaAllocationCount());
+    assertEquals(1, findChildClassSetWithName(testHeap, "Class2").getDeltaAllocationCount());
+    ClassSet class3 = findChildClassSetWithName(testHeap, "Class3");
+    assertEquals(1, class3.getDeltaAllocationCount());
+    // Each class only holds its counts, instances cannot be matched across dumps.
+    assertEquals(0, class3.getInstancesCount());
+    assertEquals(0, testHeap.getInstancesStream().count());
+
+    // The other way around, the same instances are deallocations.
+    HeapDumpDiffCaptureObject reversed = createCapture(5, 1);
+    assertTrue(reversed.load(null, null));
+    HeapSet reversedHeap = reversed.getHeapSets().stream().filter(heap -> "testHeap".equals(heap.getName())).findFirst().orElse(null);
+    assertNotNull(reversedHeap);
+    assertEquals(0, reversedHeap.getDeltaAllocationCount());
+    assertEquals(4, reversedHeap.getDeltaDeallocationCount());
+    assertEquals(-4, reversedHeap.getTotalObjectCount());
+    assertEquals(-testHeap.getTotalShallowSize(), reversedHeap.getTotalShallowSize());
+  }
+
+  @Test
+  public void testLoadingFailure() throws Exception {
+    myService.setExplicitDumpDataStatus(MemoryProfiler.DumpDataResponse.Status.FAILURE_UNKNOWN);
+    HeapDumpDiffCaptureObject capture = createCapture(1, 5);
+    assertFalse(capture.load(null, null));
+    assertTrue(capture.isDoneLoading());
+    assertTrue(capture.isError());
+    assertEquals(0, capture.getHeapSets().size());
+  }
+
+  @NotNull
+  private HeapDumpDiffCaptureObject createCapture(long baseStartTimeNs, long targetStartTimeNs) {
+    return new HeapDumpDiffCaptureObject(
+      myGrpcChannel.getClient().getMemoryClient(), ProfilersTestData.SESSION_DATA,
+      MemoryProfiler.HeapDumpInfo.newBuilder().setStartTime(baseStartTimeNs).setEndTime(baseStartTimeNs + 1).build(),
+      MemoryProfiler.HeapDumpInfo.newBuilder().setStartTime(targetStartTimeNs).setEndTime(targetStartTimeNs + 1).build(),
+      null);
+  }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.profilers.memory.adapters;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class HeapDumpHistogramTest {
+  @Test
+  public void testDiffOnlyKeepsClassesWhichChanged() {
+    HeapDumpHistogram base = new HeapDumpHistogram();
+    base.add(1, "app", "Leaked", 16, 0);
+    base.add(1, "app", "Stable", 8, 0);
+    base.add(1, "app", "Freed", 24, 100);
+    base.add(1, "app", "Freed", 40, 300);
+    base.add(2, "image", "Stable", 8, 0);
+
+    HeapDumpHistogram target = new HeapDumpHistogram();
+    target.add(1, "app", "Leaked", 16, 0);
+    target.add(1, "app", "Leaked", 32, 0);
+    target.add(1, "app", "Leaked", 48, 0);
+    target.add(1, "app", "Stable", 8, 0);
+    target.add(2, "image", "Stable", 8, 0);
+    target.add(3, "zygote", "New", 12, 0);
+
+    assertEquals(3, target.getInstanceCount(1, "Leaked"));
+    assertEquals(0, target.getInstanceCount(1, "Freed"));
+
+    List<HeapDumpHistogram.ClassDelta> deltas = HeapDumpHistogram.diff(base, target);
+    assertEquals(3, deltas.size());
+
+    HeapDumpHistogram.ClassDelta freed = deltas.get(0);
+    assertEquals(1, freed.getHeapId());
+    assertEquals("Freed", freed.getClassName());
+    assertEquals(-2, freed.getCountDelta());
+    assertEquals(-64, freed.getShallowSizeDelta());
+    assertEquals(-400, freed.getNativeSizeDelta());
+
+    HeapDumpHistogram.ClassDelta leaked = deltas.get(1);
+    assertEquals("Leaked", leaked.getClassName());
+    assertEquals(2, leaked.getCountDelta());
+    assertEquals(80, leaked.getShallowSizeDelta());
+
+    HeapDumpHistogram.ClassDelta added = deltas.get(2);
+    assertEquals(3, added.getHeapId());
+    assertEquals("zygote", added.getHeapName());
+    assertEquals("New", added.getClassName());
+    assertEquals(1, added.getCountDelta());
+  }
+
+  @Test
+  public void testDiffKeepsClassesWhoseSizeOnlyChanged() {
+    HeapDumpHistogram base = new HeapDumpHistogram();
+    base.add(1, "app", "byte[]", 64, 0);
+    base.add(1, "app", "Bitmap", 32, 1000);
+
+    HeapDumpHistogram target = new HeapDumpHistogram();
+    target.add(1, "app", "byte[]", 4096, 0);
+    target.add(1, "app", "Bitmap", 32, 500);
+
+    List<HeapDumpHistogram.ClassDelta> deltas = HeapDumpHistogram.diff(base, target);
+    assertEquals(2, deltas.size());
+
+    HeapDumpHistogram.ClassDelta bitmap = deltas.get(0);
+    assertEquals("Bitmap", bitmap.getClassName());
+    assertEquals(0, bitmap.getCountDelta());
+    assertEquals(0, bitmap.getShallowSizeDelta());
+    assertEquals(-500, bitmap.getNativeSizeDelta());
+
+    HeapDumpHistogram.ClassDelta array = deltas.get(1);
+    assertEquals("byte[]", array.getClassName());
+    assertEquals(0, array.getCountDelta());
+    assertEquals(4032, array.getShallowSizeDelta());
+  }
+}
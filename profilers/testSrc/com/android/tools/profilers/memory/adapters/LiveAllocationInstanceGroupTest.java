@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.profilers.memory.adapters;
+
+import com.android.tools.profilers.FakeGrpcChannel;
+import com.android.tools.profilers.FakeIdeProfilerServices;
+import com.android.tools.profilers.ProfilersTestData;
+import com.android.tools.profilers.StudioProfilers;
+import com.android.tools.profilers.memory.FakeMemoryService;
+import com.android.tools.profilers.memory.MemoryProfilerConfiguration;
+import com.android.tools.profilers.memory.MemoryProfilerStage;
+import com.android.tools.profilers.stacktrace.ThreadId;
+import com.google.common.util.concurrent.MoreExecutors;
+import gnu.trove.TIntArrayList;
+import org.jetbrains.annotations.NotNull;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static com.android.tools.profilers.memory.MemoryProfilerTestUtils.findChildClassSetWithName;
+import static com.google.common.truth.Truth.assertThat;
+
+public class LiveAllocationInstanceGroupTest {
+  @NotNull private final FakeMemoryService myService = new FakeMemoryService();
+  @Rule public FakeGrpcChannel myGrpcChannel = new FakeGrpcChannel("LiveAllocationInstanceGroupTest", myService);
+
+  private LiveAllocationCaptureObject myCapture;
+  private HeapSet myHeapSet;
+  private LiveAllocationInstanceGroup myGroup;
+
+  @Before
+  public void before() {
+    MemoryProfilerStage stage = new MemoryProfilerStage(new StudioProfilers(myGrpcChannel.getClient(), new FakeIdeProfilerServices()));
+    myCapture = new LiveAllocationCaptureObject(myGrpcChannel.getClient().getMemoryClient(), ProfilersTestData.SESSION_DATA, 0,
+                                                MoreExecutors.newDirectExecutorService(), stage);
+    myHeapSet = myCapture.getHeapSet(LiveAllocationCaptureObject.DEFAULT_HEAP_ID);
+    myGroup = new LiveAllocationInstanceGroup(myCapture, new ClassDb.ClassEntry("Foo"), null, new ThreadId("thread"), null,
+                                              LiveAllocationCaptureObject.DEFAULT_HEAP_ID);
+    for (int tag = 1; tag <= 4; tag++) {
+      myGroup.recordInstance(tag, 8);
+    }
+  }
+
+  @Test
+  public void testInstanceObjectsAreOnlyCreatedWhenListed() {
+    myGroup.setAllocationTime(3, 30);
+    myGroup.setAllocationTime(4, 40);
+    myHeapSet.addSnapshotInstances(myGroup, TIntArrayList.wrap(new int[]{1, 2}));
+    myHeapSet.addDeltaInstances(myGroup, TIntArrayList.wrap(new int[]{3, 4}), true);
+
+    ClassSet classSet = findChildClassSetWithName(myHeapSet, "Foo");
+    assertThat(classSet.getDeltaAllocationCount()).isEqualTo(2);
+    assertThat(classSet.getTotalObjectCount()).isEqualTo(4);
+    assertThat(classSet.getTotalShallowSize()).isEqualTo(4 * 8);
+    assertThat(classSet.getInstancesCount()).isEqualTo(4);
+    assertThat(myGroup.getCreatedInstanceObjectCount()).isEqualTo(0);
+
+    List<InstanceObject> instances = classSet.getInstancesStream().collect(Collectors.toList());
+    assertThat(instances).hasSize(4);
+    assertThat(myGroup.getCreatedInstanceObjectCount()).isEqualTo(4);
+    assertThat(classSet.getInstancesStream().collect(Collectors.toList())).containsExactlyElementsIn(instances);
+    assertThat(instances.stream().filter(InstanceObject::hasAllocTime).map(InstanceObject::getAllocTime).collect(Collectors.toList()))
+      .containsExactly(30L, 40L);
+
+    // Later changes to the records are reflected by the objects which were already created.
+    myGroup.setDeallocTime(1, 50);
+    assertThat(myGroup.getOrCreateInstanceObject(1).getDeallocTime()).isEqualTo(50);
+  }
+
+  @Test
+  public void testRemovingInstancesMatchesInstancePath() {
+    myGroup.setAllocationTime(3, 30);
+    myHeapSet.addSnapshotInstances(myGroup, TIntArrayList.wrap(new int[]{1, 2}));
+    myHeapSet.addDeltaInstances(myGroup, TIntArrayList.wrap(new int[]{3}), true);
+    myGroup.setDeallocTime(1, 10);
+    myHeapSet.addDeltaInstances(myGroup, TIntArrayList.wrap(new int[]{1}), false);
+
+    ClassSet classSet = findChildClassSetWithName(myHeapSet, "Foo");
+    assertThat(classSet.getDeltaAllocationCount()).isEqualTo(1);
+    assertThat(classSet.getDeltaDeallocationCount()).isEqualTo(1);
+    assertThat(classSet.getTotalObjectCount()).isEqualTo(2);
+    assertThat(classSet.getInstancesCount()).isEqualTo(3);
+
+    // An instance only leaves the delta once it has no time data left.
+    myHeapSet.removeDeltaInstances(myGroup, TIntArrayList.wrap(new int[]{3}), true);
+    assertThat(classSet.getDeltaAllocationCount()).isEqualTo(0);
+    assertThat(classSet.getInstancesCount()).isEqualTo(3);
+    myGroup.setAllocationTime(3, Long.MIN_VALUE);
+    myGroup.setDeallocTime(1, Long.MAX_VALUE);
+    myHeapSet.addDeltaInstances(myGroup, TIntArrayList.wrap(new int[]{3}), true);
+    myHeapSet.removeDeltaInstances(myGroup, TIntArrayList.wrap(new int[]{3}), true);
+    myHeapSet.removeDeltaInstances(myGroup, TIntArrayList.wrap(new int[]{1}), false);
+    assertThat(classSet.getInstancesCount()).isEqualTo(2);
+
+    myHeapSet.removeSnapshotInstances(myGroup, TIntArrayList.wrap(new int[]{1, 2}));
+    assertThat(myHeapSet.getTotalObjectCount()).isEqualTo(0);
+    assertThat(myHeapSet.getTotalShallowSize()).isEqualTo(0);
+    assertThat(myHeapSet.getInstancesCount()).isEqualTo(0);
+    assertThat(myGroup.isEmpty()).isTrue();
+  }
+
+  @Test
+  public void testRegroupingKeepsGroupTotals() {
+    myGroup.setAllocationTime(3, 30);
+    myHeapSet.addSnapshotInstances(myGroup, TIntArrayList.wrap(new int[]{1, 2}));
+    myHeapSet.addDeltaInstances(myGroup, TIntArrayList.wrap(new int[]{3}), true);
+    assertThat(myHeapSet.getChildrenClassifierSets()).hasSize(1);
+
+    myHeapSet.setClassGrouping(MemoryProfilerConfiguration.ClassGrouping.ARRANGE_BY_PACKAGE);
+    ClassifierSet packageChild = myHeapSet.getChildrenClassifierSets().get(0);
+    assertThat(packageChild.getTotalObjectCount()).isEqualTo(3);
+    assertThat(packageChild.getDeltaAllocationCount()).isEqualTo(1);
+    assertThat(myGroup.getCreatedInstanceObjectCount()).isEqualTo(0);
+    assertThat(packageChild.getInstancesCount()).isEqualTo(3);
+  }
+}